@@ -1,5 +1,6 @@
 package eu.aston;
 
+import eu.aston.utils.ID;
 import io.micronaut.context.annotation.ConfigurationProperties;
 
 @ConfigurationProperties("app")
@@ -7,6 +8,9 @@ public class AppConfig {
     private String appHost;
     private String taskApiKeySecret;
     private String workerApiKey;
+    private boolean streamParams = true;
+    private String nodeId;
+    private int caseCacheSize = 2000;
 
     public String getAppHost() {
         return appHost;
@@ -31,4 +35,32 @@ public class AppConfig {
     public void setWorkerApiKey(String workerApiKey) {
         this.workerApiKey = workerApiKey;
     }
+
+    public boolean isStreamParams() {
+        return streamParams;
+    }
+
+    public void setStreamParams(boolean streamParams) {
+        this.streamParams = streamParams;
+    }
+
+    /**
+     * name of this replica, random id if not configured
+     */
+    public synchronized String getNodeId() {
+        if(nodeId==null || nodeId.isBlank()) nodeId = ID.newId();
+        return nodeId;
+    }
+
+    public synchronized void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public int getCaseCacheSize() {
+        return caseCacheSize;
+    }
+
+    public void setCaseCacheSize(int caseCacheSize) {
+        this.caseCacheSize = caseCacheSize;
+    }
 }
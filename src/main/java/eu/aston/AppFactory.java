@@ -11,9 +11,13 @@ import eu.aston.blob.AzureBlobAuthBuilder;
 import eu.aston.blob.BlobStore;
 import eu.aston.flow.FlowDefStore;
 import eu.aston.flow.nodejs.NodeJsFlowExecutor;
+import eu.aston.header.MeteredHttpClient;
 import eu.aston.utils.SuperTimer;
 import io.micronaut.context.annotation.Factory;
+import io.micronaut.context.annotation.Primary;
 import io.micronaut.context.annotation.Value;
+import io.micronaut.context.env.Environment;
+import jakarta.inject.Named;
 import jakarta.inject.Singleton;
 
 @Factory
@@ -25,16 +29,55 @@ public class AppFactory {
         return new SuperTimer(executor);
     }
 
+    @Primary
     @Singleton
-    public HttpClient httpClient(){
-        return HttpClient.newBuilder()
-                         .version(HttpClient.Version.HTTP_1_1)
-                         .connectTimeout(Duration.ofSeconds(6))
-                         .build();
+    @Named("workers")
+    public MeteredHttpClient workersHttpClient(Environment env){
+        return httpClient(env, "workers", "HTTP_1_1", 6000, 0, 0);
     }
 
     @Singleton
-    public BlobStore blobStore(HttpClient httpClient,
+    @Named("callbacks")
+    public MeteredHttpClient callbacksHttpClient(Environment env){
+        return httpClient(env, "callbacks", "HTTP_1_1", 6000, 32, 30_000);
+    }
+
+    @Singleton
+    @Named("blob")
+    public MeteredHttpClient blobHttpClient(Environment env){
+        return httpClient(env, "blob", "HTTP_1_1", 6000, 16, 60_000);
+    }
+
+    @Singleton
+    @Named("tracing")
+    public MeteredHttpClient tracingHttpClient(Environment env){
+        return httpClient(env, "tracing", "HTTP_1_1", 2000, 2, 10_000);
+    }
+
+    /**
+     * app.http.{name}.version (HTTP_1_1, HTTP_2 - h2 over tls, h2c upgrade over http), connectTimeout,
+     * requestTimeout (ms, 0 none), threads (0 virtual threads), maxConnections (0 unlimited)
+     */
+    private MeteredHttpClient httpClient(Environment env, String name, String version, long connectTimeout, int maxConnections, long requestTimeout){
+        String prefix = "app.http."+name+".";
+        HttpClient.Version v = HttpClient.Version.valueOf(env.getProperty(prefix+"version", String.class).orElse(version));
+        long connect = env.getProperty(prefix+"connectTimeout", Long.class).orElse(connectTimeout);
+        long request = env.getProperty(prefix+"requestTimeout", Long.class).orElse(requestTimeout);
+        int threads = env.getProperty(prefix+"threads", Integer.class).orElse(0);
+        int max = env.getProperty(prefix+"maxConnections", Integer.class).orElse(maxConnections);
+        Executor executor = threads>0
+                ? Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("http-"+name+"-", 0).daemon().factory())
+                : Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("http-"+name+"-", 0).factory());
+        HttpClient httpClient = HttpClient.newBuilder()
+                                          .version(v)
+                                          .connectTimeout(Duration.ofMillis(connect))
+                                          .executor(executor)
+                                          .build();
+        return new MeteredHttpClient(name, httpClient, max, request>0 ? Duration.ofMillis(request) : null);
+    }
+
+    @Singleton
+    public BlobStore blobStore(@Named("blob") HttpClient httpClient,
                                ObjectMapper objectMapper,
                                @Value("${blob.url}") String blobUrl,
                                @Value("${blob.auth}") String blobAuth){
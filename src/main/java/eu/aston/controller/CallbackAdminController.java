@@ -0,0 +1,47 @@
+package eu.aston.controller;
+
+import java.util.List;
+
+import eu.aston.flow.model.IdValue;
+import eu.aston.flow.store.FlowCallbackEntity;
+import eu.aston.header.CallbackDelivery;
+import eu.aston.user.UserException;
+import io.micronaut.core.annotation.Nullable;
+import io.micronaut.http.annotation.Controller;
+import io.micronaut.http.annotation.Get;
+import io.micronaut.http.annotation.PathVariable;
+import io.micronaut.http.annotation.Post;
+import io.micronaut.http.annotation.QueryValue;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+
+@Controller("/flow/web")
+@SecurityRequirement(name = "BasicAuth")
+@SecurityRequirement(name = "BearerAuth")
+@ApiResponse(responseCode = "200", description = "ok")
+@ApiResponse(responseCode = "401", description = "authorization required")
+@ApiResponse(responseCode = "403", description = "forbidden")
+public class CallbackAdminController {
+
+    private final CallbackDelivery callbackDelivery;
+
+    public CallbackAdminController(CallbackDelivery callbackDelivery) {
+        this.callbackDelivery = callbackDelivery;
+    }
+
+    @Operation(tags = {"internal"})
+    @Get("/callbacks/dead")
+    public List<FlowCallbackEntity> dead(@Nullable @QueryValue Integer limit) {
+        return callbackDelivery.deadList(limit!=null ? Math.min(limit, 1000) : 100);
+    }
+
+    @Operation(tags = {"internal"})
+    @Post("/callbacks/{id}/retry")
+    public IdValue retry(@PathVariable String id) {
+        if(!callbackDelivery.retryDead(id)){
+            throw new UserException("dead callback not found, callback="+id);
+        }
+        return new IdValue(id);
+    }
+}
@@ -3,9 +3,21 @@ package eu.aston.controller;
 import java.util.List;
 import java.util.Map;
 
+import eu.aston.flow.FlowCaseCache;
+import eu.aston.flow.FlowCaseLeases;
+import eu.aston.flow.FlowCaseManager;
 import eu.aston.flow.FlowCounter;
+import eu.aston.flow.StepInFlight;
+import eu.aston.flow.store.FlowTaskBatchStore;
+import eu.aston.header.CallbackDelivery;
+import eu.aston.header.CallbackRunner;
+import eu.aston.header.MeteredHttpClient;
+import eu.aston.queue.QueueLanes;
 import eu.aston.queue.QueueStat;
 import eu.aston.queue.QueueStore;
+import eu.aston.queue.WorkerGroup;
+import eu.aston.utils.FlowThreadPool;
+import eu.aston.utils.SuperTimer;
 import io.micronaut.http.MediaType;
 import io.micronaut.http.annotation.Controller;
 import io.micronaut.http.annotation.Get;
@@ -15,10 +27,31 @@ public class MetricsController {
 
     private final QueueStore queueStore;
     private final FlowCounter flowCounter;
+    private final FlowCaseCache caseCache;
+    private final FlowTaskBatchStore taskBatchStore;
+    private final FlowThreadPool flowThreadPool;
+    private final FlowCaseLeases caseLeases;
+    private final StepInFlight stepInFlight;
+    private final SuperTimer superTimer;
+    private final CallbackRunner callbackRunner;
+    private final CallbackDelivery callbackDelivery;
+    private final List<MeteredHttpClient> httpClients;
 
-    public MetricsController(QueueStore queueStore, FlowCounter flowCounter) {
+    public MetricsController(QueueStore queueStore, FlowCounter flowCounter, FlowCaseCache caseCache,
+                             FlowTaskBatchStore taskBatchStore, FlowCaseManager flowCaseManager, SuperTimer superTimer,
+                             CallbackRunner callbackRunner, CallbackDelivery callbackDelivery,
+                             List<MeteredHttpClient> httpClients) {
         this.queueStore = queueStore;
         this.flowCounter = flowCounter;
+        this.caseCache = caseCache;
+        this.taskBatchStore = taskBatchStore;
+        this.flowThreadPool = flowCaseManager.getFlowThreadPool();
+        this.caseLeases = flowCaseManager.getCaseLeases();
+        this.stepInFlight = flowCaseManager.getStepInFlight();
+        this.superTimer = superTimer;
+        this.callbackRunner = callbackRunner;
+        this.callbackDelivery = callbackDelivery;
+        this.httpClients = httpClients;
     }
 
     @Get(value = "/metrics", processes = MediaType.TEXT_PLAIN)
@@ -30,6 +63,14 @@ public class MetricsController {
         metricsWorker(flowCounter.getFlowTotal(), "api_flow_total_sum", sb);
         metricsWorker(flowCounter.getFlowOk(), "api_flow_ok_sum", sb);
         metricsWorker(flowCounter.getFlowError(), "api_flow_error_sum", sb);
+        metricsCaseCache(host, sb);
+        metricsTaskBatch(host, sb);
+        metricsTicks(host, sb);
+        metricsSteps(host, sb);
+        metricsTimer(host, sb);
+        metricsHttp(host, sb);
+        metricsHttpClients(host, sb);
+        metricsCallbacks(host, sb);
         return sb.toString();
     }
 
@@ -39,9 +80,81 @@ public class MetricsController {
             String labels = labels("prefix", stat.prefix(), "host", host);
             sb.append("api_queue_event_count").append(labels).append(' ').append(stat.eventsCount()).append("\n");
             sb.append("api_queue_waiting_events").append(labels).append(' ').append(stat.waitingEvents()).append("\n");
+            sb.append("api_queue_waiting_bytes").append(labels).append(' ').append(stat.waitingBytes()).append("\n");
             sb.append("api_queue_worker120").append(labels).append(' ').append(stat.worker120()).append('\n');
+            sb.append("api_queue_waiting_workers").append(labels).append(' ').append(stat.waitingWorkers()).append('\n');
+            sb.append("api_queue_in_flight").append(labels).append(' ').append(stat.inFlight()).append('\n');
+            sb.append("api_queue_rejected").append(labels).append(' ').append(stat.rejected()).append('\n');
+            sb.append("api_queue_redelivered").append(labels).append(' ').append(stat.redelivered()).append('\n');
+            sb.append("api_queue_lease_failed").append(labels).append(' ').append(stat.leaseFailed()).append('\n');
+            WorkerGroup wg = queueStore.workerGroup(stat.prefix());
+            if(wg!=null){
+                wg.dispatchLatency.appendMetrics(sb, "api_queue_dispatch_seconds", labels.substring(1, labels.length()-1));
+                for(int i=0; i<QueueLanes.NAMES.length; i++){
+                    String laneLabels = labels("prefix", stat.prefix(), "host", host, "lane", QueueLanes.NAMES[i]);
+                    sb.append("api_queue_lane_depth").append(laneLabels).append(' ').append(wg.events.depth(i)).append('\n');
+                    wg.events.waitTime(i).appendMetrics(sb, "api_queue_lane_wait_seconds", laneLabels.substring(1, laneLabels.length()-1));
+                }
+            }
             sb.append('\n');
         }
+        String labels = labels("host", host);
+        sb.append("api_queue_events").append(labels).append(' ').append(queueStore.eventsCount()).append('\n');
+        sb.append("api_queue_unrouted_events").append(labels).append(' ').append(queueStore.unroutedCount()).append('\n');
+        sb.append("api_queue_events_bytes").append(labels).append(' ').append(queueStore.eventsMemory()).append('\n');
+        if(queueStore.getQueueLog()!=null){
+            sb.append("api_queue_log_segments").append(labels).append(' ').append(queueStore.getQueueLog().segmentCount()).append('\n');
+            sb.append("api_queue_log_events").append(labels).append(' ').append(queueStore.getQueueLog().liveCount()).append('\n');
+        }
+    }
+
+    private void metricsCaseCache(String host, StringBuilder sb) {
+        String labels = labels("host", host);
+        sb.append("api_flow_case_cache_hit").append(labels).append(' ').append(caseCache.getHit()).append('\n');
+        sb.append("api_flow_case_cache_miss").append(labels).append(' ').append(caseCache.getMiss()).append('\n');
+        sb.append("api_flow_case_cache_size").append(labels).append(' ').append(caseCache.size()).append('\n');
+        if(caseLeases.isEnabled()){
+            sb.append("api_flow_owned_cases").append(labels).append(' ').append(caseLeases.getOwnedCount()).append('\n');
+            sb.append("api_flow_adopted_cases").append(labels).append(' ').append(caseLeases.getAdopted()).append('\n');
+        }
+    }
+
+    private void metricsTaskBatch(String host, StringBuilder sb) {
+        String labels = labels("host", host);
+        sb.append("api_flow_task_batch_rows").append(labels).append(' ').append(taskBatchStore.getRowsCounter()).append('\n');
+        sb.append("api_flow_task_batch_count").append(labels).append(' ').append(taskBatchStore.getBatchCounter()).append('\n');
+        sb.append("api_flow_task_batch_errors").append(labels).append(' ').append(taskBatchStore.getErrorCounter()).append('\n');
+    }
+
+    private void metricsTicks(String host, StringBuilder sb) {
+        String labels = labels("host", host);
+        sb.append("api_flow_tick_queued").append(labels).append(' ').append(flowThreadPool.getQueued()).append('\n');
+        sb.append("api_flow_tick_in_flight").append(labels).append(' ').append(flowThreadPool.getInFlight()).append('\n');
+        flowThreadPool.getTickLatency().appendMetrics(sb, "api_flow_tick_seconds", labels.substring(1, labels.length()-1));
+    }
+
+    private void metricsSteps(String host, StringBuilder sb) {
+        for(Map.Entry<String, StepInFlight.Items> e : stepInFlight.snapshot().entrySet()){
+            int pos = e.getKey().indexOf('/');
+            String labels = labels("flow_type", e.getKey().substring(0, pos), "step", e.getKey().substring(pos+1), "host", host);
+            sb.append("api_flow_step_in_flight").append(labels).append(' ').append(e.getValue().inFlight()).append('\n');
+            sb.append("api_flow_step_waiting_items").append(labels).append(' ').append(e.getValue().waiting()).append('\n');
+        }
+    }
+
+    private void metricsTimer(String host, StringBuilder sb) {
+        String labels = labels("host", host);
+        sb.append("api_timer_pending").append(labels).append(' ').append(superTimer.pending()).append('\n');
+        superTimer.getFireLag().appendMetrics(sb, "api_timer_fire_lag_seconds", labels.substring(1, labels.length()-1));
+    }
+
+    private void metricsHttp(String host, StringBuilder sb) {
+        for(Map.Entry<String, CallbackRunner.Host> e : callbackRunner.getHosts().entrySet()){
+            String labels = labels("target", e.getKey(), "host", host);
+            sb.append("api_http_in_flight").append(labels).append(' ').append(e.getValue().getInFlight()).append('\n');
+            sb.append("api_http_queued").append(labels).append(' ').append(e.getValue().getQueued()).append('\n');
+            e.getValue().getLatency().appendMetrics(sb, "api_http_seconds", labels.substring(1, labels.length()-1));
+        }
     }
 
     private void metricsWorker(Map<String, Integer> workerMap, String type, StringBuilder sb) {
@@ -51,6 +164,24 @@ public class MetricsController {
         }
     }
 
+    private void metricsHttpClients(String host, StringBuilder sb) {
+        for(MeteredHttpClient client : httpClients){
+            String labels = labels("client", client.getName(), "host", host);
+            sb.append("api_http_client_in_flight").append(labels).append(' ').append(client.getInFlight()).append('\n');
+            sb.append("api_http_client_queued").append(labels).append(' ').append(client.getQueued()).append('\n');
+            sb.append("api_http_client_errors").append(labels).append(' ').append(client.getErrors()).append('\n');
+            client.getLatency().appendMetrics(sb, "api_http_client_seconds", labels.substring(1, labels.length()-1));
+        }
+    }
+
+    private void metricsCallbacks(String host, StringBuilder sb) {
+        String labels = labels("host", host);
+        sb.append("api_callback_delivered").append(labels).append(' ').append(callbackDelivery.getDeliveredCounter()).append('\n');
+        sb.append("api_callback_retry").append(labels).append(' ').append(callbackDelivery.getRetryCounter()).append('\n');
+        sb.append("api_callback_dead").append(labels).append(' ').append(callbackDelivery.getDeadCounter()).append('\n');
+        sb.append("api_callback_store_errors").append(labels).append(' ').append(callbackDelivery.getStoreErrorCounter()).append('\n');
+    }
+
     private String labels(String... labels) {
         StringBuilder sb = new StringBuilder();
         sb.append('{');
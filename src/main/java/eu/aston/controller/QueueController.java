@@ -1,5 +1,7 @@
 package eu.aston.controller;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
@@ -9,22 +11,28 @@ import eu.aston.AppConfig;
 import eu.aston.header.HeaderConverter;
 import eu.aston.queue.EventResponse;
 import eu.aston.queue.QueueEvent;
+import eu.aston.queue.QueueLanes;
+import eu.aston.queue.QueueResponseItem;
 import eu.aston.queue.QueueStat;
 import eu.aston.queue.QueueStore;
 import eu.aston.queue.Worker;
 import eu.aston.utils.ID;
+import eu.aston.utils.TimingWheel;
 import io.micronaut.core.annotation.Nullable;
 import io.micronaut.http.HttpHeaders;
 import io.micronaut.http.HttpRequest;
 import io.micronaut.http.HttpResponse;
 import io.micronaut.http.HttpStatus;
 import io.micronaut.http.MediaType;
+import io.micronaut.http.annotation.Body;
 import io.micronaut.http.annotation.Controller;
 import io.micronaut.http.annotation.Get;
 import io.micronaut.http.annotation.PathVariable;
 import io.micronaut.http.annotation.Post;
 import io.micronaut.http.annotation.QueryValue;
 import io.micronaut.http.exceptions.HttpStatusException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,6 +40,7 @@ import org.slf4j.LoggerFactory;
 public class QueueController {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(QueueController.class);
+    private static final int MAX_BATCH = 500;
 
     private final QueueStore queueStore;
     private final String workerApiKey;
@@ -42,21 +51,34 @@ public class QueueController {
     }
 
     @Post(value = "/queue/{path:.*}", processes = MediaType.ALL)
-    public CompletableFuture<HttpResponse<Object>> send(HttpRequest<byte[]> request, @PathVariable("path") String path, @Nullable @QueryValue("timeout") Integer timeout){
+    public CompletableFuture<HttpResponse<Object>> send(HttpRequest<ByteBuf> request, @PathVariable("path") String path, @Nullable @QueryValue("timeout") Integer timeout){
         LOGGER.info("queue send /{}", path);
+        int retryAfter = queueStore.admit("/"+path);
+        if(retryAfter>0){
+            return CompletableFuture.completedFuture(HttpResponse.status(HttpStatus.TOO_MANY_REQUESTS)
+                                                                 .header(HttpHeaders.RETRY_AFTER, Integer.toString(retryAfter)));
+        }
         CompletableFuture<HttpResponse<Object>> future = new CompletableFuture<>();
         QueueEvent event = new QueueEvent();
         event.setId(ID.newId());
         event.setMethod(request.getMethodName());
         event.setPath("/"+path);
         event.setHeaders(HeaderConverter.eventRequest(request.getHeaders(), event.getId(), event.getMethod(), event.getPath()));
-        event.setBody(request.getBody().orElse(null));
+        //buffer requestu sa nekopiruje, event drzi vlastnu referenciu az do odpovede alebo expiracie
+        event.setContent(request.getBody().map(ByteBuf::retain).orElse(null));
         event.setCallback(HeaderConverter.createCallback(request.getHeaders()));
+        String priority = request.getHeaders().get(HeaderConverter.H_PRIORITY);
+        if(priority!=null){
+            event.setPriority(QueueEvent.parsePriority(priority));
+            event.getHeaders().put(HeaderConverter.H_PRIORITY, QueueLanes.NAMES[event.getPriority()]);
+        }
+        //caka len klient bez callbacku, po restarte nema komu odpovedat
+        event.setDurable(event.getCallback()!=null || timeout==null || timeout<=0);
         if(timeout!=null && timeout>0) {
             if(timeout>45) timeout=45;
             HandleWaitingResponse handleWaitingResponse = new HandleWaitingResponse(event, future);
             event.setHandleResponse(handleWaitingResponse::send);
-            queueStore.getSuperTimer().schedule(timeout*1000L, handleWaitingResponse::timeout);
+            handleWaitingResponse.timeoutHandle = queueStore.getSuperTimer().schedule(timeout*1000L, handleWaitingResponse::timeout);
         } else {
             future.complete(HttpResponse.status(201, "accepted").header(HeaderConverter.H_ID, event.getId()));
         }
@@ -65,18 +87,21 @@ public class QueueController {
     }
 
     @Get(value = "/.queue/worker")
-    public CompletableFuture<HttpResponse<?>> workerConsume(HttpRequest<byte[]> request, @QueryValue String path, @QueryValue String workerId) {
+    public CompletableFuture<HttpResponse<?>> workerConsume(HttpRequest<byte[]> request, @QueryValue String path, @QueryValue String workerId,
+                                                            @Nullable @QueryValue("max") Integer max) {
         if(workerApiKey!=null && !Objects.equals(workerApiKey, request.getHeaders().getFirst("X-Api-Key").orElse(null))){
             throw new HttpStatusException(HttpStatus.FORBIDDEN, "require X-Api-Key");
         }
         CompletableFuture<HttpResponse<?>> future = new CompletableFuture<>();
-        Worker worker = new Worker(workerId, path, 30, future);
+        //max => json array s max eventami
+        int max2 = max!=null && max>0 ? Math.min(max, MAX_BATCH) : 0;
+        Worker worker = new Worker(workerId, path, 30, max2, future);
         queueStore.workerQueue(worker);
         return future;
     }
 
     @Post(value = "/.queue/response/{eventId}")
-    public void workerResponse(HttpRequest<byte[]> request, @PathVariable String eventId) {
+    public void workerResponse(HttpRequest<ByteBuf> request, @PathVariable String eventId) {
         String requestApiKey = request.getHeaders().getFirst("X-Api-Key").orElse(null);
         if(workerApiKey!=null && !Objects.equals(workerApiKey, requestApiKey)){
             throw new HttpStatusException(HttpStatus.FORBIDDEN, "require X-Api-Key");
@@ -84,7 +109,26 @@ public class QueueController {
         int status = request.getHeaders().getInt(HeaderConverter.H_STATUS);
         var headers = HeaderConverter.eventResponse(request.getHeaders(), eventId);
         LOGGER.info("queue response {} {}", eventId, status);
-        queueStore.response(eventId, status, headers, request.getBody().orElse(new byte[0]));
+        queueStore.response(eventId, status, headers, request.getBody().orElse(Unpooled.EMPTY_BUFFER));
+    }
+
+    @Post(value = "/.queue/response")
+    public int workerResponses(HttpRequest<?> request, @Body List<QueueResponseItem> items) {
+        String requestApiKey = request.getHeaders().getFirst("X-Api-Key").orElse(null);
+        if(workerApiKey!=null && !Objects.equals(workerApiKey, requestApiKey)){
+            throw new HttpStatusException(HttpStatus.FORBIDDEN, "require X-Api-Key");
+        }
+        LOGGER.info("queue batch response {}", items.size());
+        for(QueueResponseItem item : items){
+            byte[] body;
+            if(item.bodyBase64()!=null){
+                body = Base64.getDecoder().decode(item.bodyBase64());
+            } else {
+                body = item.body()!=null ? item.body().getBytes(StandardCharsets.UTF_8) : new byte[0];
+            }
+            queueStore.response(item.id(), item.status(), HeaderConverter.eventResponse(item.headers(), item.id()), body);
+        }
+        return items.size();
     }
 
     @Get(value = "/.queue/stats")
@@ -95,6 +139,7 @@ public class QueueController {
     public static class HandleWaitingResponse {
         private final QueueEvent event;
         private CompletableFuture<HttpResponse<Object>> future;
+        private TimingWheel.Timeout timeoutHandle;
 
         public HandleWaitingResponse(QueueEvent event, CompletableFuture<HttpResponse<Object>> future) {
             this.event = event;
@@ -109,14 +154,17 @@ public class QueueController {
 
         public void send(EventResponse eventResponse){
             CompletableFuture<HttpResponse<Object>> future2 = removeFuture();
+            if(timeoutHandle!=null) timeoutHandle.cancel();
             if(future2!=null){
+                ByteBuf body = eventResponse.body().retainedDuplicate();
                 try{
                     future2.complete(HttpResponse.status(HttpStatus.valueOf(eventResponse.status()))
                                              .headers(new HashMap<>(eventResponse.headers()))
-                                             .body(eventResponse.body())
+                                             .body(body)
                                     );
                     event.setCallback(null);
                 }catch (Exception ignore){
+                    body.release();
                 }
             }
         }
@@ -0,0 +1,125 @@
+package eu.aston.flow;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import eu.aston.flow.store.FlowCaseEntity;
+import eu.aston.flow.store.FlowTaskEntity;
+import io.micronaut.context.annotation.Value;
+import jakarta.inject.Singleton;
+
+/**
+ * Write-through cache of live cases and their tasks. Database stays the durable
+ * log, cache only saves reload of case and all tasks on every tick.
+ */
+@Singleton
+public class FlowCaseCache {
+
+    private final int maxSize;
+    private final Map<String, Entry> cases;
+    private final Map<String, String> taskIndex = new ConcurrentHashMap<>();
+    private final AtomicLong hit = new AtomicLong();
+    private final AtomicLong miss = new AtomicLong();
+    private volatile Consumer<String> evictListener = caseId->{};
+
+    public FlowCaseCache(@Value("${app.caseCacheSize:2000}") int maxSize) {
+        this.maxSize = maxSize;
+        this.cases = new LinkedHashMap<>(256, 0.75f, true);
+    }
+
+    /**
+     * called with case id after the case is evicted (explicitly or as least recently used)
+     */
+    public void setEvictListener(Consumer<String> evictListener) {
+        this.evictListener = evictListener;
+    }
+
+    public Entry get(String caseId) {
+        Entry entry;
+        synchronized (cases) {
+            entry = cases.get(caseId);
+        }
+        (entry!=null ? hit : miss).incrementAndGet();
+        return entry;
+    }
+
+    public Entry getByTask(String taskId) {
+        String caseId = taskIndex.get(taskId);
+        return caseId!=null ? get(caseId) : null;
+    }
+
+    public Entry put(FlowCaseEntity flowCase, List<FlowTaskEntity> tasks) {
+        Entry entry = new Entry(flowCase, new ArrayList<>(tasks), new ConcurrentHashMap<>(), new ReentrantLock());
+        for(FlowTaskEntity t : tasks){
+            entry.taskMap.put(t.getId(), t);
+            taskIndex.put(t.getId(), flowCase.getId());
+        }
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (cases) {
+            cases.put(flowCase.getId(), entry);
+            for(Iterator<Entry> it = cases.values().iterator(); cases.size()>maxSize && it.hasNext(); ){
+                evicted.add(it.next());
+                it.remove();
+            }
+        }
+        for(Entry e : evicted){
+            removeIndex(e);
+            evictListener.accept(e.flowCase.getId());
+        }
+        return entry;
+    }
+
+    public void indexTask(Entry entry, FlowTaskEntity task) {
+        entry.taskMap.put(task.getId(), task);
+        taskIndex.put(task.getId(), task.getFlowCaseId());
+    }
+
+    public void evict(String caseId) {
+        Entry entry;
+        synchronized (cases) {
+            entry = cases.remove(caseId);
+        }
+        if(entry!=null){
+            removeIndex(entry);
+            evictListener.accept(caseId);
+        }
+    }
+
+    private void removeIndex(Entry entry) {
+        for(String taskId : entry.taskMap.keySet()){
+            taskIndex.remove(taskId, entry.flowCase.getId());
+        }
+    }
+
+    public int size() {
+        synchronized (cases) {
+            return cases.size();
+        }
+    }
+
+    public long getHit() {
+        return hit.get();
+    }
+
+    public long getMiss() {
+        return miss.get();
+    }
+
+    /**
+     * tasks - list of the tick, taskMap - created tasks by id, filled together with the list,
+     * lock - held by the tick (ReentrantLock, tick on virtual thread waits on jdbc inside)
+     */
+    public record Entry(FlowCaseEntity flowCase, List<FlowTaskEntity> tasks, Map<String, FlowTaskEntity> taskMap, ReentrantLock lock) {
+
+        public FlowTaskEntity task(String taskId) {
+            return taskMap.get(taskId);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package eu.aston.flow;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.aston.AppConfig;
+import eu.aston.flow.store.FlowCaseLeaseStore;
+import eu.aston.utils.PgListener;
+import eu.aston.utils.SuperTimer;
+import io.micronaut.context.annotation.Value;
+import jakarta.inject.Singleton;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cases driven by this replica when app.caseLease>0 (seconds). Leases of all owned cases are renewed
+ * by one statement every lease/3, cases of failed replicas are adopted after their lease expires.
+ * A task of case owned by other replica is finished in db and the owner gets notification.
+ * Without lease (default) every case belongs to this replica.
+ */
+@Singleton
+public class FlowCaseLeases {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FlowCaseLeases.class);
+    private static final int ADOPT_BATCH = 100;
+
+    private final FlowCaseLeaseStore leaseStore;
+    private final SuperTimer superTimer;
+    private final String nodeId;
+    private final int leaseSeconds;
+    private final Set<String> owned = ConcurrentHashMap.newKeySet();
+    private final AtomicLong adopted = new AtomicLong();
+    private final PgListener pgListener;
+    private volatile long validUntil;
+    private volatile Handler handler;
+
+    public FlowCaseLeases(FlowCaseLeaseStore leaseStore, SuperTimer superTimer, AppConfig appConfig,
+                          @Value("${app.caseLease:0}") int leaseSeconds) {
+        this.leaseStore = leaseStore;
+        this.superTimer = superTimer;
+        this.nodeId = appConfig.getNodeId();
+        this.leaseSeconds = leaseSeconds;
+        this.pgListener = leaseSeconds>0 ? new PgListener(leaseStore.getDataSource(), FlowCaseLeaseStore.CH_TASK) : null;
+        this.validUntil = System.currentTimeMillis()+leaseSeconds*1000L;
+    }
+
+    public boolean isEnabled() {
+        return leaseSeconds>0;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public boolean owns(String caseId) {
+        if(leaseSeconds<=0) return true;
+        //bez obnovenia lease uz case moze drzat ina replika
+        return owned.contains(caseId) && System.currentTimeMillis()<validUntil;
+    }
+
+    public void acquire(String caseId) {
+        if(leaseSeconds<=0) return;
+        leaseStore.acquire(caseId, nodeId, leaseSeconds);
+        owned.add(caseId);
+    }
+
+    public void release(String caseId) {
+        owned.remove(caseId);
+    }
+
+    /**
+     * task of not owned case
+     * @return false if task was already finished
+     */
+    public boolean finishTask(String caseId, String taskId, int responseCode, Object response, String error) {
+        return leaseStore.finishTask(caseId, taskId, responseCode, response, error);
+    }
+
+    public int getOwnedCount() {
+        return owned.size();
+    }
+
+    public long getAdopted() {
+        return adopted.get();
+    }
+
+    /**
+     * takes cases of this node left from previous run, starts renewal, adoption and task notifications
+     * @return cases to restart
+     */
+    public List<String> start(Handler handler) {
+        this.handler = handler;
+        long t0 = System.currentTimeMillis();
+        List<String> ids = leaseStore.renew(nodeId, leaseSeconds);
+        owned.addAll(ids);
+        validUntil = t0+leaseSeconds*1000L;
+        LOGGER.info("case lease {}s, node {}, own cases {}", leaseSeconds, nodeId, ids.size());
+        superTimer.schedulePeriod(Math.max(leaseSeconds*1000L/3, 1000L), this::renew);
+        pgListener.start("case-listen", this::notifications);
+        return ids;
+    }
+
+    private void renew() {
+        long t0 = System.currentTimeMillis();
+        boolean expired = t0>=validUntil;
+        List<String> before = new ArrayList<>(owned);
+        List<String> ids;
+        try{
+            ids = leaseStore.renew(nodeId, leaseSeconds);
+        }catch (Exception e){
+            LOGGER.warn("renew case lease error {}", e.getMessage());
+            return;
+        }
+        validUntil = t0+leaseSeconds*1000L;
+        Set<String> renewed = new HashSet<>(ids);
+        List<String> lost = new ArrayList<>();
+        for(String id : before){
+            if(!renewed.contains(id) && owned.remove(id)) lost.add(id);
+        }
+        for(String id : lost){
+            LOGGER.info("case {} lost lease", id);
+            handler.lost(id);
+        }
+        if(expired){
+            //ticky pocas vypadku boli zahodene, case sa spusti znova
+            for(String id : ids){
+                owned.add(id);
+                handler.resume(id);
+            }
+        }
+        adopt();
+    }
+
+    private void adopt() {
+        List<String> ids;
+        try{
+            ids = leaseStore.adopt(nodeId, leaseSeconds, ADOPT_BATCH);
+        }catch (Exception e){
+            LOGGER.warn("adopt cases error {}", e.getMessage());
+            return;
+        }
+        for(String id : ids){
+            LOGGER.info("adopt case {}", id);
+            owned.add(id);
+            adopted.incrementAndGet();
+            handler.adopt(id);
+        }
+    }
+
+    private void notifications(PGNotification[] notifications) {
+        for(PGNotification n : notifications){
+            String p = n.getParameter();
+            int pos = p.indexOf(':');
+            if(pos>0 && owned.contains(p.substring(0, pos))){
+                String caseId = p.substring(0, pos);
+                String taskId = p.substring(pos+1);
+                superTimer.execute(()->handler.taskFinished(caseId, taskId));
+            }
+        }
+    }
+
+    public interface Handler {
+        void adopt(String caseId);
+
+        void resume(String caseId);
+
+        void lost(String caseId);
+
+        void taskFinished(String caseId, String taskId);
+    }
+}
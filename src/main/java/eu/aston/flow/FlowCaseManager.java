@@ -7,11 +7,15 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import eu.aston.blob.BlobStore;
 import eu.aston.flow.def.FlowDef;
+import eu.aston.flow.def.FlowGraph;
 import eu.aston.flow.def.FlowStepDef;
 import eu.aston.flow.def.FlowWorkerDef;
 import eu.aston.flow.model.CaseState;
@@ -20,16 +24,20 @@ import eu.aston.flow.model.FlowCase;
 import eu.aston.flow.model.FlowCaseCreate;
 import eu.aston.flow.model.FlowTask;
 import eu.aston.flow.store.FlowCaseEntity;
+import eu.aston.flow.store.FlowTaskBatchStore;
 import eu.aston.flow.store.FlowTaskEntity;
+import eu.aston.flow.store.TaskWriteException;
 import eu.aston.flow.store.IFlowCaseStore;
 import eu.aston.flow.store.IFlowTaskStore;
 import eu.aston.header.Callback;
-import eu.aston.header.CallbackRunner;
+import eu.aston.header.CallbackDelivery;
 import eu.aston.span.ISpanSender;
 import eu.aston.user.UserException;
 import eu.aston.utils.FlowThreadPool;
 import eu.aston.utils.ID;
 import eu.aston.utils.SuperTimer;
+import eu.aston.utils.TimingWheel;
+import io.micronaut.context.annotation.Value;
 import io.micronaut.http.HttpHeaders;
 import io.micronaut.http.MediaType;
 import jakarta.inject.Singleton;
@@ -44,41 +52,63 @@ public class FlowCaseManager {
     private final BlobStore blobStore;
     private final IFlowCaseStore caseStore;
     private final IFlowTaskStore taskStore;
+    private final FlowTaskBatchStore taskBatchStore;
     private final FlowDefStore flowDefStore;
     private final Map<String, IFlowExecutor> flowExecutorMap;
     private final WaitingFlowCaseManager waitingFlowCaseManager;
     private final ISpanSender spanSender;
     private final FlowThreadPool flowThreadPool;
-    private final CallbackRunner callbackRunner;
+    private final CallbackDelivery callbackDelivery;
     private final SuperTimer superTimer;
     private final FlowCounter flowCounter;
+    private final FlowCaseCache caseCache;
+    private final FlowCaseLeases caseLeases;
+    private final Map<String, TimeoutGroup> taskTimeouts = new ConcurrentHashMap<>();
+    private final Set<String> heldCases = ConcurrentHashMap.newKeySet();
+    private final Set<String> finishingTasks = ConcurrentHashMap.newKeySet();
+    private final StepInFlight stepInFlight = new StepInFlight();
+    private static final long HOLD_RETRY_MS = 1000L;
 
     public FlowCaseManager(BlobStore blobStore,
                            IFlowCaseStore caseStore,
                            IFlowTaskStore taskStore,
+                           FlowTaskBatchStore taskBatchStore,
                            FlowDefStore flowDefStore,
                            IFlowExecutor[] executors,
                            WaitingFlowCaseManager waitingFlowCaseManager,
                            ISpanSender spanSender,
-                           CallbackRunner callbackRunner,
-                           SuperTimer superTimer, FlowCounter flowCounter) {
+                           CallbackDelivery callbackDelivery,
+                           SuperTimer superTimer, FlowCounter flowCounter,
+                           FlowCaseCache caseCache,
+                           FlowCaseLeases caseLeases,
+                           @Value("${app.tickThreads:0}") int tickThreads,
+                           @Value("${app.tickConcurrency:15}") int tickConcurrency) {
         this.blobStore = blobStore;
         this.caseStore = caseStore;
         this.taskStore = taskStore;
+        this.taskBatchStore = taskBatchStore;
         this.flowExecutorMap = Arrays.stream(executors).collect(Collectors.toMap(IFlowExecutor::id, Function.identity()));
         this.flowDefStore = flowDefStore;
         this.waitingFlowCaseManager = waitingFlowCaseManager;
         this.spanSender = spanSender;
-        this.callbackRunner = callbackRunner;
+        this.callbackDelivery = callbackDelivery;
         this.superTimer = superTimer;
         this.flowCounter = flowCounter;
-        this.flowThreadPool = new FlowThreadPool(4, this::nextTick);
+        this.caseCache = caseCache;
+        this.caseLeases = caseLeases;
+        this.flowThreadPool = new FlowThreadPool(tickThreads, tickConcurrency, this::nextTick);
+        //stav executorov patri case v cache
+        caseCache.setEvictListener(caseId->flowExecutorMap.values().forEach(e->e.caseClosed(caseId)));
     }
 
     public FlowDefStore getFlowDefStore() {
         return flowDefStore;
     }
 
+    public StepInFlight getStepInFlight() {
+        return stepInFlight;
+    }
+
     public ISpanSender getSpanSender() {
         return spanSender;
     }
@@ -91,6 +121,10 @@ public class FlowCaseManager {
         return taskStore;
     }
 
+    public FlowTaskBatchStore getTaskBatchStore() {
+        return taskBatchStore;
+    }
+
     public BlobStore getBlobStore() {
         return blobStore;
     }
@@ -99,6 +133,10 @@ public class FlowCaseManager {
         return flowThreadPool;
     }
 
+    public FlowCaseLeases getCaseLeases() {
+        return caseLeases;
+    }
+
     public void createFlow(String id, FlowCaseCreate caseCreate) {
         Instant created = Instant.now();
         FlowDef flowDef = flowDefStore.flowDef(caseCreate.caseType())
@@ -131,6 +169,8 @@ public class FlowCaseManager {
         entity.setCreated(created);
         entity.setState(CaseState.CREATED);
         caseStore.insert(entity);
+        caseLeases.acquire(id);
+        caseCache.put(entity, List.of());
         spanSender.createFlow(entity);
         flowThreadPool.addCase(id, id);
         flowCounter.incrementFlowOk(caseCreate.caseType());
@@ -141,11 +181,27 @@ public class FlowCaseManager {
     }
 
     public void finishTask(String taskId, int statusCode, Object response) {
+        FlowCaseCache.Entry entry = caseCache.getByTask(taskId);
+        if(entry!=null){
+            FlowTaskEntity task = entry.task(taskId);
+            if(task!=null){
+                FlowCaseEntity flowCase = entry.flowCase();
+                FlowDef flowDef = flowDefStore.flowDef(flowCase.getCaseType())
+                                              .orElseThrow(()->new UserException("invalid flowCaseType id="+flowCase.getId()+", type="+flowCase.getCaseType()));
+                finishTask0(flowDef, flowCase, task, statusCode, response);
+                return;
+            }
+        }
+        taskBatchStore.flush();
         FlowTaskEntity taskEntity = taskStore.loadById(taskId)
                                              .orElseThrow(()->new UserException("undefined taskId "+taskId));
         if(taskEntity.getFinished()!=null){
             throw new UserException("task is finished "+ taskEntity.getId());
         }
+        if(!caseLeases.owns(taskEntity.getFlowCaseId())){
+            finishRemoteTask(taskEntity, statusCode, response);
+            return;
+        }
         FlowCaseEntity flowCase = caseStore.loadById(taskEntity.getFlowCaseId())
                                            .orElseThrow(()->new UserException("undefined flowId "+taskEntity.getFlowCaseId()));
         FlowDef flowDef = flowDefStore.flowDef(flowCase.getCaseType())
@@ -154,31 +210,122 @@ public class FlowCaseManager {
         finishTask0(flowDef, flowCase, taskEntity, statusCode, response);
     }
 
-    private void finishTask0(FlowDef flowDef, FlowCaseEntity flowCase, FlowTaskEntity task, int statusCode, Object response) {
-        if(task.getFinished()!=null){
+    private void finishRemoteTask(FlowTaskEntity task, int statusCode, Object response) {
+        boolean ok = statusCode >=200 && statusCode <=202;
+        String error = ok ? null : (response !=null ? response.toString() : "");
+        if(!caseLeases.finishTask(task.getFlowCaseId(), task.getId(), statusCode, ok ? response : null, error)){
             throw new UserException("task is finished "+ task.getId());
         }
+        LOGGER.info("finishTask {} - {} - status {}, case owned by other replica", task.getFlowCaseId(), task.getId(), statusCode);
+    }
 
-        LOGGER.info("finishTask {}/{} - {} - status {}", flowCase.getCaseType(), flowCase.getId(), task.getId(), statusCode);
+    /**
+     * task finished in db by other replica, the case is reloaded in next tick
+     */
+    public void remoteTaskFinished(String caseId, String taskId) {
+        cancelTimeout(taskId);
+        caseCache.evict(caseId);
+        flowThreadPool.addCase(caseId, taskId);
+    }
 
-        task.setFinished(Instant.now());
-        task.setResponseCode(statusCode);
+    /**
+     * cached case is dropped (lease taken by other replica), next tick loads it from db
+     */
+    public void evictCase(String caseId) {
+        caseCache.evict(caseId);
+        stepInFlight.remove(caseId);
+    }
 
-        String error = null;
-        if(statusCode >=200 && statusCode <=202){
-            taskStore.finishOk(task.getId(), statusCode, response);
-            task.setResponse(response);
-        } else {
-            error = response !=null ? response.toString() : "";
-            taskStore.finishError(task.getId(), statusCode, error);
-            task.setError(error);
+    private void finishTask0(FlowDef flowDef, FlowCaseEntity flowCase, FlowTaskEntity task, int statusCode, Object response) {
+        //zapis do db mimo monitor tasku, synchronized by pri priamom jdbc blokoval carrier virtual thread
+        if(!finishingTasks.add(task.getId())){
+            throw new UserException("task is finished "+ task.getId());
+        }
+        try{
+            synchronized (task){
+                if(task.getFinished()!=null){
+                    throw new UserException("task is finished "+ task.getId());
+                }
+            }
+
+            LOGGER.info("finishTask {}/{} - {} - status {}", flowCase.getCaseType(), flowCase.getId(), task.getId(), statusCode);
+
+            boolean ok = statusCode >=200 && statusCode <=202;
+            String error = ok ? null : (response !=null ? response.toString() : "");
+            if(ok){
+                taskBatchStore.finishOk(flowCase.getId(), task.getId(), statusCode, response);
+            } else {
+                taskBatchStore.finishError(flowCase.getId(), task.getId(), statusCode, error);
+            }
+            synchronized (task){
+                if(ok){
+                    task.setResponse(response);
+                } else {
+                    task.setError(error);
+                }
+                task.setResponseCode(statusCode);
+                task.setFinished(Instant.now());
+            }
+        }finally {
+            finishingTasks.remove(task.getId());
         }
+        flowExecutorMap.get(flowDef.getExecutor()).taskFinished(flowCase.getId(), task);
+        cancelTimeout(task.getId());
 
-        FlowWorkerDef workerDef = flowDefStore.cacheWorker(flowDef, task.getStep(), task.getWorker());
+        //worker mohol byt odstraneny pri reload flow, case musi pokracovat
+        FlowWorkerDef workerDef = flowDef.getGraph().worker(task.getStep(), task.getWorker());
         spanSender.finishTask(flowCase, task, workerDef);
         flowThreadPool.addCase(task.getFlowCaseId(), task.getId());
     }
 
+    /**
+     * with leases the worker response can come to other replica, which loads the task from db
+     */
+    private void flushBeforeDispatch() {
+        if(caseLeases.isEnabled()) taskBatchStore.flush();
+    }
+
+    private void holdCase(String caseId) {
+        if(heldCases.add(caseId)){
+            LOGGER.debug("hold case {}, queue is full", caseId);
+            superTimer.schedule(HOLD_RETRY_MS, caseId, id->{
+                heldCases.remove(id);
+                flowThreadPool.addCase(id, id);
+            });
+        }
+    }
+
+    /**
+     * one timer for tasks with the same timeout sent in one tick
+     */
+    private void scheduleTimeouts(List<FlowTaskEntity> created) {
+        Map<Integer, List<String>> byTimeout = new HashMap<>();
+        for(FlowTaskEntity task : created){
+            if(task.getTimeout()!=null) byTimeout.computeIfAbsent(task.getTimeout(), k->new ArrayList<>()).add(task.getId());
+        }
+        byTimeout.forEach((timeout, ids)->{
+            TimeoutGroup group = new TimeoutGroup(ids);
+            for(String id : ids) taskTimeouts.put(id, group);
+            group.timeout = superTimer.schedule(timeout*1000L, group, this::groupTimeout);
+        });
+    }
+
+    private void groupTimeout(TimeoutGroup group) {
+        for(String id : group.ids){
+            if(taskTimeouts.remove(id, group)){
+                taskTimeout(id);
+            }
+        }
+    }
+
+    private void cancelTimeout(String taskId) {
+        TimeoutGroup group = taskTimeouts.remove(taskId);
+        if(group!=null && group.pending.decrementAndGet()==0){
+            TimingWheel.Timeout timeout = group.timeout;
+            if(timeout!=null) timeout.cancel();
+        }
+    }
+
     public void taskTimeout(String taskId) {
         try{
             finishTask(taskId, 408, "timeout");
@@ -187,11 +334,45 @@ public class FlowCaseManager {
     }
 
     private void nextTick(String flowCaseId) {
-        FlowCaseEntity flowCase = caseStore.loadById(flowCaseId)
-                                      .orElseThrow(()->new UserException("invalid flowCaseId "+flowCaseId));
+        if(!caseLeases.owns(flowCaseId)){
+            LOGGER.debug("skip tick {}, case is not owned", flowCaseId);
+            return;
+        }
+        if(taskBatchStore.writeFailed(flowCaseId)){
+            LOGGER.warn("tasks of case {} not written, reload from db", flowCaseId);
+            evictCase(flowCaseId);
+        }
+        try{
+            FlowCaseCache.Entry entry = caseCache.get(flowCaseId);
+            if(entry==null){
+                FlowCaseEntity flowCase = caseStore.loadById(flowCaseId)
+                                                   .orElseThrow(()->new UserException("invalid flowCaseId "+flowCaseId));
+                taskBatchStore.flush();
+                //db je po flush aktualna, nacitava sa z nej
+                taskBatchStore.writeFailed(flowCaseId);
+                entry = caseCache.put(flowCase, taskStore.selectTaskByCaseId(flowCase.getId()));
+            }
+            entry.lock().lock();
+            try{
+                nextTick(entry);
+            }finally {
+                //nevytvorene tasky (cakajuce na vstup) sa v dalsom ticku vytvoria znova
+                entry.tasks().removeIf(t->t.getCreated()==null);
+                entry.lock().unlock();
+            }
+        }catch (TaskWriteException e){
+            //stav v pamati nie je v db, case sa znova nacita z db
+            LOGGER.warn("tick {} task write error {}, reload from db", flowCaseId, e.getMessage());
+            evictCase(flowCaseId);
+            holdCase(flowCaseId);
+        }
+    }
+
+    private void nextTick(FlowCaseCache.Entry entry) {
+        FlowCaseEntity flowCase = entry.flowCase();
+        List<FlowTaskEntity> tasks = entry.tasks();
         FlowDef flowDef = flowDefStore.flowDef(flowCase.getCaseType())
                                       .orElseThrow(()->new UserException("invalid flowCaseType id="+flowCase.getId()+", type="+flowCase.getCaseType()));
-        List<FlowTaskEntity> tasks = taskStore.selectTaskByCaseId(flowCase.getId());
 
         LOGGER.info("nextTick {}/{} {}", flowCase.getCaseType(), flowCase.getId(), flowCase.getStep());
 
@@ -203,88 +384,64 @@ public class FlowCaseManager {
                 public void sentTask(FlowTaskEntity task) {
                     if(task.getCreated()==null){
                         task.setCreated(Instant.now());
-                        taskStore.insert(task);
-                        if(task.getTimeout()!=null){
-                            superTimer.schedule(task.getTimeout()*1000L, task.getId(), FlowCaseManager.this::taskTimeout);
+                        taskBatchStore.insert(task);
+                        flushBeforeDispatch();
+                        caseCache.indexTask(entry, task);
+                        scheduleTimeouts(List.of(task));
+                    }
+                }
+
+                @Override
+                public void sentTasks(List<FlowTaskEntity> sent) {
+                    List<FlowTaskEntity> created = new ArrayList<>(sent.size());
+                    Instant now = Instant.now();
+                    for(FlowTaskEntity task : sent){
+                        if(task.getCreated()==null){
+                            task.setCreated(now);
+                            created.add(task);
                         }
                     }
+                    if(created.isEmpty()) return;
+                    taskBatchStore.insertAll(created);
+                    flushBeforeDispatch();
+                    for(FlowTaskEntity task : created){
+                        caseCache.indexTask(entry, task);
+                    }
+                    scheduleTimeouts(created);
                 }
 
                 @Override
                 public void finishTask(FlowTaskEntity task, int statusCode, Object response) {
                     if(task.getCreated()==null){
                         task.setCreated(Instant.now());
-                        taskStore.insert(task);
+                        taskBatchStore.insert(task);
+                        caseCache.indexTask(entry, task);
                     }
                     finishTask0(flowDef, flowCase, task, statusCode, response);
                 }
+
+                @Override
+                public void holdTask(FlowTaskEntity task) {
+                    holdCase(task.getFlowCaseId());
+                }
             });
         }
     }
 
     private String openTasks(FlowDef flowDef, FlowCaseEntity flowCase, List<FlowTaskEntity> tasks) {
-
-        FlowStepDef aktStep = null;
-        if(flowCase.getStep()!=null){
-            aktStep = flowDef.getSteps().stream().filter(s-> Objects.equals(s.getCode(), flowCase.getStep())).findFirst().orElse(null);
-        }
-
-        if(aktStep!=null) {
-            int maxIndex = 1;
-            boolean notStarted = false;
-            boolean notFinished = false;
-            Map<String, String> existMap = new HashMap<>();
-            FlowTaskEntity iterator = null;
-            String step = aktStep.getCode();
-            for(FlowTaskEntity t : tasks){
-                if(Objects.equals(step, t.getStep())){
-                    if(t.getFinished() == null) notFinished=true;
-                    existMap.put(t.getWorker()+":"+t.getStepIndex(), t.getId());
-                    if(t.getWorker().equals(FlowTask.STEP_ITERATOR)){
-                        iterator = t;
-                    }
-                }
-            }
-            if(aktStep.getItemsExpr()!=null && iterator==null){
-                //vytvaram iterator
-                FlowTaskEntity taskEntity = new FlowTaskEntity(ID.newId(), flowCase.getId(), aktStep.getCode(), FlowTask.STEP_ITERATOR, -1);
-                taskEntity.setTimeout(flowDefStore.getDefaultTimeout());
-                tasks.add(taskEntity);
-                return aktStep.getCode();
-            }
-            if(iterator!=null){
-                if(iterator.getFinished()==null){
-                    //stale cakam na iterator
-                    return null;
-                }
-                if(iterator.getResponse() instanceof List<?> items && !items.isEmpty()){
-                    //iterator v poriadku
-                    maxIndex = items.size();
-                } else {
-                    //chyba v iteratore, idem na dalsi krok
-                    maxIndex = -1;
-                    notFinished = false;
-                }
-            }
-            for(int i=0; i<maxIndex; i++){
-                for(FlowWorkerDef worker : aktStep.getWorkers()){
-                    if(!existMap.containsKey(worker.getCode()+":"+i)){
-                        tasks.add(createTask(flowCase.getId(), aktStep, worker, i));
-                        notStarted = true;
-                    }
-                }
-            }
-            if (notStarted) {
-                //mam rozpracovany step, pokracujem v spracovani
-                return aktStep.getCode();
-            }
-            if(notFinished) {
-                //este nie su vsetky hotovo, cakam na dalsi tick
-                return null;
+        FlowGraph graph = flowDef.getGraph();
+        int aktStep = graph.stepOrdinal(flowCase.getStep());
+
+        if(aktStep>=0) {
+            StepState state = openStepTasks(graph, aktStep, flowCase, tasks);
+            if(state!=StepState.DONE){
+                //dag - workery dalsich krokov, ktorych vstupy su hotove
+                boolean ready = flowDef.isDag() && openReadyTasks(graph, aktStep, flowCase, tasks);
+                return state==StepState.OPENED || ready ? graph.step(aktStep).getCode() : null;
             }
         }
         //nemam rozpracovane tasky, idem na dalsi step
-        FlowStepDef next = nextStep(flowCase, flowDef);
+        FlowStepDef next = nextStep(flowCase, graph);
         if(next!=null){
             LOGGER.info("next step {} {}", flowCase.getId(), next.getCode());
             //spustam novy step
@@ -298,31 +455,140 @@ public class FlowCaseManager {
         return null;
     }
 
+    private StepState openStepTasks(FlowGraph graph, int aktStep, FlowCaseEntity flowCase, List<FlowTaskEntity> tasks) {
+        FlowStepDef stepDef = graph.step(aktStep);
+        int maxIndex = 1;
+        boolean notStarted = false;
+        StepTasks stepTasks = StepTasks.scan(graph, aktStep, tasks);
+        boolean notFinished = stepTasks.notFinished();
+        FlowTaskEntity iterator = stepTasks.iterator();
+        if(stepDef.getItemsExpr()!=null && iterator==null){
+            //vytvaram iterator
+            FlowTaskEntity taskEntity = new FlowTaskEntity(ID.newId(), flowCase.getId(), stepDef.getCode(), FlowTask.STEP_ITERATOR, -1);
+            taskEntity.setTimeout(flowDefStore.getDefaultTimeout());
+            tasks.add(taskEntity);
+            return StepState.OPENED;
+        }
+        if(iterator!=null){
+            if(iterator.getFinished()==null){
+                //stale cakam na iterator
+                return StepState.WAITING;
+            }
+            if(iterator.getResponse() instanceof List<?> items && !items.isEmpty()){
+                //iterator v poriadku
+                maxIndex = items.size();
+            } else {
+                //chyba v iteratore, idem na dalsi krok
+                maxIndex = -1;
+                notFinished = false;
+            }
+        }
+        int workerCount = stepTasks.workerCount();
+        for(int i=0; i<maxIndex; i++){
+            if(!stepTasks.started(i)) continue;
+            for(int w=0; w<workerCount; w++){
+                if(!stepTasks.exists(w, i)){
+                    tasks.add(createTask(flowCase.getId(), stepDef, stepDef.getWorkers().get(w), i));
+                    notStarted = true;
+                }
+            }
+        }
+        //maxConcurrency - nove polozky az ked sa uvolni aspon batchSize miest
+        int[] open = stepTasks.itemsToOpen(maxIndex, iterator!=null ? stepDef.getMaxConcurrency() : null, stepDef.getBatchSize());
+        for(int i : open){
+            for(int w=0; w<workerCount; w++){
+                tasks.add(createTask(flowCase.getId(), stepDef, stepDef.getWorkers().get(w), i));
+            }
+            notStarted = true;
+        }
+        if(iterator!=null){
+            stepInFlight.update(flowCase.getCaseType(), stepDef.getCode(), flowCase.getId(),
+                                stepTasks.inFlight(maxIndex)+open.length, stepTasks.waitingItems(maxIndex)-open.length);
+        }
+        if (notStarted) {
+            //mam rozpracovany step, pokracujem v spracovani
+            return StepState.OPENED;
+        }
+        if(notFinished) {
+            //este nie su vsetky hotovo, cakam na dalsi tick
+            return StepState.WAITING;
+        }
+        return StepState.DONE;
+    }
+
+    /**
+     * opens workers of later non iterable steps with all inputs finished (FlowDef.dag)
+     */
+    private boolean openReadyTasks(FlowGraph graph, int aktStep, FlowCaseEntity flowCase, List<FlowTaskEntity> tasks) {
+        StepTasks[] scans = new StepTasks[graph.stepCount()];
+        boolean opened = false;
+        for(int s=graph.next(aktStep); s>=0; s=graph.next(s)){
+            FlowStepDef stepDef = graph.step(s);
+            if(stepDef.getItemsExpr()!=null || stepDef.getCode().equals(FlowTask.FLOW_RESPONSE)) continue;
+            for(int w=0; w<graph.workerCount(s); w++){
+                if(scan(scans, graph, s, tasks).exists(w, 0)) continue;
+                if(inputsFinished(graph, aktStep, s, w, scans, tasks)){
+                    LOGGER.debug("dag open {} {}.{}", flowCase.getId(), stepDef.getCode(), stepDef.getWorkers().get(w).getCode());
+                    tasks.add(createTask(flowCase.getId(), stepDef, stepDef.getWorkers().get(w), 0));
+                    opened = true;
+                }
+            }
+        }
+        return opened;
+    }
+
+    private boolean inputsFinished(FlowGraph graph, int aktStep, int step, int worker, StepTasks[] scans, List<FlowTaskEntity> tasks) {
+        if(!graph.depsKnown(step, worker)) return false;
+        for(int dep : graph.deps(step, worker)){
+            int depStep = FlowGraph.depStep(dep);
+            //predosle kroky su hotove
+            if(depStep<aktStep) continue;
+            if(depStep>step || graph.step(depStep).getItemsExpr()!=null) return false;
+            StepTasks depTasks = scan(scans, graph, depStep, tasks);
+            int depWorker = FlowGraph.depWorker(dep);
+            if(depWorker==FlowGraph.ALL_WORKERS){
+                if(depStep==step) return false;
+                for(int w=0; w<graph.workerCount(depStep); w++){
+                    if(!depTasks.finished(w, 0)) return false;
+                }
+            } else if(!depTasks.finished(depWorker, 0)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static StepTasks scan(StepTasks[] scans, FlowGraph graph, int step, List<FlowTaskEntity> tasks) {
+        if(scans[step]==null) scans[step] = StepTasks.scan(graph, step, tasks);
+        return scans[step];
+    }
+
     private FlowTaskEntity createTask(String caseId, FlowStepDef step, FlowWorkerDef worker, int stepIndex){
         FlowTaskEntity taskEntity = new FlowTaskEntity(ID.newId(), caseId, step.getCode(), worker.getCode(), stepIndex);
         taskEntity.setTimeout(worker.getTimeout()!=null ? worker.getTimeout() : flowDefStore.getDefaultTimeout());
         return taskEntity;
     }
 
-    private FlowStepDef nextStep(FlowCaseEntity flowCase, FlowDef flowDef) {
+    private FlowStepDef nextStep(FlowCaseEntity flowCase, FlowGraph graph) {
         if(flowCase.getState()==CaseState.FINISHED || flowCase.getState()==CaseState.ERROR){
             return null;
         }
-        String stepCode = flowCase.getStep();
-        if(stepCode==null){
-            return flowDef.getSteps().getFirst();
-        }
-        List<FlowStepDef> steps = flowDef.getSteps();
-        for(int i=1; i<steps.size(); i++){
-            if(stepCode.equals(steps.get(i-1).getCode())){
-                return steps.get(i);
-            }
+        int step = graph.stepOrdinal(flowCase.getStep());
+        if(step<0 && flowCase.getStep()!=null){
+            //neznamy step
+            return null;
         }
-        return null;
+        int next = graph.next(step);
+        return next>=0 ? graph.step(next) : null;
     }
 
     private void finishFlow(FlowCaseEntity flowCaseEntity, FlowDef flowDef, List<FlowTaskEntity> tasks) {
 
+        //finalny case sa uklada z db, tasky musia byt zapisane
+        taskBatchStore.flush();
+        if(taskBatchStore.writeFailed(flowCaseEntity.getId())){
+            throw new TaskWriteException("tasks of case "+flowCaseEntity.getId()+" not written", null);
+        }
         FlowTaskEntity finishTask = tasks.stream().filter(t->t.getWorker().equals(FlowTask.FLOW_RESPONSE)).findFirst().orElse(null);
         if(finishTask!=null){
             flowCaseEntity.setResponse(finishTask.getResponse());
@@ -355,10 +621,13 @@ public class FlowCaseManager {
         }catch (Exception e){
             LOGGER.warn("saveFinalCase {}", e.getMessage(), e);
         }
+        caseCache.evict(flowCaseEntity.getId());
+        caseLeases.release(flowCaseEntity.getId());
+        stepInFlight.remove(flowCaseEntity.getId());
         waitingFlowCaseManager.finished(flowCase);
         if(callback!=null){
             Map<String, String> headers = Map.of(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
-            callbackRunner.callbackAsync(flowCase.getId(), callback, headers, flowCase);
+            callbackDelivery.deliver(flowCase.getId(), callback, headers, flowCase);
         }
     }
 
@@ -371,7 +640,14 @@ public class FlowCaseManager {
     }
 
     public void queueEventSent(String taskId) {
-        taskStore.queueSent(taskId);
+        FlowCaseCache.Entry entry = caseCache.getByTask(taskId);
+        taskBatchStore.queueSent(entry!=null ? entry.flowCase().getId() : null, taskId);
+        FlowTaskEntity task = entry!=null ? entry.task(taskId) : null;
+        if(task!=null){
+            synchronized (task){
+                task.setQueueSent(Instant.now());
+            }
+        }
     }
 
     public void reprocess(String newCaseId, FlowCase flowCase2, List<FlowTask> tasks2) {
@@ -385,6 +661,8 @@ public class FlowCaseManager {
         flowCase.setCreated(Instant.now());
         flowCase.setState(CaseState.WORKING);
         caseStore.insert(flowCase);
+        caseLeases.acquire(newCaseId);
+        List<FlowTaskEntity> tasks = new ArrayList<>();
         for(FlowTask task2 : tasks2) {
             FlowTaskEntity task = new FlowTaskEntity();
             task.setId(ID.newId());
@@ -396,8 +674,23 @@ public class FlowCaseManager {
             task.setError(task2.getError());
             task.setCreated(flowCase.getCreated());
             task.setFinished(flowCase.getCreated());
-            taskStore.insert(task);
+            tasks.add(task);
         }
+        taskBatchStore.insertAll(tasks);
+        caseCache.put(flowCase, tasks);
         flowThreadPool.addCase(newCaseId,newCaseId);
     }
+
+    private static final class TimeoutGroup {
+        private final List<String> ids;
+        private final AtomicInteger pending;
+        private volatile TimingWheel.Timeout timeout;
+
+        private TimeoutGroup(List<String> ids) {
+            this.ids = ids;
+            this.pending = new AtomicInteger(ids.size());
+        }
+    }
+
+    private enum StepState {OPENED, WAITING, DONE}
 }
@@ -20,6 +20,7 @@ import eu.aston.flow.def.FlowStepDef;
 import eu.aston.flow.def.FlowWorkerDef;
 import eu.aston.flow.model.FlowTask;
 import eu.aston.flow.nodejs.NodeJsFlowExecutor;
+import eu.aston.flow.ognl.FlowPlan;
 import eu.aston.flow.ognl.YamlOgnlFlowExecutor;
 import eu.aston.user.AuthException;
 import eu.aston.user.UserException;
@@ -33,7 +34,6 @@ public class FlowDefStore {
     private final static Logger LOGGER = LoggerFactory.getLogger(FlowDefStore.class);
 
     private final Map<String, FlowDef> flowsMap = new ConcurrentHashMap<>();
-    private final Map<String, FlowWorkerDef> workerMap = new ConcurrentHashMap<>();
     private final Set<String> apiKeySet = new HashSet<>();
     private final ObjectMapper yamlObjectMapper;
     private final NodeJsFlowExecutor nodeJsFlowExecutor;
@@ -106,6 +106,12 @@ public class FlowDefStore {
             if(step.getWorkers()==null || step.getWorkers().isEmpty()){
                 throw new UserException("empty step.workers");
             }
+            if(step.getMaxConcurrency()!=null && (step.getMaxConcurrency()<1 || step.getItemsExpr()==null)){
+                throw new UserException("step.maxConcurrency must be positive, only for step with itemsExpr");
+            }
+            if(step.getBatchSize()!=null && (step.getBatchSize()<1 || step.getMaxConcurrency()==null || step.getBatchSize()>step.getMaxConcurrency())){
+                throw new UserException("step.batchSize must be 1..maxConcurrency");
+            }
             FlowWorkerDef iterator = null;
             for(FlowWorkerDef worker : step.getWorkers()){
                 BaseValid.require(worker, "worker");
@@ -148,21 +154,20 @@ public class FlowDefStore {
             flowDef.getSteps().add(responseStep);
             flowDef.setResponse(null);
         }
+        if(fullConfig){
+            for(FlowStepDef step : flowDef.getSteps()){
+                for(FlowWorkerDef worker : step.getWorkers()){
+                    worker.setPlan(FlowPlan.compile(worker));
+                }
+            }
+        }
+        flowDef.compileGraph();
         flowsMap.put(flowDef.getCode(), flowDef);
     }
 
     public FlowWorkerDef cacheWorker(FlowDef flowDef, String step, String worker) {
-        String key = flowDef.getCode()+"|"+step+"|"+worker;
-        FlowWorkerDef workerDef = workerMap.get(key);
-        if(workerDef==null){
-            for(FlowStepDef step2 : flowDef.getSteps()){
-                for(FlowWorkerDef worker2 : step2.getWorkers()){
-                    String key2 = flowDef.getCode()+"|"+step2.getCode()+"|"+worker2.getCode();
-                    workerMap.put(key2, worker2);
-                }
-            }
-            workerDef = workerMap.get(key);
-        }
+        FlowWorkerDef workerDef = flowDef.getGraph().worker(step, worker);
+        if(workerDef==null) throw new UserException("undefined worker "+flowDef.getCode()+"/"+step+"/"+worker);
         return workerDef;
     }
 
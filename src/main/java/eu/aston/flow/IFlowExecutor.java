@@ -12,8 +12,31 @@ public interface IFlowExecutor {
 
     void execTick(FlowDef flowDef, FlowCaseEntity flowCase, List<FlowTaskEntity> tasks, String stepCode, IFlowBack flowBack);
 
+    /**
+     * task of case was finished, called after its response fields are set
+     */
+    default void taskFinished(String caseId, FlowTaskEntity task){}
+
+    /**
+     * case was finished or dropped from FlowCaseCache, state kept for the case is released
+     */
+    default void caseClosed(String caseId){}
+
     interface IFlowBack{
         void sentTask(FlowTaskEntity task);
+
+        /**
+         * tasks of one tick before they are sent, bulk insert and timeouts, sentTask of these tasks is no-op then
+         */
+        default void sentTasks(List<FlowTaskEntity> tasks){
+            tasks.forEach(this::sentTask);
+        }
+
         void finishTask(FlowTaskEntity task, int statusCode, Object response);
+
+        /**
+         * task is not sent (target queue is full), case tick is repeated later
+         */
+        default void holdTask(FlowTaskEntity task){}
     }
 }
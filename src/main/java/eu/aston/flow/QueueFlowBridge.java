@@ -1,8 +1,10 @@
 package eu.aston.flow;
 
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import eu.aston.flow.store.FlowTaskEntity;
@@ -10,8 +12,10 @@ import eu.aston.header.HeaderConverter;
 import eu.aston.queue.EventResponse;
 import eu.aston.queue.QueueEvent;
 import eu.aston.queue.QueueStore;
+import eu.aston.utils.ChunkedBuffer;
 import io.micronaut.http.HttpHeaders;
 import io.micronaut.http.MediaType;
+import io.netty.buffer.ByteBufInputStream;
 import jakarta.inject.Singleton;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,7 +34,15 @@ public class QueueFlowBridge {
         this.objectMapper = objectMapper;
     }
 
-    public boolean sendQueueEvent(FlowTaskEntity task, String method, String path, Map<String, String> headers, byte[] body, IFlowExecutor.IFlowBack flowBack){
+    /**
+     * queue worker group of path is over maxPending, flow task waits in the engine
+     */
+    public boolean isSaturated(String path) {
+        return queueStore!=null && path.startsWith(QUEUE_PREFIX) && path.length()> QUEUE_PREFIX.length()
+                && queueStore.admit(path.substring(QUEUE_PREFIX.length()-1))>0;
+    }
+
+    public boolean sendQueueEvent(FlowTaskEntity task, String method, String path, Map<String, String> headers, ChunkedBuffer body, IFlowExecutor.IFlowBack flowBack){
         if(queueStore!=null && path.startsWith(QUEUE_PREFIX) && path.length()> QUEUE_PREFIX.length()){
             path = path.substring(QUEUE_PREFIX.length()-1);
             LOGGER.info("event {} <= {}/{} - {}", path, task.getFlowCaseId(), task.getId(), task.getWorker());
@@ -45,7 +57,11 @@ public class QueueFlowBridge {
             headers.put(HeaderConverter.H_METHOD, event.getMethod());
             headers.put(HeaderConverter.H_URI, path);
             if(!headers.containsKey(HttpHeaders.CONTENT_TYPE)) headers.put(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
-            event.setBody(body);
+            //chunky params sa nekopiruju do jedneho pola
+            event.setContent(body!=null ? body.toByteBuf() : null);
+            event.setDurable(true);
+            event.setPriority(QueueEvent.parsePriority(headers.get(HeaderConverter.H_PRIORITY)));
+            event.setFlowTask(true);
             event.setHandleSend(()->flowBack.sentTask(task));
             event.setHandleResponse((eventResponse -> eventResponse(task, flowBack, eventResponse)));
             queueStore.addEvent(event);
@@ -55,15 +71,33 @@ public class QueueFlowBridge {
     }
 
     public void eventResponse(FlowTaskEntity task, IFlowExecutor.IFlowBack flowBack, EventResponse eventResponse) {
+        eventResponse(eventResponse, (status, response)->flowBack.finishTask(task, status, response));
+    }
+
+    /**
+     * response of event replayed from queue log after restart, task is finished by id
+     */
+    public void replayedResponse(FlowCaseManager flowCaseManager, String taskId, EventResponse eventResponse) {
+        try{
+            eventResponse(eventResponse, (status, response)->flowCaseManager.finishTask(taskId, status, response));
+        }catch (Exception e){
+            LOGGER.warn("replayed event {} finish task error {}", taskId, e.getMessage());
+        }
+    }
+
+    private void eventResponse(EventResponse eventResponse, BiConsumer<Integer, Object> finish) {
+        Object response;
+        int status = eventResponse.status();
         try {
-            if(eventResponse.status()>=200 && eventResponse.status()<300) {
-                Object root = objectMapper.readValue(eventResponse.body(), Object.class);
-                flowBack.finishTask(task, eventResponse.status(), root);
+            if(status>=200 && status<300) {
+                response = objectMapper.readValue((InputStream) new ByteBufInputStream(eventResponse.body().duplicate()), Object.class);
             } else {
-                flowBack.finishTask(task, eventResponse.status(), new String(eventResponse.body(), StandardCharsets.UTF_8));
+                response = eventResponse.body().toString(StandardCharsets.UTF_8);
             }
         }catch (Exception e){
-            flowBack.finishTask(task, 400, "parse json body error "+e.getMessage());
+            status = 400;
+            response = "parse json body error "+e.getMessage();
         }
+        finish.accept(status, response);
     }
 }
@@ -0,0 +1,48 @@
+package eu.aston.flow;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Items of iterable steps in flight and waiting for a free slot (maxConcurrency), by flow type and step.
+ * Every case keeps its last numbers from openTasks until the step or the case ends.
+ */
+public class StepInFlight {
+
+    private final Map<String, Map<String, Items>> steps = new ConcurrentHashMap<>();
+
+    public void update(String flowType, String step, String caseId, int inFlight, int waiting) {
+        Map<String, Items> cases = steps.computeIfAbsent(flowType+"/"+step, k->new ConcurrentHashMap<>());
+        if(inFlight>0 || waiting>0){
+            cases.put(caseId, new Items(inFlight, waiting));
+        } else {
+            cases.remove(caseId);
+        }
+    }
+
+    public void remove(String caseId) {
+        for(Map<String, Items> cases : steps.values()){
+            cases.remove(caseId);
+        }
+    }
+
+    /**
+     * @return flowType/step -> sum of items over cases
+     */
+    public Map<String, Items> snapshot() {
+        Map<String, Items> snapshot = new TreeMap<>();
+        steps.forEach((key, cases)->{
+            int inFlight = 0;
+            int waiting = 0;
+            for(Items items : cases.values()){
+                inFlight += items.inFlight();
+                waiting += items.waiting();
+            }
+            snapshot.put(key, new Items(inFlight, waiting));
+        });
+        return snapshot;
+    }
+
+    public record Items(int inFlight, int waiting) {}
+}
@@ -0,0 +1,118 @@
+package eu.aston.flow;
+
+import java.util.BitSet;
+import java.util.List;
+
+import eu.aston.flow.def.FlowGraph;
+import eu.aston.flow.model.FlowTask;
+import eu.aston.flow.store.FlowTaskEntity;
+
+/**
+ * Existing tasks of one step as bitset by stepIndex*workers+workerOrdinal, iterator task and not finished flag.
+ */
+public final class StepTasks {
+
+    private final int workerCount;
+    private final BitSet exists = new BitSet();
+    private final BitSet finished = new BitSet();
+    private FlowTaskEntity iterator;
+    private boolean notFinished;
+
+    private StepTasks(FlowGraph graph, int step) {
+        this.workerCount = graph.workerCount(step);
+    }
+
+    public static StepTasks scan(FlowGraph graph, int step, List<FlowTaskEntity> tasks) {
+        StepTasks stepTasks = new StepTasks(graph, step);
+        String stepCode = graph.step(step).getCode();
+        for(int i=0; i<tasks.size(); i++){
+            FlowTaskEntity t = tasks.get(i);
+            if(stepCode.equals(t.getStep())){
+                if(t.getFinished()==null) stepTasks.notFinished = true;
+                if(t.getWorker().equals(FlowTask.STEP_ITERATOR)) stepTasks.iterator = t;
+                int w = graph.workerOrdinal(step, t.getWorker());
+                if(w>=0 && t.getStepIndex()>=0){
+                    stepTasks.exists.set(t.getStepIndex()*stepTasks.workerCount+w);
+                    if(t.getFinished()!=null) stepTasks.finished.set(t.getStepIndex()*stepTasks.workerCount+w);
+                }
+            }
+        }
+        return stepTasks;
+    }
+
+    public boolean exists(int worker, int stepIndex) {
+        return exists.get(stepIndex*workerCount+worker);
+    }
+
+    public boolean finished(int worker, int stepIndex) {
+        return finished.get(stepIndex*workerCount+worker);
+    }
+
+    /**
+     * some task of the item exists
+     */
+    public boolean started(int stepIndex) {
+        int from = stepIndex*workerCount;
+        int next = exists.nextSetBit(from);
+        return next>=0 && next<from+workerCount;
+    }
+
+    /**
+     * all tasks of the item exist and are finished
+     */
+    public boolean done(int stepIndex) {
+        int from = stepIndex*workerCount;
+        int next = finished.nextClearBit(from);
+        return next>=from+workerCount;
+    }
+
+    /**
+     * started and not done items below maxIndex
+     */
+    public int inFlight(int maxIndex) {
+        int count = 0;
+        for(int i=0; i<maxIndex; i++){
+            if(started(i) && !done(i)) count++;
+        }
+        return count;
+    }
+
+    /**
+     * not started items below maxIndex
+     */
+    public int waitingItems(int maxIndex) {
+        int count = 0;
+        for(int i=0; i<maxIndex; i++){
+            if(!started(i)) count++;
+        }
+        return count;
+    }
+
+    /**
+     * not started items to open in index order, maxConcurrency (null unlimited) limits items in flight
+     * and new items are opened only when at least batchSize (null 1) slots are free
+     */
+    public int[] itemsToOpen(int maxIndex, Integer maxConcurrency, Integer batchSize) {
+        int waitingItems = waitingItems(maxIndex);
+        int free = maxConcurrency!=null ? maxConcurrency-inFlight(maxIndex) : Integer.MAX_VALUE;
+        int batch = Math.min(batchSize!=null ? batchSize : 1, waitingItems);
+        if(free<batch) free = 0;
+        int[] items = new int[Math.min(free, waitingItems)];
+        for(int i=0, n=0; n<items.length; i++){
+            if(!started(i)) items[n++] = i;
+        }
+        return items;
+    }
+
+    public int workerCount() {
+        return workerCount;
+    }
+
+    public FlowTaskEntity iterator() {
+        return iterator;
+    }
+
+    public boolean notFinished() {
+        return notFinished;
+    }
+}
@@ -5,6 +5,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import eu.aston.flow.model.FlowCase;
 import eu.aston.utils.SuperTimer;
+import eu.aston.utils.TimingWheel;
 import jakarta.inject.Singleton;
 
 @Singleton
@@ -18,14 +19,14 @@ public class WaitingFlowCaseManager {
     }
 
     public void waitFinish(FlowCase flowCase, CompletableFuture<FlowCase> future, int waitTimeSeconds) {
-        WaitingFlow waitingFlow = new WaitingFlow(flowCase, future);
-        map.put(flowCase.getId(), waitingFlow);
-        timer.schedule(waitTimeSeconds*1000L, flowCase.getId(), this::removeFlow);
+        TimingWheel.Timeout timeout = timer.schedule(waitTimeSeconds*1000L, flowCase.getId(), this::removeFlow);
+        map.put(flowCase.getId(), new WaitingFlow(flowCase, future, timeout));
     }
 
     public void finished(FlowCase flowCaseFinished){
         WaitingFlow waitingFlow = map.remove(flowCaseFinished.getId());
         if(waitingFlow!=null){
+            waitingFlow.timeout().cancel();
             waitingFlow.future().complete(flowCaseFinished);
         }
     }
@@ -37,5 +38,5 @@ public class WaitingFlowCaseManager {
         }
     }
 
-    private record WaitingFlow(FlowCase flowCase, CompletableFuture<FlowCase> future){}
+    private record WaitingFlow(FlowCase flowCase, CompletableFuture<FlowCase> future, TimingWheel.Timeout timeout){}
 }
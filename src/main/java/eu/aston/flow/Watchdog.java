@@ -2,7 +2,10 @@ package eu.aston.flow;
 
 import java.time.Duration;
 import java.util.List;
+import java.util.Set;
 
+import eu.aston.queue.QueueEvent;
+import eu.aston.queue.QueueStore;
 import eu.aston.utils.SuperTimer;
 import io.micronaut.context.annotation.Context;
 import org.slf4j.Logger;
@@ -14,15 +17,58 @@ public class Watchdog {
     private static final Logger LOGGER = LoggerFactory.getLogger(Watchdog.class);
 
     private final FlowCaseManager flowCaseManager;
+    private final QueueStore queueStore;
+    private final QueueFlowBridge flowBridge;
 
-    public Watchdog(FlowCaseManager flowCaseManager, SuperTimer superTimer) {
+    public Watchdog(FlowCaseManager flowCaseManager, SuperTimer superTimer, QueueStore queueStore, QueueFlowBridge flowBridge) {
         this.flowCaseManager = flowCaseManager;
+        this.queueStore = queueStore;
+        this.flowBridge = flowBridge;
         superTimer.execute(this::fixKilled);
         superTimer.schedulePeriod(Duration.ofMinutes(1).toMillis(), this::watchdogTimeoutTasks);
     }
 
     private void fixKilled() {
-        flowCaseManager.getTaskStore().removeNotFinished();
+        Set<String> replayed = queueStore.replay(this::bindReplayed);
+        FlowCaseLeases caseLeases = flowCaseManager.getCaseLeases();
+        if(caseLeases.isEnabled()){
+            //ostatne repliky bezia dalej, restartuju sa len vlastne case
+            List<String> ownCases = caseLeases.start(new FlowCaseLeases.Handler() {
+                @Override
+                public void adopt(String caseId) {
+                    restartCase(caseId, Set.of());
+                }
+
+                @Override
+                public void resume(String caseId) {
+                    flowCaseManager.evictCase(caseId);
+                    flowCaseManager.getFlowThreadPool().addCase(caseId, caseId);
+                }
+
+                @Override
+                public void lost(String caseId) {
+                    flowCaseManager.evictCase(caseId);
+                }
+
+                @Override
+                public void taskFinished(String caseId, String taskId) {
+                    flowCaseManager.remoteTaskFinished(caseId, taskId);
+                }
+            });
+            for(String id : ownCases){
+                restartCase(id, replayed);
+            }
+            watchdogTimeoutTasks();
+            return;
+        }
+        if(replayed.isEmpty()){
+            flowCaseManager.getTaskStore().removeNotFinished();
+        } else {
+            //tasky s eventom v queue logu cakaju na odpoved workera
+            for(String id : flowCaseManager.getTaskStore().selectIdNotFinished()){
+                if(!replayed.contains(id)) flowCaseManager.getTaskStore().removeTask(id);
+            }
+        }
         List<String> notFinishedCases = flowCaseManager.getCaseStore().selectIdForAllNotFinished();
         for(String id : notFinishedCases){
             LOGGER.info("restart flow case {}", id);
@@ -31,8 +77,30 @@ public class Watchdog {
         watchdogTimeoutTasks();
     }
 
+    private void restartCase(String caseId, Set<String> replayed) {
+        //tasky bez odpovede patrili predchadzajucemu ownerovi, vytvoria sa znova
+        flowCaseManager.getTaskBatchStore().flush();
+        for(String id : flowCaseManager.getTaskStore().selectIdNotFinishedByCaseId(caseId)){
+            if(!replayed.contains(id)) flowCaseManager.getTaskStore().removeTask(id);
+        }
+        LOGGER.info("restart flow case {}", caseId);
+        flowCaseManager.evictCase(caseId);
+        flowCaseManager.getFlowThreadPool().addCase(caseId, caseId);
+    }
+
+    private void bindReplayed(QueueEvent event) {
+        if(event.isFlowTask()){
+            String taskId = event.getId();
+            event.setHandleResponse(r->flowBridge.replayedResponse(flowCaseManager, taskId, r));
+        }
+    }
+
     private void watchdogTimeoutTasks() {
-        List<String> expiredTasks = flowCaseManager.getTaskStore().selectExpired();
+        flowCaseManager.getTaskBatchStore().flush();
+        FlowCaseLeases caseLeases = flowCaseManager.getCaseLeases();
+        List<String> expiredTasks = caseLeases.isEnabled()
+                ? flowCaseManager.getTaskStore().selectExpiredByOwner(caseLeases.getNodeId())
+                : flowCaseManager.getTaskStore().selectExpired();
         for (String id : expiredTasks){
             LOGGER.info("watchdog timeout task {}", id);
             flowCaseManager.finishTask(id, 408, "timeout-watchdog");
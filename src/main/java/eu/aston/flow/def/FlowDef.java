@@ -3,6 +3,8 @@ package eu.aston.flow.def;
 import java.util.List;
 import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 public final class FlowDef {
     private String code;
     private List<String> apiKeys;
@@ -13,6 +15,9 @@ public final class FlowDef {
     private Map<String, Object> response;
     private String paramsAssetExpr;
     private String paramsExternalIdExpr;
+    private boolean dag;
+    @JsonIgnore
+    private volatile FlowGraph graph;
 
     public String getCode() {
         return code;
@@ -78,6 +83,34 @@ public final class FlowDef {
         this.paramsExternalIdExpr = paramsExternalIdExpr;
     }
 
+    /**
+     * workers of later steps start as soon as their inputs are finished
+     */
+    public boolean isDag() {
+        return dag;
+    }
+
+    public void setDag(boolean dag) {
+        this.dag = dag;
+    }
+
+    /**
+     * compiled in FlowDefStore.loadFlow, steps must not change after that
+     */
+    @JsonIgnore
+    public FlowGraph getGraph() {
+        FlowGraph g = graph;
+        if(g==null){
+            g = FlowGraph.compile(this);
+            graph = g;
+        }
+        return g;
+    }
+
+    public void compileGraph() {
+        this.graph = FlowGraph.compile(this);
+    }
+
     @Override
     public String toString() {
         return "FlowDef{" + "code='" + code + '\'' + ", executor='" + executor + '\'' + '}';
@@ -0,0 +1,185 @@
+package eu.aston.flow.def;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiled step order of FlowDef, steps and workers by ordinal, next step pointers and iterable steps.
+ * Built once when the flow is loaded, tick works with ordinals instead of scans and string keys.
+ * Inputs of every worker (other workers read by its expressions) are kept as dependencies.
+ */
+public final class FlowGraph {
+
+    private final FlowStepDef[] steps;
+    private final Map<String, Integer> stepOrdinals = new HashMap<>();
+    private final List<Map<String, Integer>> workerOrdinals;
+    private final Set<String> iterableSteps = new HashSet<>();
+    private final int[][][] deps;
+    private final boolean[][] depsKnown;
+
+    /** dependency on the whole step (step.s1), not on one worker */
+    public static final int ALL_WORKERS = 0xFFFF;
+    private static final int[] NO_DEPS = new int[0];
+
+    private FlowGraph(List<FlowStepDef> stepList) {
+        this.steps = stepList.toArray(new FlowStepDef[0]);
+        List<Map<String, Integer>> workers = new ArrayList<>();
+        for(int i=0; i<steps.length; i++){
+            FlowStepDef step = steps[i];
+            stepOrdinals.putIfAbsent(step.getCode(), i);
+            if(step.getItemsExpr()!=null) iterableSteps.add(step.getCode());
+            Map<String, Integer> stepWorkers = new HashMap<>();
+            List<FlowWorkerDef> workerDefs = step.getWorkers()!=null ? step.getWorkers() : List.of();
+            for(int w=0; w<workerDefs.size(); w++){
+                stepWorkers.putIfAbsent(workerDefs.get(w).getCode(), w);
+            }
+            workers.add(stepWorkers);
+        }
+        this.workerOrdinals = List.copyOf(workers);
+        this.deps = new int[steps.length][][];
+        this.depsKnown = new boolean[steps.length][];
+        for(int i=0; i<steps.length; i++){
+            int count = workerCount(i);
+            deps[i] = new int[count][];
+            depsKnown[i] = new boolean[count];
+            for(int w=0; w<count; w++){
+                compileDeps(i, w);
+            }
+            removeCycles(i);
+        }
+    }
+
+    private void compileDeps(int step, int worker) {
+        FlowWorkerDef workerDef = steps[step].getWorkers().get(worker);
+        List<List<String>> refs = workerDef.getPlan()!=null ? workerDef.getPlan().references() : null;
+        deps[step][worker] = NO_DEPS;
+        if(refs==null) return;
+        Set<Integer> set = new LinkedHashSet<>();
+        for(List<String> ref : refs){
+            String name = ref.getFirst();
+            if(name.equals("case")) continue;
+            if(name.equals("step")){
+                //step.s1.w1 alebo step.s1, samotny step je mapa vsetkych krokov
+                if(ref.size()<2) return;
+                int s = stepOrdinal(ref.get(1));
+                if(s<0) continue;
+                int w = ref.size()>2 ? workerOrdinal(s, ref.get(2)) : ALL_WORKERS;
+                if(w>=0 && !(s==step && w==worker)) set.add(dep(s, w));
+                continue;
+            }
+            int w = workerOrdinal(step, name);
+            if(w>=0 && w!=worker) set.add(dep(step, w));
+        }
+        deps[step][worker] = set.stream().mapToInt(Integer::intValue).toArray();
+        depsKnown[step][worker] = true;
+    }
+
+    //kruh medzi workermi kroku, poradie urci vyhodnotenie ako doteraz
+    private void removeCycles(int step) {
+        int count = deps[step].length;
+        for(int w=0; w<count; w++){
+            if(reaches(step, w, w, new boolean[count])) depsKnown[step][w] = false;
+        }
+    }
+
+    private boolean reaches(int step, int from, int target, boolean[] visited) {
+        for(int dep : deps[step][from]){
+            if(depStep(dep)!=step || depWorker(dep)==ALL_WORKERS) continue;
+            int w = depWorker(dep);
+            if(w==target) return true;
+            if(!visited[w]){
+                visited[w] = true;
+                if(reaches(step, w, target, visited)) return true;
+            }
+        }
+        return false;
+    }
+
+    public static int dep(int step, int worker) {
+        return (step<<16) | worker;
+    }
+
+    public static int depStep(int dep) {
+        return dep>>>16;
+    }
+
+    public static int depWorker(int dep) {
+        return dep & 0xFFFF;
+    }
+
+    /**
+     * workers (and whole steps, ALL_WORKERS) read by expressions of the worker, encoded by dep(step, worker)
+     */
+    public int[] deps(int step, int worker) {
+        return deps[step][worker];
+    }
+
+    /**
+     * all inputs of the worker are known at load (no dynamic access to the root, no cycle)
+     */
+    public boolean depsKnown(int step, int worker) {
+        return depsKnown[step][worker];
+    }
+
+    public static FlowGraph compile(FlowDef flowDef) {
+        return new FlowGraph(flowDef.getSteps()!=null ? flowDef.getSteps() : List.of());
+    }
+
+    public int stepCount() {
+        return steps.length;
+    }
+
+    public FlowStepDef step(int ordinal) {
+        return steps[ordinal];
+    }
+
+    /**
+     * @return -1 for null or unknown step
+     */
+    public int stepOrdinal(String stepCode) {
+        if(stepCode==null) return -1;
+        Integer ordinal = stepOrdinals.get(stepCode);
+        return ordinal!=null ? ordinal : -1;
+    }
+
+    /**
+     * step after ordinal, first step for -1
+     * @return -1 after the last step
+     */
+    public int next(int ordinal) {
+        int next = ordinal+1;
+        return next<steps.length ? next : -1;
+    }
+
+    public int workerCount(int step) {
+        return steps[step].getWorkers()!=null ? steps[step].getWorkers().size() : 0;
+    }
+
+    /**
+     * @return -1 for worker not defined in step
+     */
+    public int workerOrdinal(int step, String worker) {
+        Integer ordinal = workerOrdinals.get(step).get(worker);
+        return ordinal!=null ? ordinal : -1;
+    }
+
+    public FlowWorkerDef worker(String stepCode, String worker) {
+        int step = stepOrdinal(stepCode);
+        if(step<0) return null;
+        int w = workerOrdinal(step, worker);
+        return w>=0 ? steps[step].getWorkers().get(w) : null;
+    }
+
+    public boolean isIterable(String stepCode) {
+        return iterableSteps.contains(stepCode);
+    }
+
+    public Set<String> iterableSteps() {
+        return iterableSteps;
+    }
+}
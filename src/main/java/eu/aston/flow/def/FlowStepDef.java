@@ -6,6 +6,8 @@ public class FlowStepDef {
     private String code;
     private String itemsExpr;
     private List<FlowWorkerDef> workers;
+    private Integer maxConcurrency;
+    private Integer batchSize;
 
     public String getCode() {
         return code;
@@ -30,4 +32,20 @@ public class FlowStepDef {
     public void setWorkers(List<FlowWorkerDef> workers) {
         this.workers = workers;
     }
+
+    public Integer getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public void setMaxConcurrency(Integer maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public Integer getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(Integer batchSize) {
+        this.batchSize = batchSize;
+    }
 }
@@ -2,7 +2,9 @@ package eu.aston.flow.def;
 
 import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import eu.aston.flow.ognl.FlowPlan;
 
 public class FlowWorkerDef {
     private String code;
@@ -17,6 +19,9 @@ public class FlowWorkerDef {
     private Map<String, String> labels;
     private boolean blocked;
     private Integer timeout;
+    private String priority;
+    @JsonIgnore
+    private FlowPlan plan;
 
     public String getCode() {
         return code;
@@ -106,6 +111,22 @@ public class FlowWorkerDef {
         this.timeout = timeout;
     }
 
+    public String getPriority() {
+        return priority;
+    }
+
+    public void setPriority(String priority) {
+        this.priority = priority;
+    }
+
+    public FlowPlan getPlan() {
+        return plan;
+    }
+
+    public void setPlan(FlowPlan plan) {
+        this.plan = plan;
+    }
+
     @Override
     public String toString() {
         return "FlowWorkerDef{" + "code='" + code + '\'' + ", path='" + path + '\'' + '}';
@@ -0,0 +1,332 @@
+package eu.aston.flow.ognl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import eu.aston.flow.def.FlowWorkerDef;
+import ognl.ASTChain;
+import ognl.ASTConst;
+import ognl.ASTMethod;
+import ognl.ASTProperty;
+import ognl.OgnlException;
+
+/**
+ * Worker params, headers, where and $path compiled once at flow load into a tree of
+ * constants and parsed ognl nodes. Evaluation gives the same result as FlowScript.execMap,
+ * execMapS, execWhere and execExpr on the raw yaml maps, without any key/string work per task.
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+public final class FlowPlan {
+
+    public interface Node {
+        Object eval(FlowScript script) throws OgnlException;
+
+        default void write(FlowScript script, JsonGenerator gen, ObjectWriter writer, boolean skipNulls) throws OgnlException, IOException {
+            writer.writeValue(gen, eval(script));
+        }
+    }
+
+    private final Node path;
+    private final Node headers;
+    private final Node params;
+    private final Node where;
+    private final List<List<String>> references;
+
+    private FlowPlan(Node path, Node headers, Node params, Node where) {
+        this.path = path;
+        this.headers = headers;
+        this.params = params;
+        this.where = where;
+        this.references = references(path, headers, params, where);
+    }
+
+    public static FlowPlan compile(FlowWorkerDef workerDef) {
+        Node path = workerDef.getPath()==null && workerDef.getPathExpr()!=null ? expr(workerDef.getPathExpr()) : null;
+        Node headers = workerDef.getHeaders()!=null ? compileMapS(workerDef.getHeaders()) : null;
+        Node params = workerDef.getParams()!=null ? compileMap(workerDef.getParams()) : null;
+        Node where = workerDef.getWhere()!=null ? expr(workerDef.getWhere()) : null;
+        return new FlowPlan(path, headers, params, where);
+    }
+
+    /**
+     * property paths read from the root (w1.a -> [w1, a], step.s1.w1.a -> [step, s1, w1, a]),
+     * null if some expression reads the root in a way not known at load (#this, #root, projection, dynamic name)
+     */
+    public List<List<String>> references() {
+        return references;
+    }
+
+    public boolean hasWhere() {
+        return where!=null;
+    }
+
+    public boolean where(FlowScript script) throws OgnlException {
+        return FlowScript.isTrue(where.eval(script));
+    }
+
+    public String path(FlowScript script) throws OgnlException {
+        if(path==null) return null;
+        Object o = path.eval(script);
+        return o!=null ? o.toString() : null;
+    }
+
+    public Map<String, String> headers(FlowScript script) throws OgnlException {
+        return headers!=null ? (Map<String, String>) headers.eval(script) : null;
+    }
+
+    public Object params(FlowScript script) throws OgnlException {
+        if(params==null) return null;
+        Object value = params.eval(script);
+        if (value instanceof Map paramsMap && paramsMap.size()==1 && paramsMap.containsKey(".")){
+            value = paramsMap.get(".");
+        }
+        return value;
+    }
+
+    public boolean hasParams() {
+        return params!=null;
+    }
+
+    /**
+     * writes params json straight into the generator, same output as serializing params(script),
+     * false if params are null and nothing was written
+     */
+    public boolean writeParams(FlowScript script, JsonGenerator gen, ObjectWriter writer, boolean skipNulls) throws OgnlException, IOException {
+        Node node = params;
+        if(node instanceof MapNode m && m.keys().length==1 && m.keys()[0].equals(".")){
+            node = m.values()[0];
+        }
+        if(node instanceof MapNode || node instanceof ListNode){
+            node.write(script, gen, writer, skipNulls);
+            return true;
+        }
+        Object value = node.eval(script);
+        if(value==null) return false;
+        writer.writeValue(gen, value);
+        return true;
+    }
+
+    public static Node compileMap(Map mapExpr) {
+        if(mapExpr==null || mapExpr.isEmpty()) return new Const(null);
+        List<String> keys = new ArrayList<>();
+        List<Node> values = new ArrayList<>();
+        for(Map.Entry e : ((Map<Object,Object>)mapExpr).entrySet()){
+            String key = e.getKey().toString();
+            if(key.startsWith("$$")) {
+                keys.add(key.substring(1));
+                values.add(new Const(e.getValue()));
+                continue;
+            }
+            if(key.startsWith("$")) {
+                if (e.getValue() instanceof String s) {
+                    keys.add(key.substring(1));
+                    values.add(expr(s));
+                    continue;
+                }
+                if (e.getValue() instanceof List list) {
+                    Node[] items = new Node[list.size()];
+                    for(int i=0; i<items.length; i++){
+                        items[i] = list.get(i) instanceof String s ? expr(s) : new Const(list.get(i));
+                    }
+                    keys.add(key.substring(1));
+                    values.add(new ListNode(items));
+                    continue;
+                }
+            }
+            if(e.getValue() instanceof Map map2) {
+                keys.add(key);
+                values.add(compileMap(map2));
+                continue;
+            }
+            if(e.getValue()!=null) {
+                keys.add(key);
+                values.add(new Const(e.getValue()));
+            }
+        }
+        return new MapNode(keys.toArray(new String[0]), values.toArray(new Node[0]));
+    }
+
+    public static Node compileMapS(Map<String, String> mapExpr) {
+        if(mapExpr==null || mapExpr.isEmpty()) return new Const(null);
+        List<String> keys = new ArrayList<>();
+        List<Node> values = new ArrayList<>();
+        for(Map.Entry<String, String> e: mapExpr.entrySet()){
+            if(e.getKey().startsWith("$") && e.getValue()!=null){
+                keys.add(e.getKey().substring(1));
+                values.add(expr(e.getValue()));
+            } else {
+                keys.add(e.getKey());
+                values.add(new Const(e.getValue()));
+            }
+        }
+        return new HeadersNode(keys.toArray(new String[0]), values.toArray(new Node[0]));
+    }
+
+    private static List<List<String>> references(Node... nodes) {
+        List<List<String>> refs = new ArrayList<>();
+        try{
+            for(Node node : nodes){
+                if(node!=null) nodeReferences(node, refs);
+            }
+        }catch (IllegalArgumentException e){
+            return null;
+        }
+        return refs;
+    }
+
+    private static void nodeReferences(Node node, List<List<String>> refs) {
+        switch (node) {
+            case Expr e -> astReferences((ognl.Node) e.parsed(), refs);
+            case ListNode l -> { for(Node n : l.items()) nodeReferences(n, refs); }
+            case MapNode m -> { for(Node n : m.values()) nodeReferences(n, refs); }
+            case HeadersNode h -> { for(Node n : h.values()) nodeReferences(n, refs); }
+            default -> {}
+        }
+    }
+
+    //uzly ktore citaju z rootu, v chain sa dalsie property citaju z predchadzajuceho vysledku
+    private static void astReferences(ognl.Node node, List<List<String>> refs) {
+        if(node instanceof ASTChain || node instanceof ASTProperty){
+            ognl.Node[] chain = node instanceof ASTChain ? children(node) : new ognl.Node[]{node};
+            List<String> path = new ArrayList<>();
+            int i = 0;
+            for(; i<chain.length && constName(chain[i])!=null; i++){
+                path.add(constName(chain[i]));
+            }
+            if(i==0){
+                //chain nezacina menom property, napr. (a ?: b).c
+                if(chain[0] instanceof ASTProperty) throw new IllegalArgumentException("dynamic property");
+                astReferences(chain[0], refs);
+                i = 1;
+            } else {
+                refs.add(path);
+            }
+            for(; i<chain.length; i++){
+                ognl.Node n = chain[i];
+                if(n instanceof ASTProperty || n instanceof ASTMethod){
+                    //index a argumenty metod sa vyhodnocuju nad rootom
+                    for(ognl.Node child : children(n)){
+                        if(!(child instanceof ASTConst)) astReferences(child, refs);
+                    }
+                } else {
+                    throw new IllegalArgumentException(n.getClass().getSimpleName());
+                }
+            }
+            return;
+        }
+        switch (node.getClass().getSimpleName()) {
+            case "ASTVarRef", "ASTThisVarRef", "ASTRootVarRef", "ASTProject", "ASTSelect", "ASTSelectFirst",
+                 "ASTSelectLast", "ASTAssign", "ASTEval" -> throw new IllegalArgumentException(node.getClass().getSimpleName());
+            default -> {
+                for(ognl.Node child : children(node)){
+                    astReferences(child, refs);
+                }
+            }
+        }
+    }
+
+    private static String constName(ognl.Node node) {
+        if(node instanceof ASTProperty p && !p.isIndexedAccess() && p.jjtGetNumChildren()==1
+                && p.jjtGetChild(0) instanceof ASTConst c && c.getValue() instanceof String name){
+            return name;
+        }
+        return null;
+    }
+
+    private static ognl.Node[] children(ognl.Node node) {
+        ognl.Node[] children = new ognl.Node[node.jjtGetNumChildren()];
+        for(int i=0; i<children.length; i++){
+            children[i] = node.jjtGetChild(i);
+        }
+        return children;
+    }
+
+    private static Node expr(String expr) {
+        return new Expr(expr, FlowScript.parse(expr));
+    }
+
+    private record Const(Object value) implements Node {
+        @Override
+        public Object eval(FlowScript script) {
+            return value;
+        }
+    }
+
+    private record Expr(String expr, Object parsed) implements Node {
+        @Override
+        public Object eval(FlowScript script) throws OgnlException {
+            return script.exec(parsed);
+        }
+    }
+
+    private record ListNode(Node[] items) implements Node {
+        @Override
+        public Object eval(FlowScript script) throws OgnlException {
+            List<Object> list = new ArrayList<>(items.length);
+            for(Node item : items){
+                list.add(item.eval(script));
+            }
+            return list;
+        }
+
+        @Override
+        public void write(FlowScript script, JsonGenerator gen, ObjectWriter writer, boolean skipNulls) throws OgnlException, IOException {
+            gen.writeStartArray();
+            for(Node item : items){
+                item.write(script, gen, writer, skipNulls);
+            }
+            gen.writeEndArray();
+        }
+    }
+
+    private record MapNode(String[] keys, Node[] values) implements Node {
+        @Override
+        public Object eval(FlowScript script) throws OgnlException {
+            Map<String, Object> m = HashMap.newHashMap(keys.length);
+            for(int i=0; i<keys.length; i++){
+                m.put(keys[i], values[i].eval(script));
+            }
+            return m;
+        }
+
+        @Override
+        public void write(FlowScript script, JsonGenerator gen, ObjectWriter writer, boolean skipNulls) throws OgnlException, IOException {
+            gen.writeStartObject();
+            for(int i=0; i<keys.length; i++){
+                if(values[i] instanceof MapNode || values[i] instanceof ListNode){
+                    gen.writeFieldName(keys[i]);
+                    values[i].write(script, gen, writer, skipNulls);
+                } else {
+                    Object val = values[i].eval(script);
+                    if(val==null && skipNulls) continue;
+                    gen.writeFieldName(keys[i]);
+                    writer.writeValue(gen, val);
+                }
+            }
+            gen.writeEndObject();
+        }
+    }
+
+    private record HeadersNode(String[] keys, Node[] values) implements Node {
+        @Override
+        public Object eval(FlowScript script) throws OgnlException {
+            Map<String, String> m = HashMap.newHashMap(keys.length);
+            for(int i=0; i<keys.length; i++){
+                if(values[i] instanceof Const c){
+                    m.put(keys[i], (String) c.value());
+                } else {
+                    Object val = values[i].eval(script);
+                    if(val!=null){
+                        m.put(keys[i], val.toString());
+                    }
+                }
+            }
+            return m;
+        }
+    }
+}
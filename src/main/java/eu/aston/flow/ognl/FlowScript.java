@@ -25,7 +25,10 @@ public class FlowScript {
 
     public boolean execWhere(String expr) throws OgnlException {
         if(expr==null) return false;
-        Object r = execExpr(expr);
+        return isTrue(execExpr(expr));
+    }
+
+    public static boolean isTrue(Object r) {
         if (r instanceof Boolean b) return b;
         if (r instanceof Number n) return n.intValue() != 0;
         if (r instanceof String s) return !s.isEmpty();
@@ -91,17 +94,24 @@ public class FlowScript {
 
     public Object execExpr(String expr) throws OgnlException {
         if(expr==null) return null;
-        Object expr2 = expressions.computeIfAbsent(expr, this::parseExpr);
-        if(expr2==null) return null;
+        return exec(parse(expr));
+    }
+
+    public Object exec(Object parsedExpr) throws OgnlException {
+        if(parsedExpr==null) return null;
         try{
-            return Ognl.getValue(expr2, ctx, root);
+            return Ognl.getValue(parsedExpr, ctx, root);
         }catch (OgnlException e){
             if(e.getReason() instanceof RuntimeException re) throw re;
             throw e;
         }
     }
 
-    private Object parseExpr(String expr) {
+    public static Object parse(String expr) {
+        return expressions.computeIfAbsent(expr, FlowScript::parseExpr);
+    }
+
+    private static Object parseExpr(String expr) {
         try{
             return Ognl.parseExpression(expr);
         }catch (Exception e){
@@ -117,6 +127,13 @@ public class FlowScript {
             return val;
         }
 
+        /**
+         * get would throw WaitingException, task of the key is not finished
+         */
+        public boolean isWaiting(Object key) {
+            return super.get(key) instanceof WaitingException;
+        }
+
         @Override
         public Set<Entry<String, Object>> entrySet() {
             return super.entrySet().stream()
@@ -0,0 +1,133 @@
+package eu.aston.flow.ognl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import eu.aston.flow.model.FlowTask;
+import eu.aston.flow.store.FlowTaskEntity;
+
+/**
+ * Step maps of one case (step.worker -> response, iterable steps as list by stepIndex) kept between ticks
+ * and updated only with tasks added or finished since the previous tick. Belongs to one task list
+ * of FlowCaseCache, reloaded case gets a new context. Finished tasks are pushed by finishTask
+ * through a concurrent queue, a tick applies only them instead of scanning all waiting tasks.
+ */
+public final class StepContext {
+
+    private final List<FlowTaskEntity> tasks;
+    private final Set<String> iterableSteps;
+    private final Map<String, FlowScript.LazyMap> steps = new HashMap<>();
+    //nedokoncene tasky zapisane ako WaitingException, podla id
+    private final Map<String, FlowTaskEntity> waiting = new HashMap<>();
+    //dokoncene tasky od posledneho ticku, queue je happens-before voci finishTask
+    private final Queue<FlowTaskEntity> finished = new ConcurrentLinkedQueue<>();
+    //otvorene tasky posledneho ticku
+    private final List<FlowTaskEntity> opened = new ArrayList<>();
+    private int applied = 0;
+
+    public StepContext(List<FlowTaskEntity> tasks, Set<String> iterableSteps) {
+        this.tasks = tasks;
+        this.iterableSteps = iterableSteps;
+    }
+
+    public boolean isFor(List<FlowTaskEntity> tasks) {
+        return this.tasks==tasks && applied<=tasks.size();
+    }
+
+    public Map<String, FlowScript.LazyMap> steps() {
+        return steps;
+    }
+
+    /**
+     * task finished after its fields were set, applied by the next update
+     */
+    public void finished(FlowTaskEntity task) {
+        finished.add(task);
+    }
+
+    /**
+     * applies finished and new tasks
+     * @return new open tasks (not created) by step and stepIndex
+     */
+    public Map<String, Map<Integer, List<FlowTaskEntity>>> update() {
+        FlowTaskEntity f;
+        while ((f = finished.poll())!=null){
+            //task mimo kontextu (novy alebo z inej instancie case) sa aplikuje so zoznamom
+            if(waiting.get(f.getId())==f){
+                waiting.remove(f.getId());
+                apply(f);
+            }
+        }
+        Map<String, Map<Integer, List<FlowTaskEntity>>> openTasks = new LinkedHashMap<>();
+        opened.clear();
+        for(int i=applied; i<tasks.size(); i++){
+            FlowTaskEntity t = tasks.get(i);
+            if(!apply(t)){
+                waiting.put(t.getId(), t);
+                if(t.getCreated()==null){
+                    opened.add(t);
+                    openTasks.computeIfAbsent(t.getStep(), k->new TreeMap<>())
+                             .computeIfAbsent(t.getStepIndex(), k->new ArrayList<>()).add(t);
+                }
+            }
+        }
+        applied = tasks.size();
+        return openTasks;
+    }
+
+    /**
+     * open tasks not created in the tick are removed from the case after the tick and created again next time
+     */
+    public void afterTick() {
+        int notCreated = 0;
+        for(FlowTaskEntity t : opened){
+            if(t.getCreated()==null){
+                waiting.remove(t.getId(), t);
+                notCreated++;
+            }
+        }
+        opened.clear();
+        applied = Math.max(applied-notCreated, 0);
+    }
+
+    public int waitingCount() {
+        return waiting.size();
+    }
+
+    /**
+     * @return true if the task was finished
+     */
+    @SuppressWarnings("unchecked")
+    private boolean apply(FlowTaskEntity t) {
+        FlowScript.LazyMap stepMap = steps.computeIfAbsent(t.getStep(), (k)->new FlowScript.LazyMap());
+        int index = !t.getWorker().equals(FlowTask.STEP_ITERATOR) && iterableSteps.contains(t.getStep()) ? t.getStepIndex() : -1;
+        Object resp;
+        boolean done;
+        //rovnaky zamok ako finishTask, response a finished su konzistentne
+        synchronized (t){
+            done = t.getFinished()!=null;
+            if(!done){
+                resp = new WaitingException(t.getWorker());
+            } else if (t.getError()!=null){
+                resp = new TaskResponseException("error "+t.getWorker()+" "+t.getResponseCode());
+            } else {
+                resp = t.getResponse();
+            }
+        }
+        if(index<0){
+            stepMap.put(t.getWorker(), resp);
+        } else {
+            List<Object> list = (List<Object>)stepMap.computeIfAbsent(t.getWorker(), (k)->new ArrayList<>());
+            while(list.size()<index+1) list.add(null);
+            list.set(index, resp);
+        }
+        return done;
+    }
+}
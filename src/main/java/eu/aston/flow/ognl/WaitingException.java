@@ -8,7 +8,8 @@ import com.fasterxml.jackson.annotation.JsonIgnoreType;
 public class WaitingException extends RuntimeException {
 
     public WaitingException(String message) {
-        super("waiting "+message);
+        //riadenie toku, vytvara sa pre kazdy nedokonceny task, stack trace netreba
+        super("waiting "+message, null, false, false);
     }
 
     public String getErrorType() {
@@ -7,17 +7,21 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import eu.aston.AppConfig;
 import eu.aston.flow.FlowDefStore;
 import eu.aston.flow.IFlowExecutor;
 import eu.aston.flow.QueueFlowBridge;
 import eu.aston.flow.def.FlowDef;
-import eu.aston.flow.def.FlowStepDef;
+import eu.aston.flow.def.FlowGraph;
 import eu.aston.flow.def.FlowWorkerDef;
 import eu.aston.flow.model.FlowTask;
 import eu.aston.flow.store.FlowCaseEntity;
@@ -25,6 +29,7 @@ import eu.aston.flow.store.FlowTaskEntity;
 import eu.aston.header.CallbackRunner;
 import eu.aston.header.HeaderConverter;
 import eu.aston.user.UserException;
+import eu.aston.utils.ChunkedBuffer;
 import eu.aston.utils.Hash;
 import jakarta.inject.Singleton;
 import ognl.OgnlException;
@@ -43,6 +48,9 @@ public class YamlOgnlFlowExecutor implements IFlowExecutor {
     private final byte[] taskApiKeySecret;
     private final ObjectMapper objectMapper;
     private final CallbackRunner callbackRunner;
+    private final ObjectWriter paramsWriter;
+    private final boolean skipNulls;
+    private final Map<String, StepContext> stepContexts;
 
     public YamlOgnlFlowExecutor(FlowDefStore flowDefStore, QueueFlowBridge flowBridge, AppConfig appConfig,
                                 ObjectMapper objectMapper, CallbackRunner callbackRunner) {
@@ -56,6 +64,11 @@ public class YamlOgnlFlowExecutor implements IFlowExecutor {
         SimpleModule module = new SimpleModule();
         module.addSerializer(TaskResponseException.class, new RuntimeExceptionSerializer());
         this.objectMapper.registerModule(module);
+        this.paramsWriter = this.objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        JsonInclude.Include include = this.objectMapper.getSerializationConfig().getDefaultPropertyInclusion().getContentInclusion();
+        this.skipNulls = include==JsonInclude.Include.NON_NULL || include==JsonInclude.Include.NON_ABSENT || include==JsonInclude.Include.NON_EMPTY;
+        //kontext drzi zoznam taskov z FlowCaseCache, odstrani sa s case z cache
+        this.stepContexts = new ConcurrentHashMap<>();
     }
 
     @Override
@@ -67,38 +80,58 @@ public class YamlOgnlFlowExecutor implements IFlowExecutor {
     public void execTick(FlowDef flowDef, FlowCaseEntity flowCase, List<FlowTaskEntity> tasks,
                          String stepCode, IFlowBack flowBack) {
 
-        List<String> iterableSteps = flowDef.getSteps().stream()
-                                            .filter(s->s.getItemsExpr()!=null)
-                                            .map(FlowStepDef::getCode)
-                                            .toList();
-
-        Map<String, FlowScript.LazyMap> steps = new HashMap<>();
-        for(FlowTaskEntity t : tasks){
-            FlowScript.LazyMap stepMap = steps.computeIfAbsent(t.getStep(), (k)->new FlowScript.LazyMap());
-            if(t.getWorker().equals(FlowTask.STEP_ITERATOR)){
-                stepMap = steps.computeIfAbsent(t.getStep(), (k)->new FlowScript.LazyMap());
-                taskToMap(stepMap, t, -1);
-            } else if(iterableSteps.contains(t.getStep())){
-                taskToMap(stepMap, t, t.getStepIndex());
-            } else {
-                taskToMap(stepMap, t, -1);
+        StepContext context = stepContext(flowDef, flowCase, tasks);
+        Map<String, FlowScript.LazyMap> steps = context.steps();
+        Map<String, Map<Integer, List<FlowTaskEntity>>> openedTasks = context.update();
+        try{
+            List<TaskSend> sends = new ArrayList<>();
+            //s dag su otvorene aj tasky dalsich krokov, kazdy krok ma svoj root
+            openedTasks.forEach((taskStep, byIndex)->byIndex.forEach(
+                    (stepIndex, openTasks)->execTickStep(taskStep, stepIndex, flowDef, flowCase, openTasks, steps, sends, flowBack)));
+            if(!sends.isEmpty()){
+                //vsetky tasky ticku sa zapisu naraz, az potom odchadzaju workerom
+                List<FlowTaskEntity> sentTasks = new ArrayList<>(sends.size());
+                for(TaskSend send : sends) sentTasks.add(send.task());
+                flowBack.sentTasks(sentTasks);
+                for(TaskSend send : sends){
+                    dispatch(send, flowDef, flowBack);
+                }
             }
+        }finally {
+            context.afterTick();
         }
+    }
 
-        Map<Integer, List<FlowTaskEntity>> openedTasks = tasks.stream()
-                .filter(t->t.getFinished()==null && t.getCreated()==null)
-                .collect(Collectors.groupingBy(FlowTaskEntity::getStepIndex));
+    @Override
+    public void taskFinished(String caseId, FlowTaskEntity task) {
+        StepContext context = stepContexts.get(caseId);
+        if(context!=null) context.finished(task);
+    }
+
+    @Override
+    public void caseClosed(String caseId) {
+        stepContexts.remove(caseId);
+    }
 
-        openedTasks.forEach((stepIndex, openTasks)->execTickStep(stepCode, stepIndex, flowDef, flowCase, openTasks, steps, flowBack));
+    /**
+     * ticks of one case run under its cache entry lock, the map is not locked
+     */
+    private StepContext stepContext(FlowDef flowDef, FlowCaseEntity flowCase, List<FlowTaskEntity> tasks) {
+        StepContext context = stepContexts.get(flowCase.getId());
+        if(context==null || !context.isFor(tasks)){
+            context = new StepContext(tasks, flowDef.getGraph().iterableSteps());
+            stepContexts.put(flowCase.getId(), context);
+        }
+        return context;
     }
 
     private void execTickStep(String stepCode, int stepIndex, FlowDef flowDef, FlowCaseEntity flowCase,
-                              List<FlowTaskEntity> openTasks, Map<String, FlowScript.LazyMap> steps, IFlowBack flowBack){
+                              List<FlowTaskEntity> openTasks, Map<String, FlowScript.LazyMap> steps, List<TaskSend> sends, IFlowBack flowBack){
 
         LOGGER.debug("next tick {}",flowCase.getId());
         LOGGER.debug("opened tasks {}", openTasks.stream().map(FlowTaskEntity::getWorker).toList());
 
-        Map<String, Object> root = new FlowScript.LazyMap();
+        FlowScript.LazyMap root = new FlowScript.LazyMap();
         root.put("case", flowCase);
         root.put("step", steps);
         Map<String, Object> aktStepMap = steps.get(stepCode);
@@ -116,41 +149,71 @@ public class YamlOgnlFlowExecutor implements IFlowExecutor {
 
         LOGGER.debug("root {}", root);
         FlowScript flowScript = new FlowScript(root);
+        FlowGraph graph = flowDef.getGraph();
+        int step = graph.stepOrdinal(stepCode);
         for(FlowTaskEntity task : openTasks){
-            execTask(task, flowDef, flowCase, flowScript, flowBack);
+            if(step>=0 && waitsForInput(graph, step, graph.workerOrdinal(step, task.getWorker()), root, steps)){
+                //vstup este nie je hotovy, vyhodnotenie by skoncilo na WaitingException
+                continue;
+            }
+            TaskSend send = execTask(task, flowDef, flowScript, flowBack);
+            if(send!=null) sends.add(send);
+        }
+    }
+
+    private boolean waitsForInput(FlowGraph graph, int step, int worker, FlowScript.LazyMap root, Map<String, FlowScript.LazyMap> steps) {
+        if(worker<0) return false;
+        //kruh alebo neznamy vstup, rozhodne vyhodnotenie ako doteraz
+        if(!graph.depsKnown(step, worker)) return false;
+        for(int dep : graph.deps(step, worker)){
+            int depStep = FlowGraph.depStep(dep);
+            int depWorker = FlowGraph.depWorker(dep);
+            if(depWorker==FlowGraph.ALL_WORKERS) continue;
+            String workerCode = graph.step(depStep).getWorkers().get(depWorker).getCode();
+            if(depStep==step){
+                if(root.isWaiting(workerCode)) return true;
+            } else {
+                FlowScript.LazyMap stepMap = steps.get(graph.step(depStep).getCode());
+                if(stepMap!=null && stepMap.isWaiting(workerCode)) return true;
+            }
         }
+        return false;
     }
 
-    private void execTask(FlowTaskEntity task, FlowDef flowDef, FlowCaseEntity flowCase, FlowScript flowScript, IFlowBack flowBack) {
+    /**
+     * @return prepared request of task or null (finished, waiting or held)
+     */
+    private TaskSend execTask(FlowTaskEntity task, FlowDef flowDef, FlowScript flowScript, IFlowBack flowBack) {
 
         FlowWorkerDef workerDef = flowDefStore.cacheWorker(flowDef, task.getStep(), task.getWorker());
-        if(workerDef.getWhere()!=null){
+        FlowPlan plan = workerDef.getPlan();
+        if(plan.hasWhere()){
             try{
-                if(!flowScript.execWhere(workerDef.getWhere())){
+                if(!plan.where(flowScript)){
                     if(workerDef.getWhereFalseResponse()!=null){
                         flowBack.finishTask(task, 200, workerDef.getWhereFalseResponse());
                     } else {
                         flowBack.finishTask(task, 406, "where false");
                     }
-                    return;
+                    return null;
                 }
             }catch (WaitingException e){
-                return;
+                return null;
             }catch (TaskResponseException e){
                 flowBack.finishTask(task, 400, e.getMessage());
-                return;
+                return null;
             }catch (OgnlException e){
                 LOGGER.warn("ignore task {} where {}, exec exception {}", task, workerDef.getWhere(), e.getMessage());
                 flowBack.finishTask(task, 400, "execute where exception "+e.getMessage());
-                return;
+                return null;
             }
         }
 
         String error = null;
         try{
-            sendTask(flowScript, workerDef, flowCase, flowDef, task, flowBack);
+            return prepareTask(flowScript, plan, workerDef, task, flowBack);
         }catch (WaitingException e) {
-            return;
+            return null;
         }catch (TaskResponseException e) {
             error = e.getMessage();
         }catch (OgnlException e) {
@@ -160,51 +223,71 @@ public class YamlOgnlFlowExecutor implements IFlowExecutor {
             LOGGER.warn("run task exception {}",e.getMessage());
             error = "send to worker error "+e.getMessage();
         }
-        if(error!=null){
+        task.setError(error);
+        flowBack.finishTask(task, 400, error);
+        return null;
+    }
+
+    private void dispatch(TaskSend send, FlowDef flowDef, IFlowBack flowBack) {
+        FlowTaskEntity task = send.task();
+        try{
+            sendTaskHttp(task, flowDef, send.method(), send.path(), send.headers(), send.params(), send.data(), send.blocked(), flowBack);
+        }catch (Exception e) {
+            LOGGER.warn("run task exception {}",e.getMessage());
+            String error = "send to worker error "+e.getMessage();
             task.setError(error);
             flowBack.finishTask(task, 400, error);
         }
     }
 
-    @SuppressWarnings("rawtypes")
-    private void sendTask(FlowScript script, FlowWorkerDef workerDef, FlowCaseEntity flowCase, FlowDef flowDef, FlowTaskEntity task, IFlowBack flowBack) throws Exception {
+    private TaskSend prepareTask(FlowScript script, FlowPlan plan, FlowWorkerDef workerDef, FlowTaskEntity task, IFlowBack flowBack) throws Exception {
 
         String path = workerDef.getPath();
-
-        if(path==null && workerDef.getPathExpr()!=null) {
-            Object o = script.execExpr(workerDef.getPathExpr());
-            path = o!=null ? o.toString() : null;
-        }
+        if(path==null) path = plan.path(script);
         if(path==null) throw new UserException("task has empty path");
+        if(flowBridge.isSaturated(path)){
+            flowBack.holdTask(task);
+            return null;
+        }
 
-        Map<String,String> headers = null;
-        if(workerDef.getHeaders()!=null){
-            headers = script.execMapS(workerDef.getHeaders());
+        Map<String,String> headers = plan.headers(script);
+        if(workerDef.getPriority()!=null){
+            headers = headers!=null ? new HashMap<>(headers) : new HashMap<>();
+            headers.put(HeaderConverter.H_PRIORITY, workerDef.getPriority());
         }
 
         Object params = null;
-        if(workerDef.getParams()!=null){
-            params = script.execMap(workerDef.getParams());
-            if (params instanceof Map paramsMap && paramsMap.size()==1 && paramsMap.containsKey(".")){
-                params = paramsMap.get(".");
+        ChunkedBuffer data = null;
+        if(plan.hasParams()){
+            if(appConfig.isStreamParams() && !path.equals(FlowTask.ECHO)){
+                //bez medzikroku cez map a byte[], plan pise json rovno do buffra
+                data = toJson(plan, script, null);
+            } else {
+                params = plan.params(script);
+                if(params!=null) data = toJson(plan, script, params);
             }
         }
 
-        sendTaskHttp(task, flowDef, workerDef.getMethod(), path, headers, params, workerDef.isBlocked(), flowBack);
+        return new TaskSend(task, workerDef.getMethod(), path, headers, params, data, workerDef.isBlocked());
     }
 
-    protected void sendTaskHttp(FlowTaskEntity task, FlowDef flowDef, String method, String path, Map<String, String> headers, Object params, boolean blocked, IFlowBack flowBack) throws Exception {
-        byte[] data = null;
-        if(params!=null){
-            try{
-                data = objectMapper.writeValueAsBytes(params);
-            }catch (JsonMappingException e){
-                if(e.getCause() instanceof WaitingException e2) throw e2;
-                if(e.getCause() instanceof TaskResponseException e2) throw e2;
-                throw e;
+    private ChunkedBuffer toJson(FlowPlan plan, FlowScript script, Object params) throws Exception {
+        ChunkedBuffer buffer = new ChunkedBuffer();
+        try(JsonGenerator gen = paramsWriter.createGenerator(buffer)){
+            if(params!=null){
+                paramsWriter.writeValue(gen, params);
+            } else if(!plan.writeParams(script, gen, paramsWriter, skipNulls)){
+                return null;
             }
+        }catch (JsonMappingException e){
+            if(e.getCause() instanceof WaitingException e2) throw e2;
+            if(e.getCause() instanceof TaskResponseException e2) throw e2;
+            throw e;
         }
+        return buffer;
+    }
 
+    protected void sendTaskHttp(FlowTaskEntity task, FlowDef flowDef, String method, String path, Map<String, String> headers, Object params, ChunkedBuffer data, boolean blocked, IFlowBack flowBack) throws Exception {
         flowBack.sentTask(task);
 
         if(path.equals(FlowTask.ECHO)){
@@ -231,13 +314,14 @@ public class YamlOgnlFlowExecutor implements IFlowExecutor {
 
         LOGGER.info("http task {} <= {}/{} - {}", path, task.getFlowCaseId(), task.getId(), task.getWorker());
         if(data!=null && flowDef.getLabels()!=null && flowDef.getLabels().containsKey("debug")){
-            LOGGER.info("data {}", new String(data));
+            LOGGER.info("data {}", new String(data.toByteArray(), StandardCharsets.UTF_8));
         } else if(data!=null && LOGGER.isDebugEnabled()){
-            LOGGER.debug("data {}", new String(data));
+            LOGGER.debug("data {}", new String(data.toByteArray(), StandardCharsets.UTF_8));
         }
         flowBack.sentTask(task);
+        String window = flowDef.getCode()+"/"+task.getStep()+"/"+task.getWorker();
         if(blocked){
-            callbackRunner.callAsync(method, uri, headers2, data, HttpResponse.BodyHandlers.ofByteArray())
+            callbackRunner.callAsync(window, method, uri, headers2, data, HttpResponse.BodyHandlers.ofByteArray())
                           .whenComplete((resp, e)-> completeCallBlocked(resp, e, task, flowBack));
         } else {
             String callbackPath = "/flow/response/"+ task.getId();
@@ -245,7 +329,7 @@ public class YamlOgnlFlowExecutor implements IFlowExecutor {
             String apiKey = Hash.hmacSha1(task.getId().getBytes(StandardCharsets.UTF_8), taskApiKeySecret);
             headers2.put(HeaderConverter.H_CALLBACK_PREFIX+"x-api-key", apiKey);
 
-            callbackRunner.callAsync(method, uri, headers2, data, HttpResponse.BodyHandlers.ofByteArray())
+            callbackRunner.callAsync(window, method, uri, headers2, data, HttpResponse.BodyHandlers.ofByteArray())
                           .whenComplete((resp, e)-> completeCall(resp, e, task, flowBack));
         }
     }
@@ -277,20 +361,5 @@ public class YamlOgnlFlowExecutor implements IFlowExecutor {
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private void taskToMap(FlowScript.LazyMap stepMap, FlowTaskEntity t, int index) {
-        Object resp = t.getResponse();
-        if(t.getFinished()==null){
-            resp = new WaitingException(t.getWorker());
-        } else if (t.getError()!=null){
-            resp = new TaskResponseException("error "+t.getWorker()+" "+t.getResponseCode());
-        }
-        if(index<0){
-            stepMap.put(t.getWorker(), resp);
-        } else {
-            List<Object> list = (List<Object>)stepMap.computeIfAbsent(t.getWorker(), (k)->new ArrayList<>());
-            while(list.size()<index+1) list.add(null);
-            list.set(index, resp);
-        }
-    }
+    private record TaskSend(FlowTaskEntity task, String method, String path, Map<String, String> headers, Object params, ChunkedBuffer data, boolean blocked) {}
 }
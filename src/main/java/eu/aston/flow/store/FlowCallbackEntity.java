@@ -0,0 +1,128 @@
+package eu.aston.flow.store;
+
+import java.time.Instant;
+import java.util.Map;
+
+import eu.aston.micronaut.sql.convert.JsonConverterFactory;
+import eu.aston.micronaut.sql.entity.Format;
+import eu.aston.micronaut.sql.entity.Table;
+import io.micronaut.core.annotation.Introspected;
+
+@Introspected
+@Table(name = "flow_callback")
+public class FlowCallbackEntity {
+    private String id;
+    private String flowCaseId;
+    private String url;
+    @Format(JsonConverterFactory.JSON)
+    private Map<String, String> headers;
+    private String body;
+    private int attempts;
+    private Integer lastStatus;
+    private String lastError;
+    private Instant created;
+    private Instant nextAttempt;
+    private Instant delivered;
+    private Instant dead;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getFlowCaseId() {
+        return flowCaseId;
+    }
+
+    public void setFlowCaseId(String flowCaseId) {
+        this.flowCaseId = flowCaseId;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public void setHeaders(Map<String, String> headers) {
+        this.headers = headers;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public void setBody(String body) {
+        this.body = body;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public Integer getLastStatus() {
+        return lastStatus;
+    }
+
+    public void setLastStatus(Integer lastStatus) {
+        this.lastStatus = lastStatus;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public Instant getCreated() {
+        return created;
+    }
+
+    public void setCreated(Instant created) {
+        this.created = created;
+    }
+
+    public Instant getNextAttempt() {
+        return nextAttempt;
+    }
+
+    public void setNextAttempt(Instant nextAttempt) {
+        this.nextAttempt = nextAttempt;
+    }
+
+    public Instant getDelivered() {
+        return delivered;
+    }
+
+    public void setDelivered(Instant delivered) {
+        this.delivered = delivered;
+    }
+
+    public Instant getDead() {
+        return dead;
+    }
+
+    public void setDead(Instant dead) {
+        this.dead = dead;
+    }
+
+    @Override
+    public String toString() {
+        return "FlowCallbackEntity{" + "id='" + id + '\'' + ", flowCaseId='" + flowCaseId + '\'' + ", url='" + url + '\'' + '}';
+    }
+}
@@ -0,0 +1,142 @@
+package eu.aston.flow.store;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.aston.utils.PgListener;
+import jakarta.inject.Singleton;
+
+/**
+ * Ownership of flow cases between replicas, flow_case.owner drives the case until flow_case.leaseUntil.
+ * Times are database time, so replicas do not depend on their clocks.
+ */
+@Singleton
+public class FlowCaseLeaseStore {
+
+    public static final String CH_TASK = "flow_task";
+
+    static final String SQL_ACQUIRE = """
+            update flow_case set owner=?, leaseUntil=current_timestamp + make_interval(secs => ?)
+            where id=?
+            """;
+    static final String SQL_RENEW = """
+            update flow_case set leaseUntil=current_timestamp + make_interval(secs => ?)
+            where owner=? and finished is null
+            returning id
+            """;
+    static final String SQL_ADOPT = """
+            update flow_case set owner=?, leaseUntil=current_timestamp + make_interval(secs => ?)
+            where id in (
+                select id from flow_case
+                where finished is null
+                and (leaseUntil<current_timestamp or (leaseUntil is null and created<current_timestamp - make_interval(secs => ?)))
+                limit ?
+                for update skip locked)
+            returning id
+            """;
+    static final String SQL_FINISH_TASK = """
+            update flow_task set finished=current_timestamp, responseCode=?, response=?, error=?
+            where id=? and finished is null
+            """;
+
+    private final DataSource dataSource;
+    private final ObjectMapper objectMapper;
+
+    public FlowCaseLeaseStore(DataSource dataSource, ObjectMapper objectMapper) {
+        this.dataSource = dataSource;
+        this.objectMapper = objectMapper;
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public void acquire(String caseId, String owner, int leaseSeconds) {
+        try(Connection c = dataSource.getConnection();
+            PreparedStatement ps = c.prepareStatement(SQL_ACQUIRE)){
+            ps.setString(1, owner);
+            ps.setInt(2, leaseSeconds);
+            ps.setString(3, caseId);
+            ps.executeUpdate();
+        }catch (SQLException e){
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * one statement for all cases of owner, returns cases still owned
+     */
+    public List<String> renew(String owner, int leaseSeconds) {
+        return ids(SQL_RENEW, ps->{
+            ps.setInt(1, leaseSeconds);
+            ps.setString(2, owner);
+        });
+    }
+
+    /**
+     * not finished cases with expired lease (failed replica) or without owner older than one lease
+     */
+    public List<String> adopt(String owner, int leaseSeconds, int limit) {
+        return ids(SQL_ADOPT, ps->{
+            ps.setString(1, owner);
+            ps.setInt(2, leaseSeconds);
+            ps.setInt(3, leaseSeconds);
+            ps.setInt(4, limit);
+        });
+    }
+
+    /**
+     * task of case owned by other replica is finished in db and the owner is notified
+     * @return false if task was already finished
+     */
+    public boolean finishTask(String caseId, String taskId, int responseCode, Object response, String error) {
+        String json;
+        try{
+            json = response!=null ? objectMapper.writeValueAsString(response) : null;
+        }catch (Exception e){
+            throw new RuntimeException("json serialize "+e.getMessage(), e);
+        }
+        try(Connection c = dataSource.getConnection()){
+            int n;
+            try(PreparedStatement ps = c.prepareStatement(SQL_FINISH_TASK)){
+                ps.setInt(1, responseCode);
+                ps.setString(2, json);
+                ps.setObject(3, error, Types.VARCHAR);
+                ps.setString(4, taskId);
+                n = ps.executeUpdate();
+            }
+            if(n>0) PgListener.notify(c, CH_TASK, caseId+':'+taskId);
+            return n>0;
+        }catch (SQLException e){
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    private List<String> ids(String sql, Binder binder) {
+        try(Connection c = dataSource.getConnection();
+            PreparedStatement ps = c.prepareStatement(sql)){
+            binder.bind(ps);
+            List<String> list = new ArrayList<>();
+            try(ResultSet rs = ps.executeQuery()){
+                while (rs.next()){
+                    list.add(rs.getString(1));
+                }
+            }
+            return list;
+        }catch (SQLException e){
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    private interface Binder {
+        void bind(PreparedStatement ps) throws SQLException;
+    }
+}
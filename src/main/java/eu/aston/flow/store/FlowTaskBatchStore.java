@@ -0,0 +1,415 @@
+package eu.aston.flow.store;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.sql.DataSource;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micronaut.context.annotation.Value;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-behind layer for task lifecycle writes. Statements issued within
+ * {@code app.taskBatchWindow} ms (or up to {@code app.taskBatchSize} statements)
+ * are written as jdbc batches in one transaction, inserts as multi-row statements.
+ * Window 0 writes directly through {@link IFlowTaskStore}, {@link #insertAll} as multi-row insert.
+ * Statements failed also as single statements mark their case, {@link #writeFailed} tells the tick
+ * to reload the case from db. Queue is written before shutdown.
+ */
+@Singleton
+public class FlowTaskBatchStore {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(FlowTaskBatchStore.class);
+
+    static final String SQL_INSERT = "insert into flow_task (id, flowCaseId, step, worker, stepIndex, responseCode, response, error, timeout, created, finished, queueSent) values ";
+    static final String SQL_INSERT_ROW = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    static final int INSERT_COLUMNS = 12;
+    //riadky v jednom multi-row inserte, postgres ma limit 65535 parametrov
+    static final int INSERT_ROWS = 1000;
+    static final String SQL_FINISH_OK = "update flow_task set finished=?, responseCode=?, response=?, error=null where id=?";
+    static final String SQL_FINISH_ERROR = "update flow_task set finished=?, responseCode=?, response=null, error=? where id=?";
+    static final String SQL_QUEUE_SENT = "update flow_task set queueSent=? where id=?";
+    private static final long CLOSE_WAIT_MS = 30_000L;
+
+    private final IFlowTaskStore taskStore;
+    private final DataSource dataSource;
+    private final ObjectMapper objectMapper;
+    private final long windowMs;
+    private final int batchSize;
+
+    //ReentrantLock, ticky bezia vo virtual threads a synchronized pri cakani blokuje carrier thread
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final ArrayDeque<TaskOp> queue = new ArrayDeque<>();
+    private long enqueued = 0L;
+    private long written = 0L;
+    private long flushTarget = 0L;
+    private boolean closed = false;
+    private final Thread writer;
+    private final Set<String> failedCases = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong rowsCounter = new AtomicLong();
+    private final AtomicLong batchCounter = new AtomicLong();
+    private final AtomicLong errorCounter = new AtomicLong();
+
+    public FlowTaskBatchStore(IFlowTaskStore taskStore,
+                              DataSource dataSource,
+                              ObjectMapper objectMapper,
+                              @Value("${app.taskBatchWindow:3}") long windowMs,
+                              @Value("${app.taskBatchSize:200}") int batchSize) {
+        this.taskStore = taskStore;
+        this.dataSource = dataSource;
+        this.objectMapper = objectMapper;
+        this.windowMs = windowMs;
+        this.batchSize = Math.max(batchSize, 1);
+        this.writer = windowMs>0 ? Thread.ofVirtual().name("task-batch").start(this::run) : null;
+    }
+
+    public void insert(FlowTaskEntity task) {
+        if(windowMs<=0){
+            taskStore.insert(task);
+            return;
+        }
+        add(new TaskOp(OpType.INSERT, task.getFlowCaseId(), task.getId(), List.of(task), null, null, null, task.getCreated()));
+    }
+
+    /**
+     * tasks of one fan-out, written with multi-row inserts as one statement of the queue
+     */
+    public void insertAll(List<FlowTaskEntity> tasks) {
+        if(tasks.isEmpty()) return;
+        if(windowMs<=0){
+            try(Connection c = dataSource.getConnection()){
+                insertRows(c, tasks);
+            }catch (SQLException e){
+                throw new TaskWriteException("insert tasks "+e.getMessage(), e);
+            }
+            return;
+        }
+        FlowTaskEntity first = tasks.getFirst();
+        add(new TaskOp(OpType.INSERT, first.getFlowCaseId(), first.getId(), tasks, null, null, null, first.getCreated()));
+    }
+
+    public void finishOk(String caseId, String id, int responseCode, Object response) {
+        if(windowMs<=0){
+            taskStore.finishOk(id, responseCode, response);
+            return;
+        }
+        add(new TaskOp(OpType.FINISH_OK, caseId, id, null, responseCode, response, null, Instant.now()));
+    }
+
+    public void finishError(String caseId, String id, int responseCode, String error) {
+        if(windowMs<=0){
+            taskStore.finishError(id, responseCode, error);
+            return;
+        }
+        add(new TaskOp(OpType.FINISH_ERROR, caseId, id, null, responseCode, null, error, Instant.now()));
+    }
+
+    /**
+     * @param caseId null if the case is not known
+     */
+    public void queueSent(String caseId, String id) {
+        if(windowMs<=0){
+            taskStore.queueSent(id);
+            return;
+        }
+        add(new TaskOp(OpType.QUEUE_SENT, caseId, id, null, null, null, null, Instant.now()));
+    }
+
+    /**
+     * Blocks until every statement added before this call is written.
+     * @throws TaskWriteException when interrupted, statements may not be written
+     */
+    public void flush() {
+        if(windowMs<=0) return;
+        lock.lock();
+        try{
+            long target = enqueued;
+            if(written>=target) return;
+            flushTarget = Math.max(flushTarget, target);
+            changed.signalAll();
+            while (written<target){
+                try{
+                    changed.await();
+                }catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    throw new TaskWriteException("flush interrupted, "+(target-written)+" statements not written", e);
+                }
+            }
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true once after a statement of the case was not written, cached state of the case is not in db
+     */
+    public boolean writeFailed(String caseId) {
+        return !failedCases.isEmpty() && failedCases.remove(caseId);
+    }
+
+    /**
+     * writes the queue and stops the writer, later statements are written directly
+     */
+    @PreDestroy
+    public void close() {
+        if(writer==null) return;
+        lock.lock();
+        try{
+            closed = true;
+            changed.signalAll();
+        }finally {
+            lock.unlock();
+        }
+        try{
+            writer.join(CLOSE_WAIT_MS);
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        if(writer.isAlive()){
+            LOGGER.warn("task batch writer not finished in {} ms, {} statements not written", CLOSE_WAIT_MS, enqueued-written);
+        }
+    }
+
+    public long getRowsCounter() {
+        return rowsCounter.get();
+    }
+
+    public long getBatchCounter() {
+        return batchCounter.get();
+    }
+
+    public long getErrorCounter() {
+        return errorCounter.get();
+    }
+
+    private void add(TaskOp op) {
+        lock.lock();
+        try{
+            if(!closed){
+                queue.add(op);
+                enqueued++;
+                if(queue.size()==1 || queue.size()>=batchSize){
+                    changed.signalAll();
+                }
+                return;
+            }
+        }finally {
+            lock.unlock();
+        }
+        //po zatvoreni (shutdown) sa zapisuje priamo
+        writeOps(List.of(op));
+    }
+
+    private void run() {
+        while (true){
+            List<TaskOp> ops = new ArrayList<>();
+            try{
+                lock.lock();
+                try{
+                    while (queue.isEmpty() && !closed){
+                        changed.await();
+                    }
+                    if(queue.isEmpty()) break;
+                    long deadline = System.currentTimeMillis()+windowMs;
+                    long rest;
+                    while (queue.size()<batchSize && flushTarget<=written && !closed
+                            && (rest = deadline-System.currentTimeMillis())>0){
+                        changed.await(rest, TimeUnit.MILLISECONDS);
+                    }
+                    while (!queue.isEmpty() && ops.size()<batchSize){
+                        ops.add(queue.poll());
+                    }
+                }finally {
+                    lock.unlock();
+                }
+            }catch (InterruptedException e){
+                LOGGER.warn("task batch writer interrupted, {} statements not written", queue.size());
+                break;
+            }
+            writeOps(ops);
+            lock.lock();
+            try{
+                written += ops.size();
+                changed.signalAll();
+            }finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void writeOps(List<TaskOp> ops) {
+        try{
+            write(ops);
+        }catch (Exception e){
+            LOGGER.warn("task batch write error {}, fallback to single statements", e.getMessage());
+            writeSingle(ops);
+        }
+    }
+
+    void write(List<TaskOp> ops) throws SQLException {
+        try(Connection c = dataSource.getConnection()){
+            boolean autoCommit = c.getAutoCommit();
+            c.setAutoCommit(false);
+            try{
+                //inserty musia ist pred update toho isteho tasku
+                List<FlowTaskEntity> inserts = new ArrayList<>();
+                for(TaskOp op : ops){
+                    if(op.type()==OpType.INSERT) inserts.addAll(op.tasks());
+                }
+                insertRows(c, inserts);
+                executeBatch(c, SQL_FINISH_OK, ops, OpType.FINISH_OK);
+                executeBatch(c, SQL_FINISH_ERROR, ops, OpType.FINISH_ERROR);
+                executeBatch(c, SQL_QUEUE_SENT, ops, OpType.QUEUE_SENT);
+                c.commit();
+            }catch (SQLException | RuntimeException e){
+                c.rollback();
+                throw e;
+            }finally {
+                c.setAutoCommit(autoCommit);
+            }
+        }
+        long rows = 0;
+        for(TaskOp op : ops){
+            rows += op.type()==OpType.INSERT ? op.tasks().size() : 1;
+        }
+        rowsCounter.addAndGet(rows);
+        batchCounter.incrementAndGet();
+    }
+
+    private void insertRows(Connection c, List<FlowTaskEntity> tasks) throws SQLException {
+        for(int from=0; from<tasks.size(); from+=INSERT_ROWS){
+            List<FlowTaskEntity> rows = tasks.subList(from, Math.min(from+INSERT_ROWS, tasks.size()));
+            StringBuilder sql = new StringBuilder(SQL_INSERT.length()+rows.size()*(SQL_INSERT_ROW.length()+1));
+            sql.append(SQL_INSERT);
+            for(int i=0; i<rows.size(); i++){
+                if(i>0) sql.append(',');
+                sql.append(SQL_INSERT_ROW);
+            }
+            try(PreparedStatement ps = c.prepareStatement(sql.toString())){
+                for(int i=0; i<rows.size(); i++){
+                    bindTask(ps, i*INSERT_COLUMNS, rows.get(i));
+                }
+                ps.executeUpdate();
+            }
+        }
+    }
+
+    private void bindTask(PreparedStatement ps, int offset, FlowTaskEntity t) throws SQLException {
+        ps.setString(offset+1, t.getId());
+        ps.setString(offset+2, t.getFlowCaseId());
+        ps.setString(offset+3, t.getStep());
+        ps.setString(offset+4, t.getWorker());
+        ps.setInt(offset+5, t.getStepIndex());
+        ps.setObject(offset+6, t.getResponseCode(), Types.INTEGER);
+        ps.setString(offset+7, json(t.getResponse()));
+        ps.setString(offset+8, t.getError());
+        ps.setObject(offset+9, t.getTimeout(), Types.INTEGER);
+        ps.setTimestamp(offset+10, timestamp(t.getCreated()));
+        ps.setTimestamp(offset+11, timestamp(t.getFinished()));
+        ps.setTimestamp(offset+12, timestamp(t.getQueueSent()));
+    }
+
+    private void executeBatch(Connection c, String sql, List<TaskOp> ops, OpType type) throws SQLException {
+        PreparedStatement ps = null;
+        try{
+            for(TaskOp op : ops){
+                if(op.type()!=type) continue;
+                if(ps==null) ps = c.prepareStatement(sql);
+                bind(ps, op);
+                ps.addBatch();
+            }
+            if(ps!=null) ps.executeBatch();
+        }finally {
+            if(ps!=null) ps.close();
+        }
+    }
+
+    private void bind(PreparedStatement ps, TaskOp op) throws SQLException {
+        switch (op.type()){
+            case FINISH_OK -> {
+                ps.setTimestamp(1, timestamp(op.time()));
+                ps.setInt(2, op.responseCode());
+                ps.setString(3, json(op.response()));
+                ps.setString(4, op.id());
+            }
+            case FINISH_ERROR -> {
+                ps.setTimestamp(1, timestamp(op.time()));
+                ps.setInt(2, op.responseCode());
+                ps.setString(3, op.error());
+                ps.setString(4, op.id());
+            }
+            case QUEUE_SENT -> {
+                ps.setTimestamp(1, timestamp(op.time()));
+                ps.setString(2, op.id());
+            }
+        }
+    }
+
+    private void writeSingle(List<TaskOp> ops) {
+        for(TaskOp op : ops){
+            if(op.type()==OpType.INSERT){
+                for(FlowTaskEntity task : op.tasks()){
+                    try{
+                        taskStore.insert(task);
+                        rowsCounter.incrementAndGet();
+                    }catch (Exception e){
+                        writeError(op, task.getId(), e);
+                    }
+                }
+                continue;
+            }
+            try{
+                switch (op.type()){
+                    case FINISH_OK -> taskStore.finishOk(op.id(), op.responseCode(), op.response());
+                    case FINISH_ERROR -> taskStore.finishError(op.id(), op.responseCode(), op.error());
+                    case QUEUE_SENT -> taskStore.queueSent(op.id());
+                }
+                rowsCounter.incrementAndGet();
+            }catch (Exception e){
+                writeError(op, op.id(), e);
+            }
+        }
+    }
+
+    private void writeError(TaskOp op, String taskId, Exception e) {
+        LOGGER.error("task {}/{} {} write error {}", op.caseId(), taskId, op.type(), e.getMessage());
+        errorCounter.incrementAndGet();
+        if(op.caseId()!=null) failedCases.add(op.caseId());
+    }
+
+    private String json(Object value) throws SQLException {
+        if(value==null) return null;
+        try{
+            return objectMapper.writeValueAsString(value);
+        }catch (Exception e){
+            throw new SQLException("json serialize "+e.getMessage(), e);
+        }
+    }
+
+    private static Timestamp timestamp(Instant instant) {
+        return instant!=null ? Timestamp.from(instant) : null;
+    }
+
+    enum OpType {INSERT, FINISH_OK, FINISH_ERROR, QUEUE_SENT}
+
+    record TaskOp(OpType type, String caseId, String id, List<FlowTaskEntity> tasks, Integer responseCode, Object response, String error, Instant time) {}
+}
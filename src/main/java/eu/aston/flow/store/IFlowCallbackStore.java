@@ -0,0 +1,78 @@
+package eu.aston.flow.store;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import eu.aston.micronaut.sql.aop.Query;
+import eu.aston.micronaut.sql.aop.SqlApi;
+
+@SqlApi
+public interface IFlowCallbackStore {
+
+    Optional<FlowCallbackEntity> loadById(String id);
+
+    void insert(FlowCallbackEntity callback);
+
+    @Query("""
+           update flow_callback set
+           delivered=current_timestamp,
+           nextAttempt=null,
+           attempts=:attempts,
+           lastStatus=:lastStatus,
+           lastError=null
+           where id=:id
+           """)
+    void delivered(String id, int attempts, int lastStatus);
+
+    @Query("""
+           update flow_callback set
+           attempts=:attempts,
+           lastStatus=:lastStatus,
+           lastError=:lastError,
+           nextAttempt=:nextAttempt
+           where id=:id
+           """)
+    void failed(String id, int attempts, Integer lastStatus, String lastError, Instant nextAttempt);
+
+    @Query("""
+           update flow_callback set
+           dead=current_timestamp,
+           nextAttempt=null,
+           attempts=:attempts,
+           lastStatus=:lastStatus,
+           lastError=:lastError
+           where id=:id
+           """)
+    void dead(String id, int attempts, Integer lastStatus, String lastError);
+
+    @Query("""
+           update flow_callback set
+           dead=null,
+           attempts=0,
+           nextAttempt=current_timestamp
+           where id=:id and dead is not null
+           """)
+    void retry(String id);
+
+    @Query("""
+           select *
+           from flow_callback
+           where delivered is null and dead is null and nextAttempt<=current_timestamp
+           order by nextAttempt
+           limit :limit
+           """)
+    List<FlowCallbackEntity> selectDue(int limit);
+
+    @Query("""
+           select *
+           from flow_callback
+           where dead is not null
+           order by dead desc
+           limit :limit
+           """)
+    List<FlowCallbackEntity> selectDead(int limit);
+
+    @Query("delete from flow_callback where delivered<:before")
+    void deleteDelivered(Instant before);
+}
@@ -64,9 +64,26 @@ public interface IFlowTaskStore {
         """)
     List<String> selectExpired();
 
+    @Query("""
+        select t.id
+        from flow_task t
+        join flow_case c on c.id=t.flowCaseId
+        where t.timeout is not null
+        and t.finished is null
+        and t.created + make_interval(secs => t.timeout) < current_timestamp
+        and c.owner=:owner
+        """)
+    List<String> selectExpiredByOwner(String owner);
+
     @Query("delete from flow_task where finished is null")
     void removeNotFinished();
 
+    @Query("select id from flow_task where finished is null")
+    List<String> selectIdNotFinished();
+
+    @Query("select id from flow_task where flowCaseId=:flowCaseId and finished is null")
+    List<String> selectIdNotFinishedByCaseId(String flowCaseId);
+
     @Query("delete from flow_task where id=:id")
     void removeTask(String id);
 }
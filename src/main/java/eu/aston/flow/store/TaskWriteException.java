@@ -0,0 +1,11 @@
+package eu.aston.flow.store;
+
+/**
+ * Task statements were not written, state of the case in memory is not in db.
+ */
+public class TaskWriteException extends RuntimeException {
+
+    public TaskWriteException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
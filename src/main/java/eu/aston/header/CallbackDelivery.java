@@ -0,0 +1,198 @@
+package eu.aston.header;
+
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.aston.flow.store.FlowCallbackEntity;
+import eu.aston.flow.store.IFlowCallbackStore;
+import eu.aston.utils.AsyncWindow;
+import eu.aston.utils.ID;
+import eu.aston.utils.SuperTimer;
+import io.micronaut.context.annotation.Value;
+import jakarta.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable case callbacks. Every callback is stored in flow_callback before the first attempt,
+ * failed attempts are retried with exponential backoff and jitter, after maxAttempts the
+ * callback is dead (dead-letter list in web ui, manual retry). Delivery is at least once.
+ * Callback is not sent before it is stored, failed insert is retried with the same backoff.
+ */
+@Singleton
+public class CallbackDelivery {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("CALLBACK");
+
+    private final IFlowCallbackStore callbackStore;
+    private final CallbackRunner callbackRunner;
+    private final ObjectMapper objectMapper;
+    private final SuperTimer superTimer;
+    private final int maxAttempts;
+    private final long backoffMs;
+    private final long maxBackoffMs;
+    private final int concurrency;
+    private final Map<String, AsyncWindow> destinations = new ConcurrentHashMap<>();
+    private final Set<String> active = ConcurrentHashMap.newKeySet();
+    private final AtomicLong deliveredCounter = new AtomicLong();
+    private final AtomicLong retryCounter = new AtomicLong();
+    private final AtomicLong deadCounter = new AtomicLong();
+    private final AtomicLong storeErrorCounter = new AtomicLong();
+
+    public CallbackDelivery(IFlowCallbackStore callbackStore, CallbackRunner callbackRunner,
+                            ObjectMapper objectMapper, SuperTimer superTimer,
+                            @Value("${app.callbackMaxAttempts:8}") int maxAttempts,
+                            @Value("${app.callbackBackoff:1000}") long backoffMs,
+                            @Value("${app.callbackMaxBackoff:600000}") long maxBackoffMs,
+                            @Value("${app.callbackConcurrency:4}") int concurrency) {
+        this.callbackStore = callbackStore;
+        this.callbackRunner = callbackRunner;
+        this.objectMapper = objectMapper;
+        this.superTimer = superTimer;
+        this.maxAttempts = maxAttempts;
+        this.backoffMs = backoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.concurrency = concurrency;
+        superTimer.schedulePeriod(Duration.ofSeconds(30).toMillis(), this::retryDue);
+        superTimer.schedulePeriod(Duration.ofHours(1).toMillis(), this::cleanDelivered);
+    }
+
+    public void deliver(String flowCaseId, Callback callback, Map<String, String> headers, Object body) {
+        FlowCallbackEntity entity = new FlowCallbackEntity();
+        entity.setId(ID.newId());
+        entity.setFlowCaseId(flowCaseId);
+        entity.setUrl(callback.url());
+        Map<String, String> headers2 = new HashMap<>();
+        if(callback.headers()!=null) headers2.putAll(callback.headers());
+        if(headers!=null) headers2.putAll(headers);
+        entity.setHeaders(headers2);
+        try{
+            entity.setBody(body instanceof String s ? s : objectMapper.writeValueAsString(body));
+        }catch (Exception e){
+            LOGGER.warn("{} - {} callback body error {}", flowCaseId, callback.url(), e.getMessage());
+            return;
+        }
+        entity.setAttempts(0);
+        entity.setCreated(Instant.now());
+        entity.setNextAttempt(entity.getCreated());
+        active.add(entity.getId());
+        store(entity, 1);
+    }
+
+    private void store(FlowCallbackEntity entity, int storeAttempts) {
+        try{
+            callbackStore.insert(entity);
+        }catch (Exception e){
+            storeErrorCounter.incrementAndGet();
+            long delay = backoff(storeAttempts);
+            LOGGER.warn("{} - {} store callback error {}, retry in {} ms", entity.getFlowCaseId(), entity.getUrl(), e.getMessage(), delay);
+            superTimer.schedule(delay, ()->store(entity, storeAttempts+1));
+            return;
+        }
+        send(entity);
+    }
+
+    private void send(FlowCallbackEntity entity) {
+        String destination;
+        try{
+            URI uri = new URI(entity.getUrl());
+            destination = uri.getScheme()+"://"+uri.getAuthority();
+        }catch (Exception e){
+            completed(entity, null, e);
+            return;
+        }
+        AsyncWindow window = destinations.computeIfAbsent(destination, k->new AsyncWindow(concurrency));
+        Callback callback = new Callback(entity.getUrl(), entity.getHeaders());
+        window.submit(()->callbackRunner.callbackAsync(entity.getFlowCaseId(), callback, null, entity.getBody()))
+              .whenComplete((resp, e)->completed(entity, resp, e));
+    }
+
+    private void completed(FlowCallbackEntity entity, HttpResponse<?> resp, Throwable e) {
+        int attempts = entity.getAttempts()+1;
+        entity.setAttempts(attempts);
+        try{
+            if(e==null && resp.statusCode()>=200 && resp.statusCode()<300){
+                deliveredCounter.incrementAndGet();
+                active.remove(entity.getId());
+                callbackStore.delivered(entity.getId(), attempts, resp.statusCode());
+                return;
+            }
+            Integer status = resp!=null ? resp.statusCode() : null;
+            String error = e!=null ? e.getClass().getSimpleName()+" "+e.getMessage() : "status "+status;
+            if(attempts>=maxAttempts){
+                LOGGER.warn("{} - {} callback dead after {} attempts, {}", entity.getFlowCaseId(), entity.getUrl(), attempts, error);
+                deadCounter.incrementAndGet();
+                active.remove(entity.getId());
+                callbackStore.dead(entity.getId(), attempts, status, error);
+                return;
+            }
+            long delay = backoff(attempts);
+            LOGGER.info("{} - {} callback attempt {} failed, retry in {} ms, {}", entity.getFlowCaseId(), entity.getUrl(), attempts, delay, error);
+            retryCounter.incrementAndGet();
+            entity.setNextAttempt(Instant.now().plusMillis(delay));
+            superTimer.schedule(delay, entity, this::send);
+            callbackStore.failed(entity.getId(), attempts, status, error, entity.getNextAttempt());
+        }catch (Exception e2){
+            LOGGER.warn("{} - {} store callback state error {}", entity.getFlowCaseId(), entity.getUrl(), e2.getMessage());
+        }
+    }
+
+    long backoff(int attempts) {
+        long delay = Math.min(maxBackoffMs, backoffMs << Math.min(attempts-1, 30));
+        //equal jitter, polovica fixna, polovica nahodna
+        return delay/2 + ThreadLocalRandom.current().nextLong(delay/2+1);
+    }
+
+    private void retryDue() {
+        List<FlowCallbackEntity> due = callbackStore.selectDue(100);
+        for(FlowCallbackEntity entity : due){
+            if(active.add(entity.getId())){
+                send(entity);
+            }
+        }
+    }
+
+    private void cleanDelivered() {
+        callbackStore.deleteDelivered(Instant.now().minus(Duration.ofDays(1)));
+    }
+
+    public List<FlowCallbackEntity> deadList(int limit) {
+        return callbackStore.selectDead(limit);
+    }
+
+    public boolean retryDead(String id) {
+        callbackStore.retry(id);
+        FlowCallbackEntity entity = callbackStore.loadById(id).orElse(null);
+        if(entity==null || entity.getDead()!=null || entity.getDelivered()!=null) return false;
+        if(active.add(entity.getId())){
+            send(entity);
+        }
+        return true;
+    }
+
+    public long getDeliveredCounter() {
+        return deliveredCounter.get();
+    }
+
+    public long getRetryCounter() {
+        return retryCounter.get();
+    }
+
+    public long getDeadCounter() {
+        return deadCounter.get();
+    }
+
+    public long getStoreErrorCounter() {
+        return storeErrorCounter.get();
+    }
+}
@@ -1,72 +1,148 @@
 package eu.aston.header;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.aston.utils.AsyncWindow;
+import eu.aston.utils.ChunkedBuffer;
+import eu.aston.utils.LatencyHistogram;
 import eu.aston.utils.SuperTimer;
+import io.micronaut.context.annotation.Value;
+import jakarta.inject.Named;
 import jakarta.inject.Singleton;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Outbound worker calls and callbacks over HttpClient.sendAsync, no thread waits for the remote side.
+ * In-flight requests are limited per host and per worker (path window), over the limit they queue.
+ * Hosts idle for {@code IDLE_HOST_MS} are dropped with their metrics.
+ */
 @Singleton
 public class CallbackRunner {
 
     private static final Logger LOGGER = LoggerFactory.getLogger("CALLBACK");
+    private static final long IDLE_HOST_MS = 600_000L;
 
     private final HttpClient httpClient;
+    private final HttpClient callbackHttpClient;
     private final ObjectMapper objectMapper;
-    private final SuperTimer superTimer;
+    private final int hostLimit;
+    private final int pathWindow;
+    private final long maxResponseSize;
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+    private final Map<String, AsyncWindow> pathWindows = new ConcurrentHashMap<>();
 
-    public CallbackRunner(HttpClient httpClient, ObjectMapper objectMapper, SuperTimer superTimer) {
+    public CallbackRunner(@Named("workers") HttpClient httpClient,
+                          @Named("callbacks") HttpClient callbackHttpClient,
+                          ObjectMapper objectMapper,
+                          SuperTimer superTimer,
+                          @Value("${app.httpHostLimit:64}") int hostLimit,
+                          @Value("${app.httpPathWindow:32}") int pathWindow,
+                          @Value("${app.httpMaxResponseSize:20971520}") long maxResponseSize) {
         this.httpClient = httpClient;
+        this.callbackHttpClient = callbackHttpClient;
         this.objectMapper = objectMapper;
-        this.superTimer = superTimer;
+        this.hostLimit = hostLimit;
+        this.pathWindow = pathWindow;
+        this.maxResponseSize = maxResponseSize;
+        if(superTimer!=null){
+            superTimer.schedulePeriod(60_000L, ()->evictIdleHosts(IDLE_HOST_MS));
+        }
     }
 
     public <T> HttpResponse<T> call(String method, URI uri, Map<String, String> headers, Object body, HttpResponse.BodyHandler<T> bodyHandler) throws Exception{
         HttpRequest.Builder b = HttpRequest.newBuilder(uri);
         if(headers!=null) headers.forEach(b::header);
         b.method(method, createBodyPublisher(body));
-        return httpClient.send(b.build(), bodyHandler);
+        return httpClient.send(b.build(), limitBody(bodyHandler));
     }
 
-    public <T> CompletableFuture<HttpResponse<T>> callAsync(String method, URI uri, Map<String, String> headers, Object body, HttpResponse.BodyHandler<T> bodyHandler){
-        CompletableFuture<HttpResponse<T>> future = new CompletableFuture<>();
-        superTimer.execute(()->{
-            try{
-                HttpResponse<T> response = call(method, uri, headers, body, bodyHandler);
-                LOGGER.debug("send {} {} response {}", method, uri, response.statusCode());
-                future.complete(response);
-            }catch (Exception e){
+    /**
+     * @param window path window key (flow/step/worker), requests of one worker definition share the window
+     */
+    public <T> CompletableFuture<HttpResponse<T>> callAsync(String window, String method, URI uri, Map<String, String> headers, Object body, HttpResponse.BodyHandler<T> bodyHandler){
+        HttpRequest request;
+        try{
+            HttpRequest.Builder b = HttpRequest.newBuilder(uri);
+            if(headers!=null) headers.forEach(b::header);
+            b.method(method, createBodyPublisher(body));
+            request = b.build();
+        }catch (Exception e){
+            LOGGER.warn("call {} {} request error {}", method, uri, e.getMessage());
+            return CompletableFuture.failedFuture(e);
+        }
+        return send(httpClient, request, bodyHandler, window).whenComplete((response, e)->{
+            if(e!=null){
                 LOGGER.warn("call {} {} response error {}", method, uri, e.getMessage());
                 LOGGER.debug("call {} {} response trace", method, uri, e);
-                future.completeExceptionally(e);
+            } else {
+                LOGGER.debug("send {} {} response {}", method, uri, response.statusCode());
             }
         });
-        return future;
-    }
-
-    public void callbackAsync(String eventId, Callback callback, Map<String, String> headers, Object body){
-        superTimer.execute(()-> callbackBlocked(eventId, callback, headers, body));
     }
 
-    public void callbackBlocked(String eventId, Callback callback, Map<String, String> headers, Object body) {
+    public CompletableFuture<HttpResponse<Void>> callbackAsync(String eventId, Callback callback, Map<String, String> headers, Object body){
+        HttpRequest request;
         try {
             HttpRequest.Builder b = HttpRequest.newBuilder(new URI(callback.url()));
             if(callback.headers()!=null) callback.headers().forEach(b::header);
             if(headers!=null) headers.forEach(b::header);
             b.POST(createBodyPublisher(body));
-            HttpResponse<byte[]> resp = httpClient.send(b.build(), HttpResponse.BodyHandlers.ofByteArray());
-            LOGGER.debug("{} - {} status {}", eventId, callback.url(), resp.statusCode());
+            request = b.build();
         } catch (Exception e) {
             LOGGER.debug("{} - {} error {}", eventId, callback.url(), e.getMessage());
+            return CompletableFuture.failedFuture(e);
+        }
+        return send(callbackHttpClient, request, HttpResponse.BodyHandlers.discarding(), null).whenComplete((resp, e)->{
+            if(e!=null){
+                LOGGER.debug("{} - {} error {}", eventId, callback.url(), e.getMessage());
+            } else {
+                LOGGER.debug("{} - {} status {}", eventId, callback.url(), resp.statusCode());
+            }
+        });
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> send(HttpClient client, HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler, String window) {
+        URI uri = request.uri();
+        String hostKey = uri.getScheme()+"://"+uri.getAuthority();
+        Host host = hosts.computeIfAbsent(hostKey, k->new Host(hostLimit));
+        host.lastUsed = System.currentTimeMillis();
+        HttpResponse.BodyHandler<T> handler = limitBody(bodyHandler);
+        if(window==null){
+            return host.send(client, request, handler);
         }
+        AsyncWindow pathWin = pathWindows.computeIfAbsent(window, k->new AsyncWindow(pathWindow));
+        return pathWin.submit(()->host.send(client, request, handler));
+    }
+
+    /**
+     * drops hosts without requests for idleMs (callback urls, $path hosts), request racing with
+     * the removal runs in the old window and the next one creates a new host
+     */
+    public void evictIdleHosts(long idleMs) {
+        long limit = System.currentTimeMillis()-idleMs;
+        for(String hostKey : hosts.keySet()){
+            hosts.computeIfPresent(hostKey, (k, h)->h.lastUsed<limit && h.getInFlight()==0 && h.getQueued()==0 ? null : h);
+        }
+    }
+
+    private <T> HttpResponse.BodyHandler<T> limitBody(HttpResponse.BodyHandler<T> bodyHandler) {
+        if(maxResponseSize<=0) return bodyHandler;
+        return info->new LimitedBodySubscriber<>(bodyHandler.apply(info), maxResponseSize,
+                                                 info.headers().firstValueAsLong("content-length").orElse(-1L));
     }
 
     private HttpRequest.BodyPublisher createBodyPublisher(Object body) throws JsonProcessingException {
@@ -74,9 +150,106 @@ public class CallbackRunner {
             return HttpRequest.BodyPublishers.ofString(s);
         } else if(body instanceof byte[] bytea){
             return HttpRequest.BodyPublishers.ofByteArray(bytea);
+        } else if(body instanceof ChunkedBuffer buffer){
+            return buffer.bodyPublisher();
         } else if(body!=null){
             return HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body));
         }
         return HttpRequest.BodyPublishers.noBody();
     }
+
+    public Map<String, Host> getHosts() {
+        return hosts;
+    }
+
+    public static final class Host {
+        private final AsyncWindow window;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private volatile long lastUsed;
+
+        private Host(int limit) {
+            this.window = new AsyncWindow(limit);
+        }
+
+        private <T> CompletableFuture<HttpResponse<T>> send(HttpClient httpClient, HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+            return window.submit(()->{
+                long start = System.nanoTime();
+                return httpClient.sendAsync(request, handler).whenComplete((r, e)->latency.recordSince(start));
+            });
+        }
+
+        public int getInFlight() {
+            return window.getInFlight();
+        }
+
+        public int getQueued() {
+            return window.getQueued();
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+    }
+
+    private static class LimitedBodySubscriber<T> implements HttpResponse.BodySubscriber<T> {
+        private final HttpResponse.BodySubscriber<T> delegate;
+        private final long limit;
+        private final long contentLength;
+        private final CompletableFuture<T> body = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+        private long size = 0;
+        private boolean failed = false;
+
+        private LimitedBodySubscriber(HttpResponse.BodySubscriber<T> delegate, long limit, long contentLength) {
+            this.delegate = delegate;
+            this.limit = limit;
+            this.contentLength = contentLength;
+            delegate.getBody().whenComplete((r, e)->{
+                if(e!=null) body.completeExceptionally(e);
+                else body.complete(r);
+            });
+        }
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return body;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if(contentLength>limit){
+                subscription.cancel();
+                failed = true;
+                body.completeExceptionally(new IOException("response body "+contentLength+" exceeds limit "+limit));
+                return;
+            }
+            delegate.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> items) {
+            if(failed) return;
+            for(ByteBuffer item : items) size += item.remaining();
+            if(size>limit){
+                subscription.cancel();
+                failed = true;
+                IOException e = new IOException("response body exceeds limit "+limit);
+                body.completeExceptionally(e);
+                delegate.onError(e);
+                return;
+            }
+            delegate.onNext(items);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if(!failed) delegate.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if(!failed) delegate.onComplete();
+        }
+    }
 }
@@ -13,6 +13,8 @@ public class HeaderConverter {
     public static final String H_ID = "fw-event-id";
     public static final String H_METHOD = "fw-method";
     public static final String H_URI = "fw-uri";
+    public static final String H_PRIORITY = "fw-priority";
+    public static final String H_ATTEMPT = "fw-attempt";
     public static final String H_STATUS = "fw-status";
     public static final String H_CALLBACK_URL = "fw-callback";
     public static final String H_CALLBACK_PREFIX = "fw-callback-";
@@ -48,6 +50,22 @@ public class HeaderConverter {
         return map;
     }
 
+    public static Map<String, String> eventResponse(Map<String, String> headers, String id) {
+        Map<String, String> map = new HashMap<>();
+        if(headers!=null){
+            headers.forEach((k,v)->{
+                String k2 = k.toLowerCase();
+                if(k2.startsWith(H_HEADER)){
+                    map.put(k2.substring(H_HEADER.length()), v);
+                } else if(headerNamesResponse.contains(k2)){
+                    map.put(k2, v);
+                }
+            });
+        }
+        map.put(H_ID, id);
+        return map;
+    }
+
     public static Callback createCallback(HttpHeaders headers){
         Callback callback = null;
         String callbackUrl = headers.get(H_CALLBACK_URL);
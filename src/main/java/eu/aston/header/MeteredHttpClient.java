@@ -0,0 +1,137 @@
+package eu.aston.header;
+
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+
+import eu.aston.utils.AsyncWindow;
+import eu.aston.utils.LatencyHistogram;
+
+/**
+ * HttpClient of one use case (workers, callbacks, blob, tracing) with its own executor,
+ * max concurrent requests, default request timeout and latency metrics.
+ */
+public class MeteredHttpClient extends HttpClient {
+
+    private final String name;
+    private final HttpClient delegate;
+    private final AsyncWindow window;
+    private final Duration requestTimeout;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+
+    public MeteredHttpClient(String name, HttpClient delegate, int maxConnections, Duration requestTimeout) {
+        this.name = name;
+        this.delegate = delegate;
+        this.window = new AsyncWindow(maxConnections);
+        this.requestTimeout = requestTimeout;
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler) throws IOException, InterruptedException {
+        try{
+            return sendAsync(request, responseBodyHandler).get();
+        }catch (ExecutionException e){
+            if(e.getCause() instanceof IOException e2) throw e2;
+            if(e.getCause() instanceof RuntimeException e2) throw e2;
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler) {
+        return sendAsync(request, responseBodyHandler, null);
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler,
+                                                            HttpResponse.PushPromiseHandler<T> pushPromiseHandler) {
+        HttpRequest request2 = requestTimeout!=null && request.timeout().isEmpty()
+                ? HttpRequest.newBuilder(request, (n, v)->true).timeout(requestTimeout).build()
+                : request;
+        return window.submit(()->{
+            long start = System.nanoTime();
+            return delegate.sendAsync(request2, responseBodyHandler, pushPromiseHandler).whenComplete((r, e)->{
+                latency.recordSince(start);
+                if(e!=null) errors.incrementAndGet();
+            });
+        });
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getInFlight() {
+        return window.getInFlight();
+    }
+
+    public int getQueued() {
+        return window.getQueued();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public Optional<CookieHandler> cookieHandler() {
+        return delegate.cookieHandler();
+    }
+
+    @Override
+    public Optional<Duration> connectTimeout() {
+        return delegate.connectTimeout();
+    }
+
+    @Override
+    public Redirect followRedirects() {
+        return delegate.followRedirects();
+    }
+
+    @Override
+    public Optional<ProxySelector> proxy() {
+        return delegate.proxy();
+    }
+
+    @Override
+    public SSLContext sslContext() {
+        return delegate.sslContext();
+    }
+
+    @Override
+    public SSLParameters sslParameters() {
+        return delegate.sslParameters();
+    }
+
+    @Override
+    public Optional<Authenticator> authenticator() {
+        return delegate.authenticator();
+    }
+
+    @Override
+    public Version version() {
+        return delegate.version();
+    }
+
+    @Override
+    public Optional<Executor> executor() {
+        return delegate.executor();
+    }
+}
@@ -3,9 +3,27 @@ package eu.aston.queue;
 import java.util.Map;
 
 import io.micronaut.core.annotation.Introspected;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 
+/**
+ * Worker response, the body buffer is valid only during the response handler, a handler which keeps it
+ * (e.g. writes it to the waiting client) takes own reference by retainedDuplicate().
+ */
 @Introspected
 public record EventResponse(int status,
                             Map<String,String> headers,
-                            byte[] body) {
+                            ByteBuf body) {
+
+    public EventResponse(int status, Map<String, String> headers, byte[] body) {
+        this(status, headers, body!=null ? Unpooled.wrappedBuffer(body) : Unpooled.EMPTY_BUFFER);
+    }
+
+    /**
+     * body as byte[], without copy if the response was created from byte[]
+     */
+    public byte[] bytes() {
+        return ByteBufUtil.getBytes(body, body.readerIndex(), body.readableBytes(), false);
+    }
 }
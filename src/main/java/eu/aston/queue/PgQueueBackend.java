@@ -0,0 +1,271 @@
+package eu.aston.queue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.aston.AppConfig;
+import eu.aston.utils.PgListener;
+import io.micronaut.context.annotation.Requires;
+import jakarta.inject.Singleton;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Queue events in table queue_event. Claim is update ... for update skip locked, so concurrent replicas
+ * never take the same row, new events and responses are announced by LISTEN/NOTIFY.
+ */
+@Singleton
+@Requires(property = "app.queueBackend", value = "postgres")
+public class PgQueueBackend implements QueueBackend {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(PgQueueBackend.class);
+    private static final TypeReference<Map<String, String>> HEADERS_TYPE = new TypeReference<>() {};
+
+    static final String CH_EVENT = "queue_event";
+    static final String CH_RESPONSE = "queue_response";
+
+    static final String SQL_INSERT = """
+            insert into queue_event (id, owner, method, path, headers, body, priority, attempts, created)
+            values (?, ?, ?, ?, ?, ?, ?, 0, ?)
+            """;
+    static final String SQL_CLAIM = """
+            update queue_event set
+            claimedBy=?,
+            leaseUntil=current_timestamp + make_interval(secs => ?),
+            attempts=attempts+1
+            where id in (
+                select id from queue_event
+                where path like ? and responseStatus is null
+                and (leaseUntil is null or leaseUntil<current_timestamp)
+                order by priority, created
+                limit ?
+                for update skip locked)
+            returning id, owner, method, path, headers, body, priority, attempts, created
+            """;
+    static final String SQL_RELEASE = """
+            update queue_event set claimedBy=null, leaseUntil=null
+            where id=? and responseStatus is null
+            returning path
+            """;
+    static final String SQL_RESPOND = """
+            update queue_event set responseStatus=?, responseHeaders=?, responseBody=?, leaseUntil=null
+            where id=? and responseStatus is null
+            returning owner
+            """;
+    static final String SQL_TAKE = """
+            delete from queue_event
+            where id=? and responseStatus is not null
+            returning responseStatus, responseHeaders, responseBody
+            """;
+    static final String SQL_DONE = "delete from queue_event where id=? returning claimedBy";
+    static final String SQL_DELETE_EXPIRED = "delete from queue_event where created<?";
+
+    private final DataSource dataSource;
+    private final ObjectMapper objectMapper;
+    private final String nodeId;
+    private final PgListener pgListener;
+
+    public PgQueueBackend(DataSource dataSource, ObjectMapper objectMapper, AppConfig appConfig) {
+        this.dataSource = dataSource;
+        this.objectMapper = objectMapper;
+        this.nodeId = appConfig.getNodeId();
+        this.pgListener = new PgListener(dataSource, CH_EVENT, CH_RESPONSE);
+    }
+
+    @Override
+    public String nodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        LOGGER.info("queue backend postgres, node {}", nodeId);
+        pgListener.start("queue-listen", notifications->notifications(notifications, listener));
+    }
+
+    @Override
+    public void publish(QueueEvent event) {
+        try(Connection c = dataSource.getConnection()){
+            try(PreparedStatement ps = c.prepareStatement(SQL_INSERT)){
+                ps.setString(1, event.getId());
+                ps.setString(2, nodeId);
+                ps.setString(3, event.getMethod());
+                ps.setString(4, event.getPath());
+                ps.setString(5, json(event.getHeaders()));
+                ps.setBytes(6, event.getBody());
+                ps.setInt(7, event.getPriority());
+                ps.setTimestamp(8, new Timestamp(event.getT1()));
+                ps.executeUpdate();
+            }
+            PgListener.notify(c, CH_EVENT, event.getPath());
+        }catch (SQLException e){
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public List<QueueEvent> claim(String prefix, int max, long leaseMs) {
+        List<QueueEvent> list = new ArrayList<>();
+        try(Connection c = dataSource.getConnection();
+            PreparedStatement ps = c.prepareStatement(SQL_CLAIM)){
+            ps.setString(1, nodeId);
+            ps.setDouble(2, leaseMs/1000.0);
+            ps.setString(3, likePrefix(prefix));
+            ps.setInt(4, max);
+            try(ResultSet rs = ps.executeQuery()){
+                while (rs.next()){
+                    QueueEvent event = new QueueEvent();
+                    event.setId(rs.getString("id"));
+                    event.setClaimed(!nodeId.equals(rs.getString("owner")));
+                    event.setMethod(rs.getString("method"));
+                    event.setPath(rs.getString("path"));
+                    event.setHeaders(headers(rs.getString("headers")));
+                    event.setBody(rs.getBytes("body"));
+                    event.setPriority(rs.getInt("priority"));
+                    event.setAttempts(rs.getInt("attempts"));
+                    event.setT1(rs.getTimestamp("created").getTime());
+                    list.add(event);
+                }
+            }
+        }catch (SQLException e){
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        return list;
+    }
+
+    @Override
+    public void release(String eventId) {
+        try(Connection c = dataSource.getConnection()){
+            String path = null;
+            try(PreparedStatement ps = c.prepareStatement(SQL_RELEASE)){
+                ps.setString(1, eventId);
+                try(ResultSet rs = ps.executeQuery()){
+                    if(rs.next()) path = rs.getString(1);
+                }
+            }
+            if(path!=null) PgListener.notify(c, CH_EVENT, path);
+        }catch (SQLException e){
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void respond(String eventId, int status, Map<String, String> headers, byte[] body) {
+        try(Connection c = dataSource.getConnection()){
+            String owner = null;
+            try(PreparedStatement ps = c.prepareStatement(SQL_RESPOND)){
+                ps.setInt(1, status);
+                ps.setString(2, json(headers));
+                ps.setBytes(3, body);
+                ps.setString(4, eventId);
+                try(ResultSet rs = ps.executeQuery()){
+                    if(rs.next()) owner = rs.getString(1);
+                }
+            }
+            if(owner!=null) PgListener.notify(c, CH_RESPONSE, eventId+':'+owner);
+        }catch (SQLException e){
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public EventResponse takeResponse(String eventId) {
+        try(Connection c = dataSource.getConnection();
+            PreparedStatement ps = c.prepareStatement(SQL_TAKE)){
+            ps.setString(1, eventId);
+            try(ResultSet rs = ps.executeQuery()){
+                if(!rs.next()) return null;
+                return new EventResponse(rs.getInt(1), headers(rs.getString(2)), rs.getBytes(3));
+            }
+        }catch (SQLException e){
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void done(String eventId) {
+        try(Connection c = dataSource.getConnection()){
+            String claimedBy = null;
+            try(PreparedStatement ps = c.prepareStatement(SQL_DONE)){
+                ps.setString(1, eventId);
+                try(ResultSet rs = ps.executeQuery()){
+                    if(rs.next()) claimedBy = rs.getString(1);
+                }
+            }
+            //kopiu eventu drzi ina replika
+            if(claimedBy!=null && !claimedBy.equals(nodeId)) PgListener.notify(c, CH_RESPONSE, eventId+':'+nodeId);
+        }catch (SQLException e){
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int deleteExpired(Instant before) {
+        try(Connection c = dataSource.getConnection();
+            PreparedStatement ps = c.prepareStatement(SQL_DELETE_EXPIRED)){
+            ps.setTimestamp(1, Timestamp.from(before));
+            return ps.executeUpdate();
+        }catch (SQLException e){
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        pgListener.close();
+    }
+
+    private void notifications(PGNotification[] notifications, Listener listener) {
+        //vela eventov na jednu path staci ohlasit raz
+        Set<String> paths = new LinkedHashSet<>();
+        for(PGNotification n : notifications){
+            if(CH_EVENT.equals(n.getName())){
+                paths.add(n.getParameter());
+            } else {
+                String p = n.getParameter();
+                int pos = p.indexOf(':');
+                if(pos>0) listener.onResponse(p.substring(0, pos), p.substring(pos+1));
+            }
+        }
+        for(String path : paths){
+            listener.onEvent(path);
+        }
+    }
+
+    static String likePrefix(String prefix) {
+        return prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_")+"%";
+    }
+
+    private String json(Map<String, String> headers) throws SQLException {
+        if(headers==null) return null;
+        try{
+            return objectMapper.writeValueAsString(headers);
+        }catch (Exception e){
+            throw new SQLException("json serialize "+e.getMessage(), e);
+        }
+    }
+
+    private Map<String, String> headers(String json) throws SQLException {
+        if(json==null) return new HashMap<>();
+        try{
+            return objectMapper.readValue(json, HEADERS_TYPE);
+        }catch (Exception e){
+            throw new SQLException("json parse "+e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package eu.aston.queue;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queue state shared by several api-flow replicas. The replica which adds an event owns its response
+ * handlers, any replica with a waiting worker claims the event, the response is delivered back to the owner.
+ * Without backend QueueStore works only in memory of one JVM.
+ */
+public interface QueueBackend {
+
+    String nodeId();
+
+    void start(Listener listener);
+
+    void publish(QueueEvent event);
+
+    /**
+     * events waiting under prefix, locked for leaseMs, attempts is the delivery number of this claim
+     */
+    List<QueueEvent> claim(String prefix, int max, long leaseMs);
+
+    /**
+     * claimed event without response is returned for the next claim
+     */
+    void release(String eventId);
+
+    /**
+     * response stored for the owner replica
+     */
+    void respond(String eventId, int status, Map<String, String> headers, byte[] body);
+
+    /**
+     * stored response of owned event, the event is deleted
+     */
+    EventResponse takeResponse(String eventId);
+
+    /**
+     * event finished by the owner, other replicas drop their claimed copy
+     */
+    void done(String eventId);
+
+    int deleteExpired(Instant before);
+
+    void close();
+
+    interface Listener {
+        void onEvent(String path);
+
+        void onResponse(String eventId, String owner);
+    }
+}
@@ -1,19 +1,32 @@
 package eu.aston.queue;
 
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Consumer;
 
 import eu.aston.header.Callback;
+import eu.aston.utils.TimingWheel;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 
 public class QueueEvent {
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_LOW = 2;
+
     private String id;
 
     private String method;
     private String path;
     private Map<String, String> headers = new HashMap<>();
-    private byte[] body;
+    private ByteBuf body;
     private Callback callback;
+    private boolean durable;
+    private boolean flowTask;
+    private boolean claimed;
+    private int priority = PRIORITY_NORMAL;
 
     private long t1 = System.currentTimeMillis();
     private long t2;
@@ -21,6 +34,12 @@ public class QueueEvent {
 
     private Runnable handleSend;
     private Consumer<EventResponse> handleResponse;
+    private TimingWheel.Timeout timeoutHandle;
+    private TimingWheel.Timeout leaseHandle;
+    private int attempts;
+    private WorkerGroup waitingIn;
+    private WorkerGroup sentIn;
+    private long memorySize;
 
     public String getId() {
         return id;
@@ -54,12 +73,49 @@ public class QueueEvent {
         this.headers = headers;
     }
 
-    public byte[] getBody() {
-        return body;
+    /**
+     * body as byte[], without copy if the body was set from byte[]
+     */
+    public synchronized byte[] getBody() {
+        if(body==null) return null;
+        return ByteBufUtil.getBytes(body, body.readerIndex(), body.readableBytes(), false);
     }
 
     public void setBody(byte[] body) {
-        this.body = body;
+        setContent(body!=null ? Unpooled.wrappedBuffer(body) : null);
+    }
+
+    /**
+     * body buffer (e.g. request body from netty), the event owns one reference until {@link #release()}
+     */
+    public synchronized void setContent(ByteBuf content) {
+        if(body!=null) body.release();
+        this.body = content;
+    }
+
+    /**
+     * new reference to the body for one write to a worker, the written response releases it
+     */
+    public synchronized ByteBuf retainedContent() {
+        return body!=null ? body.retainedDuplicate() : null;
+    }
+
+    public synchronized String bodyString() {
+        return body!=null ? body.toString(body.readerIndex(), body.readableBytes(), StandardCharsets.UTF_8) : null;
+    }
+
+    public synchronized int bodyLength() {
+        return body!=null ? body.readableBytes() : -1;
+    }
+
+    /**
+     * body is released when the event leaves the queue
+     */
+    public synchronized void release() {
+        if(body!=null){
+            body.release();
+            body = null;
+        }
     }
 
     public Callback getCallback() {
@@ -70,6 +126,53 @@ public class QueueEvent {
         this.callback = callback;
     }
 
+    public boolean isDurable() {
+        return durable;
+    }
+
+    public void setDurable(boolean durable) {
+        this.durable = durable;
+    }
+
+    public boolean isFlowTask() {
+        return flowTask;
+    }
+
+    public void setFlowTask(boolean flowTask) {
+        this.flowTask = flowTask;
+    }
+
+    /**
+     * copy of event owned by other replica, response goes through QueueBackend
+     */
+    public boolean isClaimed() {
+        return claimed;
+    }
+
+    public void setClaimed(boolean claimed) {
+        this.claimed = claimed;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * high, normal, low or 0-2, null/unknown is normal
+     */
+    public static int parsePriority(String priority) {
+        if(priority==null) return PRIORITY_NORMAL;
+        return switch (priority.trim().toLowerCase()) {
+            case "high", "0" -> PRIORITY_HIGH;
+            case "low", "2" -> PRIORITY_LOW;
+            default -> PRIORITY_NORMAL;
+        };
+    }
+
     public long getT1() {
         return t1;
     }
@@ -109,4 +212,84 @@ public class QueueEvent {
     public void setHandleResponse(Consumer<EventResponse> handleResponse) {
         this.handleResponse = handleResponse;
     }
+
+    public TimingWheel.Timeout getTimeoutHandle() {
+        return timeoutHandle;
+    }
+
+    public void setTimeoutHandle(TimingWheel.Timeout timeoutHandle) {
+        this.timeoutHandle = timeoutHandle;
+    }
+
+    public TimingWheel.Timeout getLeaseHandle() {
+        return leaseHandle;
+    }
+
+    public void setLeaseHandle(TimingWheel.Timeout leaseHandle) {
+        this.leaseHandle = leaseHandle;
+    }
+
+    /**
+     * number of deliveries to a worker, 1 for the first send
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public synchronized void setWaitingIn(WorkerGroup waitingIn) {
+        this.waitingIn = waitingIn;
+    }
+
+    /**
+     * worker group where the event waits, null after the first call
+     */
+    public synchronized WorkerGroup takeWaitingIn() {
+        WorkerGroup wg = waitingIn;
+        waitingIn = null;
+        return wg;
+    }
+
+    public synchronized void setSentIn(WorkerGroup sentIn) {
+        this.sentIn = sentIn;
+    }
+
+    /**
+     * worker group which holds the in-flight slot of the event, null after the first call
+     */
+    public synchronized WorkerGroup takeSentIn() {
+        WorkerGroup wg = sentIn;
+        sentIn = null;
+        return wg;
+    }
+
+    /**
+     * event waits in a worker group or holds its in-flight slot
+     */
+    public synchronized boolean isQueued() {
+        return waitingIn!=null || sentIn!=null;
+    }
+
+    /**
+     * estimated heap size of the event, object headers + strings + body
+     */
+    public long memorySize() {
+        if(memorySize==0){
+            long size = 120 + strSize(id) + strSize(method) + strSize(path) + (body!=null ? body.readableBytes()+16 : 0);
+            if(headers!=null){
+                for(Map.Entry<String, String> e : headers.entrySet()){
+                    size += 48 + strSize(e.getKey()) + strSize(e.getValue());
+                }
+            }
+            memorySize = size;
+        }
+        return memorySize;
+    }
+
+    private static long strSize(String s) {
+        return s!=null ? 40+s.length() : 0;
+    }
 }
@@ -0,0 +1,134 @@
+package eu.aston.queue;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.aston.utils.LatencyHistogram;
+
+/**
+ * Waiting event ids of a worker group in priority lanes (high, normal, low).
+ * Dequeue is weighted round-robin 8:4:1 over non empty lanes, a lane whose head waits longer
+ * than maxWait is served first (starvation protection).
+ */
+public class QueueLanes {
+
+    public static final String[] NAMES = {"high", "normal", "low"};
+    private static final int[] PATTERN = weightedPattern(new int[]{8, 4, 1});
+
+    private final Lane[] lanes = new Lane[NAMES.length];
+    private final AtomicLong tick = new AtomicLong();
+    private final long maxWait;
+
+    public QueueLanes(long maxWait) {
+        this.maxWait = maxWait;
+        for(int i=0; i<lanes.length; i++) lanes[i] = new Lane();
+    }
+
+    public void add(String eventId, int priority) {
+        Lane lane = lanes[Math.clamp(priority, 0, lanes.length-1)];
+        lane.queue.add(new Entry(eventId, System.currentTimeMillis()));
+        lane.depth.incrementAndGet();
+    }
+
+    /**
+     * redelivered event, served before the waiting events of its lane
+     */
+    public void addFirst(String eventId, int priority) {
+        Lane lane = lanes[Math.clamp(priority, 0, lanes.length-1)];
+        lane.queue.addFirst(new Entry(eventId, System.currentTimeMillis()));
+        lane.depth.incrementAndGet();
+    }
+
+    public String poll() {
+        while (!isEmpty()) {
+            Lane lane = nextLane();
+            if(lane==null) continue;
+            Entry e = lane.queue.poll();
+            if(e!=null){
+                lane.depth.decrementAndGet();
+                lane.waitTime.record(System.currentTimeMillis()-e.time);
+                return e.id;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * next id which poll would return (without starvation and weights, highest non empty lane)
+     */
+    public String peek() {
+        for(Lane lane : lanes){
+            Entry e = lane.queue.peek();
+            if(e!=null) return e.id;
+        }
+        return null;
+    }
+
+    public boolean isEmpty() {
+        for(Lane lane : lanes){
+            if(!lane.queue.isEmpty()) return false;
+        }
+        return true;
+    }
+
+    public int size() {
+        int n = 0;
+        for(Lane lane : lanes) n += lane.depth.get();
+        return n;
+    }
+
+    public int depth(int priority) {
+        return lanes[priority].depth.get();
+    }
+
+    public LatencyHistogram waitTime(int priority) {
+        return lanes[priority].waitTime;
+    }
+
+    private Lane nextLane() {
+        long now = System.currentTimeMillis();
+        Lane oldest = null;
+        long oldestTime = now-maxWait;
+        for(Lane lane : lanes){
+            Entry e = lane.queue.peek();
+            if(e!=null && e.time<oldestTime){
+                oldest = lane;
+                oldestTime = e.time;
+            }
+        }
+        if(oldest!=null) return oldest;
+        int preferred = PATTERN[(int)(tick.getAndIncrement() % PATTERN.length)];
+        for(int i=0; i<lanes.length; i++){
+            Lane lane = lanes[(preferred+i) % lanes.length];
+            if(!lane.queue.isEmpty()) return lane;
+        }
+        return null;
+    }
+
+    //smooth weighted round-robin, napr. 8:4:1 => 0,1,0,0,1,0,2,0,1,0,0,1,0
+    private static int[] weightedPattern(int[] weights) {
+        int total = 0;
+        for(int w : weights) total += w;
+        int[] pattern = new int[total];
+        int[] current = new int[weights.length];
+        for(int n=0; n<total; n++){
+            int best = 0;
+            for(int i=0; i<weights.length; i++){
+                current[i] += weights[i];
+                if(current[i]>current[best]) best = i;
+            }
+            current[best] -= total;
+            pattern[n] = best;
+        }
+        return pattern;
+    }
+
+    private record Entry(String id, long time) {}
+
+    private static class Lane {
+        private final ConcurrentLinkedDeque<Entry> queue = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger depth = new AtomicInteger();
+        private final LatencyHistogram waitTime = new LatencyHistogram();
+    }
+}
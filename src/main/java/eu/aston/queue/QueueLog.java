@@ -0,0 +1,325 @@
+package eu.aston.queue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import eu.aston.header.Callback;
+import eu.aston.header.HeaderConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of durable queue events in memory-mapped segment files (queue-{seq}.log).
+ * Record: int length, int crc32, byte type (ADD/ACK), payload. In-memory index id -> segment, offset.
+ * Segment is deleted when all its events are acked and all older segments are deleted,
+ * compact() moves the last live events of a mostly dead oldest segment to the active one.
+ */
+public class QueueLog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueueLog.class);
+
+    private static final byte ADD = 1;
+    private static final byte ACK = 2;
+    private static final int HEADER = 8;
+
+    private final Path dir;
+    private final int segmentSize;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final Map<String, Loc> index = new HashMap<>();
+    private Segment active;
+    private long nextSeq = 1;
+
+    public QueueLog(Path dir, int segmentSize) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * open segments and return not acked events in append order
+     */
+    public synchronized List<QueueEvent> open() throws IOException {
+        Files.createDirectories(dir);
+        List<Path> files;
+        try(Stream<Path> s = Files.list(dir)){
+            files = s.filter(p->p.getFileName().toString().matches("queue-\\d+\\.log")).sorted().toList();
+        }
+        Map<String, QueueEvent> events = new LinkedHashMap<>();
+        for(Path file : files){
+            Segment seg = new Segment(file, seq(file), (int) Files.size(file));
+            segments.add(seg);
+            nextSeq = seg.seq+1;
+            scan(seg, events);
+        }
+        deletePrefix();
+        active = segments.peekLast();
+        if(active==null) active = newSegment(segmentSize);
+        LOGGER.info("queue log {} segments, {} events", segments.size(), events.size());
+        return new ArrayList<>(events.values());
+    }
+
+    private void scan(Segment seg, Map<String, QueueEvent> events) {
+        ByteBuffer buf = seg.buf;
+        int pos = 0;
+        CRC32 crc = new CRC32();
+        while(pos+HEADER < buf.capacity()){
+            int len = buf.getInt(pos);
+            if(len<=0 || pos+HEADER+len > buf.capacity()) break;
+            byte[] data = new byte[len];
+            buf.get(pos+HEADER, data);
+            crc.reset();
+            crc.update(data);
+            if((int)crc.getValue()!=buf.getInt(pos+4)){
+                LOGGER.warn("queue log {} broken record at {}", seg.file, pos);
+                break;
+            }
+            try{
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 1, len-1));
+                if(data[0]==ADD){
+                    QueueEvent event = readEvent(in);
+                    events.put(event.getId(), event);
+                    indexAdd(event.getId(), seg, pos);
+                } else if(data[0]==ACK){
+                    String id = readStr(in);
+                    events.remove(id);
+                    indexRemove(id);
+                }
+            }catch (IOException e){
+                LOGGER.warn("queue log {} invalid record at {} {}", seg.file, pos, e.getMessage());
+                break;
+            }
+            pos += HEADER+len;
+        }
+        seg.buf.position(pos);
+    }
+
+    public synchronized void append(QueueEvent event) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(256+Math.max(event.bodyLength(), 0));
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeByte(ADD);
+        writeEvent(out, event);
+        int pos = write(bos.toByteArray());
+        indexAdd(event.getId(), active, pos);
+    }
+
+    public synchronized void ack(String id) throws IOException {
+        if(indexRemove(id)==null) return;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeByte(ACK);
+        writeStr(out, id);
+        write(bos.toByteArray());
+        deletePrefix();
+    }
+
+    public synchronized void flush() {
+        if(active!=null) active.buf.force();
+    }
+
+    /**
+     * oldest segment with less than quarter of live records is rewritten to the active segment
+     */
+    public synchronized void compact() throws IOException {
+        Segment first = segments.peekFirst();
+        if(first==null || first==active || first.live==0 || first.live*4>=first.records) return;
+        List<Map.Entry<String, Loc>> moved = new ArrayList<>();
+        for(Map.Entry<String, Loc> e : index.entrySet()){
+            if(e.getValue().seg==first) moved.add(e);
+        }
+        for(Map.Entry<String, Loc> e : moved){
+            int pos = e.getValue().pos;
+            byte[] data = new byte[first.buf.getInt(pos)];
+            first.buf.get(pos+HEADER, data);
+            int pos2 = write(data);
+            indexAdd(e.getKey(), active, pos2);
+        }
+        LOGGER.info("queue log compact {} moved {} events", first.file, moved.size());
+        deletePrefix();
+    }
+
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    public synchronized int liveCount() {
+        return index.size();
+    }
+
+    public synchronized void close() {
+        flush();
+        segments.clear();
+        index.clear();
+    }
+
+    private int write(byte[] data) throws IOException {
+        int need = HEADER+data.length+4;
+        if(active.buf.remaining()<need){
+            active.buf.force();
+            active = newSegment(Math.max(segmentSize, need));
+            deletePrefix();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        MappedByteBuffer buf = active.buf;
+        int pos = buf.position();
+        buf.putInt(pos+4, (int)crc.getValue());
+        buf.put(pos+HEADER, data);
+        buf.putInt(pos+HEADER+data.length, 0);
+        //dlzka az nakoniec, neuplny zapis sa pri replay ignoruje
+        buf.putInt(pos, data.length);
+        buf.position(pos+HEADER+data.length);
+        return pos;
+    }
+
+    private void indexAdd(String id, Segment seg, int pos) {
+        Loc old = index.put(id, new Loc(seg, pos));
+        if(old!=null) old.seg.live--;
+        seg.live++;
+        seg.records++;
+    }
+
+    private Loc indexRemove(String id) {
+        Loc loc = index.remove(id);
+        if(loc!=null) loc.seg.live--;
+        return loc;
+    }
+
+    private void deletePrefix() {
+        while(segments.size()>1 && segments.peekFirst().live==0 && segments.peekFirst()!=active){
+            Segment seg = segments.pollFirst();
+            try{
+                Files.deleteIfExists(seg.file);
+            }catch (IOException e){
+                LOGGER.warn("queue log delete {} error {}", seg.file, e.getMessage());
+            }
+        }
+    }
+
+    private Segment newSegment(int size) throws IOException {
+        Path file = dir.resolve(String.format("queue-%016d.log", nextSeq));
+        Segment seg = new Segment(file, nextSeq++, size);
+        segments.add(seg);
+        return seg;
+    }
+
+    private static long seq(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(6, name.length()-4));
+    }
+
+    private static void writeEvent(DataOutputStream out, QueueEvent event) throws IOException {
+        writeStr(out, event.getId());
+        writeStr(out, event.getMethod());
+        writeStr(out, event.getPath());
+        out.writeBoolean(event.isFlowTask());
+        out.writeLong(event.getT1());
+        writeMap(out, event.getHeaders());
+        if(event.getCallback()!=null){
+            out.writeBoolean(true);
+            writeStr(out, event.getCallback().url());
+            writeMap(out, event.getCallback().headers());
+        } else {
+            out.writeBoolean(false);
+        }
+        byte[] body = event.getBody();
+        out.writeInt(body!=null ? body.length : -1);
+        if(body!=null) out.write(body);
+    }
+
+    private static QueueEvent readEvent(DataInputStream in) throws IOException {
+        QueueEvent event = new QueueEvent();
+        event.setId(readStr(in));
+        event.setMethod(readStr(in));
+        event.setPath(readStr(in));
+        event.setFlowTask(in.readBoolean());
+        event.setT1(in.readLong());
+        event.setHeaders(readMap(in));
+        if(in.readBoolean()){
+            event.setCallback(new Callback(readStr(in), readMap(in)));
+        }
+        int len = in.readInt();
+        if(len>=0){
+            byte[] body = new byte[len];
+            in.readFully(body);
+            event.setBody(body);
+        }
+        event.setDurable(true);
+        if(event.getHeaders()!=null) event.setPriority(QueueEvent.parsePriority(event.getHeaders().get(HeaderConverter.H_PRIORITY)));
+        return event;
+    }
+
+    private static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException {
+        out.writeInt(map!=null ? map.size() : -1);
+        if(map!=null){
+            for(Map.Entry<String, String> e : map.entrySet()){
+                writeStr(out, e.getKey());
+                writeStr(out, e.getValue());
+            }
+        }
+    }
+
+    private static Map<String, String> readMap(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if(size<0) return null;
+        Map<String, String> map = new HashMap<>();
+        for(int i=0; i<size; i++){
+            map.put(readStr(in), readStr(in));
+        }
+        return map;
+    }
+
+    private static void writeStr(DataOutputStream out, String s) throws IOException {
+        if(s==null){
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readStr(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if(len<0) return null;
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private record Loc(Segment seg, int pos) {}
+
+    private static class Segment {
+        private final Path file;
+        private final long seq;
+        private final MappedByteBuffer buf;
+        private int live = 0;
+        private int records = 0;
+
+        private Segment(Path file, long seq, int size) throws IOException {
+            this.file = file;
+            this.seq = seq;
+            try(RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")){
+                if(raf.length()<size) raf.setLength(size);
+                //mapovanie plati aj po zatvoreni kanala
+                this.buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+    }
+}
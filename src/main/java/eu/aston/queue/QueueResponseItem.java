@@ -0,0 +1,17 @@
+package eu.aston.queue;
+
+import java.util.Map;
+
+import io.micronaut.core.annotation.Introspected;
+import io.micronaut.core.annotation.Nullable;
+
+/**
+ * one result of batch /.queue/response, textual body as body, binary as bodyBase64
+ */
+@Introspected
+public record QueueResponseItem(String id,
+                                int status,
+                                @Nullable Map<String, String> headers,
+                                @Nullable String body,
+                                @Nullable String bodyBase64) {
+}
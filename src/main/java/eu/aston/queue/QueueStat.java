@@ -10,6 +10,16 @@ public record QueueStat(
         String prefix,
         int eventsCount,
         int waitingEvents,
+        List<Integer> laneDepths,
+        long waitingBytes,
+        long bytesPerEvent,
+        int waitingWorkers,
+        int inFlight,
+        long rejected,
+        long redelivered,
+        long leaseFailed,
+        long dispatchP50ms,
+        long dispatchP99ms,
         Instant oldestEvent,
         Instant lastWorkerCall,
         int worker120,
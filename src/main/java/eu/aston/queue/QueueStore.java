@@ -1,23 +1,39 @@
 package eu.aston.queue;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.TreeMap;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 import eu.aston.header.CallbackRunner;
+import eu.aston.header.HeaderConverter;
 import eu.aston.utils.SuperTimer;
+import io.micronaut.context.annotation.Value;
+import io.micronaut.core.annotation.Nullable;
+import io.micronaut.http.HttpHeaders;
 import io.micronaut.http.HttpResponse;
+import io.micronaut.http.MediaType;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import jakarta.inject.Singleton;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,33 +41,159 @@ import org.slf4j.LoggerFactory;
 @Singleton
 public class QueueStore {
     private static final Logger LOGGER = LoggerFactory.getLogger(QueueStore.class);
+    private static final int CLAIM_BATCH = 100;
+    private static final long CLAIM_LEASE = Duration.ofMinutes(5).toMillis();
     private final ConcurrentHashMap<String, QueueEvent> eventMap = new ConcurrentHashMap<>();
-    private final TreeMap<String, WorkerGroup> workerTree = new TreeMap<>();
+    private final WorkerRouter router;
+    //eventy bez worker group, kluc path+'\0'+id, pri vytvoreni group sa berie subMap podla prefixu
+    private final ConcurrentSkipListMap<String, QueueEvent> unrouted = new ConcurrentSkipListMap<>();
+    //poradie podla casu vlozenia/odoslania, expiracia bez prechadzania eventMap
+    private final ConcurrentLinkedQueue<Expiry> pendingExpiry = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Expiry> sentExpiry = new ConcurrentLinkedQueue<>();
+    private final AtomicLong eventsMemory = new AtomicLong();
     private final SuperTimer superTimer;
     private final CallbackRunner callbackRunner;
+    private final QueueLog queueLog;
+    private final QueueBackend backend;
+    private final long pendingTtl;
+    private List<QueueEvent> replayed;
 
-    public QueueStore(SuperTimer superTimer, CallbackRunner callbackRunner) {
+    public QueueStore(SuperTimer superTimer, CallbackRunner callbackRunner,
+                      @Value("${app.queueLogDir:}") String queueLogDir,
+                      @Value("${app.queueLogSegmentSize:67108864}") int queueLogSegmentSize,
+                      @Value("${app.queueEventTtl:600}") int queueEventTtl,
+                      @Value("${app.queueLaneMaxWait:30}") int queueLaneMaxWait,
+                      @Value("${app.queueMaxPending:0}") int queueMaxPending,
+                      @Value("${app.queueMaxInFlight:0}") int queueMaxInFlight,
+                      @Value("${app.queueLimits:}") String queueLimits,
+                      @Value("${app.queueLease:0}") int queueLease,
+                      @Value("${app.queueMaxAttempts:3}") int queueMaxAttempts,
+                      @Value("${app.queueLeases:}") String queueLeases,
+                      @Nullable QueueBackend queueBackend) throws IOException {
         this.superTimer = superTimer;
+        this.backend = queueBackend;
+        Map<String, int[]> limits = parseLimits(queueLimits);
+        Map<String, int[]> leases = parsePrefixValues(queueLeases, "app.queueLeases");
+        this.router = new WorkerRouter(prefix->{
+            WorkerGroup wg = new WorkerGroup(prefix, queueLaneMaxWait*1000L);
+            int[] limit = limits.get(prefix);
+            wg.maxPending = limit!=null ? limit[0] : queueMaxPending;
+            wg.maxInFlight = limit!=null ? limit[1] : queueMaxInFlight;
+            int[] lease = leases.get(prefix);
+            wg.leaseTimeout = (lease!=null ? lease[0] : queueLease)*1000L;
+            wg.maxAttempts = Math.max(lease!=null && lease[1]>0 ? lease[1] : queueMaxAttempts, 1);
+            return wg;
+        });
+        this.pendingTtl = queueEventTtl*1000L;
         this.callbackRunner = callbackRunner;
-        superTimer.schedulePeriod(Duration.ofMinutes(10).toMillis(), this::cleanSentEventMap);
+        //so zdielanym backendom su eventy ulozene v db
+        if(queueBackend==null && queueLogDir!=null && !queueLogDir.isBlank()){
+            this.queueLog = new QueueLog(Path.of(queueLogDir), queueLogSegmentSize);
+            this.replayed = queueLog.open();
+            superTimer.schedulePeriod(Duration.ofSeconds(1).toMillis(), queueLog::flush);
+            superTimer.schedulePeriod(Duration.ofMinutes(1).toMillis(), this::compactLog);
+        } else {
+            this.queueLog = null;
+        }
+        superTimer.schedulePeriod(Duration.ofSeconds(10).toMillis(), this::cleanSentEventMap);
         superTimer.schedulePeriodTaskCreator(Duration.ofSeconds(1).toMillis(), this::timeoutSlowWorkers);
+        if(queueBackend!=null){
+            superTimer.schedulePeriod(Duration.ofSeconds(1).toMillis(), this::pullWaiting);
+            queueBackend.start(new QueueBackend.Listener() {
+                @Override
+                public void onEvent(String path) {
+                    WorkerGroup workerGroup = workerGroupByPath(path);
+                    if(workerGroup!=null && !workerGroup.workers.isEmpty()) pullAsync(workerGroup);
+                }
+
+                @Override
+                public void onResponse(String eventId, String owner) {
+                    superTimer.execute(()->remoteResponse(eventId, owner));
+                }
+            });
+        }
+    }
+
+    /**
+     * prefix=maxPending:maxInFlight,... e.g. /ocr=500:20,/sum=10000:0
+     */
+    static Map<String, int[]> parseLimits(String queueLimits) {
+        return parsePrefixValues(queueLimits, "app.queueLimits");
+    }
+
+    /**
+     * prefix=a:b,... missing b is 0, e.g. app.queueLeases=/ocr=300:5 lease seconds and max attempts
+     */
+    static Map<String, int[]> parsePrefixValues(String value, String property) {
+        Map<String, int[]> map = new HashMap<>();
+        if(value==null || value.isBlank()) return map;
+        for(String item : value.split(",")){
+            String[] kv = item.trim().split("=");
+            if(kv.length!=2) throw new IllegalArgumentException("invalid "+property+" item "+item);
+            String[] v = kv[1].split(":");
+            map.put(kv[0].trim(), new int[]{Integer.parseInt(v[0].trim()), v.length>1 ? Integer.parseInt(v[1].trim()) : 0});
+        }
+        return map;
+    }
+
+    /**
+     * 0 - event can be added, else Retry-After seconds, worker group of path is over maxPending
+     */
+    public int admit(String path) {
+        WorkerGroup wg = workerGroupByPath(path);
+        if(wg==null || !wg.isSaturated()) return 0;
+        wg.rejected.incrementAndGet();
+        long p50 = wg.dispatchLatency.percentile(0.5);
+        return (int) Math.clamp(p50/1000, 1, 60);
+    }
+
+    public QueueLog getQueueLog() {
+        return queueLog;
+    }
+
+    /**
+     * events from queue log are sent to workers after the owner binds handleResponse/handleSend
+     */
+    public synchronized Set<String> replay(Consumer<QueueEvent> binder) {
+        List<QueueEvent> list = replayed;
+        replayed = null;
+        if(list==null || list.isEmpty()) return Set.of();
+        LOGGER.info("replay {} queue events", list.size());
+        for(QueueEvent event : list){
+            try{
+                binder.accept(event);
+            }catch (Exception e){
+                LOGGER.warn("replay event {} bind error {}", event.getId(), e.getMessage());
+            }
+            addEvent(workerGroupByPath(event.getPath()), event);
+        }
+        return Set.copyOf(list.stream().map(QueueEvent::getId).toList());
     }
 
     public SuperTimer getSuperTimer() {
         return superTimer;
     }
 
+    public WorkerGroup workerGroup(String prefix) {
+        return router.get(prefix);
+    }
+
     public WorkerGroup workerGroupByPath(String path) {
-        synchronized (workerTree) {
-            Map.Entry<String, WorkerGroup> entry = workerTree.floorEntry(path);
-            if (entry != null && path.startsWith(entry.getKey())) {
-                return entry.getValue();
-            }
-        }
-        return null;
+        return router.route(path);
     }
 
     public void addEvent(QueueEvent event) {
+        if(backend!=null){
+            publish(event);
+            return;
+        }
+        if(queueLog!=null && event.isDurable()){
+            try{
+                queueLog.append(event);
+            }catch (Exception e){
+                LOGGER.warn("queue log append {} error {}", event.getId(), e.getMessage());
+            }
+        }
         WorkerGroup workerGroup = workerGroupByPath(event.getPath());
         addEvent(workerGroup, event);
     }
@@ -59,49 +201,271 @@ public class QueueStore {
     public void addEvent(WorkerGroup workerGroup, QueueEvent event) {
         LOGGER.debug("addEvent {} {} => workerGroup {}", event.getId(), event.getPath(), workerGroup!=null ? workerGroup.prefix : null);
         eventMap.put(event.getId(), event);
+        eventsMemory.addAndGet(event.memorySize());
+        pendingExpiry.add(new Expiry(event.getId(), System.currentTimeMillis()));
         if (workerGroup != null) {
-            boolean sent = nextWorker(workerGroup, (w) -> sendRemoteEvent(event, w, workerGroup));
-            if (!sent) {
-                LOGGER.debug("waiting in queue {}", event.getId());
-                workerGroup.events.add(event.getId());
-            }
+            routeEvent(workerGroup, event);
         } else {
             LOGGER.debug("event without worker {} {}", event.getPath(), event.getId());
-            superTimer.schedule(120 * 1000L, event.getId(), this::response503);
+            event.setTimeoutHandle(superTimer.schedule(120 * 1000L, event.getId(), this::response503));
+            String key = unroutedKey(event);
+            unrouted.put(key, event);
+            //group mohla vzniknut medzi route a put
+            WorkerGroup workerGroup2 = workerGroupByPath(event.getPath());
+            if(workerGroup2!=null && unrouted.remove(key)!=null){
+                if(event.getTimeoutHandle()!=null) event.getTimeoutHandle().cancel();
+                routeEvent(workerGroup2, event);
+            }
+        }
+    }
+
+    /**
+     * event is owned by this replica and dispatched by the replica which claims it from backend
+     */
+    private void publish(QueueEvent event) {
+        eventMap.put(event.getId(), event);
+        eventsMemory.addAndGet(event.memorySize());
+        pendingExpiry.add(new Expiry(event.getId(), System.currentTimeMillis()));
+        try{
+            backend.publish(event);
+        }catch (RuntimeException e){
+            removeEvent(event.getId());
+            throw e;
+        }
+        WorkerGroup workerGroup = workerGroupByPath(event.getPath());
+        if(workerGroup!=null && !workerGroup.workers.isEmpty()) pullAsync(workerGroup);
+    }
+
+    private void pullAsync(WorkerGroup workerGroup) {
+        //dalsie poziadavky pocas claimu len zopakuju cyklus
+        if(workerGroup.pulls.getAndIncrement()>0) return;
+        superTimer.execute(()->{
+            int seen;
+            do {
+                seen = workerGroup.pulls.get();
+                try{
+                    pull(workerGroup);
+                }catch (Exception e){
+                    LOGGER.warn("queue claim {} error {}", workerGroup.prefix, e.getMessage());
+                }
+            } while (workerGroup.pulls.addAndGet(-seen)>0);
+        });
+    }
+
+    private void pull(WorkerGroup workerGroup) {
+        while (true) {
+            int max = Math.min(workerGroup.workers.size(), CLAIM_BATCH);
+            if(max==0) return;
+            long lease = workerGroup.leaseTimeout>0 ? workerGroup.leaseTimeout : CLAIM_LEASE;
+            List<QueueEvent> list = backend.claim(workerGroup.prefix, max, lease);
+            for(QueueEvent claimed : list){
+                claimed(workerGroup, claimed);
+            }
+            if(list.size()<max) return;
+        }
+    }
+
+    private void claimed(WorkerGroup workerGroup, QueueEvent claimed) {
+        QueueEvent owned = eventMap.get(claimed.getId());
+        if(owned!=null && !owned.isClaimed()){
+            if(owned.isQueued()) return;
+            owned.setAttempts(claimed.getAttempts()-1);
+            routeEvent(workerGroup, owned);
+        } else if(owned==null){
+            claimed.setClaimed(true);
+            claimed.setAttempts(claimed.getAttempts()-1);
+            eventMap.put(claimed.getId(), claimed);
+            eventsMemory.addAndGet(claimed.memorySize());
+            routeEvent(workerGroup, claimed);
+        }
+    }
+
+    private void pullWaiting() {
+        for(WorkerGroup workerGroup : router.groups()){
+            if(!workerGroup.workers.isEmpty()) pullAsync(workerGroup);
+        }
+    }
+
+    /**
+     * response written to backend by any replica, owner finishes the event, others drop claimed copy
+     */
+    private void remoteResponse(String eventId, String owner) {
+        QueueEvent event = eventMap.get(eventId);
+        if(event==null) return;
+        try{
+            if(event.isClaimed()){
+                if(eventMap.remove(eventId, event)) removed(event);
+            } else if(backend.nodeId().equals(owner)){
+                EventResponse r = backend.takeResponse(eventId);
+                if(r!=null && eventMap.remove(eventId, event)){
+                    removed(event);
+                    finish(event, r.status(), r.headers()!=null ? r.headers() : new HashMap<>(), r.body());
+                }
+            }
+        }catch (Exception e){
+            LOGGER.warn("remote response {} error {}", eventId, e.getMessage());
+        }
+    }
+
+    private void backendDone(String eventId) {
+        try{
+            backend.done(eventId);
+        }catch (Exception e){
+            LOGGER.warn("queue backend done {} error {}", eventId, e.getMessage());
+        }
+    }
+
+    private void routeEvent(WorkerGroup workerGroup, QueueEvent event) {
+        boolean sent = nextWorker(workerGroup, (worker, w) -> sendRemoteEvent(event, worker, w, workerGroup));
+        if (!sent) {
+            LOGGER.debug("waiting in queue {}", event.getId());
+            enqueue(workerGroup, event);
+            //worker mohol prist medzi nextWorker a enqueue
+            drain(workerGroup);
+        }
+    }
+
+    private void drain(WorkerGroup workerGroup) {
+        while (!workerGroup.events.isEmpty()) {
+            WaitingWorkers.Handoff h = workerGroup.workers.poll();
+            if(h==null) return;
+            if(!sendWaiting(workerGroup, h.worker(), h.response())){
+                //eventy zobral iny worker, worker ide naspat cakat
+                if(h.worker().restoreResponse(h.response())) waitWorker(workerGroup, h.worker());
+                return;
+            }
+        }
+    }
+
+    private boolean sendWaiting(WorkerGroup workerGroup, Worker worker, CompletableFuture<HttpResponse<?>> w) {
+        List<QueueEvent> events = new ArrayList<>();
+        int max = Math.max(worker.getMax(), 1);
+        while(events.size()<max && workerGroup.tryAcquire()){
+            QueueEvent event = pollEvent(workerGroup);
+            if(event==null){
+                workerGroup.release();
+                break;
+            }
+            events.add(event);
+        }
+        if(events.isEmpty()) return false;
+        if(worker.getMax()>0){
+            sendRemoteEvents(events, w, workerGroup);
+        } else {
+            sendRemoteEvent(events.getFirst(), worker, w, workerGroup);
+        }
+        return true;
+    }
+
+    private void waitWorker(WorkerGroup workerGroup, Worker worker) {
+        long timeout = worker.created + worker.getTimeout() * 1000L - System.currentTimeMillis();
+        workerGroup.workers.push(worker);
+        worker.setTimeoutHandle(superTimer.schedule(Math.max(timeout, 1L), worker, this::timeoutWorker));
+    }
+
+    private void enqueue(WorkerGroup workerGroup, QueueEvent event) {
+        event.setWaitingIn(workerGroup);
+        workerGroup.eventsMemory.addAndGet(event.memorySize());
+        if(event.getAttempts()>0){
+            workerGroup.events.addFirst(event.getId(), event.getPriority());
+        } else {
+            workerGroup.events.add(event.getId(), event.getPriority());
+        }
+    }
+
+    private QueueEvent pollEvent(WorkerGroup workerGroup) {
+        while(!workerGroup.events.isEmpty()) {
+            String eventId = workerGroup.events.poll();
+            QueueEvent event = eventId!=null ? eventMap.get(eventId) : null;
+            if(event!=null){
+                dequeued(event);
+                return event;
+            }
         }
+        return null;
+    }
+
+    private void dequeued(QueueEvent event) {
+        WorkerGroup workerGroup = event.takeWaitingIn();
+        if(workerGroup!=null) workerGroup.eventsMemory.addAndGet(-event.memorySize());
+    }
+
+    private static String unroutedKey(QueueEvent event) {
+        return event.getPath()+'\0'+event.getId();
     }
 
     public QueueEvent removeEvent(String eventId){
-        return eventMap.remove(eventId);
+        QueueEvent event = eventMap.remove(eventId);
+        if(event!=null) removed(event);
+        return event;
+    }
+
+    private void removed(QueueEvent event) {
+        eventsMemory.addAndGet(-event.memorySize());
+        dequeued(event);
+        unrouted.remove(unroutedKey(event));
+        if(event.getLeaseHandle()!=null) event.getLeaseHandle().cancel();
+        WorkerGroup workerGroup = event.takeSentIn();
+        if(workerGroup!=null){
+            workerGroup.release();
+            //uvolneny in-flight slot
+            if(workerGroup.maxInFlight>0) drain(workerGroup);
+        }
+        event.release();
     }
 
     private void response503(String requestId){
         response(requestId, 503, null, "<h1>Service Unavailable</h1>".getBytes(StandardCharsets.UTF_8));
     }
 
-    private boolean nextWorker(WorkerGroup workerGroup, Consumer<CompletableFuture<HttpResponse<?>>> sender) {
-        while (true) {
-            Worker worker = null;
+    private boolean nextWorker(WorkerGroup workerGroup, BiConsumer<Worker, CompletableFuture<HttpResponse<?>>> sender) {
+        if(workerGroup.workers.isEmpty() || !workerGroup.tryAcquire()) return false;
+        WaitingWorkers.Handoff h;
+        while ((h = workerGroup.workers.poll()) != null) {
             try {
-                worker = workerGroup.workers.poll(25, TimeUnit.MICROSECONDS);
-            }catch (InterruptedException ignore){}
-            if(worker==null) break;
-            var w = worker.removeResponse();
-            if (w != null) {
-                try {
-                    sender.accept(w);
-                    return true;
-                } catch (Exception e) {
-                    LOGGER.debug("error write worker");
-                }
+                sender.accept(h.worker(), h.response());
+                return true;
+            } catch (Exception e) {
+                LOGGER.debug("error write worker");
             }
         }
+        workerGroup.release();
         return false;
     }
 
-    private void sendRemoteEvent(QueueEvent event, CompletableFuture<HttpResponse<?>> w, WorkerGroup workerGroup) {
+    private void sendRemoteEvent(QueueEvent event, Worker worker, CompletableFuture<HttpResponse<?>> w, WorkerGroup workerGroup) {
+        if(worker.getMax()>0){
+            sendRemoteEvents(List.of(event), w, workerGroup);
+            return;
+        }
+        sent(event, workerGroup);
+        Map<CharSequence, CharSequence> headers = new HashMap<>(event.getHeaders());
+        if(event.getAttempts()>1) headers.put(HeaderConverter.H_ATTEMPT, Integer.toString(event.getAttempts()));
+        ByteBuf body = event.retainedContent();
+        //worker uz necaka, buffer nikto nezapise
+        if(!w.complete(HttpResponse.ok((Object) body).headers(headers)) && body!=null) body.release();
+    }
+
+    private void sendRemoteEvents(List<QueueEvent> events, CompletableFuture<HttpResponse<?>> w, WorkerGroup workerGroup) {
+        List<Map<String, Object>> items = new ArrayList<>(events.size());
+        for(QueueEvent event : events){
+            sent(event, workerGroup);
+            items.add(batchItem(event));
+        }
+        w.complete(HttpResponse.ok(items).contentType(MediaType.APPLICATION_JSON_TYPE));
+    }
+
+    private void sent(QueueEvent event, WorkerGroup workerGroup) {
+        event.setSentIn(workerGroup);
+        event.setAttempts(event.getAttempts()+1);
         workerGroup.eventCounter.incrementAndGet();
         event.setT2(System.currentTimeMillis());
+        if(event.getAttempts()==1) workerGroup.dispatchLatency.record(Math.max(0, event.getT2()-event.getT1()));
+        if(workerGroup.leaseTimeout>0){
+            event.setLeaseHandle(superTimer.schedule(workerGroup.leaseTimeout, new Lease(event.getId(), event.getAttempts()), this::leaseExpired));
+        } else {
+            sentExpiry.add(new Expiry(event.getId(), event.getT2()));
+        }
         if(event.getHandleSend()!=null){
             try{
                 event.getHandleSend().run();
@@ -109,21 +473,77 @@ public class QueueStore {
                 LOGGER.warn("event {} handleSend error {}", event.getId(), e.getMessage());
             }
         }
-        w.complete(HttpResponse.ok((Object) event.getBody()).headers(new HashMap<>(event.getHeaders())));
     }
 
-    public void workerQueue(Worker worker) {
-        String prefix = worker.getPrefix();
-        WorkerGroup workerGroup;
-        synchronized (workerTree) {
-            workerGroup = workerTree.get(prefix);
-            if(workerGroup==null){
-                workerGroup = new WorkerGroup(prefix);
-                workerTree.put(prefix, workerGroup);
-                LOGGER.info("create new worker group {}", prefix);
-                workerGroupAddEvents(workerGroup, new ArrayList<>(eventMap.values().stream().filter(e->e.getPath().startsWith(prefix)).toList()));
+    /**
+     * worker did not respond within the lease, event goes back to the head of its lane
+     * or after maxAttempts deliveries the event is finished with 504
+     */
+    private void leaseExpired(Lease lease) {
+        QueueEvent event = eventMap.get(lease.id());
+        if(event==null || event.getAttempts()!=lease.attempt()) return;
+        //takeSentIn je claim proti sucasnej response
+        WorkerGroup workerGroup = event.takeSentIn();
+        if(workerGroup==null) return;
+        workerGroup.release();
+        if(event.getAttempts()>=workerGroup.maxAttempts){
+            workerGroup.leaseFailed.incrementAndGet();
+            LOGGER.warn("event {} {} lease expired, attempts {}", event.getId(), event.getPath(), event.getAttempts());
+            String msg = "worker did not respond, attempts "+event.getAttempts();
+            response(event.getId(), 504, new HashMap<>(), msg.getBytes(StandardCharsets.UTF_8));
+            if(workerGroup.maxInFlight>0) drain(workerGroup);
+            return;
+        }
+        workerGroup.redelivered.incrementAndGet();
+        LOGGER.info("event {} {} lease expired, redelivery {}", event.getId(), event.getPath(), event.getAttempts()+1);
+        event.setT2(0);
+        if(backend!=null){
+            //dalsi pokus moze zobrat hociktora replika
+            if(event.isClaimed() && eventMap.remove(event.getId(), event)) removed(event);
+            try{
+                backend.release(event.getId());
+            }catch (Exception e){
+                LOGGER.warn("queue backend release {} error {}", event.getId(), e.getMessage());
+            }
+            if(workerGroup.maxInFlight>0) drain(workerGroup);
+            return;
+        }
+        enqueue(workerGroup, event);
+        drain(workerGroup);
+    }
+
+    /**
+     * batch item {id, method, path, headers, body, attempt} textual body as string, binary as bodyBase64
+     */
+    private static Map<String, Object> batchItem(QueueEvent event) {
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("id", event.getId());
+        item.put("method", event.getMethod());
+        item.put("path", event.getPath());
+        item.put("headers", event.getHeaders());
+        item.put("attempt", event.getAttempts());
+        if(event.bodyLength()>=0){
+            String contentType = null;
+            if(event.getHeaders()!=null){
+                for(Map.Entry<String, String> e : event.getHeaders().entrySet()){
+                    if(HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(e.getKey())) contentType = e.getValue();
+                }
+            }
+            if(contentType==null || contentType.contains("json") || contentType.startsWith("text/") || contentType.contains("xml")){
+                item.put("body", event.bodyString());
+            } else {
+                item.put("bodyBase64", Base64.getEncoder().encodeToString(event.getBody()));
             }
         }
+        return item;
+    }
+
+    public void workerQueue(Worker worker) {
+        String prefix = worker.getPrefix();
+        WorkerGroup workerGroup = router.getOrCreate(prefix, wg->{
+            LOGGER.info("create new worker group {}", prefix);
+            workerGroupAddEvents(wg, takeUnrouted(prefix));
+        });
         long now = System.currentTimeMillis();
         workerGroup.lastWorker = now;
         if(worker.getSlow()>0) {
@@ -137,30 +557,38 @@ public class QueueStore {
             workerGroup.lastWorkerPing.put(worker.getId(), now);
             workerGroup.lastWorkerFast = now;
         }
-        QueueEvent event = null;
-        while(!workerGroup.events.isEmpty() && event==null) {
-            String eventId = workerGroup.events.poll();
-            if(eventId!=null){
-                event = eventMap.get(eventId);
-            }
+        if (!workerGroup.events.isEmpty()) {
+            var w = worker.removeResponse();
+            if (w != null && sendWaiting(workerGroup, worker, w)) return;
+            if (w != null) worker.restoreResponse(w);
         }
-        if (event != null) {
-            sendRemoteEvent(event, worker.removeResponse(), workerGroup);
-        } else if(worker.getSlow()==0) {
-            workerGroup.workers.add(worker);
-            superTimer.schedule(worker.getTimeout() * 1000L, worker, this::timeoutWorker);
+        if(worker.getSlow()==0) {
+            waitWorker(workerGroup, worker);
+            //event mohol prist medzi pollEvent a push
+            drain(workerGroup);
+            if(backend!=null) pullAsync(workerGroup);
         } else {
             workerGroup.slowWorkers.add(worker);
         }
     }
 
+    private List<QueueEvent> takeUnrouted(String prefix) {
+        List<QueueEvent> list = new ArrayList<>();
+        for(Map.Entry<String, QueueEvent> e : unrouted.subMap(prefix, prefix+Character.MAX_VALUE).entrySet()){
+            //remove je claim, event moze zobrat len jedna group
+            if(unrouted.remove(e.getKey())!=null){
+                QueueEvent event = e.getValue();
+                if(event.getTimeoutHandle()!=null) event.getTimeoutHandle().cancel();
+                list.add(event);
+            }
+        }
+        return list;
+    }
+
     private void workerGroupAddEvents(WorkerGroup workerGroup, List<QueueEvent> list) {
-        list.sort((e1,e2)->(int)(e1.getT1()-e2.getT1()));
+        list.sort(Comparator.comparingLong(QueueEvent::getT1));
         for (QueueEvent event : list){
-            boolean sent = nextWorker(workerGroup, (w) -> sendRemoteEvent(event, w , workerGroup));
-            if (!sent) {
-                workerGroup.events.add(event.getId());
-            }
+            routeEvent(workerGroup, event);
         }
     }
 
@@ -171,11 +599,13 @@ public class QueueStore {
                 writer.complete(HttpResponse.accepted());
                 LOGGER.debug("worker timeout {}", worker.getPrefix());
             }catch (Exception ignore){}
+            WorkerGroup workerGroup = router.get(worker.getPrefix());
+            if(workerGroup!=null) workerGroup.workers.stale();
         }
     }
 
     private void timeoutSlowWorkers(Consumer<Runnable> executor) {
-        for (WorkerGroup wg : new ArrayList<>(workerTree.values())) {
+        for (WorkerGroup wg : new ArrayList<>(router.groups())) {
             for(Iterator<Worker> it = wg.slowWorkers.iterator(); it.hasNext(); ) {
                 Worker w = it.next();
                 if(w.created+w.getTimeout()*1000L < System.currentTimeMillis()) {
@@ -186,7 +616,7 @@ public class QueueStore {
                 QueueEvent event = slowEvent(wg, w.getSlow()*1000L);
                 if(event!=null){
                     it.remove();
-                    executor.accept(()->sendRemoteEvent(event, w.removeResponse(), wg));
+                    executor.accept(()->sendRemoteEvent(event, w, w.removeResponse(), wg));
                 }
             }
         }
@@ -197,11 +627,10 @@ public class QueueStore {
         if (eventId != null) {
             QueueEvent event = eventMap.get(eventId);
             if (event != null) {
-                if(System.currentTimeMillis()-event.getT1()>slow || System.currentTimeMillis()-wg.lastWorkerFast>slow){
-                    String eventId2 = wg.events.poll();
-                    if(eventId2!=null) {
-                        return eventMap.get(eventId2);
-                    }
+                if((System.currentTimeMillis()-event.getT1()>slow || System.currentTimeMillis()-wg.lastWorkerFast>slow) && wg.tryAcquire()){
+                    QueueEvent event2 = pollEvent(wg);
+                    if(event2==null) wg.release();
+                    return event2;
                 }
             }
         }
@@ -209,27 +638,82 @@ public class QueueStore {
     }
 
     public void response(String eventId, int status, Map<String, String> headers, byte[] body) {
+        response(eventId, status, headers, body!=null ? Unpooled.wrappedBuffer(body) : Unpooled.EMPTY_BUFFER);
+    }
+
+    /**
+     * body is borrowed for the call, response handlers which keep it take own reference
+     */
+    public void response(String eventId, int status, Map<String, String> headers, ByteBuf body) {
         QueueEvent event = eventMap.remove(eventId);
-        if (event != null) {
-            event.setT3(status);
-            LOGGER.debug("event response {}{} {}", eventId, event.getPath(), status);
-            if(LOGGER.isDebugEnabled()) LOGGER.debug("event response body {}", new String(body));
-            if(event.getHandleResponse()!=null){
-                event.getHandleResponse().accept(new EventResponse(status, headers, body));
-            }
-            if (event.getCallback()!=null) {
-                if(event.getCallback().headers()!=null) headers.putAll(event.getCallback().headers());
-                callbackRunner.callbackAsync(eventId, event.getCallback(), headers, body);
+        if(event!=null) removed(event);
+        if(event==null || event.isClaimed()){
+            //event inej repliky, odpoved dostane owner cez backend
+            if(backend!=null) backend.respond(eventId, status, headers, ByteBufUtil.getBytes(body));
+            return;
+        }
+        ack(event);
+        finish(event, status, headers, body);
+        if(backend!=null) backendDone(eventId);
+    }
+
+    private void finish(QueueEvent event, int status, Map<String, String> headers, ByteBuf body) {
+        String eventId = event.getId();
+        if(event.getTimeoutHandle()!=null) event.getTimeoutHandle().cancel();
+        event.setT3(status);
+        LOGGER.debug("event response {}{} {}", eventId, event.getPath(), status);
+        if(LOGGER.isDebugEnabled()) LOGGER.debug("event response body {}", body.toString(StandardCharsets.UTF_8));
+        if(event.getHandleResponse()!=null){
+            event.getHandleResponse().accept(new EventResponse(status, headers, body));
+        }
+        if (event.getCallback()!=null) {
+            if(event.getCallback().headers()!=null) headers.putAll(event.getCallback().headers());
+            callbackRunner.callbackAsync(eventId, event.getCallback(), headers, ByteBufUtil.getBytes(body));
+        }
+    }
+
+    private void ack(QueueEvent event) {
+        if(queueLog!=null && event.isDurable()){
+            try{
+                queueLog.ack(event.getId());
+            }catch (Exception e){
+                LOGGER.warn("queue log ack {} error {}", event.getId(), e.getMessage());
             }
         }
     }
 
+    private void compactLog() {
+        try{
+            queueLog.compact();
+        }catch (Exception e){
+            LOGGER.warn("queue log compact error {}", e.getMessage());
+        }
+    }
+
     private void cleanSentEventMap() {
-        List<QueueEvent> list = new ArrayList<>(eventMap.values());
-        long expired = System.currentTimeMillis() - Duration.ofMinutes(5).toMillis();
-        for (QueueEvent event : list) {
-            if (event.getT2() < expired) {
-                eventMap.remove(event.getId());
+        long now = System.currentTimeMillis();
+        expire(sentExpiry, now - Duration.ofMinutes(5).toMillis(), true);
+        expire(pendingExpiry, now - pendingTtl, false);
+        if(backend!=null){
+            try{
+                backend.deleteExpired(Instant.ofEpochMilli(now - pendingTtl));
+            }catch (Exception e){
+                LOGGER.warn("queue backend delete expired error {}", e.getMessage());
+            }
+        }
+    }
+
+    private void expire(ConcurrentLinkedQueue<Expiry> index, long expired, boolean sent) {
+        Expiry head;
+        while ((head = index.peek()) != null && head.time() < expired) {
+            if(!index.remove(head)) continue;
+            QueueEvent event = eventMap.get(head.id());
+            //odoslane eventy expiruju podla t2, cakajuce ak neboli odoslane
+            if(event==null || (sent ? event.getT2()!=head.time() : event.getT2()!=0)) continue;
+            if(eventMap.remove(head.id(), event)){
+                removed(event);
+                ack(event);
+                if(backend!=null && !event.isClaimed()) backendDone(event.getId());
                 if (event.getT3() == 0) {
                     event.setT3(-1);
                 }
@@ -237,9 +721,25 @@ public class QueueStore {
         }
     }
 
+    private record Expiry(String id, long time) {}
+
+    private record Lease(String id, int attempt) {}
+
+    public int eventsCount() {
+        return eventMap.size();
+    }
+
+    public int unroutedCount() {
+        return unrouted.size();
+    }
+
+    public long eventsMemory() {
+        return eventsMemory.get();
+    }
+
     public List<QueueStat> stats() {
         Instant now = Instant.now();
-        List<WorkerGroup> groups = new ArrayList<>(workerTree.values());
+        List<WorkerGroup> groups = new ArrayList<>(router.groups());
         return groups.stream().map(wg->createStat(wg, now)).toList();
     }
 
@@ -250,10 +750,22 @@ public class QueueStore {
             if(e.getValue()<expired) wg.lastWorkerPing.remove(e.getKey(), e.getValue());
         }
         Long oldestEvent = Optional.ofNullable(wg.events.peek()).map(eventMap::get).map(QueueEvent::getT1).orElse(null);
+        int waiting = wg.events.size();
+        long memory = wg.eventsMemory.get();
         return new QueueStat(
                 wg.prefix,
                 wg.eventCounter.get(),
-                wg.events.size(),
+                waiting,
+                List.of(wg.events.depth(QueueEvent.PRIORITY_HIGH), wg.events.depth(QueueEvent.PRIORITY_NORMAL), wg.events.depth(QueueEvent.PRIORITY_LOW)),
+                memory,
+                waiting>0 ? memory/waiting : 0,
+                wg.workers.size(),
+                wg.inFlight.get(),
+                wg.rejected.get(),
+                wg.redelivered.get(),
+                wg.leaseFailed.get(),
+                wg.dispatchLatency.percentile(0.5),
+                wg.dispatchLatency.percentile(0.99),
                 oldestEvent!=null ? Instant.ofEpochMilli(oldestEvent) : null,
                 Instant.ofEpochMilli(wg.lastWorker),
                 wg.lastWorkerPing.size(),
@@ -0,0 +1,82 @@
+package eu.aston.queue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.micronaut.http.HttpResponse;
+
+/**
+ * Lock-free stack of waiting long-poll workers. poll is a CAS on the head and a claim of the worker
+ * response, workers whose response was already removed (timeout) are skipped and purged lazily.
+ */
+public class WaitingWorkers {
+
+    private static final int PURGE_STALE = 64;
+
+    private final AtomicReference<Node> head = new AtomicReference<>();
+    private final AtomicInteger stale = new AtomicInteger();
+
+    public void push(Worker worker) {
+        Node h;
+        Node n;
+        do {
+            h = head.get();
+            n = new Node(worker, h);
+        } while (!head.compareAndSet(h, n));
+    }
+
+    public Handoff poll() {
+        while (true) {
+            Node h = head.get();
+            if(h==null) return null;
+            if(head.compareAndSet(h, h.next)){
+                var response = h.worker.removeResponse();
+                if(response!=null) return new Handoff(h.worker, response);
+                stale.decrementAndGet();
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return head.get()==null;
+    }
+
+    /**
+     * worker response removed outside of poll, after PURGE_STALE such workers the stack is rebuilt without them
+     */
+    public void stale() {
+        if(stale.incrementAndGet()<PURGE_STALE) return;
+        stale.set(0);
+        for(int i=0; i<8; i++){
+            Node h = head.get();
+            if(head.compareAndSet(h, live(h))) return;
+        }
+    }
+
+    public int size() {
+        int n = 0;
+        for(Node node = head.get(); node!=null; node = node.next){
+            if(node.worker.hasResponse()) n++;
+        }
+        return n;
+    }
+
+    private static Node live(Node node) {
+        List<Worker> list = new ArrayList<>();
+        for(; node!=null; node = node.next){
+            if(node.worker.hasResponse()) list.add(node.worker);
+        }
+        Node h = null;
+        for(int i=list.size()-1; i>=0; i--){
+            h = new Node(list.get(i), h);
+        }
+        return h;
+    }
+
+    private record Node(Worker worker, Node next) {}
+
+    public record Handoff(Worker worker, CompletableFuture<HttpResponse<?>> response) {}
+}
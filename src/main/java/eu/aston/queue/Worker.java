@@ -1,21 +1,33 @@
 package eu.aston.queue;
 
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 
+import eu.aston.utils.TimingWheel;
 import io.micronaut.http.HttpResponse;
 
 public class Worker {
     private final String id;
     private final String prefix;
     private final int timeout;
-    private CompletableFuture<HttpResponse<?>> response;
+    private final AtomicReference<CompletableFuture<HttpResponse<?>>> response;
     public final long created = System.currentTimeMillis();
     private final int slow;
+    private final int max;
+    private volatile TimingWheel.Timeout timeoutHandle;
 
     public Worker(String id, String prefix, int timeout, CompletableFuture<HttpResponse<?>> response) {
+        this(id, prefix, timeout, 0, response);
+    }
+
+    /**
+     * max>0 worker consumes json array of up to max events
+     */
+    public Worker(String id, String prefix, int timeout, int max, CompletableFuture<HttpResponse<?>> response) {
         this.id = id;
         this.timeout = timeout;
-        this.response = response;
+        this.max = max;
+        this.response = new AtomicReference<>(response);
         if(prefix.matches("^.+@slow[0-9]+$")) {
             this.prefix = prefix.substring(0, prefix.indexOf("@"));
             this.slow = Integer.parseInt(prefix.substring(prefix.lastIndexOf("@slow")+5));
@@ -41,9 +53,34 @@ public class Worker {
         return slow;
     }
 
-    public synchronized CompletableFuture<HttpResponse<?>> removeResponse() {
-        var r = this.response;
-        this.response = null;
+    public int getMax() {
+        return max;
+    }
+
+    public void setTimeoutHandle(TimingWheel.Timeout timeoutHandle) {
+        this.timeoutHandle = timeoutHandle;
+        if(this.response.get()==null){
+            timeoutHandle.cancel();
+        }
+    }
+
+    public CompletableFuture<HttpResponse<?>> removeResponse() {
+        var r = this.response.getAndSet(null);
+        var t = timeoutHandle;
+        if(r!=null && t!=null){
+            t.cancel();
+        }
         return r;
     }
+
+    /**
+     * response claimed by dispatch without event is returned back
+     */
+    public boolean restoreResponse(CompletableFuture<HttpResponse<?>> r) {
+        return this.response.compareAndSet(null, r);
+    }
+
+    public boolean hasResponse() {
+        return response.get()!=null;
+    }
 }
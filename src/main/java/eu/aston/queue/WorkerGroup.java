@@ -2,24 +2,57 @@ package eu.aston.queue;
 
 import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.aston.utils.LatencyHistogram;
 
 public class WorkerGroup {
     public final String prefix;
-    public final BlockingQueue<String> events = new LinkedBlockingQueue<>();
-    public final BlockingQueue<Worker> workers = new LinkedBlockingQueue<>();
+    public final QueueLanes events;
+    public final WaitingWorkers workers = new WaitingWorkers();
     public long lastWorker = 0L;
     public Map<String, Long> lastWorkerPing = new ConcurrentHashMap<>();
     public AtomicInteger eventCounter = new AtomicInteger();
+    public final AtomicLong eventsMemory = new AtomicLong();
+    public final LatencyHistogram dispatchLatency = new LatencyHistogram();
+    public final AtomicInteger inFlight = new AtomicInteger();
+    public final AtomicLong rejected = new AtomicLong();
+    public int maxPending = 0;
+    public int maxInFlight = 0;
+    public long leaseTimeout = 0L;
+    public int maxAttempts = 1;
+    public final AtomicLong redelivered = new AtomicLong();
+    public final AtomicLong leaseFailed = new AtomicLong();
+    public final AtomicInteger pulls = new AtomicInteger();
 
     public long lastWorkerFast = 0L;
     public final Queue<Worker> slowWorkers = new ConcurrentLinkedQueue<>();
 
     public WorkerGroup(String prefix) {
+        this(prefix, 30_000L);
+    }
+
+    public WorkerGroup(String prefix, long laneMaxWait) {
         this.prefix = prefix;
+        this.events = new QueueLanes(laneMaxWait);
+    }
+
+    public boolean isSaturated() {
+        return maxPending>0 && events.size()>=maxPending;
+    }
+
+    public boolean tryAcquire() {
+        while (true) {
+            int n = inFlight.get();
+            if(maxInFlight>0 && n>=maxInFlight) return false;
+            if(inFlight.compareAndSet(n, n+1)) return true;
+        }
+    }
+
+    public void release() {
+        inFlight.decrementAndGet();
     }
 }
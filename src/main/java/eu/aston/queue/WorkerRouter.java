@@ -0,0 +1,120 @@
+package eu.aston.queue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Copy-on-write routing table of worker groups. Readers use an immutable snapshot (char trie,
+ * longest prefix match) and a path -> group cache without any lock, group creation builds
+ * a new snapshot under the writer lock.
+ */
+public class WorkerRouter {
+
+    private static final int CACHE_SIZE = 10_000;
+
+    private final Function<String, WorkerGroup> factory;
+    private volatile Snapshot snapshot = new Snapshot(new Node(null, new char[0], new Node[0]), Map.of());
+
+    public WorkerRouter() {
+        this(WorkerGroup::new);
+    }
+
+    public WorkerRouter(Function<String, WorkerGroup> factory) {
+        this.factory = factory;
+    }
+
+    public WorkerGroup route(String path) {
+        Snapshot s = snapshot;
+        WorkerGroup group = s.cache.get(path);
+        if(group==null){
+            group = s.root.find(path);
+            if(group!=null){
+                if(s.cache.size()>=CACHE_SIZE) s.cache.clear();
+                s.cache.put(path, group);
+            }
+        }
+        return group;
+    }
+
+    public WorkerGroup get(String prefix) {
+        return snapshot.groups.get(prefix);
+    }
+
+    public Collection<WorkerGroup> groups() {
+        return snapshot.groups.values();
+    }
+
+    public int size() {
+        return snapshot.groups.size();
+    }
+
+    /**
+     * onCreate runs under the writer lock after the new group is visible to readers
+     */
+    public WorkerGroup getOrCreate(String prefix, Consumer<WorkerGroup> onCreate) {
+        WorkerGroup group = get(prefix);
+        if(group!=null) return group;
+        synchronized (this){
+            Snapshot s = snapshot;
+            group = s.groups.get(prefix);
+            if(group==null){
+                group = factory.apply(prefix);
+                Map<String, WorkerGroup> groups = new HashMap<>(s.groups);
+                groups.put(prefix, group);
+                snapshot = new Snapshot(s.root.with(prefix, 0, group), Map.copyOf(groups));
+                if(onCreate!=null) onCreate.accept(group);
+            }
+            return group;
+        }
+    }
+
+    private record Snapshot(Node root, Map<String, WorkerGroup> groups, ConcurrentHashMap<String, WorkerGroup> cache) {
+        private Snapshot(Node root, Map<String, WorkerGroup> groups) {
+            this(root, groups, new ConcurrentHashMap<>());
+        }
+    }
+
+    private record Node(WorkerGroup group, char[] keys, Node[] children) {
+
+        private WorkerGroup find(String path) {
+            Node node = this;
+            WorkerGroup found = group;
+            for(int i=0; i<path.length(); i++){
+                int pos = Arrays.binarySearch(node.keys, path.charAt(i));
+                if(pos<0) break;
+                node = node.children[pos];
+                if(node.group!=null) found = node.group;
+            }
+            return found;
+        }
+
+        //novy node na ceste od korena, ostatne vetvy sa zdielaju
+        private Node with(String prefix, int depth, WorkerGroup value) {
+            if(depth==prefix.length()){
+                return new Node(value, keys, children);
+            }
+            char c = prefix.charAt(depth);
+            int pos = Arrays.binarySearch(keys, c);
+            if(pos>=0){
+                Node[] children2 = children.clone();
+                children2[pos] = children[pos].with(prefix, depth+1, value);
+                return new Node(group, keys, children2);
+            }
+            int ins = -pos-1;
+            char[] keys2 = new char[keys.length+1];
+            Node[] children2 = new Node[children.length+1];
+            System.arraycopy(keys, 0, keys2, 0, ins);
+            System.arraycopy(children, 0, children2, 0, ins);
+            keys2[ins] = c;
+            children2[ins] = new Node(null, new char[0], new Node[0]).with(prefix, depth+1, value);
+            System.arraycopy(keys, ins, keys2, ins+1, keys.length-ins);
+            System.arraycopy(children, ins, children2, ins+1, children.length-ins);
+            return new Node(group, keys2, children2);
+        }
+    }
+}
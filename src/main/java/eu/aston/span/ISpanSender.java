@@ -11,5 +11,8 @@ public interface ISpanSender {
 
     void finishFlow(FlowCaseEntity flowCase, FlowDef flowDef, String error);
 
+    /**
+     * @param workerDef null for worker removed from the flow by reload
+     */
     void finishTask(FlowCaseEntity flowCase, FlowTaskEntity task, FlowWorkerDef workerDef);
 }
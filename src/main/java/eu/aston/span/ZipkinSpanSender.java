@@ -27,6 +27,7 @@ import io.micronaut.context.annotation.Value;
 import io.micronaut.core.util.StringUtils;
 import io.micronaut.http.HttpHeaders;
 import io.micronaut.http.MediaType;
+import jakarta.inject.Named;
 import jakarta.inject.Singleton;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,7 +47,7 @@ public class ZipkinSpanSender implements ISpanSender {
 
     public ZipkinSpanSender(@Value("${zipkin.url}") String zipkinUrl,
                             @Value("${zipkin.baseAuth:}") String zipkinBaseAuth,
-                            HttpClient httpClient,
+                            @Named("tracing") HttpClient httpClient,
                             ObjectMapper objectMapper,
                             SuperTimer superTimer) {
         this.zipkinUrl = zipkinUrl;
@@ -168,21 +169,23 @@ public class ZipkinSpanSender implements ISpanSender {
         span.setDuration(Duration.between(task.getCreated(), task.getFinished()).toMillis()*1000);
         span.setLocalEndpoint(new ZipkinEndpoint("/flow/"+flowCase.getCaseType()+"/"+task.getStep()+"/"+task.getWorker()));
         span.setTags(new HashMap<>());
-        if(workerDef.getLabels()!=null && !workerDef.getLabels().isEmpty()){
+        if(workerDef!=null && workerDef.getLabels()!=null && !workerDef.getLabels().isEmpty()){
             span.getTags().putAll(workerDef.getLabels());
         }
         span.getTags().put("step", task.getStep());
         if(task.getStepIndex()>=0) span.getTags().put("StepIndex", String.valueOf(task.getStepIndex()));
-        span.getTags().put("worker", workerDef.getCode());
-        if(workerDef.getLabels()!=null){
+        span.getTags().put("worker", task.getWorker());
+        if(workerDef!=null && workerDef.getLabels()!=null){
             workerDef.getLabels().forEach((k,v)->span.getTags().put("worker."+k, v));
         }
         if(task.getError()!=null){
             span.getTags().put("error", task.getError());
             span.setName(span.getName()+" error");
         }
-        span.getTags().put("http.method", workerDef.getMethod());
-        span.getTags().put("http.path", workerDef.getPath()!=null? workerDef.getPath() : workerDef.getPathExpr());
+        if(workerDef!=null){
+            span.getTags().put("http.method", workerDef.getMethod());
+            span.getTags().put("http.path", workerDef.getPath()!=null? workerDef.getPath() : workerDef.getPathExpr());
+        }
         span.getTags().put("http.status_code", String.valueOf(task.getResponseCode()));
         cacheAdd(span);
     }
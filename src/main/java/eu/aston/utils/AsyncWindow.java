@@ -0,0 +1,89 @@
+package eu.aston.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking in-flight limit for async calls. Calls over the limit wait in a queue
+ * (no thread is parked) and start when a running call completes. Limit 0 is unlimited.
+ * Queued calls are started by one draining thread in a loop, a call completing synchronously
+ * (failed at start) does not recurse into the next one.
+ */
+public class AsyncWindow {
+
+    private final int limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger drainRequests = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+
+    public AsyncWindow(int limit) {
+        this.limit = limit;
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable start = ()->{
+            CompletableFuture<T> future;
+            try{
+                future = call.get();
+            }catch (Throwable e){
+                future = CompletableFuture.failedFuture(e);
+            }
+            future.whenComplete((r, e)->{
+                release();
+                if(e!=null) result.completeExceptionally(e);
+                else result.complete(r);
+            });
+        };
+        if(tryAcquire()){
+            start.run();
+        } else {
+            queued.incrementAndGet();
+            waiting.add(start);
+            drain();
+        }
+        return result;
+    }
+
+    private boolean tryAcquire() {
+        while (true) {
+            int n = inFlight.get();
+            if(limit>0 && n>=limit) return false;
+            if(inFlight.compareAndSet(n, n+1)) return true;
+        }
+    }
+
+    private void release() {
+        inFlight.decrementAndGet();
+        drain();
+    }
+
+    private void drain() {
+        //drain uz bezi (v inom threade alebo vyssie v stacku), ten to zoberie v dalsom kole
+        if(drainRequests.getAndIncrement()!=0) return;
+        int missed = 1;
+        do {
+            while (!waiting.isEmpty() && tryAcquire()) {
+                Runnable r = waiting.poll();
+                if(r==null){
+                    inFlight.decrementAndGet();
+                } else {
+                    queued.decrementAndGet();
+                    r.run();
+                }
+            }
+            missed = drainRequests.addAndGet(-missed);
+        } while (missed!=0);
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+}
@@ -0,0 +1,85 @@
+package eu.aston.utils;
+
+import java.io.OutputStream;
+import java.net.http.HttpRequest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Growable output buffer kept as a list of chunks, never copied into one array while
+ * growing. The http body publisher reads the chunks directly.
+ */
+public class ChunkedBuffer extends OutputStream {
+
+    private static final int FIRST_CHUNK = 8 * 1024;
+    private static final int MAX_CHUNK = 64 * 1024;
+
+    private final List<byte[]> chunks = new ArrayList<>();
+    private byte[] current = new byte[FIRST_CHUNK];
+    private int pos = 0;
+    private long size = 0;
+
+    @Override
+    public void write(int b) {
+        if(pos==current.length) nextChunk();
+        current[pos++] = (byte) b;
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while (len>0){
+            if(pos==current.length) nextChunk();
+            int n = Math.min(len, current.length-pos);
+            System.arraycopy(b, off, current, pos, n);
+            pos += n;
+            off += n;
+            len -= n;
+            size += n;
+        }
+    }
+
+    private void nextChunk() {
+        chunks.add(current);
+        current = new byte[Math.min(current.length*2, MAX_CHUNK)];
+        pos = 0;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public HttpRequest.BodyPublisher bodyPublisher() {
+        List<byte[]> all = new ArrayList<>(chunks.size()+1);
+        all.addAll(chunks);
+        if(pos>0) all.add(Arrays.copyOf(current, pos));
+        return HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofByteArrays(all), size);
+    }
+
+    /**
+     * chunks wrapped as one netty buffer without copy, the buffer is not written after this call
+     */
+    public ByteBuf toByteBuf() {
+        ByteBuf[] buffers = new ByteBuf[chunks.size()+1];
+        for(int i=0; i<chunks.size(); i++){
+            buffers[i] = Unpooled.wrappedBuffer(chunks.get(i));
+        }
+        buffers[chunks.size()] = Unpooled.wrappedBuffer(current, 0, pos);
+        return Unpooled.wrappedBuffer(buffers);
+    }
+
+    public byte[] toByteArray() {
+        byte[] data = new byte[(int) size];
+        int off = 0;
+        for(byte[] chunk : chunks){
+            System.arraycopy(chunk, 0, data, off, chunk.length);
+            off += chunk.length;
+        }
+        System.arraycopy(current, 0, data, off, pos);
+        return data;
+    }
+}
@@ -4,42 +4,94 @@ import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Runs at most one tick per case, re-triggers during a running tick are coalesced
+ * into one next tick. Size 0 runs ticks on virtual threads, maxConcurrency limits
+ * ticks running at once (ticks block on jdbc, so it follows the datasource pool).
+ */
 public class FlowThreadPool {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(FlowThreadPool.class);
 
     private final Executor executor;
+    private final Semaphore limiter;
     private final Consumer<String> flowExecutor;
     private final ConcurrentHashMap<String, String> flowsMap = new ConcurrentHashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LatencyHistogram tickLatency = new LatencyHistogram();
 
     public FlowThreadPool(int size, Consumer<String> flowExecutor) {
-        this.executor = Executors.newFixedThreadPool(size);
+        this(size, 0, flowExecutor);
+    }
+
+    public FlowThreadPool(int size, int maxConcurrency, Consumer<String> flowExecutor) {
+        this.executor = size>0 ? Executors.newFixedThreadPool(size) : Executors.newVirtualThreadPerTaskExecutor();
+        this.limiter = maxConcurrency>0 ? new Semaphore(maxConcurrency) : null;
         this.flowExecutor = flowExecutor;
     }
 
     public void addCase(String caseId, String taskId){
         if(flowsMap.put(caseId, taskId)==null){
-            executor.execute(()->runFlow(caseId, taskId));
+            submit(caseId, taskId);
         }
     }
 
+    private void submit(String caseId, String taskId){
+        queued.incrementAndGet();
+        executor.execute(()->runFlow(caseId, taskId));
+    }
+
     private void runFlow(String caseId, String taskId){
+        boolean acquired = false;
         try{
-            flowExecutor.accept(caseId);
-        }catch (Exception e){
-            LOGGER.warn("flow {} execute error {}", caseId, e.getMessage());
-            LOGGER.warn("flow {} execute stack", caseId, e);
+            if(limiter!=null){
+                limiter.acquire();
+                acquired = true;
+            }
+            queued.decrementAndGet();
+            inFlight.incrementAndGet();
+            long start = System.nanoTime();
+            try{
+                flowExecutor.accept(caseId);
+            }catch (Exception e){
+                LOGGER.warn("flow {} execute error {}", caseId, e.getMessage());
+                LOGGER.warn("flow {} execute stack", caseId, e);
+            }finally {
+                inFlight.decrementAndGet();
+                tickLatency.recordSince(start);
+            }
+        }catch (InterruptedException e){
+            queued.decrementAndGet();
+            Thread.currentThread().interrupt();
+        }finally {
+            if(acquired) limiter.release();
         }
         String lastTaskId = flowsMap.get(caseId);
         if(!Objects.equals(taskId, lastTaskId)){
-            executor.execute(()->runFlow(caseId, lastTaskId));
-        } else {
-            flowsMap.remove(caseId, lastTaskId);
+            submit(caseId, lastTaskId);
+        } else if(!flowsMap.remove(caseId, lastTaskId)){
+            //novy trigger medzi get a remove
+            submit(caseId, flowsMap.get(caseId));
         }
     }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public LatencyHistogram getTickLatency() {
+        return tickLatency;
+    }
 }
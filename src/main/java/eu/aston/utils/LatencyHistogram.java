@@ -0,0 +1,60 @@
+package eu.aston.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LatencyHistogram {
+
+    private static final long[] BOUNDS_MS = {1, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_MS.length+1);
+    private final AtomicLong sumMs = new AtomicLong();
+
+    public void record(long ms) {
+        int i = 0;
+        while (i<BOUNDS_MS.length && ms>BOUNDS_MS[i]) i++;
+        buckets.incrementAndGet(i);
+        sumMs.addAndGet(ms);
+    }
+
+    public void recordSince(long startNanos) {
+        record((System.nanoTime()-startNanos)/1_000_000);
+    }
+
+    /**
+     * prometheus histogram lines, labels without braces, e.g. {@code host="dev"}
+     */
+    public void appendMetrics(StringBuilder sb, String name, String labels) {
+        String sep = labels!=null && !labels.isEmpty() ? labels+"," : "";
+        long cumulative = 0;
+        for(int i=0; i<=BOUNDS_MS.length; i++){
+            cumulative += buckets.get(i);
+            String le = i<BOUNDS_MS.length ? Double.toString(BOUNDS_MS[i]/1000.0) : "+Inf";
+            sb.append(name).append("_bucket{").append(sep).append("le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+        }
+        String l = labels!=null && !labels.isEmpty() ? "{"+labels+"}" : "";
+        sb.append(name).append("_sum").append(l).append(' ').append(sumMs.get()/1000.0).append('\n');
+        sb.append(name).append("_count").append(l).append(' ').append(cumulative).append('\n');
+    }
+
+    public long count() {
+        long c = 0;
+        for(int i=0; i<buckets.length(); i++) c += buckets.get(i);
+        return c;
+    }
+
+    /**
+     * approximate percentile in ms (upper bound of bucket)
+     */
+    public long percentile(double p) {
+        long total = count();
+        if(total==0) return 0;
+        long rank = (long) Math.ceil(total*p);
+        long cumulative = 0;
+        for(int i=0; i<BOUNDS_MS.length; i++){
+            cumulative += buckets.get(i);
+            if(cumulative>=rank) return BOUNDS_MS[i];
+        }
+        return BOUNDS_MS[BOUNDS_MS.length-1]*2;
+    }
+}
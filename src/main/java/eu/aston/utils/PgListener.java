@@ -0,0 +1,76 @@
+package eu.aston.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.function.Consumer;
+
+import javax.sql.DataSource;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Postgres LISTEN on own connection and thread, notifications are delivered in batches as received,
+ * broken connection is reopened after 1 s.
+ */
+public class PgListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PgListener.class);
+
+    private final DataSource dataSource;
+    private final String[] channels;
+    private volatile boolean closed = false;
+    private Thread thread;
+
+    public PgListener(DataSource dataSource, String... channels) {
+        this.dataSource = dataSource;
+        this.channels = channels;
+    }
+
+    public synchronized void start(String name, Consumer<PGNotification[]> handler) {
+        if(thread!=null) return;
+        thread = Thread.ofPlatform().daemon().name(name).start(()->listen(handler));
+    }
+
+    public synchronized void close() {
+        closed = true;
+        if(thread!=null) thread.interrupt();
+    }
+
+    public static void notify(Connection c, String channel, String payload) throws SQLException {
+        try(PreparedStatement ps = c.prepareStatement("select pg_notify(?, ?)")){
+            ps.setString(1, channel);
+            ps.setString(2, payload);
+            ps.execute();
+        }
+    }
+
+    private void listen(Consumer<PGNotification[]> handler) {
+        while (!closed){
+            try(Connection c = dataSource.getConnection()){
+                try(Statement st = c.createStatement()){
+                    for(String channel : channels){
+                        st.execute("listen "+channel);
+                    }
+                }
+                PGConnection pg = c.unwrap(PGConnection.class);
+                while (!closed){
+                    PGNotification[] notifications = pg.getNotifications(1000);
+                    if(notifications!=null && notifications.length>0) handler.accept(notifications);
+                }
+            }catch (Exception e){
+                if(closed) return;
+                LOGGER.warn("listen {} error {}", String.join(",", channels), e.getMessage());
+                try{
+                    Thread.sleep(1000);
+                }catch (InterruptedException ignore){
+                    return;
+                }
+            }
+        }
+    }
+}
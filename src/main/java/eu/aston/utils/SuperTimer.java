@@ -1,8 +1,6 @@
 package eu.aston.utils;
 
 import java.util.Date;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
@@ -13,64 +11,79 @@ public class SuperTimer {
 
     private static final Logger logger = LoggerFactory.getLogger(SuperTimer.class);
 
-    private final Timer timer;
+    private final TimingWheel wheel;
     private final Executor executor;
 
     public SuperTimer(Executor executor) {
-        this.timer = new Timer("next-step-timeout", true);
+        this(executor, 10L);
+    }
+
+    public SuperTimer(Executor executor, long tickMs) {
+        this.wheel = new TimingWheel("next-step-timeout", tickMs);
         this.executor = executor;
     }
 
-    public void schedule(long add, Runnable r) {
-        schedule(new Date(System.currentTimeMillis() + add), r);
+    public TimingWheel.Timeout schedule(long add, Runnable r) {
+        return wheel.schedule(add, timerTask(r));
     }
 
-    public void schedule(Date date, Runnable r) {
-        timer.schedule(timerTask(r), date);
+    public TimingWheel.Timeout schedule(Date date, Runnable r) {
+        return schedule(date.getTime() - System.currentTimeMillis(), r);
     }
 
-    public <T> void schedule(long add, T id, Consumer<T> consumer) {
-        schedule(new Date(System.currentTimeMillis() + add), id, consumer);
+    public <T> TimingWheel.Timeout schedule(long add, T id, Consumer<T> consumer) {
+        return schedule(add, ()->consumer.accept(id));
     }
 
-    public <T> void schedule(Date date, T id, Consumer<T> consumer) {
-        timer.schedule(timerTask(()->consumer.accept(id)), date);
+    public <T> TimingWheel.Timeout schedule(Date date, T id, Consumer<T> consumer) {
+        return schedule(date, ()->consumer.accept(id));
     }
 
     public void schedulePeriod(long period, Runnable r) {
-        timer.schedule(timerTask(r), period, period);
+        Runnable task = timerTask(r);
+        wheel.schedule(period, new Runnable() {
+            @Override
+            public void run() {
+                wheel.schedule(period, this);
+                task.run();
+            }
+        });
     }
 
     public void schedulePeriodTaskCreator(long period, Consumer<Consumer<Runnable>> taskCreator) {
-        timer.schedule(new TimerTask() {
+        wheel.schedule(period, new Runnable() {
             @Override
             public void run() {
+                wheel.schedule(period, this);
                 try{
                     taskCreator.accept(executor::execute);
                 }catch (Exception e){
                     logException(e);
                 }
             }
-        }, period, period);
+        });
     }
 
     public void execute(Runnable r){
         executor.execute(r);
     }
 
-    private TimerTask timerTask(Runnable r){
-        return new TimerTask() {
-            @Override
-            public void run() {
-                executor.execute(()->{
-                    try {
-                        r.run();
-                    }catch (Exception e){
-                        logException(e);
-                    }
-                });
+    public int pending() {
+        return wheel.pending();
+    }
+
+    public LatencyHistogram getFireLag() {
+        return wheel.getFireLag();
+    }
+
+    private Runnable timerTask(Runnable r){
+        return ()->executor.execute(()->{
+            try {
+                r.run();
+            }catch (Exception e){
+                logException(e);
             }
-        };
+        });
     }
 
     private static void logException(Throwable thr) {
@@ -0,0 +1,205 @@
+package eu.aston.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashed hierarchical timing wheel, 5 levels x 64 slots. Schedule and cancel are O(1)
+ * (intrusive doubly linked slot lists), expired timeouts run on the wheel thread.
+ * Without the thread (tests) time comes from the given clock and timeouts fire in {@link #tick()}.
+ */
+public class TimingWheel {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimingWheel.class);
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 5;
+    private static final long MAX_TICKS = (1L << (SLOT_BITS*LEVELS)) - 1;
+
+    private final long tickMs;
+    private final LongSupplier clock;
+    private final long startMs;
+    private final Timeout[][] wheels = new Timeout[LEVELS][SLOTS];
+    private final LatencyHistogram fireLag = new LatencyHistogram();
+    private long currentTick = 0L;
+    private int pending = 0;
+
+    public TimingWheel(String name, long tickMs) {
+        this(name, tickMs, System::currentTimeMillis, true);
+    }
+
+    public TimingWheel(String name, long tickMs, LongSupplier clock, boolean thread) {
+        this.tickMs = tickMs;
+        this.clock = clock;
+        this.startMs = clock.getAsLong();
+        for(int l=0; l<LEVELS; l++){
+            for(int s=0; s<SLOTS; s++){
+                Timeout head = new Timeout(this, 0L, 0L, null);
+                head.prev = head;
+                head.next = head;
+                wheels[l][s] = head;
+            }
+        }
+        if(thread){
+            Thread t = new Thread(this::run, name);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    public Timeout schedule(long delayMs, Runnable task) {
+        long now = clock.getAsLong();
+        long deadlineMs = now + Math.max(delayMs, 0L);
+        Timeout timeout = new Timeout(this, deadlineMs, (deadlineMs - startMs + tickMs - 1) / tickMs, task);
+        synchronized (this) {
+            if(pending==0){
+                //prazdne koleso, preskocim uplynute ticky
+                currentTick = Math.max(currentTick, (now - startMs) / tickMs);
+            }
+            timeout.deadlineTick = Math.min(Math.max(timeout.deadlineTick, currentTick + 1), currentTick + MAX_TICKS);
+            insert(timeout);
+            pending++;
+            if(pending==1) notifyAll();
+        }
+        return timeout;
+    }
+
+    public synchronized int pending() {
+        return pending;
+    }
+
+    public LatencyHistogram getFireLag() {
+        return fireLag;
+    }
+
+    private void insert(Timeout t) {
+        long diff = t.deadlineTick - currentTick;
+        int level = 0;
+        while (level < LEVELS-1 && diff >= 1L << (SLOT_BITS*(level+1))) level++;
+        int slot = (int) ((t.deadlineTick >>> (SLOT_BITS*level)) & MASK);
+        Timeout head = wheels[level][slot];
+        t.prev = head.prev;
+        t.next = head;
+        head.prev.next = t;
+        head.prev = t;
+    }
+
+    private static void unlink(Timeout t) {
+        t.prev.next = t.next;
+        t.next.prev = t.prev;
+        t.prev = null;
+        t.next = null;
+    }
+
+    private synchronized boolean cancel(Timeout t) {
+        if(t.next==null) return false;
+        unlink(t);
+        pending--;
+        return true;
+    }
+
+    /**
+     * advances the wheel to the clock time and runs expired timeouts in the calling thread
+     * @return count of fired timeouts
+     */
+    public int tick() {
+        List<Timeout> expired = new ArrayList<>();
+        long nowTick = (clock.getAsLong() - startMs) / tickMs;
+        synchronized (this) {
+            while (currentTick < nowTick) {
+                advance(currentTick + 1, expired);
+            }
+        }
+        long now = clock.getAsLong();
+        for(Timeout t : expired){
+            fireLag.record(Math.max(now - t.deadlineMs, 0L));
+            try{
+                t.task.run();
+            }catch (Exception e){
+                LOGGER.warn("timer task error {}", e.getMessage());
+            }
+        }
+        return expired.size();
+    }
+
+    private void run() {
+        while (true) {
+            try{
+                long nextTickMs;
+                synchronized (this) {
+                    while (pending==0) {
+                        wait();
+                    }
+                    nextTickMs = startMs + (currentTick + 1) * tickMs;
+                }
+                long sleep = nextTickMs - clock.getAsLong();
+                if(sleep > 0) Thread.sleep(sleep);
+                tick();
+            }catch (InterruptedException e){
+                return;
+            }catch (Throwable e){
+                LOGGER.warn("timing wheel error {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private void advance(long tick, List<Timeout> expired) {
+        currentTick = tick;
+        //cascade z vyssich urovni, ked sa nizsia uroven otoci
+        for(int level=LEVELS-1; level>0; level--){
+            long levelMask = (1L << (SLOT_BITS*level)) - 1;
+            if((tick & levelMask)==0){
+                Timeout head = wheels[level][(int) ((tick >>> (SLOT_BITS*level)) & MASK)];
+                Timeout t = head.next;
+                while (t!=head) {
+                    Timeout next = t.next;
+                    unlink(t);
+                    insert(t);
+                    t = next;
+                }
+            }
+        }
+        Timeout head = wheels[0][(int) (tick & MASK)];
+        Timeout t = head.next;
+        while (t!=head) {
+            Timeout next = t.next;
+            unlink(t);
+            if(t.deadlineTick<=tick){
+                pending--;
+                expired.add(t);
+            } else {
+                insert(t);
+            }
+            t = next;
+        }
+    }
+
+    public static final class Timeout {
+        private final TimingWheel wheel;
+        private final long deadlineMs;
+        private long deadlineTick;
+        private final Runnable task;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(TimingWheel wheel, long deadlineMs, long deadlineTick, Runnable task) {
+            this.wheel = wheel;
+            this.deadlineMs = deadlineMs;
+            this.deadlineTick = deadlineTick;
+            this.task = task;
+        }
+
+        /**
+         * @return false if timeout already fired or was cancelled
+         */
+        public boolean cancel() {
+            return wheel.cancel(this);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+create table flow_callback (
+    id varchar(32) not null primary key,
+    flowCaseId varchar(32) not null,
+    url text not null,
+    headers text,
+    body text,
+    attempts int not null,
+    lastStatus int,
+    lastError text,
+    created timestamp not null,
+    nextAttempt timestamp,
+    delivered timestamp,
+    dead timestamp
+);
+
+create index flow_callback_next on flow_callback(nextAttempt) where delivered is null and dead is null;
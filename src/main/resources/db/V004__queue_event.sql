@@ -0,0 +1,19 @@
+create table queue_event (
+    id varchar(32) not null primary key,
+    owner varchar(64) not null,
+    method varchar(16),
+    path text not null,
+    headers text,
+    body bytea,
+    priority int not null,
+    attempts int not null,
+    created timestamp not null,
+    claimedBy varchar(64),
+    leaseUntil timestamp,
+    responseStatus int,
+    responseHeaders text,
+    responseBody bytea
+);
+
+create index queue_event_claim on queue_event(path text_pattern_ops, priority, created) where responseStatus is null;
+create index queue_event_created on queue_event(created);
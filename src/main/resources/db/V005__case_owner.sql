@@ -0,0 +1,5 @@
+alter table flow_case add column owner varchar(64);
+alter table flow_case add column leaseUntil timestamp;
+
+create index flow_case_owner on flow_case(owner) where finished is null;
+create index flow_case_lease on flow_case(leaseUntil) where finished is null;
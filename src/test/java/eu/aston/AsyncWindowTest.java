@@ -0,0 +1,83 @@
+package eu.aston;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.aston.utils.AsyncWindow;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class AsyncWindowTest {
+
+    @Test
+    public void testLimit() {
+        AsyncWindow window = new AsyncWindow(2);
+        List<CompletableFuture<Integer>> calls = new ArrayList<>();
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for(int i=0; i<5; i++){
+            results.add(window.submit(()->{
+                CompletableFuture<Integer> call = new CompletableFuture<>();
+                calls.add(call);
+                return call;
+            }));
+        }
+        Assertions.assertEquals(2, calls.size());
+        Assertions.assertEquals(2, window.getInFlight());
+        Assertions.assertEquals(3, window.getQueued());
+
+        calls.get(0).complete(0);
+        Assertions.assertEquals(0, results.get(0).join());
+        Assertions.assertEquals(3, calls.size());
+        Assertions.assertEquals(2, window.getInFlight());
+        Assertions.assertEquals(2, window.getQueued());
+
+        for(int i=1; i<5; i++){
+            calls.get(i).complete(i);
+        }
+        for(int i=0; i<5; i++){
+            Assertions.assertEquals(i, results.get(i).join());
+        }
+        Assertions.assertEquals(0, window.getInFlight());
+        Assertions.assertEquals(0, window.getQueued());
+    }
+
+    @Test
+    public void testUnlimited() {
+        AsyncWindow window = new AsyncWindow(0);
+        AtomicInteger started = new AtomicInteger();
+        for(int i=0; i<100; i++){
+            window.submit(()->{
+                started.incrementAndGet();
+                return new CompletableFuture<>();
+            });
+        }
+        Assertions.assertEquals(100, started.get());
+        Assertions.assertEquals(100, window.getInFlight());
+        Assertions.assertEquals(0, window.getQueued());
+    }
+
+    @Test
+    public void testQueuedFailSynchronously() {
+        //mrtvy host, vsetky cakajuce volania zlyhaju hned pri starte
+        AsyncWindow window = new AsyncWindow(1);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> firstResult = window.submit(()->first);
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for(int i=0; i<100_000; i++){
+            results.add(window.submit(()->{
+                throw new IllegalStateException("connection refused");
+            }));
+        }
+        Assertions.assertEquals(100_000, window.getQueued());
+
+        first.complete("ok");
+        Assertions.assertEquals("ok", firstResult.join());
+        for(CompletableFuture<String> result : results){
+            Assertions.assertTrue(result.isCompletedExceptionally());
+        }
+        Assertions.assertEquals(0, window.getInFlight());
+        Assertions.assertEquals(0, window.getQueued());
+    }
+}
@@ -0,0 +1,93 @@
+package eu.aston;
+
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.aston.flow.store.FlowCallbackEntity;
+import eu.aston.flow.store.IFlowCallbackStore;
+import eu.aston.header.Callback;
+import eu.aston.header.CallbackDelivery;
+import eu.aston.header.CallbackRunner;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class CallbackDeliveryTest {
+
+    private final IFlowCallbackStore callbackStore = Mockito.mock(IFlowCallbackStore.class);
+    private final CallbackRunner callbackRunner = Mockito.mock(CallbackRunner.class);
+    private final ManualTimer timer = new ManualTimer();
+    private final CallbackDelivery delivery = new CallbackDelivery(callbackStore, callbackRunner, new ObjectMapper(), timer, 3, 1000, 600_000, 4);
+
+    @Test
+    public void testBackoffAndDead() {
+        respond(500);
+        delivery.deliver("case1", new Callback("http://localhost/cb", Map.of("a", "b")), null, Map.of("x", 1));
+        Mockito.verify(callbackStore).insert(Mockito.any());
+        Mockito.verify(callbackStore).failed(Mockito.any(), Mockito.eq(1), Mockito.eq(500), Mockito.eq("status 500"), Mockito.any());
+        Assertions.assertEquals(1, timer.delays.size());
+        assertBetween(500, 1000, timer.delays.get(0));
+
+        timer.runNext();
+        Mockito.verify(callbackStore).failed(Mockito.any(), Mockito.eq(2), Mockito.eq(500), Mockito.eq("status 500"), Mockito.any());
+        assertBetween(1000, 2000, timer.delays.get(1));
+
+        timer.runNext();
+        Mockito.verify(callbackStore).dead(Mockito.any(), Mockito.eq(3), Mockito.eq(500), Mockito.eq("status 500"));
+        Assertions.assertTrue(timer.tasks.isEmpty());
+        Assertions.assertEquals(2, delivery.getRetryCounter());
+        Assertions.assertEquals(1, delivery.getDeadCounter());
+        Assertions.assertEquals(0, delivery.getDeliveredCounter());
+        Mockito.verify(callbackRunner, Mockito.times(3)).callbackAsync(Mockito.eq("case1"), Mockito.any(), Mockito.any(), Mockito.eq("{\"x\":1}"));
+    }
+
+    @Test
+    public void testStoreBeforeSend() {
+        respond(200);
+        Mockito.doThrow(new RuntimeException("db down")).doNothing().when(callbackStore).insert(Mockito.any());
+        delivery.deliver("case1", new Callback("http://localhost/cb", null), null, "body");
+        //neulozeny callback sa neposiela
+        Mockito.verify(callbackRunner, Mockito.never()).callbackAsync(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+        Assertions.assertEquals(1, delivery.getStoreErrorCounter());
+        Assertions.assertEquals(1, timer.tasks.size());
+
+        timer.runNext();
+        Mockito.verify(callbackStore, Mockito.times(2)).insert(Mockito.any());
+        Mockito.verify(callbackStore).delivered(Mockito.any(), Mockito.eq(1), Mockito.eq(200));
+        Assertions.assertEquals(1, delivery.getDeliveredCounter());
+    }
+
+    @Test
+    public void testRetryDead() {
+        respond(200);
+        FlowCallbackEntity entity = new FlowCallbackEntity();
+        entity.setId("cb1");
+        entity.setFlowCaseId("case1");
+        entity.setUrl("http://localhost/cb");
+        entity.setBody("body");
+        entity.setAttempts(3);
+        Mockito.when(callbackStore.loadById("cb1")).thenReturn(Optional.of(entity));
+
+        Assertions.assertTrue(delivery.retryDead("cb1"));
+        Mockito.verify(callbackStore).retry("cb1");
+        Mockito.verify(callbackStore).delivered("cb1", 4, 200);
+
+        Mockito.when(callbackStore.loadById("cb2")).thenReturn(Optional.empty());
+        Assertions.assertFalse(delivery.retryDead("cb2"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void respond(int status) {
+        HttpResponse<Void> response = Mockito.mock(HttpResponse.class);
+        Mockito.when(response.statusCode()).thenReturn(status);
+        Mockito.when(callbackRunner.callbackAsync(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+               .thenAnswer(inv->CompletableFuture.completedFuture(response));
+    }
+
+    private static void assertBetween(long min, long max, long value) {
+        Assertions.assertTrue(value>=min && value<=max, value+" not in "+min+".."+max);
+    }
+}
@@ -0,0 +1,147 @@
+package eu.aston;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.aston.flow.FlowDefStore;
+import eu.aston.flow.IFlowExecutor;
+import eu.aston.flow.QueueFlowBridge;
+import eu.aston.flow.def.FlowDef;
+import eu.aston.flow.model.CaseState;
+import eu.aston.flow.model.FlowTask;
+import eu.aston.flow.ognl.YamlOgnlFlowExecutor;
+import eu.aston.flow.store.FlowCaseEntity;
+import eu.aston.flow.store.FlowTaskEntity;
+import eu.aston.utils.ID;
+
+/**
+ * time and allocated bytes of one execTick in iterable step with 10 - 10,000 tasks, every tick one task
+ * finishes and one new task opens. Step maps rebuilt on every tick (new task list as after case reload)
+ * vs step context kept between ticks.
+ */
+public class ExecTickBenchmark {
+
+    private static final String FLOW = """
+            code: bench
+            steps:
+              - code: init
+                workers:
+                  - code: prepare
+                    path: echo
+                    params:
+                      $a: case.params.a
+              - code: items
+                itemsExpr: case.params.items
+                workers:
+                  - code: w1
+                    path: echo
+                    params:
+                      $a: step.init.prepare.a
+                  - code: w2
+                    path: echo
+                    params:
+                      $b: w1.a
+            """;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("bench");
+        Files.writeString(dir.resolve("bench.flow.yaml"), FLOW);
+        ObjectMapper objectMapper = new ObjectMapper();
+        FlowDefStore flowDefStore = new FlowDefStore(null, objectMapper, null);
+        QueueFlowBridge flowBridge = new QueueFlowBridge(null, objectMapper);
+        flowDefStore.loadRoot(dir.toFile(), true);
+        FlowDef flowDef = flowDefStore.flowDef("bench").orElseThrow();
+        AppConfig appConfig = new AppConfig();
+        appConfig.setTaskApiKeySecret("secret");
+        appConfig.setAppHost("http://localhost:8080");
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+
+        for(int round=0; round<2; round++){
+            for(int n : new int[]{10, 100, 1_000, 10_000}){
+                for(boolean rebuild : new boolean[]{true, false}){
+                    YamlOgnlFlowExecutor executor = new YamlOgnlFlowExecutor(flowDefStore, flowBridge, appConfig, objectMapper, null);
+                    FlowCaseEntity flowCase = flowCase(n);
+                    List<FlowTaskEntity> tasks = tasks(flowCase, n);
+                    IFlowExecutor.IFlowBack flowBack = flowBack();
+                    int ticks = Math.min(n, 1000);
+                    long a1 = threadBean.getThreadAllocatedBytes(threadId);
+                    long t1 = System.nanoTime();
+                    for(int i=0; i<ticks; i++){
+                        FlowTaskEntity w1 = tasks.get(2+i);
+                        w1.setResponse(Map.of("a", i));
+                        w1.setResponseCode(200);
+                        w1.setFinished(Instant.now());
+                        tasks.add(new FlowTaskEntity(ID.newId(), flowCase.getId(), "items", "w2", i));
+                        executor.execTick(flowDef, flowCase, rebuild ? new ArrayList<>(tasks) : tasks, "items", flowBack);
+                        tasks.removeIf(t->t.getCreated()==null);
+                    }
+                    long t2 = System.nanoTime();
+                    long a2 = threadBean.getThreadAllocatedBytes(threadId);
+                    long wrong = tasks.stream().filter(t->t.getWorker().equals("w2"))
+                                      .filter(t->!Map.of("b", t.getStepIndex()).equals(t.getResponse())).count();
+                    System.out.printf("tasks %,6d %-11s %,10d ns/tick %,12d B/tick%s%n", n, rebuild ? "rebuild" : "incremental",
+                                      (t2-t1)/ticks, (a2-a1)/ticks, wrong>0 ? " wrong responses "+wrong : "");
+                }
+            }
+        }
+    }
+
+    private static FlowCaseEntity flowCase(int n) {
+        FlowCaseEntity flowCase = new FlowCaseEntity();
+        flowCase.setId(ID.newId());
+        flowCase.setCaseType("bench");
+        flowCase.setState(CaseState.WORKING);
+        flowCase.setStep("items");
+        flowCase.setParams(new HashMap<>());
+        flowCase.getParams().put("a", 1);
+        return flowCase;
+    }
+
+    private static List<FlowTaskEntity> tasks(FlowCaseEntity flowCase, int n) {
+        List<FlowTaskEntity> tasks = new ArrayList<>();
+        FlowTaskEntity prepare = finished(new FlowTaskEntity(ID.newId(), flowCase.getId(), "init", "prepare", 0), Map.of("a", 1));
+        tasks.add(prepare);
+        List<Object> items = new ArrayList<>();
+        for(int i=0; i<n; i++) items.add(i);
+        tasks.add(finished(new FlowTaskEntity(ID.newId(), flowCase.getId(), "items", FlowTask.STEP_ITERATOR, -1), items));
+        for(int i=0; i<n; i++){
+            FlowTaskEntity w1 = new FlowTaskEntity(ID.newId(), flowCase.getId(), "items", "w1", i);
+            w1.setCreated(Instant.now());
+            tasks.add(w1);
+        }
+        return tasks;
+    }
+
+    private static FlowTaskEntity finished(FlowTaskEntity task, Object response) {
+        task.setCreated(Instant.now());
+        task.setFinished(Instant.now());
+        task.setResponseCode(200);
+        task.setResponse(response);
+        return task;
+    }
+
+    private static IFlowExecutor.IFlowBack flowBack() {
+        return new IFlowExecutor.IFlowBack() {
+            @Override
+            public void sentTask(FlowTaskEntity task) {
+                if(task.getCreated()==null) task.setCreated(Instant.now());
+            }
+
+            @Override
+            public void finishTask(FlowTaskEntity task, int statusCode, Object response) {
+                if(task.getCreated()==null) task.setCreated(Instant.now());
+                task.setResponseCode(statusCode);
+                task.setResponse(response);
+                task.setFinished(Instant.now());
+            }
+        };
+    }
+}
@@ -0,0 +1,124 @@
+package eu.aston;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.aston.flow.store.FlowTaskBatchStore;
+import eu.aston.flow.store.FlowTaskEntity;
+import eu.aston.utils.ID;
+import eu.aston.utils.SuperTimer;
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ * fan-out of one iterator step (5,000 items), tasks created one by one (insert statement and timer per task)
+ * vs sentTasks (multi-row insert and one timer per timeout), app.taskBatchWindow=0, H2 in postgres mode.
+ */
+public class FanOutBenchmark {
+
+    private static final int ITEMS = 5_000;
+
+    public static void main(String[] args) throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:fanout;MODE=PostgreSQL;DB_CLOSE_DELAY=-1");
+        try(Connection c = dataSource.getConnection(); Statement st = c.createStatement()){
+            st.execute("""
+                    create table flow_task (
+                        id varchar(32) not null primary key,
+                        flowCaseId  varchar(32) not null,
+                        step varchar(64) not null,
+                        worker varchar(64) not null,
+                        stepIndex int,
+                        responseCode int,
+                        response text,
+                        error text,
+                        timeout int,
+                        created timestamp not null,
+                        started timestamp,
+                        finished timestamp,
+                        queueSent timestamp
+                    )""");
+        }
+        ObjectMapper objectMapper = new ObjectMapper();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        SuperTimer superTimer = new SuperTimer(executor);
+        FlowTaskBatchStore batchStore = new FlowTaskBatchStore(null, dataSource, objectMapper, 0, 200);
+
+        for(int round=0; round<3; round++){
+            clean(dataSource);
+            List<FlowTaskEntity> tasks = tasks();
+            int timers0 = superTimer.pending();
+            long t1 = System.nanoTime();
+            int statements = 0;
+            try(Connection c = dataSource.getConnection()){
+                for(FlowTaskEntity task : tasks){
+                    task.setCreated(Instant.now());
+                    try(PreparedStatement ps = c.prepareStatement("insert into flow_task (id, flowCaseId, step, worker, stepIndex, timeout, created) values (?,?,?,?,?,?,?)")){
+                        ps.setString(1, task.getId());
+                        ps.setString(2, task.getFlowCaseId());
+                        ps.setString(3, task.getStep());
+                        ps.setString(4, task.getWorker());
+                        ps.setInt(5, task.getStepIndex());
+                        ps.setInt(6, task.getTimeout());
+                        ps.setTimestamp(7, Timestamp.from(task.getCreated()));
+                        ps.executeUpdate();
+                        statements++;
+                    }
+                    superTimer.schedule(task.getTimeout()*1000L, task.getId(), id->{});
+                }
+            }
+            long t2 = System.nanoTime();
+            print("sentTask ", t2-t1, statements, superTimer.pending()-timers0, count(dataSource));
+
+            clean(dataSource);
+            tasks = tasks();
+            timers0 = superTimer.pending();
+            long t3 = System.nanoTime();
+            Instant now = Instant.now();
+            for(FlowTaskEntity task : tasks) task.setCreated(now);
+            batchStore.insertAll(tasks);
+            superTimer.schedule(tasks.getFirst().getTimeout()*1000L, tasks, ids->{});
+            long t4 = System.nanoTime();
+            print("sentTasks", t4-t3, (tasks.size()+999)/1000, superTimer.pending()-timers0, count(dataSource));
+        }
+        System.exit(0);
+    }
+
+    private static List<FlowTaskEntity> tasks() {
+        String caseId = ID.newId();
+        List<FlowTaskEntity> tasks = new ArrayList<>(ITEMS*2);
+        for(int i=0; i<ITEMS; i++){
+            for(String worker : new String[]{"w1", "w2"}){
+                FlowTaskEntity task = new FlowTaskEntity(ID.newId(), caseId, "items", worker, i);
+                task.setTimeout(120);
+                tasks.add(task);
+            }
+        }
+        return tasks;
+    }
+
+    private static void print(String name, long nanos, int statements, int timers, long rows) {
+        System.out.printf("%s %6d ms, statements %,6d, timers %,6d, db rows %,d%n", name, nanos/1_000_000, statements, timers, rows);
+    }
+
+    private static void clean(JdbcDataSource dataSource) throws Exception {
+        try(Connection c = dataSource.getConnection(); Statement st = c.createStatement()){
+            st.execute("delete from flow_task");
+        }
+    }
+
+    private static long count(JdbcDataSource dataSource) throws Exception {
+        try(Connection c = dataSource.getConnection(); Statement st = c.createStatement()){
+            var rs = st.executeQuery("select count(*) from flow_task");
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
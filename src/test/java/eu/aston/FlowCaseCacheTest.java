@@ -0,0 +1,47 @@
+package eu.aston;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.aston.flow.FlowCaseCache;
+import eu.aston.flow.store.FlowCaseEntity;
+import eu.aston.flow.store.FlowTaskEntity;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class FlowCaseCacheTest {
+
+    @Test
+    public void testEvictListener() {
+        List<String> evicted = new ArrayList<>();
+        FlowCaseCache cache = new FlowCaseCache(2);
+        cache.setEvictListener(evicted::add);
+        cache.put(flowCase("case1"), List.of(task("task1", "case1")));
+        cache.put(flowCase("case2"), List.of());
+        //case1 je naposledy pouzity, vypadne case2
+        Assertions.assertNotNull(cache.get("case1"));
+        cache.put(flowCase("case3"), List.of());
+        Assertions.assertEquals(List.of("case2"), evicted);
+        Assertions.assertEquals(2, cache.size());
+
+        cache.evict("case1");
+        Assertions.assertEquals(List.of("case2", "case1"), evicted);
+        Assertions.assertNull(cache.getByTask("task1"));
+        //neexistujuci case sa neoznamuje
+        cache.evict("case1");
+        Assertions.assertEquals(2, evicted.size());
+    }
+
+    private static FlowCaseEntity flowCase(String id) {
+        FlowCaseEntity flowCase = new FlowCaseEntity();
+        flowCase.setId(id);
+        return flowCase;
+    }
+
+    private static FlowTaskEntity task(String id, String caseId) {
+        FlowTaskEntity task = new FlowTaskEntity();
+        task.setId(id);
+        task.setFlowCaseId(caseId);
+        return task;
+    }
+}
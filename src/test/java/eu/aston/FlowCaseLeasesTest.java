@@ -0,0 +1,125 @@
+package eu.aston;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import eu.aston.flow.FlowCaseLeases;
+import eu.aston.flow.store.FlowCaseLeaseStore;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class FlowCaseLeasesTest {
+
+    private final FlowCaseLeaseStore leaseStore = Mockito.mock(FlowCaseLeaseStore.class);
+    private final ManualTimer timer = new ManualTimer();
+    private final List<String> events = new ArrayList<>();
+
+    @Test
+    public void testDisabled() throws SQLException {
+        FlowCaseLeases leases = leases(0);
+        Assertions.assertFalse(leases.isEnabled());
+        leases.acquire("case1");
+        Assertions.assertTrue(leases.owns("case1"));
+        Assertions.assertTrue(leases.owns("case2"));
+        Mockito.verifyNoInteractions(leaseStore);
+    }
+
+    @Test
+    public void testRenewAndAdopt() throws SQLException {
+        FlowCaseLeases leases = leases(30);
+        Mockito.when(leaseStore.renew("n1", 30)).thenReturn(List.of("case1"));
+        Assertions.assertEquals(List.of("case1"), leases.start(handler()));
+        Assertions.assertEquals(List.of(10_000L), timer.periods);
+        Assertions.assertTrue(leases.owns("case1"));
+        Assertions.assertFalse(leases.owns("case2"));
+
+        leases.acquire("case2");
+        Mockito.verify(leaseStore).acquire("case2", "n1", 30);
+        Assertions.assertTrue(leases.owns("case2"));
+        Assertions.assertEquals(2, leases.getOwnedCount());
+
+        //case2 prevzala ina replika, case3 je po padnutej replike
+        Mockito.when(leaseStore.adopt("n1", 30, 100)).thenReturn(List.of("case3"));
+        timer.runPeriods();
+        Assertions.assertEquals(List.of("lost case2", "adopt case3"), events);
+        Assertions.assertFalse(leases.owns("case2"));
+        Assertions.assertTrue(leases.owns("case3"));
+        Assertions.assertEquals(1, leases.getAdopted());
+
+        //finished case sa uz neobnovuje
+        leases.release("case1");
+        Assertions.assertFalse(leases.owns("case1"));
+    }
+
+    @Test
+    public void testRenewError() throws SQLException, InterruptedException {
+        FlowCaseLeases leases = leases(1);
+        Mockito.when(leaseStore.renew("n1", 1)).thenReturn(List.of("case1"));
+        leases.start(handler());
+        Assertions.assertTrue(leases.owns("case1"));
+
+        Mockito.when(leaseStore.renew("n1", 1)).thenThrow(new RuntimeException("db down"));
+        timer.runPeriods();
+        Thread.sleep(1100);
+        //bez obnovenia moze case drzat ina replika
+        Assertions.assertFalse(leases.owns("case1"));
+        Mockito.verify(leaseStore, Mockito.never()).adopt(Mockito.any(), Mockito.anyInt(), Mockito.anyInt());
+
+        //po obnoveni sa case spusti znova
+        Mockito.doReturn(List.of("case1")).when(leaseStore).renew("n1", 1);
+        timer.runPeriods();
+        Assertions.assertTrue(leases.owns("case1"));
+        Assertions.assertEquals(List.of("resume case1"), events);
+    }
+
+    @Test
+    public void testFinishTask() throws SQLException {
+        FlowCaseLeases leases = leases(30);
+        Mockito.when(leaseStore.finishTask("case1", "task1", 200, "ok", null)).thenReturn(true);
+        Assertions.assertTrue(leases.finishTask("case1", "task1", 200, "ok", null));
+        Assertions.assertFalse(leases.finishTask("case1", "task2", 200, "ok", null));
+    }
+
+    private FlowCaseLeases leases(int leaseSeconds) throws SQLException {
+        if(leaseSeconds>0){
+            //LISTEN sa v teste nepouziva, spojenie nikdy nepride
+            DataSource dataSource = Mockito.mock(DataSource.class);
+            Mockito.when(dataSource.getConnection()).thenAnswer(inv->{
+                Thread.sleep(Long.MAX_VALUE);
+                return null;
+            });
+            Mockito.when(leaseStore.getDataSource()).thenReturn(dataSource);
+        }
+        AppConfig appConfig = new AppConfig();
+        appConfig.setNodeId("n1");
+        return new FlowCaseLeases(leaseStore, timer, appConfig, leaseSeconds);
+    }
+
+    private FlowCaseLeases.Handler handler() {
+        return new FlowCaseLeases.Handler() {
+            @Override
+            public void adopt(String caseId) {
+                events.add("adopt "+caseId);
+            }
+
+            @Override
+            public void resume(String caseId) {
+                events.add("resume "+caseId);
+            }
+
+            @Override
+            public void lost(String caseId) {
+                events.add("lost "+caseId);
+            }
+
+            @Override
+            public void taskFinished(String caseId, String taskId) {
+                events.add("task "+caseId+" "+taskId);
+            }
+        };
+    }
+}
@@ -0,0 +1,145 @@
+package eu.aston;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.aston.blob.BlobStore;
+import eu.aston.flow.FlowCaseCache;
+import eu.aston.flow.FlowCaseLeases;
+import eu.aston.flow.FlowCaseManager;
+import eu.aston.flow.FlowCounter;
+import eu.aston.flow.FlowDefStore;
+import eu.aston.flow.IFlowExecutor;
+import eu.aston.flow.WaitingFlowCaseManager;
+import eu.aston.flow.def.FlowDef;
+import eu.aston.flow.model.FlowCaseCreate;
+import eu.aston.flow.ognl.YamlOgnlFlowExecutor;
+import eu.aston.flow.store.FlowCaseEntity;
+import eu.aston.flow.store.FlowTaskBatchStore;
+import eu.aston.flow.store.FlowTaskEntity;
+import eu.aston.flow.store.IFlowCaseStore;
+import eu.aston.flow.store.IFlowTaskStore;
+import eu.aston.header.CallbackDelivery;
+import eu.aston.span.ISpanSender;
+import eu.aston.user.UserException;
+import eu.aston.utils.ID;
+import eu.aston.utils.SuperTimer;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class FlowCaseManagerTest {
+
+    private static final String FLOW = """
+            code: manager
+            steps:
+              - code: load
+                workers:
+                  - code: ocr
+                    path: /ocr/
+            """;
+
+    private final FlowCaseLeases caseLeases = Mockito.mock(FlowCaseLeases.class);
+    private final TickExecutor executor = new TickExecutor();
+
+    @Test
+    public void testInsertBeforeDispatch() throws Exception {
+        //s lease odpoved workera moze prist na inu repliku, ta cita task z db
+        Mockito.when(caseLeases.isEnabled()).thenReturn(true);
+        Mockito.when(caseLeases.owns(Mockito.anyString())).thenReturn(true);
+        JdbcDataSource dataSource = FlowTaskBatchStoreTest.dataSource();
+        executor.dataSource = dataSource;
+        FlowTaskBatchStore batchStore = new FlowTaskBatchStore(null, dataSource, new ObjectMapper(), 60_000, 200);
+        FlowCaseManager manager = manager(FlowGraphTest.flowDefStore(FLOW), batchStore);
+        manager.createFlow(ID.newId(), new FlowCaseCreate("manager", null, null, Map.of(), null));
+
+        Tick tick = executor.ticks.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(tick);
+        Assertions.assertEquals(1, tick.sent().size());
+        Assertions.assertEquals(1L, tick.rows());
+        batchStore.close();
+    }
+
+    @Test
+    public void testRemovedWorkerFinished() throws Exception {
+        Mockito.when(caseLeases.owns(Mockito.anyString())).thenReturn(true);
+        JdbcDataSource dataSource = FlowTaskBatchStoreTest.dataSource();
+        executor.dataSource = dataSource;
+        FlowTaskBatchStore batchStore = new FlowTaskBatchStore(null, dataSource, new ObjectMapper(), 5, 200);
+        FlowDefStore flowDefStore = FlowGraphTest.flowDefStore(FLOW);
+        FlowCaseManager manager = manager(flowDefStore, batchStore);
+        manager.createFlow(ID.newId(), new FlowCaseCreate("manager", null, null, Map.of(), null));
+        FlowTaskEntity ocr = executor.ticks.poll(5, TimeUnit.SECONDS).sent().getFirst();
+
+        //reload flow odstrani workera ocr, jeho task sa dokonci a case pokracuje
+        Path dir = Files.createTempDirectory("flow");
+        Files.writeString(dir.resolve("test.flow.yaml"), FLOW.replace("ocr", "check"));
+        flowDefStore.loadRoot(dir.toFile(), true);
+        manager.finishTask(ocr.getId(), 200, "ok");
+        Tick tick = executor.ticks.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(tick);
+        Assertions.assertEquals(List.of("check"), tick.sent().stream().map(FlowTaskEntity::getWorker).toList());
+        Assertions.assertEquals(200, ocr.getResponseCode());
+        batchStore.close();
+    }
+
+    @Test
+    public void testFinishOutsideMonitor() throws Exception {
+        Mockito.when(caseLeases.owns(Mockito.anyString())).thenReturn(true);
+        JdbcDataSource dataSource = FlowTaskBatchStoreTest.dataSource();
+        executor.dataSource = dataSource;
+        //bez okna ide finish priamo do db
+        IFlowTaskStore taskStore = Mockito.mock(IFlowTaskStore.class);
+        FlowTaskBatchStore batchStore = new FlowTaskBatchStore(taskStore, dataSource, new ObjectMapper(), 0, 200);
+        FlowCaseManager manager = manager(FlowGraphTest.flowDefStore(FLOW), batchStore);
+        manager.createFlow(ID.newId(), new FlowCaseCreate("manager", null, null, Map.of(), null));
+        FlowTaskEntity ocr = executor.ticks.poll(5, TimeUnit.SECONDS).sent().getFirst();
+
+        List<Boolean> locked = new ArrayList<>();
+        Mockito.doAnswer(inv->locked.add(Thread.holdsLock(ocr))).when(taskStore).finishOk(ocr.getId(), 200, "ok");
+        manager.finishTask(ocr.getId(), 200, "ok");
+        Assertions.assertEquals(List.of(false), locked);
+        Assertions.assertNotNull(ocr.getFinished());
+        Assertions.assertThrows(UserException.class, ()->manager.finishTask(ocr.getId(), 200, "ok"));
+    }
+
+    private FlowCaseManager manager(FlowDefStore flowDefStore, FlowTaskBatchStore batchStore) {
+        return new FlowCaseManager(Mockito.mock(BlobStore.class), Mockito.mock(IFlowCaseStore.class), Mockito.mock(IFlowTaskStore.class),
+                                   batchStore, flowDefStore, new IFlowExecutor[]{executor}, Mockito.mock(WaitingFlowCaseManager.class),
+                                   Mockito.mock(ISpanSender.class), Mockito.mock(CallbackDelivery.class), Mockito.mock(SuperTimer.class),
+                                   Mockito.mock(FlowCounter.class), new FlowCaseCache(100), caseLeases, 0, 15);
+    }
+
+    private record Tick(List<FlowTaskEntity> sent, long rows) {}
+
+    /**
+     * sends all opened tasks, counts rows of flow_task at the moment of dispatch
+     */
+    private static class TickExecutor implements IFlowExecutor {
+        private final LinkedBlockingQueue<Tick> ticks = new LinkedBlockingQueue<>();
+        private JdbcDataSource dataSource;
+
+        @Override
+        public String id() {
+            return YamlOgnlFlowExecutor.ID;
+        }
+
+        @Override
+        public void execTick(FlowDef flowDef, FlowCaseEntity flowCase, List<FlowTaskEntity> tasks, String stepCode, IFlowBack flowBack) {
+            List<FlowTaskEntity> sent = tasks.stream().filter(t->t.getCreated()==null).toList();
+            flowBack.sentTasks(sent);
+            try{
+                ticks.add(new Tick(sent, FlowTaskBatchStoreTest.count(dataSource, "select count(*) from flow_task")));
+            }catch (Exception e){
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
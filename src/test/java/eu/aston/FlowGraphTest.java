@@ -0,0 +1,201 @@
+package eu.aston;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.aston.flow.FlowDefStore;
+import eu.aston.flow.IFlowExecutor;
+import eu.aston.flow.QueueFlowBridge;
+import eu.aston.flow.def.FlowDef;
+import eu.aston.flow.def.FlowGraph;
+import eu.aston.flow.model.FlowTask;
+import eu.aston.flow.ognl.YamlOgnlFlowExecutor;
+import eu.aston.flow.store.FlowCaseEntity;
+import eu.aston.flow.store.FlowTaskEntity;
+import eu.aston.user.UserException;
+import eu.aston.utils.ID;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class FlowGraphTest {
+
+    private static final String FLOW = """
+            code: graph
+            steps:
+              - code: load
+                workers:
+                  - code: input
+                    path: echo
+                  - code: check
+                    path: echo
+                    params:
+                      $a: input.a
+              - code: items
+                itemsExpr: step.load.input.items
+                workers:
+                  - code: item
+                    path: echo
+            response:
+              $result: step.items.item
+            """;
+
+    private static final String DEPS = """
+            code: deps
+            steps:
+              - code: load
+                workers:
+                  - code: input
+                    path: echo
+                  - code: pair1
+                    path: echo
+                    params:
+                      $b: pair2.b
+                  - code: pair2
+                    path: echo
+                    params:
+                      $b: pair1.b
+              - code: next
+                workers:
+                  - code: all
+                    path: echo
+                    params:
+                      $load: step.load
+                      $x: case.params.x
+                  - code: root
+                    path: echo
+                    params:
+                      $a: "#root.step"
+                  - code: steps
+                    path: echo
+                    params:
+                      $a: step
+            """;
+
+    @Test
+    public void testOrdinals() throws Exception {
+        FlowDefStore flowDefStore = flowDefStore(FLOW);
+        FlowGraph graph = flowDefStore.flowDef("graph").orElseThrow().getGraph();
+        Assertions.assertEquals(3, graph.stepCount());
+        Assertions.assertEquals(0, graph.stepOrdinal("load"));
+        Assertions.assertEquals(1, graph.stepOrdinal("items"));
+        Assertions.assertEquals(2, graph.stepOrdinal(FlowTask.FLOW_RESPONSE));
+        Assertions.assertEquals(-1, graph.stepOrdinal("unknown"));
+        Assertions.assertEquals(-1, graph.stepOrdinal(null));
+
+        Assertions.assertEquals(0, graph.next(-1));
+        Assertions.assertEquals(1, graph.next(0));
+        Assertions.assertEquals(2, graph.next(1));
+        Assertions.assertEquals(-1, graph.next(2));
+
+        Assertions.assertEquals(1, graph.workerOrdinal(0, "check"));
+        Assertions.assertEquals(-1, graph.workerOrdinal(0, "item"));
+        //iterator je prvy worker kroku s itemsExpr
+        Assertions.assertEquals(0, graph.workerOrdinal(1, FlowTask.STEP_ITERATOR));
+        Assertions.assertEquals(1, graph.workerOrdinal(1, "item"));
+        Assertions.assertTrue(graph.isIterable("items"));
+        Assertions.assertFalse(graph.isIterable("load"));
+    }
+
+    @Test
+    public void testWorker() throws Exception {
+        FlowDefStore flowDefStore = flowDefStore(FLOW);
+        FlowDef flowDef = flowDefStore.flowDef("graph").orElseThrow();
+        Assertions.assertEquals("check", flowDef.getGraph().worker("load", "check").getCode());
+        Assertions.assertNull(flowDef.getGraph().worker("load", "item"));
+        Assertions.assertNull(flowDef.getGraph().worker("unknown", "input"));
+
+        Assertions.assertSame(flowDef.getGraph().worker("items", "item"), flowDefStore.cacheWorker(flowDef, "items", "item"));
+        UserException e = Assertions.assertThrows(UserException.class, ()->flowDefStore.cacheWorker(flowDef, "load", "removed"));
+        Assertions.assertEquals("undefined worker graph/load/removed", e.getMessage());
+    }
+
+    @Test
+    public void testDeps() throws Exception {
+        FlowGraph graph = flowDefStore(FLOW).flowDef("graph").orElseThrow().getGraph();
+        Assertions.assertEquals(List.of(List.of("input", "a")), graph.worker("load", "check").getPlan().references());
+        Assertions.assertArrayEquals(new int[0], graph.deps(0, 0));
+        Assertions.assertTrue(graph.depsKnown(0, 0));
+        //worker rovnakeho kroku podla mena
+        Assertions.assertArrayEquals(new int[]{FlowGraph.dep(0, 0)}, graph.deps(0, 1));
+        Assertions.assertTrue(graph.depsKnown(0, 1));
+        //iterator cita step.load.input
+        int dep = graph.deps(1, 0)[0];
+        Assertions.assertEquals(1, graph.deps(1, 0).length);
+        Assertions.assertEquals(0, FlowGraph.depStep(dep));
+        Assertions.assertEquals(0, FlowGraph.depWorker(dep));
+        Assertions.assertArrayEquals(new int[]{FlowGraph.dep(1, 1)}, graph.deps(2, 0));
+    }
+
+    @Test
+    public void testDepsUnknown() throws Exception {
+        FlowGraph graph = flowDefStore(DEPS).flowDef("deps").orElseThrow().getGraph();
+        //kruh medzi workermi kroku, poradie ostava podla vyhodnotenia
+        Assertions.assertArrayEquals(new int[]{FlowGraph.dep(0, 2)}, graph.deps(0, 1));
+        Assertions.assertFalse(graph.depsKnown(0, 1));
+        Assertions.assertFalse(graph.depsKnown(0, 2));
+        Assertions.assertTrue(graph.depsKnown(0, 0));
+
+        //step.load je zavislost na celom kroku, case sa ignoruje
+        Assertions.assertArrayEquals(new int[]{FlowGraph.dep(0, FlowGraph.ALL_WORKERS)}, graph.deps(1, 0));
+        Assertions.assertTrue(graph.depsKnown(1, 0));
+        //#root a samotny step nie su zname pri nacitani
+        Assertions.assertNull(graph.worker("next", "root").getPlan().references());
+        Assertions.assertArrayEquals(new int[0], graph.deps(1, 1));
+        Assertions.assertFalse(graph.depsKnown(1, 1));
+        Assertions.assertFalse(graph.depsKnown(1, 2));
+    }
+
+    @Test
+    public void testCycleFallback() throws Exception {
+        String yaml = """
+                code: cycle
+                steps:
+                  - code: load
+                    workers:
+                      - code: pair1
+                        path: echo
+                        params:
+                          $b: "case.params.flag ? pair2.b : 1"
+                      - code: pair2
+                        path: echo
+                        params:
+                          $b: "case.params.flag ? 1 : pair1.b"
+                """;
+        ObjectMapper objectMapper = new ObjectMapper();
+        FlowDefStore flowDefStore = flowDefStore(yaml);
+        FlowDef flowDef = flowDefStore.flowDef("cycle").orElseThrow();
+        Assertions.assertFalse(flowDef.getGraph().depsKnown(0, 0));
+        AppConfig appConfig = new AppConfig();
+        appConfig.setTaskApiKeySecret("secret");
+        appConfig.setAppHost("http://localhost:8080");
+        YamlOgnlFlowExecutor executor = new YamlOgnlFlowExecutor(flowDefStore, new QueueFlowBridge(null, objectMapper),
+                                                                 appConfig, objectMapper, null);
+        FlowCaseEntity flowCase = new FlowCaseEntity();
+        flowCase.setId(ID.newId());
+        flowCase.setCaseType("cycle");
+        flowCase.setParams(new HashMap<>(Map.of("flag", true)));
+        FlowTaskEntity pair1 = new FlowTaskEntity("t1", flowCase.getId(), "load", "pair1", 0);
+        FlowTaskEntity pair2 = new FlowTaskEntity("t2", flowCase.getId(), "load", "pair2", 0);
+        List<FlowTaskEntity> tasks = new ArrayList<>(List.of(pair1, pair2));
+        IFlowExecutor.IFlowBack flowBack = Mockito.mock(IFlowExecutor.IFlowBack.class);
+
+        //kruh sa vyhodnoti ako doteraz, pair2 necita pair1 a odide
+        executor.execTick(flowDef, flowCase, tasks, "load", flowBack);
+        Mockito.verify(flowBack).finishTask(pair2, 200, Map.of("b", 1));
+        Mockito.verify(flowBack, Mockito.never()).finishTask(Mockito.eq(pair1), Mockito.anyInt(), Mockito.any());
+    }
+
+    static FlowDefStore flowDefStore(String yaml) throws Exception {
+        Path dir = Files.createTempDirectory("flow");
+        Files.writeString(dir.resolve("test.flow.yaml"), yaml);
+        FlowDefStore flowDefStore = new FlowDefStore(null, new ObjectMapper(), null);
+        flowDefStore.loadRoot(dir.toFile(), true);
+        return flowDefStore;
+    }
+}
@@ -0,0 +1,65 @@
+package eu.aston;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.aston.flow.FlowDefStore;
+import eu.aston.flow.def.FlowDef;
+import eu.aston.flow.def.FlowStepDef;
+import eu.aston.flow.def.FlowWorkerDef;
+import eu.aston.flow.ognl.FlowScript;
+
+/**
+ * params evaluation of all flow3 workers, FlowScript.execMap on raw yaml maps vs compiled FlowPlan.
+ */
+public class FlowPlanBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int ITERATIONS = 200_000;
+
+    public static void main(String[] args) throws Exception {
+        FlowDefStore flowDefStore = new FlowDefStore(null, new ObjectMapper(), null);
+        flowDefStore.loadRoot(new File("test_root"), true);
+        FlowDef flowDef = flowDefStore.flowDef("flow3").orElseThrow();
+        List<FlowWorkerDef> workers = flowDef.getSteps().stream().map(FlowStepDef::getWorkers).flatMap(List::stream).toList();
+
+        Map<String, Object> root = new FlowScript.LazyMap();
+        root.put("case", Map.of("params", Map.of("a", 2, "b", 3, "c", List.of("a", "b", "c"))));
+        root.put("step", Map.of("local", Map.of("w11", Map.of("a", 2))));
+        root.put("w11", Map.of("a", 2));
+        root.put("w12", Map.of("b", 2));
+        root.put("w21", Map.of("c", 4));
+        root.put("w31", Map.of("c", 4));
+        root.put("w42", Map.of("c", 4));
+        FlowScript script = new FlowScript(root);
+
+        long sink = 0;
+        for(int round=0; round<ROUNDS; round++){
+            long t1 = System.nanoTime();
+            for(int i=0; i<ITERATIONS; i++){
+                for(FlowWorkerDef w : workers){
+                    Map<String, Object> params = script.execMap(w.getParams());
+                    sink += params!=null ? params.size() : 0;
+                }
+            }
+            long t2 = System.nanoTime();
+            for(int i=0; i<ITERATIONS; i++){
+                for(FlowWorkerDef w : workers){
+                    Object params = w.getPlan().params(script);
+                    sink += params instanceof Map<?,?> m ? m.size() : 1;
+                }
+            }
+            long t3 = System.nanoTime();
+            print("execMap", t2-t1, workers.size());
+            print("plan   ", t3-t2, workers.size());
+        }
+        System.out.println("sink "+sink);
+    }
+
+    private static void print(String name, long nanos, int workers) {
+        double perTask = nanos/(double)(ITERATIONS*workers);
+        System.out.printf("%s %6d ms, %8.1f ns/task%n", name, nanos/1_000_000, perTask);
+    }
+}
@@ -1,12 +1,16 @@
 package eu.aston;
 
+import java.io.ByteArrayOutputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import eu.aston.flow.ognl.FlowPlan;
 import eu.aston.flow.ognl.FlowScript;
 import eu.aston.flow.ognl.RuntimeExceptionSerializer;
 import eu.aston.flow.ognl.TaskResponseException;
@@ -105,4 +109,57 @@ public class FlowScriptTest {
         });
 
     }
+
+    @Test
+    public void testPlan(){
+
+        FlowScript flowScript = createCtx();
+
+        Assertions.assertDoesNotThrow(()->{
+            Map<String, Object> params = new HashMap<>();
+            params.put("a", "aa");
+            params.put("$b", "b");
+            params.put("$$dd", "dd");
+            params.put("$l", List.of("a", 1));
+            params.put("m", Map.of("$c", "c.c1", "x", 2));
+            params.put("n", null);
+            Assertions.assertEquals(flowScript.execMap(params), FlowPlan.compileMap(params).eval(flowScript));
+
+            Map<String, String> headers = new HashMap<>();
+            headers.put("h", "h");
+            headers.put("$a", "a");
+            headers.put("$x", "x");
+            Assertions.assertEquals(flowScript.execMapS(headers), FlowPlan.compileMapS(headers).eval(flowScript));
+        });
+
+        Assertions.assertThrows(WaitingException.class, ()->{
+            Map<String, Object> params = new HashMap<>();
+            params.put("$e", "e");
+            FlowPlan.compileMap(params).eval(flowScript);
+        });
+    }
+
+    @Test
+    public void testPlanWrite(){
+
+        FlowScript flowScript = createCtx();
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+        Assertions.assertDoesNotThrow(()->{
+            Map<String, Object> params = new HashMap<>();
+            params.put("a", "aa");
+            params.put("$b", "b");
+            params.put("$c", "c");
+            params.put("$x", "x");
+            params.put("$l", List.of("a", 1));
+            params.put("m", Map.of("$c", "c.c1", "x", 2));
+            FlowPlan.Node node = FlowPlan.compileMap(params);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try(JsonGenerator gen = objectMapper.createGenerator(out)){
+                node.write(flowScript, gen, objectMapper.writer(), true);
+            }
+            Assertions.assertEquals(objectMapper.readTree(objectMapper.writeValueAsBytes(node.eval(flowScript))), objectMapper.readTree(out.toByteArray()));
+        });
+    }
 }
@@ -0,0 +1,160 @@
+package eu.aston;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.aston.flow.store.FlowTaskBatchStore;
+import eu.aston.flow.store.FlowTaskEntity;
+import eu.aston.flow.store.IFlowTaskStore;
+import eu.aston.flow.store.TaskWriteException;
+import eu.aston.utils.ID;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class FlowTaskBatchStoreTest {
+
+    @Test
+    public void testCloseWritesQueue() throws Exception {
+        JdbcDataSource dataSource = dataSource();
+        FlowTaskBatchStore batchStore = new FlowTaskBatchStore(null, dataSource, new ObjectMapper(), 60_000, 200);
+        String caseId = ID.newId();
+        FlowTaskEntity t1 = task(caseId, "w1");
+        batchStore.insert(t1);
+        batchStore.insertAll(List.of(task(caseId, "w2"), task(caseId, "w3")));
+        batchStore.finishError(caseId, t1.getId(), 500, "error");
+        Assertions.assertEquals(0, count(dataSource, "select count(*) from flow_task"));
+
+        batchStore.close();
+        Assertions.assertEquals(3, count(dataSource, "select count(*) from flow_task"));
+        Assertions.assertEquals(1, count(dataSource, "select count(*) from flow_task where error='error'"));
+
+        //po zatvoreni sa zapisuje priamo
+        FlowTaskEntity t4 = task(caseId, "w4");
+        batchStore.insertAll(List.of(t4));
+        Assertions.assertEquals(4, count(dataSource, "select count(*) from flow_task"));
+    }
+
+    @Test
+    public void testWriteFailed() throws Exception {
+        JdbcDataSource dataSource = dataSource();
+        IFlowTaskStore taskStore = Mockito.mock(IFlowTaskStore.class);
+        Mockito.doThrow(new RuntimeException("duplicate key")).when(taskStore).insert(Mockito.any());
+        FlowTaskBatchStore batchStore = new FlowTaskBatchStore(taskStore, dataSource, new ObjectMapper(), 5, 200);
+        String caseId = ID.newId();
+        String otherCaseId = ID.newId();
+        FlowTaskEntity t1 = task(caseId, "w1");
+        FlowTaskEntity t2 = task(caseId, "w2");
+        t2.setId(t1.getId());
+        batchStore.insertAll(List.of(t1, t2));
+        batchStore.flush();
+
+        Assertions.assertTrue(batchStore.writeFailed(caseId));
+        Assertions.assertFalse(batchStore.writeFailed(caseId));
+        Assertions.assertFalse(batchStore.writeFailed(otherCaseId));
+        Assertions.assertEquals(2, batchStore.getErrorCounter());
+        batchStore.close();
+    }
+
+    @Test
+    public void testFlushInterrupted() throws Exception {
+        FlowTaskBatchStore batchStore = new FlowTaskBatchStore(null, dataSource(), new ObjectMapper(), 60_000, 200);
+        batchStore.insert(task(ID.newId(), "w1"));
+        Thread.currentThread().interrupt();
+        Assertions.assertThrows(TaskWriteException.class, batchStore::flush);
+        Assertions.assertTrue(Thread.interrupted());
+        batchStore.close();
+    }
+
+    @Test
+    public void testInsertChunks() throws Exception {
+        JdbcDataSource dataSource = dataSource();
+        List<Integer> statements = new ArrayList<>();
+        DataSource counting = countingRows(dataSource, statements);
+        String caseId = ID.newId();
+
+        FlowTaskBatchStore direct = new FlowTaskBatchStore(null, counting, new ObjectMapper(), 0, 200);
+        direct.insertAll(tasks(caseId, 2500));
+        //multi-row insert po 1000 riadkov, limit parametrov postgres
+        Assertions.assertEquals(List.of(1000, 1000, 500), statements);
+        Assertions.assertEquals(2500, count(dataSource, "select count(*) from flow_task"));
+
+        statements.clear();
+        FlowTaskBatchStore batched = new FlowTaskBatchStore(null, counting, new ObjectMapper(), 60_000, 5000);
+        batched.insertAll(tasks(caseId, 1200));
+        batched.insertAll(tasks(caseId, 300));
+        batched.flush();
+        Assertions.assertEquals(List.of(1000, 500), statements);
+        Assertions.assertEquals(4000, count(dataSource, "select count(*) from flow_task"));
+        batched.close();
+    }
+
+    private static List<FlowTaskEntity> tasks(String caseId, int n) {
+        List<FlowTaskEntity> tasks = new ArrayList<>(n);
+        for(int i=0; i<n; i++) tasks.add(task(caseId, "w"+i));
+        return tasks;
+    }
+
+    /**
+     * rows of every multi-row insert prepared on the data source
+     */
+    private static DataSource countingRows(JdbcDataSource dataSource, List<Integer> statements) throws Exception {
+        DataSource counting = Mockito.mock(DataSource.class);
+        Mockito.when(counting.getConnection()).thenAnswer(inv->{
+            Connection c = Mockito.spy(dataSource.getConnection());
+            Mockito.doAnswer(inv2->{
+                String sql = inv2.getArgument(0);
+                if(sql.startsWith("insert")) statements.add(sql.split("\\(\\?").length-1);
+                return inv2.callRealMethod();
+            }).when(c).prepareStatement(Mockito.anyString());
+            return c;
+        });
+        return counting;
+    }
+
+    static JdbcDataSource dataSource() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:"+ID.newId()+";MODE=PostgreSQL;DB_CLOSE_DELAY=-1");
+        try(Connection c = dataSource.getConnection(); Statement st = c.createStatement()){
+            st.execute("""
+                    create table flow_task (
+                        id varchar(32) not null primary key,
+                        flowCaseId  varchar(32) not null,
+                        step varchar(64) not null,
+                        worker varchar(64) not null,
+                        stepIndex int,
+                        responseCode int,
+                        response text,
+                        error text,
+                        timeout int,
+                        created timestamp not null,
+                        started timestamp,
+                        finished timestamp,
+                        queueSent timestamp
+                    )""");
+        }
+        return dataSource;
+    }
+
+    static FlowTaskEntity task(String caseId, String worker) {
+        FlowTaskEntity task = new FlowTaskEntity(ID.newId(), caseId, "step1", worker, 0);
+        task.setTimeout(120);
+        task.setCreated(Instant.now());
+        return task;
+    }
+
+    static long count(JdbcDataSource dataSource, String sql) throws Exception {
+        try(Connection c = dataSource.getConnection(); Statement st = c.createStatement(); ResultSet rs = st.executeQuery(sql)){
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package eu.aston;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import eu.aston.utils.FlowThreadPool;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class FlowThreadPoolTest {
+
+    @Test
+    public void testCoalesce() throws Exception {
+        Map<String, AtomicInteger> runs = new ConcurrentHashMap<>();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch c1Done = new CountDownLatch(2);
+        CountDownLatch c2Done = new CountDownLatch(1);
+        //jeden thread, tiky idu v poradi submitu
+        FlowThreadPool pool = new FlowThreadPool(1, caseId->{
+            int run = runs.computeIfAbsent(caseId, k->new AtomicInteger()).incrementAndGet();
+            if(caseId.equals("c1")){
+                if(run==1){
+                    started.countDown();
+                    await(release);
+                }
+                c1Done.countDown();
+            } else {
+                c2Done.countDown();
+            }
+        });
+        pool.addCase("c1", "t1");
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+        pool.addCase("c1", "t2");
+        pool.addCase("c1", "t3");
+        release.countDown();
+        Assertions.assertTrue(c1Done.await(5, TimeUnit.SECONDS));
+        //c2 ide az po vsetkych tickoch c1 zaradenych pred nim
+        pool.addCase("c2", "t4");
+        Assertions.assertTrue(c2Done.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(2, runs.get("c1").get());
+        Assertions.assertEquals(1, runs.get("c2").get());
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(5);
+        FlowThreadPool pool = new FlowThreadPool(0, 2, caseId->{
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            await(release);
+            running.decrementAndGet();
+            done.countDown();
+        });
+        for(String caseId : List.of("c1", "c2", "c3", "c4", "c5")){
+            pool.addCase(caseId, caseId);
+        }
+        waitFor(()->pool.getInFlight()==2 && pool.getQueued()==3);
+        release.countDown();
+        Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(2, maxRunning.get());
+        waitFor(()->pool.getInFlight()==0 && pool.getQueued()==0 && pool.getTickLatency().count()==5);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try{
+            latch.await(5, TimeUnit.SECONDS);
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis()+5000;
+        while (!condition.getAsBoolean()){
+            Assertions.assertTrue(System.currentTimeMillis()<deadline, "condition not reached");
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package eu.aston;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import eu.aston.utils.SuperTimer;
+import eu.aston.utils.TimingWheel;
+import org.junit.jupiter.api.Assertions;
+
+/**
+ * SuperTimer of tests, scheduled and periodic tasks are collected and run by the test,
+ * the wheel only keeps cancellable handles
+ */
+class ManualTimer extends SuperTimer {
+    final List<Long> delays = new ArrayList<>();
+    final List<Runnable> tasks = new ArrayList<>();
+    final List<Long> periods = new ArrayList<>();
+    final List<Runnable> periodTasks = new ArrayList<>();
+
+    ManualTimer() {
+        super(Runnable::run);
+    }
+
+    @Override
+    public void schedulePeriod(long period, Runnable r) {
+        periods.add(period);
+        periodTasks.add(r);
+    }
+
+    @Override
+    public void schedulePeriodTaskCreator(long period, Consumer<Consumer<Runnable>> taskCreator) {
+        periods.add(period);
+        periodTasks.add(()->taskCreator.accept(Runnable::run));
+    }
+
+    @Override
+    public TimingWheel.Timeout schedule(long add, Runnable r) {
+        delays.add(add);
+        tasks.add(r);
+        return super.schedule(86_400_000L, ()->{});
+    }
+
+    /**
+     * runs the last task scheduled with delay
+     */
+    void fire(long delay) {
+        int i = delays.lastIndexOf(delay);
+        Assertions.assertTrue(i>=0, "no task with delay "+delay);
+        delays.remove(i);
+        tasks.remove(i).run();
+    }
+
+    /**
+     * runs the first scheduled task, its delay stays in delays
+     */
+    void runNext() {
+        tasks.removeFirst().run();
+    }
+
+    void runAll() {
+        List<Runnable> list = new ArrayList<>(tasks);
+        delays.clear();
+        tasks.clear();
+        list.forEach(Runnable::run);
+    }
+
+    /**
+     * one round of all periodic tasks
+     */
+    void runPeriods() {
+        List.copyOf(periodTasks).forEach(Runnable::run);
+    }
+}
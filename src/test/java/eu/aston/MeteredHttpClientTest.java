@@ -0,0 +1,83 @@
+package eu.aston;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import eu.aston.header.MeteredHttpClient;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class MeteredHttpClientTest {
+
+    private final HttpClient delegate = Mockito.mock(HttpClient.class);
+    private final List<HttpRequest> requests = new ArrayList<>();
+    private final List<CompletableFuture<HttpResponse<Object>>> responses = new ArrayList<>();
+
+    @Test
+    public void testMaxConnections() {
+        answerPending();
+        MeteredHttpClient client = new MeteredHttpClient("workers", delegate, 2, null);
+        List<CompletableFuture<HttpResponse<String>>> results = new ArrayList<>();
+        for(int i=0; i<3; i++){
+            results.add(client.sendAsync(request(null), HttpResponse.BodyHandlers.ofString()));
+        }
+        Assertions.assertEquals(2, requests.size());
+        Assertions.assertEquals(2, client.getInFlight());
+        Assertions.assertEquals(1, client.getQueued());
+
+        responses.get(0).complete(null);
+        Assertions.assertEquals(3, requests.size());
+        Assertions.assertTrue(results.get(0).isDone());
+        responses.get(1).complete(null);
+        responses.get(2).complete(null);
+        Assertions.assertEquals(0, client.getInFlight());
+        Assertions.assertEquals(3, client.getLatency().count());
+        Assertions.assertEquals(0, client.getErrors());
+    }
+
+    @Test
+    public void testRequestTimeout() {
+        answerPending();
+        MeteredHttpClient client = new MeteredHttpClient("callbacks", delegate, 0, Duration.ofSeconds(30));
+        client.sendAsync(request(null), HttpResponse.BodyHandlers.ofString());
+        client.sendAsync(request(Duration.ofSeconds(5)), HttpResponse.BodyHandlers.ofString());
+        //default len ked request nema vlastny timeout
+        Assertions.assertEquals(Duration.ofSeconds(30), requests.get(0).timeout().orElseThrow());
+        Assertions.assertEquals(Duration.ofSeconds(5), requests.get(1).timeout().orElseThrow());
+        Assertions.assertEquals("v", requests.get(0).headers().firstValue("h").orElseThrow());
+    }
+
+    @Test
+    public void testErrors() {
+        Mockito.when(delegate.sendAsync(Mockito.any(), Mockito.any(), Mockito.any()))
+               .thenReturn(CompletableFuture.failedFuture(new IOException("connection refused")));
+        MeteredHttpClient client = new MeteredHttpClient("blob", delegate, 1, null);
+        IOException e = Assertions.assertThrows(IOException.class, ()->client.send(request(null), HttpResponse.BodyHandlers.ofString()));
+        Assertions.assertEquals("connection refused", e.getMessage());
+        Assertions.assertEquals(1, client.getErrors());
+        Assertions.assertEquals(0, client.getInFlight());
+    }
+
+    private void answerPending() {
+        Mockito.when(delegate.sendAsync(Mockito.any(), Mockito.any(), Mockito.any())).thenAnswer(inv->{
+            requests.add(inv.getArgument(0));
+            CompletableFuture<HttpResponse<Object>> response = new CompletableFuture<>();
+            responses.add(response);
+            return response;
+        });
+    }
+
+    private static HttpRequest request(Duration timeout) {
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create("http://localhost:8080/worker")).header("h", "v").GET();
+        if(timeout!=null) b.timeout(timeout);
+        return b.build();
+    }
+}
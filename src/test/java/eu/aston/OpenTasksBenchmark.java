@@ -0,0 +1,132 @@
+package eu.aston;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import eu.aston.flow.StepTasks;
+import eu.aston.flow.def.FlowDef;
+import eu.aston.flow.def.FlowGraph;
+import eu.aston.flow.def.FlowStepDef;
+import eu.aston.flow.def.FlowWorkerDef;
+import eu.aston.flow.model.FlowTask;
+import eu.aston.flow.store.FlowTaskEntity;
+import eu.aston.utils.ID;
+
+/**
+ * time and allocated bytes of openTasks scan in wide iterable step (workers x items), last task of every item
+ * missing. Step found by stream and tasks keyed by worker+":"+stepIndex in HashMap vs compiled FlowGraph
+ * and StepTasks bitset.
+ */
+public class OpenTasksBenchmark {
+
+    private static final int ITERATIONS = 200;
+
+    public static void main(String[] args) {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        for(int round=0; round<3; round++){
+            for(int[] size : new int[][]{{5, 100}, {20, 1_000}, {50, 2_000}}){
+                FlowDef flowDef = flowDef(size[0]);
+                List<FlowTaskEntity> tasks = tasks(flowDef, size[1]);
+                for(boolean compiled : new boolean[]{false, true}){
+                    int open = 0;
+                    long a1 = threadBean.getThreadAllocatedBytes(threadId);
+                    long t1 = System.nanoTime();
+                    for(int i=0; i<ITERATIONS; i++){
+                        open = compiled ? openCompiled(flowDef, "items", tasks) : openStringKeys(flowDef, "items", tasks);
+                    }
+                    long t2 = System.nanoTime();
+                    long a2 = threadBean.getThreadAllocatedBytes(threadId);
+                    System.out.printf("workers %2d items %,6d tasks %,7d %-11s %,12d ns %,12d B open %d%n", size[0], size[1], tasks.size(),
+                                      compiled ? "compiled" : "string-key", (t2-t1)/ITERATIONS, (a2-a1)/ITERATIONS, open);
+                }
+            }
+        }
+    }
+
+    private static int openStringKeys(FlowDef flowDef, String stepCode, List<FlowTaskEntity> tasks) {
+        FlowStepDef aktStep = flowDef.getSteps().stream().filter(s->Objects.equals(s.getCode(), stepCode)).findFirst().orElseThrow();
+        Map<String, String> existMap = new HashMap<>();
+        FlowTaskEntity iterator = null;
+        for(FlowTaskEntity t : tasks){
+            if(Objects.equals(aktStep.getCode(), t.getStep())){
+                existMap.put(t.getWorker()+":"+t.getStepIndex(), t.getId());
+                if(t.getWorker().equals(FlowTask.STEP_ITERATOR)) iterator = t;
+            }
+        }
+        int maxIndex = ((List<?>)iterator.getResponse()).size();
+        int open = 0;
+        for(int i=0; i<maxIndex; i++){
+            for(FlowWorkerDef worker : aktStep.getWorkers()){
+                if(!existMap.containsKey(worker.getCode()+":"+i)) open++;
+            }
+        }
+        return open;
+    }
+
+    private static int openCompiled(FlowDef flowDef, String stepCode, List<FlowTaskEntity> tasks) {
+        FlowGraph graph = flowDef.getGraph();
+        int step = graph.stepOrdinal(stepCode);
+        StepTasks stepTasks = StepTasks.scan(graph, step, tasks);
+        int maxIndex = ((List<?>)stepTasks.iterator().getResponse()).size();
+        int open = 0;
+        for(int i=0; i<maxIndex; i++){
+            for(int w=0; w<stepTasks.workerCount(); w++){
+                if(!stepTasks.exists(w, i)) open++;
+            }
+        }
+        return open;
+    }
+
+    private static FlowDef flowDef(int workers) {
+        FlowDef flowDef = new FlowDef();
+        flowDef.setCode("bench");
+        FlowStepDef init = new FlowStepDef();
+        init.setCode("init");
+        init.setWorkers(new ArrayList<>(List.of(worker("prepare"))));
+        FlowStepDef items = new FlowStepDef();
+        items.setCode("items");
+        items.setItemsExpr("case.params.items");
+        items.setWorkers(new ArrayList<>());
+        for(int w=0; w<workers; w++) items.getWorkers().add(worker("w"+w));
+        flowDef.setSteps(new ArrayList<>(List.of(init, items)));
+        flowDef.compileGraph();
+        return flowDef;
+    }
+
+    private static FlowWorkerDef worker(String code) {
+        FlowWorkerDef worker = new FlowWorkerDef();
+        worker.setCode(code);
+        worker.setPath(FlowTask.ECHO);
+        return worker;
+    }
+
+    private static List<FlowTaskEntity> tasks(FlowDef flowDef, int items) {
+        String caseId = ID.newId();
+        List<FlowTaskEntity> tasks = new ArrayList<>();
+        tasks.add(finished(new FlowTaskEntity(ID.newId(), caseId, "init", "prepare", 0), Map.of()));
+        List<Object> list = new ArrayList<>();
+        for(int i=0; i<items; i++) list.add(i);
+        tasks.add(finished(new FlowTaskEntity(ID.newId(), caseId, "items", FlowTask.STEP_ITERATOR, -1), list));
+        List<FlowWorkerDef> workers = flowDef.getSteps().get(1).getWorkers();
+        for(int i=0; i<items; i++){
+            for(int w=0; w<workers.size()-1; w++){
+                tasks.add(finished(new FlowTaskEntity(ID.newId(), caseId, "items", workers.get(w).getCode(), i), Map.of()));
+            }
+        }
+        return tasks;
+    }
+
+    private static FlowTaskEntity finished(FlowTaskEntity task, Object response) {
+        task.setCreated(Instant.now());
+        task.setFinished(Instant.now());
+        task.setResponseCode(200);
+        task.setResponse(response);
+        return task;
+    }
+}
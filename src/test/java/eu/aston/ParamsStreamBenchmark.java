@@ -0,0 +1,86 @@
+package eu.aston;
+
+import java.lang.management.ManagementFactory;
+import java.net.http.HttpRequest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import eu.aston.flow.def.FlowWorkerDef;
+import eu.aston.flow.ognl.FlowPlan;
+import eu.aston.flow.ognl.FlowScript;
+import eu.aston.utils.ChunkedBuffer;
+
+/**
+ * allocated bytes and time per task for params referencing large step responses ($all: step),
+ * params map + writeValueAsBytes + ofByteArray vs plan streamed into ChunkedBuffer.
+ */
+public class ParamsStreamBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int ITERATIONS = 200;
+
+    public static void main(String[] args) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+
+        Map<String, Object> root = new FlowScript.LazyMap();
+        Map<String, Object> step = new HashMap<>();
+        step.put("local", Map.of("w11", largeResponse(6000), "w12", largeResponse(6000)));
+        root.put("step", step);
+        root.put("case", Map.of("params", Map.of("a", 2)));
+        FlowScript script = new FlowScript(root);
+
+        FlowWorkerDef workerDef = new FlowWorkerDef();
+        workerDef.setParams(new HashMap<>());
+        workerDef.getParams().put("$all", "step");
+        workerDef.getParams().put("$a", "case.params.a");
+        workerDef.getParams().put("b", "3");
+        FlowPlan plan = FlowPlan.compile(workerDef);
+        System.out.println("body size "+objectMapper.writeValueAsBytes(plan.params(script)).length);
+
+        long sink = 0;
+        for(int round=0; round<ROUNDS; round++){
+            long a1 = threadBean.getThreadAllocatedBytes(threadId);
+            long t1 = System.nanoTime();
+            for(int i=0; i<ITERATIONS; i++){
+                byte[] data = objectMapper.writeValueAsBytes(plan.params(script));
+                HttpRequest.BodyPublisher publisher = HttpRequest.BodyPublishers.ofByteArray(data);
+                sink += publisher.contentLength();
+            }
+            long t2 = System.nanoTime();
+            long a2 = threadBean.getThreadAllocatedBytes(threadId);
+            for(int i=0; i<ITERATIONS; i++){
+                ChunkedBuffer buffer = new ChunkedBuffer();
+                try(JsonGenerator gen = writer.createGenerator(buffer)){
+                    plan.writeParams(script, gen, writer, false);
+                }
+                sink += buffer.bodyPublisher().contentLength();
+            }
+            long t3 = System.nanoTime();
+            long a3 = threadBean.getThreadAllocatedBytes(threadId);
+            print("bytes ", t2-t1, a2-a1);
+            print("stream", t3-t2, a3-a2);
+        }
+        System.out.println("sink "+sink);
+    }
+
+    private static List<Object> largeResponse(int rows) {
+        List<Object> list = new ArrayList<>(rows);
+        for(int i=0; i<rows; i++){
+            list.add(Map.of("id", "item-"+i, "value", i, "text", "lorem ipsum dolor sit amet "+i, "tags", List.of("a", "b", "c")));
+        }
+        return list;
+    }
+
+    private static void print(String name, long nanos, long allocated) {
+        System.out.printf("%s %6.2f ms/task, %8d KB allocated/task%n", name, nanos/1e6/ITERATIONS, allocated/ITERATIONS/1024);
+    }
+}
@@ -0,0 +1,120 @@
+package eu.aston;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.aston.queue.PgQueueBackend;
+import eu.aston.queue.QueueEvent;
+import eu.aston.queue.QueueStore;
+import eu.aston.queue.Worker;
+import eu.aston.utils.ID;
+import eu.aston.utils.SuperTimer;
+import io.micronaut.http.HttpResponse;
+import org.postgresql.ds.PGSimpleDataSource;
+
+/**
+ * queue events/s with postgres backend for 1, 2 and 4 replicas (QueueStore + PgQueueBackend) in one JVM,
+ * events are added round-robin, workers wait on every replica, responses go to a random replica.
+ * args: jdbcUrl user password, default jdbc:postgresql://localhost:5432/flow flow flow
+ */
+public class QueueBackendBenchmark {
+
+    private static final int EVENTS = 20_000;
+    private static final int WORKERS_PER_REPLICA = 8;
+
+    public static void main(String[] args) throws Exception {
+        PGSimpleDataSource dataSource = new PGSimpleDataSource();
+        dataSource.setUrl(args.length>0 ? args[0] : "jdbc:postgresql://localhost:5432/flow");
+        dataSource.setUser(args.length>1 ? args[1] : "flow");
+        dataSource.setPassword(args.length>2 ? args[2] : "flow");
+        for(int replicas : new int[]{1, 2, 4}){
+            createTable(dataSource);
+            run(dataSource, replicas);
+        }
+    }
+
+    private static void createTable(PGSimpleDataSource dataSource) throws Exception {
+        String sql;
+        try(InputStream is = QueueBackendBenchmark.class.getResourceAsStream("/db/V004__queue_event.sql")){
+            sql = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        try(Connection c = dataSource.getConnection(); Statement st = c.createStatement()){
+            st.execute("drop table if exists queue_event");
+            for(String part : sql.split(";")){
+                if(!part.isBlank()) st.execute(part);
+            }
+        }
+    }
+
+    private static void run(PGSimpleDataSource dataSource, int replicas) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<QueueStore> stores = new ArrayList<>();
+        List<PgQueueBackend> backends = new ArrayList<>();
+        for(int i=0; i<replicas; i++){
+            AppConfig appConfig = new AppConfig();
+            appConfig.setNodeId("node"+i);
+            PgQueueBackend backend = new PgQueueBackend(dataSource, objectMapper, appConfig);
+            SuperTimer superTimer = new SuperTimer(Executors.newVirtualThreadPerTaskExecutor());
+            stores.add(new QueueStore(superTimer, null, "", 0, 600, 30, 0, 0, "", 60, 3, "", backend));
+            backends.add(backend);
+        }
+        AtomicBoolean stop = new AtomicBoolean();
+        for(QueueStore store : stores){
+            for(int w=0; w<WORKERS_PER_REPLICA; w++){
+                String workerId = "w"+w;
+                Thread.ofVirtual().start(()->{
+                    while (!stop.get()){
+                        CompletableFuture<HttpResponse<?>> f = new CompletableFuture<>();
+                        store.workerQueue(new Worker(workerId, "/bench", 5, f));
+                        try{
+                            HttpResponse<?> r = f.get(10, TimeUnit.SECONDS);
+                            if(r.status().getCode()!=200) continue;
+                            String id = r.getHeaders().get("fw-event-id");
+                            QueueStore target = stores.get(ThreadLocalRandom.current().nextInt(stores.size()));
+                            target.response(id, 200, new HashMap<>(), "{}".getBytes(StandardCharsets.UTF_8));
+                        }catch (Exception e){
+                            if(!stop.get()) System.out.println("worker error "+e.getMessage());
+                        }
+                    }
+                });
+            }
+        }
+        Thread.sleep(500);
+
+        CountDownLatch done = new CountDownLatch(EVENTS);
+        long t0 = System.nanoTime();
+        try(var executor = Executors.newFixedThreadPool(16)){
+            for(int i=0; i<EVENTS; i++){
+                QueueStore store = stores.get(i%replicas);
+                executor.execute(()->{
+                    QueueEvent event = new QueueEvent();
+                    event.setId(ID.newId());
+                    event.setMethod("POST");
+                    event.setPath("/bench/task");
+                    event.getHeaders().put("fw-event-id", event.getId());
+                    event.setBody("{}".getBytes(StandardCharsets.UTF_8));
+                    event.setHandleResponse(r->done.countDown());
+                    store.addEvent(event);
+                });
+            }
+        }
+        boolean all = done.await(120, TimeUnit.SECONDS);
+        long ms = (System.nanoTime()-t0)/1_000_000;
+        System.out.printf("replicas %d: %,d events/s%s%n", replicas, (EVENTS-done.getCount())*1000/Math.max(ms, 1),
+                          all ? "" : " (timeout, missing "+done.getCount()+")");
+        stop.set(true);
+        backends.forEach(PgQueueBackend::close);
+    }
+}
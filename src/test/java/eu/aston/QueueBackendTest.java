@@ -0,0 +1,215 @@
+package eu.aston;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import eu.aston.header.CallbackRunner;
+import eu.aston.header.HeaderConverter;
+import eu.aston.queue.EventResponse;
+import eu.aston.queue.QueueBackend;
+import eu.aston.queue.QueueEvent;
+import eu.aston.queue.QueueStore;
+import eu.aston.queue.Worker;
+import io.micronaut.http.HttpResponse;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class QueueBackendTest {
+
+    private final Shared shared = new Shared();
+    private final ManualTimer timerA = new ManualTimer();
+    private final ManualTimer timerB = new ManualTimer();
+    private final Map<String, String> responses = new HashMap<>();
+
+    @Test
+    public void testResponseToOwner() throws IOException {
+        QueueStore a = store(timerA, "a", 0);
+        QueueStore b = store(timerB, "b", 0);
+        CompletableFuture<HttpResponse<?>> w1 = new CompletableFuture<>();
+        b.workerQueue(new Worker("w1", "/ocr/", 30, w1));
+
+        //event prijaty na A, worker caka na B
+        a.addEvent(event("e1", "/ocr/a"));
+        Assertions.assertEquals("e1", w1.join().getHeaders().get(HeaderConverter.H_ID));
+        Assertions.assertEquals(1, a.eventsCount());
+        Assertions.assertEquals(1, b.eventsCount());
+
+        //odpoved workera na B dostane owner A
+        b.response("e1", 200, new HashMap<>(), "ok".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals("200 ok", responses.get("e1"));
+        Assertions.assertEquals(0, a.eventsCount());
+        Assertions.assertEquals(0, b.eventsCount());
+        Assertions.assertTrue(shared.rows.isEmpty());
+    }
+
+    @Test
+    public void testLocalWorker() throws IOException {
+        QueueStore a = store(timerA, "a", 0);
+        store(timerB, "b", 0);
+        CompletableFuture<HttpResponse<?>> w1 = new CompletableFuture<>();
+        a.workerQueue(new Worker("w1", "/ocr/", 30, w1));
+        a.addEvent(event("e1", "/ocr/a"));
+        Assertions.assertEquals("e1", w1.join().getHeaders().get(HeaderConverter.H_ID));
+
+        a.response("e1", 201, new HashMap<>(), "ok".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals("201 ok", responses.get("e1"));
+        Assertions.assertTrue(shared.rows.isEmpty());
+    }
+
+    @Test
+    public void testLeaseRedelivery() throws IOException {
+        QueueStore a = store(timerA, "a", 60);
+        QueueStore b = store(timerB, "b", 60);
+        CompletableFuture<HttpResponse<?>> w1 = new CompletableFuture<>();
+        b.workerQueue(new Worker("w1", "/ocr/", 30, w1));
+        a.addEvent(event("e1", "/ocr/a"));
+        Assertions.assertTrue(w1.isDone());
+        Assertions.assertEquals(1, shared.rows.get("e1").attempts);
+
+        //worker na B neodpovedal, dalsi pokus zobere A
+        CompletableFuture<HttpResponse<?>> w2 = new CompletableFuture<>();
+        a.workerQueue(new Worker("w2", "/ocr/", 30, w2));
+        Assertions.assertFalse(w2.isDone());
+        timerB.fire(60_000L);
+        Assertions.assertEquals(1, b.workerGroup("/ocr/").redelivered.get());
+        Assertions.assertEquals(0, b.eventsCount());
+        Assertions.assertEquals("e1", w2.join().getHeaders().get(HeaderConverter.H_ID));
+        Assertions.assertEquals("2", w2.join().getHeaders().get(HeaderConverter.H_ATTEMPT));
+        Assertions.assertEquals(2, shared.rows.get("e1").attempts);
+
+        a.response("e1", 200, new HashMap<>(), "ok".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals("200 ok", responses.get("e1"));
+        Assertions.assertTrue(shared.rows.isEmpty());
+    }
+
+    private QueueStore store(ManualTimer timer, String nodeId, int lease) throws IOException {
+        return new QueueStore(timer, Mockito.mock(CallbackRunner.class), "", 0, 600, 30, 0, 0, "", lease, 3, "", new Node(nodeId, shared));
+    }
+
+    private QueueEvent event(String id, String path) {
+        QueueEvent event = new QueueEvent();
+        event.setId(id);
+        event.setMethod("POST");
+        event.setPath(path);
+        event.getHeaders().put(HeaderConverter.H_ID, id);
+        event.setBody("{}".getBytes(StandardCharsets.UTF_8));
+        event.setHandleResponse(r->responses.put(id, r.status()+" "+r.body().toString(StandardCharsets.UTF_8)));
+        return event;
+    }
+
+    private static class Row {
+        private final QueueEvent event;
+        private final String owner;
+        private String claimedBy;
+        private int attempts;
+        private EventResponse response;
+
+        private Row(QueueEvent event, String owner) {
+            this.event = event;
+            this.owner = owner;
+        }
+    }
+
+    private static class Shared {
+        private final Map<String, Row> rows = new LinkedHashMap<>();
+        private final List<QueueBackend.Listener> listeners = new ArrayList<>();
+    }
+
+    /**
+     * queue_event table of PgQueueBackend in memory, notifications are delivered synchronously to all replicas
+     */
+    private record Node(String nodeId, Shared shared) implements QueueBackend {
+
+        @Override
+        public void start(Listener listener) {
+            shared.listeners.add(listener);
+        }
+
+        @Override
+        public void publish(QueueEvent event) {
+            shared.rows.put(event.getId(), new Row(copy(event), nodeId));
+            notifyEvent(event.getPath());
+        }
+
+        @Override
+        public List<QueueEvent> claim(String prefix, int max, long leaseMs) {
+            List<QueueEvent> list = new ArrayList<>();
+            for(Row row : shared.rows.values()){
+                if(list.size()<max && row.event.getPath().startsWith(prefix) && row.response==null && row.claimedBy==null){
+                    row.claimedBy = nodeId;
+                    row.attempts++;
+                    QueueEvent event = copy(row.event);
+                    event.setClaimed(!nodeId.equals(row.owner));
+                    event.setAttempts(row.attempts);
+                    list.add(event);
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void release(String eventId) {
+            Row row = shared.rows.get(eventId);
+            if(row==null || row.response!=null) return;
+            row.claimedBy = null;
+            notifyEvent(row.event.getPath());
+        }
+
+        @Override
+        public void respond(String eventId, int status, Map<String, String> headers, byte[] body) {
+            Row row = shared.rows.get(eventId);
+            if(row==null || row.response!=null) return;
+            row.response = new EventResponse(status, headers, body);
+            for(Listener l : List.copyOf(shared.listeners)) l.onResponse(eventId, row.owner);
+        }
+
+        @Override
+        public EventResponse takeResponse(String eventId) {
+            Row row = shared.rows.get(eventId);
+            if(row==null || row.response==null) return null;
+            shared.rows.remove(eventId);
+            return row.response;
+        }
+
+        @Override
+        public void done(String eventId) {
+            Row row = shared.rows.remove(eventId);
+            if(row!=null && row.claimedBy!=null && !row.claimedBy.equals(nodeId)){
+                for(Listener l : List.copyOf(shared.listeners)) l.onResponse(eventId, nodeId);
+            }
+        }
+
+        @Override
+        public int deleteExpired(Instant before) {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private void notifyEvent(String path) {
+            for(Listener l : List.copyOf(shared.listeners)) l.onEvent(path);
+        }
+
+        private static QueueEvent copy(QueueEvent event) {
+            QueueEvent copy = new QueueEvent();
+            copy.setId(event.getId());
+            copy.setMethod(event.getMethod());
+            copy.setPath(event.getPath());
+            copy.setHeaders(new HashMap<>(event.getHeaders()));
+            copy.setBody(event.getBody());
+            copy.setPriority(event.getPriority());
+            copy.setT1(event.getT1());
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package eu.aston;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import eu.aston.queue.QueueEvent;
+import eu.aston.queue.QueueStore;
+import eu.aston.queue.Worker;
+import eu.aston.utils.SuperTimer;
+import io.micronaut.http.HttpResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * heap allocated per queue event with 1 MB and 10 MB body, request -> worker -> response -> waiting client,
+ * body copied to byte[] on request and response (HttpRequest<byte[]>) vs netty ByteBuf passed through.
+ * Request and response buffers are pooled direct buffers as received by netty.
+ */
+public class QueueBodyBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        QueueStore queueStore = new QueueStore(new SuperTimer(executor), null, "", 0, 600, 30, 0, 0, "", 60, 3, "", null);
+        for(int size : new int[]{1<<20, 10<<20}){
+            int events = size>1<<20 ? 20 : 200;
+            for(int round=0; round<ROUNDS; round++){
+                for(boolean copy : new boolean[]{true, false}){
+                    long a1 = allocated(threadBean);
+                    long t1 = System.nanoTime();
+                    for(int i=0; i<events; i++){
+                        event(queueStore, size, copy, i);
+                    }
+                    long t2 = System.nanoTime();
+                    long a2 = allocated(threadBean);
+                    System.out.printf("%2d MB %-7s heap %,12d B/event %,8d us/event%n", size>>20, copy ? "byte[]" : "ByteBuf",
+                                      (a2-a1)/events, (t2-t1)/1000/events);
+                }
+            }
+        }
+        System.out.printf("direct memory in pool after run %,d B%n", PooledByteBufAllocator.DEFAULT.metric().usedDirectMemory());
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private static void event(QueueStore queueStore, int size, boolean copy, int i) throws Exception {
+        CompletableFuture<HttpResponse<?>> worker = new CompletableFuture<>();
+        queueStore.workerQueue(new Worker("w1", "/bench", 5, worker));
+
+        //request body, netty uvolni buffer po spracovani requestu
+        ByteBuf request = buffer(size, i);
+        QueueEvent event = new QueueEvent();
+        event.setId("e"+i+(copy ? "c" : "b"));
+        event.setMethod("POST");
+        event.setPath("/bench/task");
+        if(copy){
+            event.setBody(ByteBufUtil.getBytes(request));
+        } else {
+            event.setContent(request.retain());
+        }
+        CompletableFuture<Integer> client = new CompletableFuture<>();
+        event.setHandleResponse(r->{
+            //zapis odpovede klientovi
+            ByteBuf body = r.body().retainedDuplicate();
+            client.complete(body.readableBytes());
+            body.release();
+        });
+        queueStore.addEvent(event);
+        request.release();
+
+        HttpResponse<?> sent = worker.get(5, TimeUnit.SECONDS);
+        ReferenceCountUtil.release(sent.body());
+
+        ByteBuf response = buffer(size, i);
+        if(copy){
+            queueStore.response(event.getId(), 200, new HashMap<>(), ByteBufUtil.getBytes(response));
+        } else {
+            queueStore.response(event.getId(), 200, new HashMap<>(), response);
+        }
+        response.release();
+        client.get(5, TimeUnit.SECONDS);
+    }
+
+    private static ByteBuf buffer(int size, int i) {
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer(size);
+        buf.writerIndex(size);
+        buf.setByte(0, i);
+        return buf;
+    }
+
+    private static long allocated(com.sun.management.ThreadMXBean threadBean) {
+        long sum = 0;
+        for(long a : threadBean.getThreadAllocatedBytes(threadBean.getAllThreadIds())){
+            if(a>0) sum += a;
+        }
+        return sum;
+    }
+}
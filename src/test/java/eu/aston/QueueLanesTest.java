@@ -0,0 +1,84 @@
+package eu.aston;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.aston.queue.QueueEvent;
+import eu.aston.queue.QueueLanes;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class QueueLanesTest {
+
+    @Test
+    public void testWeights() {
+        QueueLanes lanes = new QueueLanes(60_000L);
+        for(int i=0; i<130; i++){
+            lanes.add("h"+i, QueueEvent.PRIORITY_HIGH);
+            lanes.add("n"+i, QueueEvent.PRIORITY_NORMAL);
+            lanes.add("l"+i, QueueEvent.PRIORITY_LOW);
+        }
+        Assertions.assertEquals(390, lanes.size());
+        int[] counts = new int[3];
+        for(int i=0; i<130; i++){
+            counts[lane(lanes.poll())]++;
+        }
+        //8:4:1
+        Assertions.assertArrayEquals(new int[]{80, 40, 10}, counts);
+        Assertions.assertEquals(50, lanes.depth(QueueEvent.PRIORITY_HIGH));
+        Assertions.assertEquals(90, lanes.depth(QueueEvent.PRIORITY_NORMAL));
+        Assertions.assertEquals(120, lanes.depth(QueueEvent.PRIORITY_LOW));
+    }
+
+    @Test
+    public void testEmptyLanes() {
+        //prazdne lane neberu podiel, poradie v lane je fifo, priorita mimo rozsahu ide do krajnej lane
+        QueueLanes lanes = new QueueLanes(60_000L);
+        lanes.add("l0", QueueEvent.PRIORITY_LOW);
+        lanes.add("l1", QueueEvent.PRIORITY_LOW);
+        lanes.add("l2", 7);
+        Assertions.assertEquals(3, lanes.depth(QueueEvent.PRIORITY_LOW));
+        List<String> ids = new ArrayList<>();
+        String id;
+        while ((id = lanes.poll())!=null) ids.add(id);
+        Assertions.assertEquals(List.of("l0", "l1", "l2"), ids);
+        Assertions.assertTrue(lanes.isEmpty());
+        Assertions.assertEquals(0, lanes.size());
+    }
+
+    @Test
+    public void testAddFirst() {
+        QueueLanes lanes = new QueueLanes(60_000L);
+        lanes.add("n0", QueueEvent.PRIORITY_NORMAL);
+        lanes.add("n1", QueueEvent.PRIORITY_NORMAL);
+        lanes.addFirst("r0", QueueEvent.PRIORITY_NORMAL);
+        Assertions.assertEquals("r0", lanes.peek());
+        Assertions.assertEquals("r0", lanes.poll());
+        Assertions.assertEquals("n0", lanes.poll());
+        Assertions.assertEquals("n1", lanes.poll());
+        Assertions.assertNull(lanes.poll());
+    }
+
+    @Test
+    public void testStarvation() throws InterruptedException {
+        QueueLanes lanes = new QueueLanes(20L);
+        lanes.add("l0", QueueEvent.PRIORITY_LOW);
+        Thread.sleep(40);
+        for(int i=0; i<10; i++){
+            lanes.add("h"+i, QueueEvent.PRIORITY_HIGH);
+        }
+        //low caka dlhsie ako maxWait, ide pred high
+        Assertions.assertEquals("h0", lanes.peek());
+        Assertions.assertEquals("l0", lanes.poll());
+        Assertions.assertEquals("h0", lanes.poll());
+        Assertions.assertEquals(1, lanes.waitTime(QueueEvent.PRIORITY_LOW).count());
+    }
+
+    private static int lane(String id) {
+        return switch (id.charAt(0)) {
+            case 'h' -> 0;
+            case 'n' -> 1;
+            default -> 2;
+        };
+    }
+}
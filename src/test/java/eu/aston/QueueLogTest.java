@@ -0,0 +1,76 @@
+package eu.aston;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import eu.aston.header.Callback;
+import eu.aston.queue.QueueEvent;
+import eu.aston.queue.QueueLog;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class QueueLogTest {
+
+    @Test
+    public void testReplay() throws Exception {
+        Path dir = Files.createTempDirectory("queue-log");
+        QueueLog log = new QueueLog(dir, 4096);
+        Assertions.assertEquals(0, log.open().size());
+        log.append(event("e1", null));
+        log.append(event("e2", new Callback("http://localhost/cb", Map.of("a", "b"))));
+        log.append(event("e3", null));
+        log.ack("e1");
+        log.close();
+
+        QueueLog log2 = new QueueLog(dir, 4096);
+        List<QueueEvent> events = log2.open();
+        Assertions.assertEquals(List.of("e2", "e3"), events.stream().map(QueueEvent::getId).toList());
+        QueueEvent e2 = events.getFirst();
+        Assertions.assertEquals("/test/a", e2.getPath());
+        Assertions.assertEquals("POST", e2.getMethod());
+        Assertions.assertEquals("v", e2.getHeaders().get("h"));
+        Assertions.assertEquals("http://localhost/cb", e2.getCallback().url());
+        Assertions.assertEquals("b", e2.getCallback().headers().get("a"));
+        Assertions.assertEquals("{\"id\":\"e2\"}", new String(e2.getBody(), StandardCharsets.UTF_8));
+        Assertions.assertTrue(e2.isDurable());
+        log2.close();
+    }
+
+    @Test
+    public void testSegments() throws Exception {
+        Path dir = Files.createTempDirectory("queue-log");
+        QueueLog log = new QueueLog(dir, 1024);
+        log.open();
+        for(int i=0; i<100; i++){
+            log.append(event("e"+i, null));
+        }
+        Assertions.assertTrue(log.segmentCount()>5);
+        for(int i=0; i<100; i++){
+            if(i!=3) log.ack("e"+i);
+        }
+        log.compact();
+        Assertions.assertEquals(1, log.liveCount());
+        Assertions.assertTrue(log.segmentCount()<=2);
+        log.close();
+
+        QueueLog log2 = new QueueLog(dir, 1024);
+        List<QueueEvent> events = log2.open();
+        Assertions.assertEquals(List.of("e3"), events.stream().map(QueueEvent::getId).toList());
+        log2.close();
+    }
+
+    private QueueEvent event(String id, Callback callback) {
+        QueueEvent event = new QueueEvent();
+        event.setId(id);
+        event.setMethod("POST");
+        event.setPath("/test/a");
+        event.setHeaders(Map.of("h", "v"));
+        event.setBody(("{\"id\":\""+id+"\"}").getBytes(StandardCharsets.UTF_8));
+        event.setCallback(callback);
+        event.setDurable(true);
+        return event;
+    }
+}
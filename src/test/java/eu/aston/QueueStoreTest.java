@@ -0,0 +1,256 @@
+package eu.aston;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.aston.controller.QueueController;
+import eu.aston.flow.IFlowExecutor;
+import eu.aston.flow.QueueFlowBridge;
+import eu.aston.flow.store.FlowTaskEntity;
+import eu.aston.header.CallbackRunner;
+import eu.aston.header.HeaderConverter;
+import eu.aston.queue.QueueEvent;
+import eu.aston.queue.QueueResponseItem;
+import eu.aston.queue.QueueStore;
+import eu.aston.queue.Worker;
+import eu.aston.queue.WorkerGroup;
+import eu.aston.utils.ChunkedBuffer;
+import io.micronaut.http.HttpHeaders;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.HttpResponse;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+public class QueueStoreTest {
+
+    private final ManualTimer timer = new ManualTimer();
+    private final Map<String, String> responses = new HashMap<>();
+
+    @Test
+    public void testBatchPoll() throws IOException {
+        QueueStore store = store("", 0, 0, "");
+        for(int i=1; i<=3; i++){
+            store.addEvent(event("e"+i, "/batch/a", "{\"n\":"+i+"}"));
+        }
+        Assertions.assertEquals(3, store.unroutedCount());
+
+        CompletableFuture<HttpResponse<?>> w1 = new CompletableFuture<>();
+        store.workerQueue(new Worker("w1", "/batch/", 30, 2, w1));
+        List<Map<String, Object>> items = items(w1);
+        Assertions.assertEquals(List.of("e1", "e2"), items.stream().map(m->m.get("id")).toList());
+        Assertions.assertEquals("{\"n\":1}", items.get(0).get("body"));
+        Assertions.assertEquals(1, items.get(0).get("attempt"));
+        Assertions.assertEquals("/batch/a", items.get(0).get("path"));
+
+        CompletableFuture<HttpResponse<?>> w2 = new CompletableFuture<>();
+        store.workerQueue(new Worker("w2", "/batch/", 30, 2, w2));
+        Assertions.assertEquals(List.of("e3"), items(w2).stream().map(m->m.get("id")).toList());
+
+        //cakajuci batch worker dostane pole s jednym eventom
+        CompletableFuture<HttpResponse<?>> w3 = new CompletableFuture<>();
+        store.workerQueue(new Worker("w3", "/batch/", 30, 5, w3));
+        Assertions.assertFalse(w3.isDone());
+        QueueEvent binary = event("e4", "/batch/b", null);
+        binary.getHeaders().put("content-type", "application/octet-stream");
+        binary.setBody(new byte[]{1, 2, 3});
+        store.addEvent(binary);
+        items = items(w3);
+        Assertions.assertEquals(List.of("e4"), items.stream().map(m->m.get("id")).toList());
+        Assertions.assertEquals(Base64.getEncoder().encodeToString(new byte[]{1, 2, 3}), items.get(0).get("bodyBase64"));
+        Assertions.assertFalse(items.get(0).containsKey("body"));
+    }
+
+    @Test
+    public void testBatchResponse() throws IOException {
+        QueueStore store = store("", 0, 0, "");
+        for(int i=1; i<=3; i++){
+            store.addEvent(event("e"+i, "/batch/a", "{}"));
+        }
+        CompletableFuture<HttpResponse<?>> w1 = new CompletableFuture<>();
+        store.workerQueue(new Worker("w1", "/batch/", 30, 3, w1));
+        Assertions.assertEquals(3, items(w1).size());
+        Assertions.assertEquals(3, store.workerGroup("/batch/").inFlight.get());
+
+        QueueController controller = new QueueController(store, new AppConfig());
+        int n = controller.workerResponses(request(), List.of(
+                new QueueResponseItem("e1", 200, Map.of("Content-Type", "application/json", "x-internal", "drop"), "{\"ok\":1}", null),
+                new QueueResponseItem("e2", 500, null, null, Base64.getEncoder().encodeToString("err".getBytes(StandardCharsets.UTF_8)))));
+        Assertions.assertEquals(2, n);
+        Assertions.assertEquals("200 {\"ok\":1}", responses.get("e1"));
+        Assertions.assertEquals("500 err", responses.get("e2"));
+        Assertions.assertNull(responses.get("e3"));
+        Assertions.assertEquals(1, store.eventsCount());
+        Assertions.assertEquals(1, store.workerGroup("/batch/").inFlight.get());
+    }
+
+    @Test
+    public void testLimits() throws IOException {
+        QueueStore store = store("/lim/=2:1", 0, 0, "");
+        CompletableFuture<HttpResponse<?>> w1 = new CompletableFuture<>();
+        store.workerQueue(new Worker("w1", "/lim/", 30, w1));
+        WorkerGroup wg = store.workerGroup("/lim/");
+        Assertions.assertEquals(2, wg.maxPending);
+        Assertions.assertEquals(1, wg.maxInFlight);
+
+        store.addEvent(event("e1", "/lim/a", "{}"));
+        Assertions.assertTrue(w1.isDone());
+        Assertions.assertEquals(0, store.admit("/lim/a"));
+        store.addEvent(event("e2", "/lim/a", "{}"));
+        store.addEvent(event("e3", "/lim/a", "{}"));
+        Assertions.assertEquals(1, wg.inFlight.get());
+        Assertions.assertEquals(2, wg.events.size());
+
+        //plna fronta, klient dostane Retry-After
+        int retryAfter = store.admit("/lim/a");
+        Assertions.assertTrue(retryAfter>=1 && retryAfter<=60);
+        Assertions.assertEquals(1, wg.rejected.get());
+        Assertions.assertEquals(0, store.admit("/other/a"));
+
+        //in-flight slot je obsadeny, worker caka
+        CompletableFuture<HttpResponse<?>> w2 = new CompletableFuture<>();
+        store.workerQueue(new Worker("w2", "/lim/", 30, w2));
+        Assertions.assertFalse(w2.isDone());
+
+        store.response("e1", 200, new HashMap<>(), "ok".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertTrue(w2.isDone());
+        Assertions.assertEquals("e2", header(w2));
+        Assertions.assertEquals(1, wg.inFlight.get());
+        Assertions.assertEquals(1, wg.events.size());
+        Assertions.assertEquals(0, store.admit("/lim/a"));
+    }
+
+    @Test
+    public void testNoLeaseByDefault() throws IOException {
+        //defaulty app.queueLease=0, app.queueMaxAttempts=3
+        QueueStore store = store("", 0, 3, "");
+        CompletableFuture<HttpResponse<?>> w1 = new CompletableFuture<>();
+        store.workerQueue(new Worker("w1", "/slow/", 30, w1));
+        store.addEvent(event("e1", "/slow/a", "{}"));
+        Assertions.assertEquals("e1", header(w1));
+        WorkerGroup wg = store.workerGroup("/slow/");
+        Assertions.assertEquals(0L, wg.leaseTimeout);
+
+        //pomaly worker, vsetky timeouty vyprsia
+        timer.runAll();
+        CompletableFuture<HttpResponse<?>> w2 = new CompletableFuture<>();
+        store.workerQueue(new Worker("w2", "/slow/", 30, w2));
+        Assertions.assertFalse(w2.isDone());
+        Assertions.assertEquals(0, wg.redelivered.get());
+        Assertions.assertEquals(1, wg.inFlight.get());
+
+        store.response("e1", 200, new HashMap<>(), "ok".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals("200 ok", responses.get("e1"));
+        Assertions.assertEquals(0, wg.leaseFailed.get());
+        Assertions.assertFalse(w2.isDone());
+    }
+
+    @Test
+    public void testLeaseRedelivery() throws IOException {
+        QueueStore store = store("", 0, 3, "/ocr/=60:2");
+        CompletableFuture<HttpResponse<?>> w1 = new CompletableFuture<>();
+        store.workerQueue(new Worker("w1", "/ocr/", 30, w1));
+        store.addEvent(event("e1", "/ocr/a", "{}"));
+        Assertions.assertEquals("e1", header(w1));
+        WorkerGroup wg = store.workerGroup("/ocr/");
+        Assertions.assertEquals(60_000L, wg.leaseTimeout);
+        Assertions.assertEquals(2, wg.maxAttempts);
+
+        timer.fire(60_000L);
+        Assertions.assertEquals(1, wg.redelivered.get());
+        Assertions.assertEquals(0, wg.inFlight.get());
+        Assertions.assertEquals(1, wg.events.size());
+
+        CompletableFuture<HttpResponse<?>> w2 = new CompletableFuture<>();
+        store.workerQueue(new Worker("w2", "/ocr/", 30, w2));
+        Assertions.assertEquals("e1", header(w2));
+        Assertions.assertEquals("2", w2.join().getHeaders().get(HeaderConverter.H_ATTEMPT));
+
+        //druhy lease je posledny pokus
+        timer.fire(60_000L);
+        Assertions.assertEquals(1, wg.redelivered.get());
+        Assertions.assertEquals(1, wg.leaseFailed.get());
+        Assertions.assertEquals("504 worker did not respond, attempts 2", responses.get("e1"));
+        Assertions.assertEquals(0, store.eventsCount());
+        Assertions.assertEquals(0, wg.inFlight.get());
+
+        //neskora odpoved workera sa zahodi
+        store.response("e1", 200, new HashMap<>(), "late".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals("504 worker did not respond, attempts 2", responses.get("e1"));
+    }
+
+    @Test
+    public void testLeaseAfterResponse() throws IOException {
+        QueueStore store = store("", 60, 3, "");
+        CompletableFuture<HttpResponse<?>> w1 = new CompletableFuture<>();
+        store.workerQueue(new Worker("w1", "/ocr/", 30, w1));
+        store.addEvent(event("e1", "/ocr/a", "{}"));
+        store.response("e1", 200, new HashMap<>(), "ok".getBytes(StandardCharsets.UTF_8));
+        WorkerGroup wg = store.workerGroup("/ocr/");
+
+        timer.fire(60_000L);
+        Assertions.assertEquals(0, wg.redelivered.get());
+        Assertions.assertEquals(0, wg.inFlight.get());
+        Assertions.assertEquals("200 ok", responses.get("e1"));
+    }
+
+    @Test
+    public void testFlowTaskBody() throws IOException {
+        QueueStore store = Mockito.mock(QueueStore.class);
+        QueueFlowBridge flowBridge = new QueueFlowBridge(store, new ObjectMapper());
+        //params vo viacerych chunkoch idu do eventu bez kopie do jedneho pola
+        String json = "{\"a\":\""+"x".repeat(20_000)+"\"}";
+        ChunkedBuffer data = new ChunkedBuffer();
+        data.write(json.getBytes(StandardCharsets.UTF_8));
+        FlowTaskEntity task = new FlowTaskEntity("t1", "case1", "step1", "ocr", 0);
+        Assertions.assertTrue(flowBridge.sendQueueEvent(task, "POST", "/queue/ocr/a", null, data, Mockito.mock(IFlowExecutor.IFlowBack.class)));
+
+        ArgumentCaptor<QueueEvent> event = ArgumentCaptor.forClass(QueueEvent.class);
+        Mockito.verify(store).addEvent(event.capture());
+        Assertions.assertEquals("/ocr/a", event.getValue().getPath());
+        Assertions.assertEquals(json.length(), event.getValue().bodyLength());
+        Assertions.assertEquals(json, event.getValue().bodyString());
+    }
+
+    private QueueStore store(String limits, int lease, int maxAttempts, String leases) throws IOException {
+        return new QueueStore(timer, Mockito.mock(CallbackRunner.class), "", 0, 600, 30, 0, 0, limits, lease, maxAttempts, leases, null);
+    }
+
+    private QueueEvent event(String id, String path, String body) {
+        QueueEvent event = new QueueEvent();
+        event.setId(id);
+        event.setMethod("POST");
+        event.setPath(path);
+        event.getHeaders().put(HeaderConverter.H_ID, id);
+        if(body!=null) event.setBody(body.getBytes(StandardCharsets.UTF_8));
+        event.setHandleResponse(r->responses.put(id, r.status()+" "+r.body().toString(StandardCharsets.UTF_8)));
+        return event;
+    }
+
+    private static String header(CompletableFuture<HttpResponse<?>> w) {
+        return w.join().getHeaders().get(HeaderConverter.H_ID);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> items(CompletableFuture<HttpResponse<?>> w) {
+        Assertions.assertTrue(w.isDone());
+        return (List<Map<String, Object>>) w.join().body();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HttpRequest<?> request() {
+        HttpRequest<?> request = Mockito.mock(HttpRequest.class);
+        HttpHeaders headers = Mockito.mock(HttpHeaders.class);
+        Mockito.when(request.getHeaders()).thenReturn(headers);
+        Mockito.when(headers.getFirst("X-Api-Key")).thenReturn(Optional.empty());
+        return request;
+    }
+}
@@ -0,0 +1,121 @@
+package eu.aston;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import eu.aston.flow.ognl.FlowScript;
+import eu.aston.flow.ognl.StepContext;
+import eu.aston.flow.ognl.TaskResponseException;
+import eu.aston.flow.ognl.WaitingException;
+import eu.aston.flow.store.FlowTaskEntity;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class StepContextTest {
+
+    @Test
+    public void testUpdate() {
+        FlowTaskEntity t1 = task("t1", "step1", "worker1", 0, true);
+        FlowTaskEntity t2 = task("t2", "step1", "worker2", 0, true);
+        finish(t2, "r2");
+        FlowTaskEntity t3 = task("t3", "step1", "worker3", 0, false);
+        List<FlowTaskEntity> tasks = new ArrayList<>(List.of(t1, t2, t3));
+        StepContext context = new StepContext(tasks, Set.of());
+        Assertions.assertTrue(context.isFor(tasks));
+        Assertions.assertFalse(context.isFor(new ArrayList<>(tasks)));
+
+        Map<String, Map<Integer, List<FlowTaskEntity>>> open = context.update();
+        Assertions.assertEquals(Map.of("step1", Map.of(0, List.of(t3))), open);
+        FlowScript.LazyMap step1 = context.steps().get("step1");
+        Assertions.assertTrue(step1.isWaiting("worker1"));
+        Assertions.assertEquals("r2", step1.get("worker2"));
+        Assertions.assertEquals(2, context.waitingCount());
+
+        //t3 sa v ticku nevytvoril, case ho po ticku vyhodi
+        context.afterTick();
+        tasks.remove(t3);
+        Assertions.assertEquals(1, context.waitingCount());
+        Assertions.assertTrue(context.isFor(tasks));
+
+        finish(t1, "r1");
+        context.finished(t1);
+        Assertions.assertEquals(Map.of(), context.update());
+        Assertions.assertEquals("r1", step1.get("worker1"));
+        Assertions.assertEquals(0, context.waitingCount());
+    }
+
+    @Test
+    public void testOnlyPushedTasks() {
+        FlowTaskEntity t1 = task("t1", "step1", "worker1", 0, true);
+        FlowTaskEntity t2 = task("t2", "step1", "worker2", 0, true);
+        List<FlowTaskEntity> tasks = new ArrayList<>(List.of(t1, t2));
+        StepContext context = new StepContext(tasks, Set.of());
+        context.update();
+        context.afterTick();
+
+        //tick nezistuje stav vsetkych cakajucich taskov, len oznamene
+        finish(t1, "r1");
+        finish(t2, "r2");
+        context.finished(t2);
+        //task inej instancie case sa ignoruje
+        FlowTaskEntity other = task("t1", "step1", "worker1", 0, true);
+        finish(other, "x");
+        context.finished(other);
+        context.update();
+        FlowScript.LazyMap step1 = context.steps().get("step1");
+        Assertions.assertTrue(step1.isWaiting("worker1"));
+        Assertions.assertEquals("r2", step1.get("worker2"));
+        Assertions.assertEquals(1, context.waitingCount());
+    }
+
+    @Test
+    public void testIterableAndNewTasks() {
+        FlowTaskEntity t0 = task("t0", "items", "worker1", 0, true);
+        FlowTaskEntity t1 = task("t1", "items", "worker1", 1, true);
+        List<FlowTaskEntity> tasks = new ArrayList<>(List.of(t0, t1));
+        StepContext context = new StepContext(tasks, Set.of("items"));
+        context.update();
+        context.afterTick();
+
+        finish(t1, "r1");
+        context.finished(t1);
+        FlowTaskEntity t2 = task("t2", "items", "worker1", 2, false);
+        tasks.add(t2);
+        Assertions.assertEquals(Map.of("items", Map.of(2, List.of(t2))), context.update());
+        List<?> list = (List<?>) context.steps().get("items").get("worker1");
+        Assertions.assertInstanceOf(WaitingException.class, list.get(0));
+        Assertions.assertEquals("r1", list.get(1));
+        Assertions.assertInstanceOf(WaitingException.class, list.get(2));
+
+        t2.setCreated(Instant.now());
+        context.afterTick();
+        t2.setError("fail");
+        finish(t2, null);
+        context.finished(t2);
+        context.update();
+        Assertions.assertInstanceOf(TaskResponseException.class, list.get(2));
+        Assertions.assertEquals(1, context.waitingCount());
+    }
+
+    private static FlowTaskEntity task(String id, String step, String worker, int stepIndex, boolean created) {
+        FlowTaskEntity task = new FlowTaskEntity();
+        task.setId(id);
+        task.setFlowCaseId("case1");
+        task.setStep(step);
+        task.setWorker(worker);
+        task.setStepIndex(stepIndex);
+        if(created) task.setCreated(Instant.now());
+        return task;
+    }
+
+    private static void finish(FlowTaskEntity task, Object response) {
+        synchronized (task){
+            task.setResponse(response);
+            task.setResponseCode(task.getError()!=null ? 500 : 200);
+            task.setFinished(Instant.now());
+        }
+    }
+}
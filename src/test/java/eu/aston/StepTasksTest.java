@@ -0,0 +1,106 @@
+package eu.aston;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.aston.flow.StepTasks;
+import eu.aston.flow.def.FlowGraph;
+import eu.aston.flow.model.FlowTask;
+import eu.aston.flow.store.FlowTaskEntity;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class StepTasksTest {
+
+    private static final String FLOW = """
+            code: window
+            steps:
+              - code: items
+                itemsExpr: case.params.items
+                maxConcurrency: 4
+                batchSize: 2
+                workers:
+                  - code: ocr
+                    path: echo
+                  - code: check
+                    path: echo
+            """;
+
+    @Test
+    public void testScan() throws Exception {
+        FlowGraph graph = graph();
+        List<FlowTaskEntity> tasks = new ArrayList<>();
+        tasks.add(task(FlowTask.STEP_ITERATOR, -1, true));
+        tasks.add(task("ocr", 0, true));
+        tasks.add(task("check", 0, false));
+        tasks.add(task("ocr", 1, true));
+        StepTasks stepTasks = StepTasks.scan(graph, 0, tasks);
+        Assertions.assertNotNull(stepTasks.iterator());
+        Assertions.assertTrue(stepTasks.notFinished());
+        Assertions.assertTrue(stepTasks.started(0));
+        Assertions.assertTrue(stepTasks.started(1));
+        Assertions.assertFalse(stepTasks.started(2));
+        //check polozky 1 este neexistuje
+        Assertions.assertFalse(stepTasks.exists(graph.workerOrdinal(0, "check"), 1));
+        Assertions.assertFalse(stepTasks.done(0));
+        Assertions.assertFalse(stepTasks.done(1));
+    }
+
+    @Test
+    public void testMaxConcurrency() throws Exception {
+        FlowGraph graph = graph();
+        List<FlowTaskEntity> tasks = new ArrayList<>();
+        StepTasks stepTasks = StepTasks.scan(graph, 0, tasks);
+        Assertions.assertArrayEquals(new int[]{0, 1, 2, 3}, stepTasks.itemsToOpen(10, 4, 2));
+        Assertions.assertEquals(10, stepTasks.waitingItems(10));
+
+        //bez limitu sa otvoria vsetky polozky
+        Assertions.assertArrayEquals(new int[]{0, 1, 2}, stepTasks.itemsToOpen(3, null, null));
+        Assertions.assertEquals(0, stepTasks.itemsToOpen(-1, 4, 2).length);
+    }
+
+    @Test
+    public void testBatchSize() throws Exception {
+        FlowGraph graph = graph();
+        List<FlowTaskEntity> tasks = new ArrayList<>();
+        for(int i=0; i<4; i++){
+            tasks.addAll(item(graph, i, i==0));
+        }
+        //uvolnilo sa jedno miesto, cakam na batchSize 2
+        StepTasks stepTasks = StepTasks.scan(graph, 0, tasks);
+        Assertions.assertEquals(3, stepTasks.inFlight(10));
+        Assertions.assertEquals(6, stepTasks.waitingItems(10));
+        Assertions.assertEquals(0, stepTasks.itemsToOpen(10, 4, 2).length);
+        Assertions.assertArrayEquals(new int[]{4}, stepTasks.itemsToOpen(10, 4, 1));
+
+        //dve volne miesta, otvoria sa dalsie dve polozky
+        tasks.clear();
+        for(int i=0; i<4; i++){
+            tasks.addAll(item(graph, i, i<2));
+        }
+        stepTasks = StepTasks.scan(graph, 0, tasks);
+        Assertions.assertArrayEquals(new int[]{4, 5}, stepTasks.itemsToOpen(10, 4, 2));
+
+        //posledna polozka sa otvori aj ked je mensia ako batchSize
+        Assertions.assertArrayEquals(new int[]{4}, stepTasks.itemsToOpen(5, 4, 2));
+    }
+
+    private static FlowGraph graph() throws Exception {
+        return FlowGraphTest.flowDefStore(FLOW).flowDef("window").orElseThrow().getGraph();
+    }
+
+    private static List<FlowTaskEntity> item(FlowGraph graph, int stepIndex, boolean finished) {
+        List<FlowTaskEntity> tasks = new ArrayList<>();
+        for(int w=0; w<graph.workerCount(0); w++){
+            tasks.add(task(graph.step(0).getWorkers().get(w).getCode(), stepIndex, finished));
+        }
+        return tasks;
+    }
+
+    private static FlowTaskEntity task(String worker, int stepIndex, boolean finished) {
+        FlowTaskEntity task = new FlowTaskEntity(worker+stepIndex, "case1", "items", worker, stepIndex);
+        if(finished) task.setFinished(Instant.now());
+        return task;
+    }
+}
@@ -0,0 +1,141 @@
+package eu.aston;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.aston.flow.store.FlowTaskBatchStore;
+import eu.aston.flow.store.FlowTaskEntity;
+import eu.aston.utils.ID;
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ * rows/sec of task lifecycle writes (insert + finishOk per task), single autocommit
+ * statements vs FlowTaskBatchStore, against H2 in postgres mode.
+ */
+public class TaskBatchBenchmark {
+
+    private static final int TASKS = 20_000;
+    private static final int THREADS = 16;
+
+    public static void main(String[] args) throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:flow;MODE=PostgreSQL;DB_CLOSE_DELAY=-1");
+        try(Connection c = dataSource.getConnection(); Statement st = c.createStatement()){
+            st.execute("""
+                    create table flow_task (
+                        id varchar(32) not null primary key,
+                        flowCaseId  varchar(32) not null,
+                        step varchar(64) not null,
+                        worker varchar(64) not null,
+                        stepIndex int,
+                        responseCode int,
+                        response text,
+                        error text,
+                        timeout int,
+                        created timestamp not null,
+                        started timestamp,
+                        finished timestamp,
+                        queueSent timestamp
+                    )""");
+        }
+        ObjectMapper objectMapper = new ObjectMapper();
+
+        for(int round=0; round<3; round++){
+            clean(dataSource);
+            long t1 = System.nanoTime();
+            runParallel(tasks(), task->{
+                try(Connection c = dataSource.getConnection()){
+                    try(PreparedStatement ps = c.prepareStatement("insert into flow_task (id, flowCaseId, step, worker, stepIndex, timeout, created) values (?,?,?,?,?,?,?)")){
+                        ps.setString(1, task.getId());
+                        ps.setString(2, task.getFlowCaseId());
+                        ps.setString(3, task.getStep());
+                        ps.setString(4, task.getWorker());
+                        ps.setInt(5, task.getStepIndex());
+                        ps.setInt(6, task.getTimeout());
+                        ps.setTimestamp(7, Timestamp.from(task.getCreated()));
+                        ps.executeUpdate();
+                    }
+                    try(PreparedStatement ps = c.prepareStatement("update flow_task set finished=current_timestamp, responseCode=?, response=?, error=null where id=?")){
+                        ps.setInt(1, 200);
+                        ps.setString(2, objectMapper.writeValueAsString(Map.of("a", task.getStepIndex())));
+                        ps.setString(3, task.getId());
+                        ps.executeUpdate();
+                    }
+                }
+            });
+            long t2 = System.nanoTime();
+            print("single", t2-t1);
+
+            clean(dataSource);
+            FlowTaskBatchStore batchStore = new FlowTaskBatchStore(null, dataSource, objectMapper, 3, 200);
+            long t3 = System.nanoTime();
+            runParallel(tasks(), task->{
+                batchStore.insert(task);
+                batchStore.finishOk(task.getFlowCaseId(), task.getId(), 200, Map.of("a", task.getStepIndex()));
+            });
+            batchStore.flush();
+            long t4 = System.nanoTime();
+            print("batch ", t4-t3);
+            System.out.println("  batches "+batchStore.getBatchCounter()+", rows "+batchStore.getRowsCounter()+", db rows "+count(dataSource));
+        }
+        System.exit(0);
+    }
+
+    private static List<FlowTaskEntity> tasks() {
+        String caseId = ID.newId();
+        List<FlowTaskEntity> tasks = new ArrayList<>(TASKS);
+        for(int i=0; i<TASKS; i++){
+            FlowTaskEntity task = new FlowTaskEntity(ID.newId(), caseId, "list", "w41", i);
+            task.setTimeout(120);
+            task.setCreated(Instant.now());
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    private static void runParallel(List<FlowTaskEntity> tasks, TaskWriter writer) throws Exception {
+        try(ExecutorService executor = Executors.newFixedThreadPool(THREADS)){
+            for(FlowTaskEntity task : tasks){
+                executor.execute(()->{
+                    try{
+                        writer.write(task);
+                    }catch (Exception e){
+                        throw new RuntimeException(e);
+                    }
+                });
+            }
+        }
+    }
+
+    private static void print(String name, long nanos) {
+        double sec = nanos/1e9;
+        System.out.printf("%s %6d ms, %10.0f rows/sec%n", name, nanos/1_000_000, (TASKS*2)/sec);
+    }
+
+    private static void clean(JdbcDataSource dataSource) throws Exception {
+        try(Connection c = dataSource.getConnection(); Statement st = c.createStatement()){
+            st.execute("delete from flow_task");
+        }
+    }
+
+    private static long count(JdbcDataSource dataSource) throws Exception {
+        try(Connection c = dataSource.getConnection(); Statement st = c.createStatement()){
+            var rs = st.executeQuery("select count(*) from flow_task where finished is not null");
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private interface TaskWriter {
+        void write(FlowTaskEntity task) throws Exception;
+    }
+}
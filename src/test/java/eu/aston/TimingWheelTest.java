@@ -0,0 +1,88 @@
+package eu.aston;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.aston.utils.TimingWheel;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TimingWheelTest {
+
+    //wheel bez threadu, cas posuva test
+    private final AtomicLong clock = new AtomicLong(1_000_000L);
+    private final TimingWheel wheel = new TimingWheel("test-wheel", 10L, clock::get, false);
+    private final List<String> fired = new ArrayList<>();
+
+    @Test
+    public void testFire() {
+        wheel.schedule(400, ()->fired.add("c"));
+        wheel.schedule(10, ()->fired.add("a"));
+        wheel.schedule(50, ()->fired.add("b"));
+        Assertions.assertEquals(3, wheel.pending());
+
+        advance(9);
+        Assertions.assertEquals(List.of(), fired);
+        advance(1);
+        Assertions.assertEquals(List.of("a"), fired);
+        advance(39);
+        Assertions.assertEquals(List.of("a"), fired);
+        advance(1);
+        Assertions.assertEquals(List.of("a", "b"), fired);
+        advance(349);
+        Assertions.assertEquals(List.of("a", "b"), fired);
+        advance(1);
+        Assertions.assertEquals(List.of("a", "b", "c"), fired);
+        Assertions.assertEquals(0, wheel.pending());
+        Assertions.assertEquals(3, wheel.getFireLag().count());
+    }
+
+    @Test
+    public void testOneStep() {
+        //velky skok casu, poradie podla deadline
+        wheel.schedule(50, ()->fired.add("b"));
+        wheel.schedule(10, ()->fired.add("a"));
+        wheel.schedule(400, ()->fired.add("c"));
+        wheel.schedule(500, ()->fired.add("d"));
+        clock.addAndGet(450);
+        Assertions.assertEquals(3, wheel.tick());
+        Assertions.assertEquals(List.of("a", "b", "c"), fired);
+        Assertions.assertEquals(1, wheel.pending());
+    }
+
+    @Test
+    public void testCascade() {
+        //640 ms je druha uroven, 40960 ms tretia
+        wheel.schedule(41_000, ()->fired.add("c"));
+        wheel.schedule(700, ()->fired.add("b"));
+        wheel.schedule(20, ()->fired.add("a"));
+        for(int i=0; i<699; i++) advance(1);
+        Assertions.assertEquals(List.of("a"), fired);
+        advance(1);
+        Assertions.assertEquals(List.of("a", "b"), fired);
+        for(int i=0; i<4029; i++) advance(10);
+        Assertions.assertEquals(List.of("a", "b"), fired);
+        advance(10);
+        Assertions.assertEquals(List.of("a", "b", "c"), fired);
+        Assertions.assertEquals(0, wheel.pending());
+    }
+
+    @Test
+    public void testCancel() {
+        TimingWheel.Timeout t1 = wheel.schedule(30, ()->fired.add("a"));
+        TimingWheel.Timeout t2 = wheel.schedule(20, ()->fired.add("b"));
+        Assertions.assertTrue(t1.cancel());
+        Assertions.assertFalse(t1.cancel());
+        Assertions.assertEquals(1, wheel.pending());
+        advance(200);
+        Assertions.assertEquals(List.of("b"), fired);
+        Assertions.assertFalse(t2.cancel());
+        Assertions.assertEquals(0, wheel.pending());
+    }
+
+    private void advance(long ms) {
+        clock.addAndGet(ms);
+        wheel.tick();
+    }
+}
@@ -0,0 +1,115 @@
+package eu.aston;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.aston.flow.FlowDefStore;
+import eu.aston.flow.IFlowExecutor;
+import eu.aston.flow.QueueFlowBridge;
+import eu.aston.flow.def.FlowDef;
+import eu.aston.flow.model.CaseState;
+import eu.aston.flow.ognl.YamlOgnlFlowExecutor;
+import eu.aston.flow.store.FlowCaseEntity;
+import eu.aston.flow.store.FlowTaskEntity;
+import eu.aston.utils.ID;
+
+/**
+ * tick of a step with one unfinished input worker and 10 - 200 workers reading it. Input read by #root.input.a
+ * (dependency not known at load, every tick evaluates params up to WaitingException) vs input.a (dependency
+ * from the flow graph, worker is skipped before evaluation).
+ */
+public class WaitingInputBenchmark {
+
+    private static final int TICKS = 2_000;
+
+    public static void main(String[] args) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        QueueFlowBridge flowBridge = new QueueFlowBridge(null, objectMapper);
+        AppConfig appConfig = new AppConfig();
+        appConfig.setTaskApiKeySecret("secret");
+        appConfig.setAppHost("http://localhost:8080");
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+
+        for(int round=0; round<2; round++){
+            for(int n : new int[]{10, 50, 200}){
+                for(boolean dynamic : new boolean[]{true, false}){
+                    FlowDefStore flowDefStore = flowDefStore(objectMapper, n, dynamic ? "#root.input.a" : "input.a");
+                    FlowDef flowDef = flowDefStore.flowDef("bench").orElseThrow();
+                    YamlOgnlFlowExecutor executor = new YamlOgnlFlowExecutor(flowDefStore, flowBridge, appConfig, objectMapper, null);
+                    FlowCaseEntity flowCase = flowCase();
+                    List<FlowTaskEntity> tasks = new ArrayList<>();
+                    FlowTaskEntity input = new FlowTaskEntity(ID.newId(), flowCase.getId(), "items", "input", 0);
+                    input.setCreated(Instant.now());
+                    tasks.add(input);
+                    int[] sent = new int[1];
+                    IFlowExecutor.IFlowBack flowBack = flowBack(sent);
+                    long a1 = threadBean.getThreadAllocatedBytes(threadId);
+                    long t1 = System.nanoTime();
+                    for(int i=0; i<TICKS; i++){
+                        for(int w=0; w<n; w++){
+                            tasks.add(new FlowTaskEntity(ID.newId(), flowCase.getId(), "items", "w"+w, 0));
+                        }
+                        executor.execTick(flowDef, flowCase, tasks, "items", flowBack);
+                        tasks.removeIf(t->t.getCreated()==null);
+                    }
+                    long t2 = System.nanoTime();
+                    long a2 = threadBean.getThreadAllocatedBytes(threadId);
+                    System.out.printf("workers %3d %-8s %,10d ns/tick %,10d B/tick sent %d%n", n, dynamic ? "#root" : "graph",
+                                      (t2-t1)/TICKS, (a2-a1)/TICKS, sent[0]);
+                }
+            }
+        }
+    }
+
+    private static FlowDefStore flowDefStore(ObjectMapper objectMapper, int workers, String expr) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("code: bench\nsteps:\n  - code: items\n    workers:\n");
+        sb.append("      - code: input\n        path: echo\n");
+        for(int w=0; w<workers; w++){
+            sb.append("      - code: w").append(w).append("\n        path: echo\n        params:\n");
+            sb.append("          $a: \"").append(expr).append("\"\n          $b: case.params.b\n");
+        }
+        Path dir = Files.createTempDirectory("bench");
+        Files.writeString(dir.resolve("bench.flow.yaml"), sb.toString());
+        FlowDefStore flowDefStore = new FlowDefStore(null, objectMapper, null);
+        flowDefStore.loadRoot(dir.toFile(), true);
+        return flowDefStore;
+    }
+
+    private static FlowCaseEntity flowCase() {
+        FlowCaseEntity flowCase = new FlowCaseEntity();
+        flowCase.setId(ID.newId());
+        flowCase.setCaseType("bench");
+        flowCase.setState(CaseState.WORKING);
+        flowCase.setStep("items");
+        flowCase.setParams(new HashMap<>());
+        flowCase.getParams().put("b", 1);
+        return flowCase;
+    }
+
+    private static IFlowExecutor.IFlowBack flowBack(int[] sent) {
+        return new IFlowExecutor.IFlowBack() {
+            @Override
+            public void sentTask(FlowTaskEntity task) {
+                if(task.getCreated()==null){
+                    task.setCreated(Instant.now());
+                    sent[0]++;
+                }
+            }
+
+            @Override
+            public void finishTask(FlowTaskEntity task, int statusCode, Object response) {
+                task.setResponseCode(statusCode);
+                task.setResponse(response);
+                task.setFinished(Instant.now());
+            }
+        };
+    }
+}
@@ -0,0 +1,97 @@
+package eu.aston;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import eu.aston.queue.WaitingWorkers;
+import eu.aston.queue.Worker;
+import io.micronaut.http.HttpResponse;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class WaitingWorkersTest {
+
+    private final WaitingWorkers workers = new WaitingWorkers();
+
+    @Test
+    public void testHandoff() {
+        Worker w1 = worker("w1");
+        Worker w2 = worker("w2");
+        Worker w3 = worker("w3");
+        workers.push(w1);
+        workers.push(w2);
+        workers.push(w3);
+        Assertions.assertEquals(3, workers.size());
+
+        //posledny worker ma teple spojenie
+        WaitingWorkers.Handoff h = workers.poll();
+        Assertions.assertSame(w3, h.worker());
+        Assertions.assertNotNull(h.response());
+        Assertions.assertFalse(w3.hasResponse());
+
+        //timeoutnuty worker sa preskoci
+        w2.removeResponse();
+        workers.stale();
+        Assertions.assertEquals(1, workers.size());
+        Assertions.assertSame(w1, workers.poll().worker());
+        Assertions.assertNull(workers.poll());
+        Assertions.assertTrue(workers.isEmpty());
+    }
+
+    @Test
+    public void testHandoffOnce() {
+        Worker w1 = worker("w1");
+        workers.push(w1);
+        //worker pushnuty dvakrat (restoreResponse) dostane len jeden event
+        workers.push(w1);
+        Assertions.assertSame(w1, workers.poll().worker());
+        Assertions.assertNull(workers.poll());
+    }
+
+    @Test
+    public void testStalePurge() {
+        List<Worker> list = new ArrayList<>();
+        for(int i=0; i<64; i++){
+            Worker w = worker("w"+i);
+            list.add(w);
+            workers.push(w);
+        }
+        for(int i=0; i<63; i++){
+            list.get(i).removeResponse();
+            workers.stale();
+        }
+        //pod limitom sa zasobnik neprestavuje
+        Assertions.assertFalse(workers.isEmpty());
+        Assertions.assertEquals(1, workers.size());
+
+        list.get(63).removeResponse();
+        workers.stale();
+        Assertions.assertTrue(workers.isEmpty());
+        Assertions.assertEquals(0, workers.size());
+    }
+
+    @Test
+    public void testStalePurgeKeepsLive() {
+        List<Worker> live = new ArrayList<>();
+        for(int i=0; i<128; i++){
+            Worker w = worker("w"+i);
+            workers.push(w);
+            if(i%2==0){
+                w.removeResponse();
+                workers.stale();
+            } else {
+                live.add(w);
+            }
+        }
+        Assertions.assertEquals(64, workers.size());
+        for(int i=live.size()-1; i>=0; i--){
+            Assertions.assertSame(live.get(i), workers.poll().worker());
+        }
+        Assertions.assertTrue(workers.isEmpty());
+    }
+
+    private static Worker worker(String id) {
+        return new Worker(id, "/a/", 30, new CompletableFuture<HttpResponse<?>>());
+    }
+}
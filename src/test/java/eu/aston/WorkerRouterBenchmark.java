@@ -0,0 +1,91 @@
+package eu.aston;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import eu.aston.queue.WorkerGroup;
+import eu.aston.queue.WorkerRouter;
+
+/**
+ * worker group routing, synchronized TreeMap floorEntry vs copy-on-write WorkerRouter,
+ * concurrent readers and one writer creating new groups.
+ */
+public class WorkerRouterBenchmark {
+
+    private static final int PREFIXES = 2_000;
+    private static final int PATHS = 50_000;
+    private static final int READERS = 16;
+    private static final long DURATION_MS = 3_000;
+
+    public static void main(String[] args) throws Exception {
+        List<String> prefixes = new ArrayList<>();
+        for(int i=0; i<PREFIXES; i++) prefixes.add("/svc"+(i%50)+"/worker"+i+"/");
+        List<String> paths = new ArrayList<>();
+        for(int i=0; i<PATHS; i++) paths.add(prefixes.get(i%PREFIXES)+"task/"+(i%500));
+
+        for(int round=0; round<3; round++){
+            TreeMap<String, WorkerGroup> tree = new TreeMap<>();
+            for(String p : prefixes) tree.put(p, new WorkerGroup(p));
+            run("treeMap", paths, path->{
+                synchronized (tree){
+                    Map.Entry<String, WorkerGroup> e = tree.floorEntry(path);
+                    return e!=null && path.startsWith(e.getKey()) ? e.getValue() : null;
+                }
+            }, prefix->{
+                synchronized (tree){
+                    tree.computeIfAbsent(prefix, WorkerGroup::new);
+                }
+            });
+
+            WorkerRouter router = new WorkerRouter();
+            for(String p : prefixes) router.getOrCreate(p, null);
+            run("router ", paths, router::route, prefix->router.getOrCreate(prefix, null));
+        }
+    }
+
+    private static void run(String name, List<String> paths, Function<String, WorkerGroup> route, Consumer<String> create) throws Exception {
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong ops = new AtomicLong();
+        AtomicLong sink = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(READERS+1);
+        for(int t=0; t<READERS; t++){
+            Thread.ofPlatform().start(()->{
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                long n = 0;
+                long s = 0;
+                while(!stop.get()){
+                    for(int i=0; i<1000; i++){
+                        WorkerGroup g = route.apply(paths.get(r.nextInt(paths.size())));
+                        if(g!=null) s += g.prefix.length();
+                    }
+                    n += 1000;
+                }
+                ops.addAndGet(n);
+                sink.addAndGet(s);
+                done.countDown();
+            });
+        }
+        Thread.ofPlatform().start(()->{
+            int i = 0;
+            while(!stop.get()){
+                create.accept("/new/"+name.trim()+"/"+(i++)+"/");
+                try{
+                    Thread.sleep(1);
+                }catch (InterruptedException ignore){}
+            }
+            done.countDown();
+        });
+        Thread.sleep(DURATION_MS);
+        stop.set(true);
+        done.await();
+        System.out.printf("%s %,d routes/s (sink %d)%n", name, ops.get()*1000/DURATION_MS, sink.get()%10);
+    }
+}
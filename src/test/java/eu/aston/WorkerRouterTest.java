@@ -0,0 +1,51 @@
+package eu.aston;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.aston.queue.WorkerGroup;
+import eu.aston.queue.WorkerRouter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class WorkerRouterTest {
+
+    @Test
+    public void testLongestPrefix() {
+        WorkerRouter router = new WorkerRouter();
+        WorkerGroup a = router.getOrCreate("/a/", null);
+        WorkerGroup ab = router.getOrCreate("/a/b/", null);
+        router.getOrCreate("/c/", null);
+
+        Assertions.assertSame(a, router.route("/a/x"));
+        Assertions.assertSame(ab, router.route("/a/b/x"));
+        Assertions.assertSame(ab, router.route("/a/b/"));
+        Assertions.assertSame(a, router.route("/a/bx"));
+        Assertions.assertNull(router.route("/b/x"));
+        Assertions.assertNull(router.route("/a"));
+        Assertions.assertEquals(3, router.size());
+    }
+
+    @Test
+    public void testNewGroupAfterRoute() {
+        WorkerRouter router = new WorkerRouter();
+        WorkerGroup a = router.getOrCreate("/a/", null);
+        //cesta je v cache snapshotu, nova skupina musi byt videt
+        Assertions.assertSame(a, router.route("/a/b/x"));
+        WorkerGroup ab = router.getOrCreate("/a/b/", null);
+        Assertions.assertSame(ab, router.route("/a/b/x"));
+        Assertions.assertSame(a, router.route("/a/x"));
+    }
+
+    @Test
+    public void testGetOrCreate() {
+        List<String> created = new ArrayList<>();
+        WorkerRouter router = new WorkerRouter();
+        WorkerGroup g1 = router.getOrCreate("/a/", g->created.add(g.prefix));
+        WorkerGroup g2 = router.getOrCreate("/a/", g->created.add(g.prefix));
+        Assertions.assertSame(g1, g2);
+        Assertions.assertSame(g1, router.get("/a/"));
+        Assertions.assertEquals(List.of("/a/"), created);
+        Assertions.assertEquals("/a/", g1.prefix);
+    }
+}
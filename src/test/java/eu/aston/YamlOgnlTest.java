@@ -93,7 +93,7 @@ public class YamlOgnlTest {
         Mockito.when(response.body()).thenReturn("{\"a\":\"a\"}".getBytes(StandardCharsets.UTF_8));
         CompletableFuture<HttpResponse<Object>> future = new CompletableFuture<>();
         future.complete(response);
-        Mockito.when(callbackRunner.callAsync(Mockito.any(),Mockito.any(),Mockito.any(),Mockito.any(),Mockito.any())).thenReturn(future);
+        Mockito.when(callbackRunner.callAsync(Mockito.any(),Mockito.any(),Mockito.any(),Mockito.any(),Mockito.any(),Mockito.any())).thenReturn(future);
         YamlOgnlFlowExecutor yamlOgnlFlowExecutor = new YamlOgnlFlowExecutor(flowDefStore, null, appConfig, objectMapper, callbackRunner);
 
         FlowDef flow1 = flowDefStore.flowDef("echo_flow")
@@ -129,7 +129,7 @@ public class YamlOgnlTest {
         Mockito.when(response.body()).thenReturn("error400".getBytes(StandardCharsets.UTF_8));
         CompletableFuture<HttpResponse<Object>> future = new CompletableFuture<>();
         future.complete(response);
-        Mockito.when(callbackRunner.callAsync(Mockito.any(),Mockito.any(),Mockito.any(),Mockito.any(),Mockito.any())).thenReturn(future);
+        Mockito.when(callbackRunner.callAsync(Mockito.any(),Mockito.any(),Mockito.any(),Mockito.any(),Mockito.any(),Mockito.any())).thenReturn(future);
         YamlOgnlFlowExecutor yamlOgnlFlowExecutor = new YamlOgnlFlowExecutor(flowDefStore, null, appConfig, objectMapper, callbackRunner);
 
         FlowDef flow1 = flowDefStore.flowDef("echo_flow")